@@ -0,0 +1,72 @@
+package logicsim;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the steady-state allocation rate of the Scheduler event path,
+ * using the 3-inverter ring oscillator from the LogicSim examples. The
+ * oscillator is run without a Probe, since text output allocates on its
+ * own account. For comparison, it then measures a Clock of the same
+ * period, which makes one event per edge rather than three.
+ *
+ * Allocation is measured with the per-thread allocation counter provided by
+ * HotSpot's com.sun.management.ThreadMXBean.
+ *
+ * @author Allan McInnes
+ */
+public class AllocationBenchmark {
+
+    private static final double WARMUP_TIME = 2.0e6;    // ns of simulated time
+    private static final double MEASURE_TIME = 2.0e7;   // ns of simulated time
+
+    /**
+     * Run the benchmark.
+     * @param args the command line arguments (unused)
+     */
+    public static void main(String[] args) {
+        SimulationContext ctx = new SimulationContext();
+        Wire osc0 = new Wire(ctx);
+        Wire osc1 = new Wire(ctx);
+        Wire osc2 = new Wire(ctx, "Osc");
+        Block ringOscillator = new Block(ctx.scheduler());
+        ringOscillator.addComponent(new Inverter(osc0, osc1));
+        ringOscillator.addComponent(new Inverter(osc1, osc2));
+        ringOscillator.addComponent(new Inverter(osc2, osc0));
+        osc0.setSignal(Signal.LOW);
+        measure("Ring oscillator", ctx);
+
+        // A clock with the same period as the ring oscillator
+        SimulationContext clock_ctx = new SimulationContext();
+        new Clock(new Wire(clock_ctx, "Clk"), 12.0);
+        measure("Clock", clock_ctx);
+    }
+
+    /**
+     * Runs a simulation, and reports its allocation rate once it has
+     * warmed up.
+     */
+    private static void measure(String label, SimulationContext ctx) {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        Scheduler sim = ctx.scheduler();
+
+        // Let the JIT compiler and the event pool settle down
+        sim.setStopTime(WARMUP_TIME);
+        sim.run();
+
+        long events = sim.eventCount();
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        sim.setStopTime(WARMUP_TIME + MEASURE_TIME);
+        sim.run();
+        long elapsed = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+        events = sim.eventCount() - events;
+
+        System.out.printf("%s: %d events in %.1f ms (%.1f Mevents/s)%n",
+                          label, events, elapsed / 1.0e6, events * 1.0e3 / elapsed);
+        System.out.printf("Allocated %d bytes, %.4f bytes/event%n",
+                          bytes, (double) bytes / events);
+    }
+}
@@ -0,0 +1,112 @@
+package logicsim;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+
+/**
+ * Compares simulating a design built from many small blocks gate by gate
+ * with simulating it after a TableCollapser has replaced the blocks with
+ * truth tables. The design is a set of ripple-carry adders, each bit of
+ * which is a full adder Block made of two HalfAdders and an OR gate, and
+ * random operands are applied to them every few tens of nanoseconds.
+ *
+ * For each, it reports the events executed, the simulation rate, and the
+ * heap in use (after a full garbage collection) by the circuit.
+ *
+ * @author Allan McInnes
+ */
+public class CollapseBenchmark {
+
+    private static final int N_ADDERS = 200;
+    private static final int N_BITS = 16;
+    private static final int N_VECTORS = 500;
+    private static final double VECTOR_TIME = 100.0;  // ns between operands
+    private static final long SEED = 1;
+
+    /**
+     * Run the benchmark.
+     * @param args the command line arguments (unused)
+     */
+    public static void main(String[] args) {
+        simulate("Gates", false);
+        simulate("Tables", true);
+    }
+
+    /**
+     * Builds the adders, optionally collapses them, and applies the
+     * operands.
+     */
+    private static void simulate(String label, boolean collapse) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heap = heapUsed(memory);
+
+        SimulationContext ctx = new SimulationContext();
+        Scheduler sim = ctx.scheduler();
+        Block top = new Block(sim);
+        Wire[][] a = new Wire[N_ADDERS][N_BITS];
+        Wire[][] b = new Wire[N_ADDERS][N_BITS];
+        for (int n = 0; n < N_ADDERS; n++) {
+            Wire carry = new Wire(ctx);
+            carry.setSignal(Signal.LOW);
+            for (int i = 0; i < N_BITS; i++) {
+                a[n][i] = new Wire(ctx);
+                b[n][i] = new Wire(ctx);
+                Wire sum = new Wire(ctx, "s" + n + "_" + i);
+                Wire carry_out = new Wire(ctx);
+                top.addComponent(fullAdder(ctx, a[n][i], b[n][i], carry, sum, carry_out));
+                carry = carry_out;
+            }
+        }
+        TableCollapser collapser = new TableCollapser();
+        if (collapse) {
+            collapser.collapse(top);
+        }
+        heap = heapUsed(memory) - heap;
+
+        Random random = new Random(SEED);
+        long start = System.nanoTime();
+        for (int v = 0; v < N_VECTORS; v++) {
+            double t = v * VECTOR_TIME + 1.0;
+            for (int n = 0; n < N_ADDERS; n++) {
+                for (int i = 0; i < N_BITS; i++) {
+                    sim.newEvent(t, a[n][i], random.nextBoolean() ? Signal.HIGH : Signal.LOW);
+                    sim.newEvent(t, b[n][i], random.nextBoolean() ? Signal.HIGH : Signal.LOW);
+                }
+            }
+            sim.setStopTime(t + VECTOR_TIME - 1.0);
+            sim.run();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%-7s %9d events, %6.1f ms, %5.1f ns/event, heap %6.1f MB, %d tables%n",
+                          label + ":", sim.eventCount(), elapsed / 1.0e6,
+                          (double) elapsed / sim.eventCount(), heap / 1.0e6,
+                          collapser.tableCount());
+    }
+
+    /**
+     * @return a full adder Block made of two half adders and an OR gate
+     */
+    private static Block fullAdder(SimulationContext ctx, Wire x, Wire y, Wire c_in,
+                                   Wire sum, Wire c_out) {
+        Wire partial = new Wire(ctx);
+        Wire carry1 = new Wire(ctx);
+        Wire carry2 = new Wire(ctx);
+        Block adder = new Block();
+        adder.addComponent(new HalfAdder(x, y, partial, carry1));
+        adder.addComponent(new HalfAdder(partial, c_in, sum, carry2));
+        adder.addComponent(new TwoInputOrGate(carry1, carry2, c_out));
+        return adder;
+    }
+
+    /**
+     * @return the heap in use after a full garbage collection
+     */
+    private static long heapUsed(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            memory.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
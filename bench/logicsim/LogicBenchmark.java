@@ -0,0 +1,154 @@
+package logicsim;
+
+import java.util.Random;
+
+/**
+ * Measures the cost of evaluating logic functions. The table lookups of
+ * Signal.and(), or() and not() are timed against the branching versions
+ * they replaced, which only handled LOW, HIGH and X, on the same random
+ * three-valued operands. To show the effect on a whole simulation, it then
+ * times a random network of two-input AND and OR gates and inverters, like
+ * the one in the MemoryBenchmark, driven by random input changes; run
+ * that part on two builds to compare them.
+ *
+ * @author Allan McInnes
+ */
+public class LogicBenchmark {
+
+    private static final int N_OPERANDS = 1 << 20;
+    private static final int ROUNDS = 20;
+    private static final int N_INPUTS = 64;
+    private static final int N_GATES = 100000;
+    private static final int N_STEPS = 2000;
+    private static final long SEED = 1;
+
+    /**
+     * Run the benchmark.
+     * @param args the command line arguments (unused)
+     */
+    public static void main(String[] args) {
+        Random random = new Random(SEED);
+        Signal[] three = { Signal.LOW, Signal.HIGH, Signal.X };
+        Signal[] a = new Signal[N_OPERANDS];
+        Signal[] b = new Signal[N_OPERANDS];
+        for (int i = 0; i < N_OPERANDS; i++) {
+            a[i] = three[random.nextInt(3)];
+            b[i] = three[random.nextInt(3)];
+        }
+
+        long best_branch = Long.MAX_VALUE;
+        long best_table = Long.MAX_VALUE;
+        int check = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            long start = System.nanoTime();
+            check += branching(a, b);
+            best_branch = Math.min(best_branch, System.nanoTime() - start);
+            start = System.nanoTime();
+            check -= tables(a, b);
+            best_table = Math.min(best_table, System.nanoTime() - start);
+        }
+        if (check != 0) {
+            throw new AssertionError("The tables disagree with the old functions.");
+        }
+        System.out.printf("Branching functions: %.2f ns/operation%n",
+                          (double) best_branch / (3 * N_OPERANDS));
+        System.out.printf("Table lookups:       %.2f ns/operation%n",
+                          (double) best_table / (3 * N_OPERANDS));
+
+        simulate(random);
+    }
+
+    /**
+     * Times a simulation of a random gate network.
+     */
+    private static void simulate(Random random) {
+        SimulationContext ctx = new SimulationContext();
+        Scheduler sim = ctx.scheduler();
+        Wire[] wires = new Wire[N_INPUTS + N_GATES];
+        for (int i = 0; i < wires.length; i++) {
+            wires[i] = new Wire(ctx);
+        }
+        Block top = new Block(sim);
+        for (int i = 0; i < N_GATES; i++) {
+            int n = N_INPUTS + i;
+            Wire x = wires[n - 1 - random.nextInt(Math.min(n, 100))];
+            Wire y = wires[n - 1 - random.nextInt(Math.min(n, 100))];
+            switch (random.nextInt(3)) {
+                case 0: top.addComponent(new TwoInputAndGate(x, y, wires[n])); break;
+                case 1: top.addComponent(new TwoInputOrGate(x, y, wires[n])); break;
+                default: top.addComponent(new Inverter(x, wires[n])); break;
+            }
+        }
+
+        long total = 0;
+        long events = 0;
+        for (int step = 0; step < N_STEPS; step++) {
+            for (int i = 0; i < N_INPUTS; i++) {
+                wires[i].setSignal(random.nextBoolean() ? Signal.HIGH : Signal.LOW);
+            }
+            long before = sim.eventCount();
+            long start = System.nanoTime();
+            sim.run();
+            long elapsed = System.nanoTime() - start;
+            long n = sim.eventCount() - before;
+            if (step >= N_STEPS / 2) {
+                // The first half warms up the JIT compiler
+                total += elapsed;
+                events += n;
+            }
+        }
+        System.out.printf("Random network: %d events in %.1f ms (%.1f ns/event)%n",
+                          events, total / 1.0e6, (double) total / events);
+    }
+
+    /** @return a checksum of the branching functions applied to the operands */
+    private static int branching(Signal[] a, Signal[] b) {
+        int sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += branchingAnd(a[i], b[i]).ordinal();
+            sum += branchingOr(a[i], b[i]).ordinal();
+            sum += branchingNot(a[i]).ordinal();
+        }
+        return sum;
+    }
+
+    /** @return a checksum of the table lookups applied to the operands */
+    private static int tables(Signal[] a, Signal[] b) {
+        int sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += Signal.and(a[i], b[i]).ordinal();
+            sum += Signal.or(a[i], b[i]).ordinal();
+            sum += Signal.not(a[i]).ordinal();
+        }
+        return sum;
+    }
+
+    // The three-valued functions as they were before the tables
+    private static Signal branchingAnd(Signal a, Signal b) {
+        if (a == Signal.HIGH && b == Signal.HIGH) {
+            return Signal.HIGH;
+        }
+        if (a.isValid() && b.isValid()) {
+            return Signal.LOW;
+        }
+        return Signal.X;
+    }
+
+    private static Signal branchingOr(Signal a, Signal b) {
+        if (a == Signal.LOW && b == Signal.LOW) {
+            return Signal.LOW;
+        }
+        if (a.isValid() && b.isValid()) {
+            return Signal.HIGH;
+        }
+        return Signal.X;
+    }
+
+    private static Signal branchingNot(Signal s) {
+        switch (s) {
+            case LOW: return Signal.HIGH;
+            case HIGH: return Signal.LOW;
+            default: return Signal.X;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package logicsim;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+
+/**
+ * Measures the memory used by the structure of a large circuit: the bytes
+ * taken by each wire, by each gate, and by each connection from a wire to
+ * a component it drives. The circuit is a random network of a million
+ * two-input AND and OR gates and inverters, like the randomDag reference
+ * circuit of the JMH benchmarks, with generated wire names.
+ *
+ * The heap is measured after a full garbage collection at each stage of
+ * construction: once the wires have been created, once the gates have been
+ * connected to them, and once every gate has been connected to one more
+ * wire. The last step isolates the cost of a connection. The figures
+ * include the object headers and padding of the JVM being used, so they
+ * vary a little from one JVM to another.
+ *
+ * @author Allan McInnes
+ */
+public class MemoryBenchmark {
+
+    private static final int N_INPUTS = 64;
+    private static final int N_GATES = 1000000;
+    private static final long SEED = 1;
+
+    /**
+     * Run the benchmark.
+     * @param args the command line arguments (unused)
+     */
+    public static void main(String[] args) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        Random random = new Random(SEED);
+
+        long base = heapUsed(memory);
+        SimulationContext ctx = new SimulationContext();
+        Wire[] wires = new Wire[N_INPUTS + N_GATES];
+        for (int i = 0; i < wires.length; i++) {
+            wires[i] = new Wire(ctx);
+        }
+        long wired = heapUsed(memory);
+
+        Block top = new Block(ctx.scheduler());
+        Component[] gates = new Component[N_GATES];
+        long connections = 0;
+        for (int i = 0; i < N_GATES; i++) {
+            int n = N_INPUTS + i;
+            Wire a = wires[n - 1 - random.nextInt(Math.min(n, 100))];
+            Wire b = wires[n - 1 - random.nextInt(Math.min(n, 100))];
+            switch (random.nextInt(3)) {
+                case 0: gates[i] = new TwoInputAndGate(a, b, wires[n]); break;
+                case 1: gates[i] = new TwoInputOrGate(a, b, wires[n]); break;
+                default: gates[i] = new Inverter(a, wires[n]); break;
+            }
+            top.addComponent(gates[i]);
+        }
+        for (Wire w : wires) {
+            connections += w.fanout();
+        }
+        long built = heapUsed(memory);
+
+        for (int i = 0; i < N_GATES; i++) {
+            wires[random.nextInt(wires.length)].attachDrivenComponent(gates[i]);
+        }
+        long extra = 0;
+        for (Wire w : wires) {
+            extra += w.fanout();
+        }
+        extra -= connections;
+        long connected = heapUsed(memory);
+
+        System.out.printf("%d wires, %d gates, %d connections%n",
+                          wires.length, N_GATES, connections);
+        System.out.printf("Wires:       %.1f bytes/wire%n",
+                          (double) (wired - base) / wires.length);
+        System.out.printf("Gates:       %.1f bytes/gate, including their connections%n",
+                          (double) (built - wired) / N_GATES);
+        System.out.printf("Connections: %.1f bytes/connection%n",
+                          (double) (connected - built) / extra);
+        System.out.printf("Total:       %.1f MB%n", (connected - base) / 1048576.0);
+
+        // Keep everything reachable until the last measurement
+        if (top.components().size() != gates.length || wires[0].context() != ctx) {
+            throw new AssertionError();
+        }
+    }
+
+    /**
+     * @return the heap in use after a full garbage collection
+     */
+    private static long heapUsed(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
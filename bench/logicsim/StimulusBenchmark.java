@@ -0,0 +1,145 @@
+package logicsim;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares two ways of applying a long test bench to a circuit: scheduling
+ * every input transition before the simulation starts, and streaming them
+ * from a binary stimulus file with a Stimulus. The circuit is a random
+ * network of AND and OR gates and inverters, like the one in the
+ * LogicBenchmark, and the test bench changes random inputs every few
+ * nanoseconds.
+ *
+ * For each, it reports the largest number of events waiting in the queue,
+ * the heap in use (after a full garbage collection) once the simulation is
+ * under way, and the simulation rate.
+ *
+ * @author Allan McInnes
+ */
+public class StimulusBenchmark {
+
+    private static final int N_INPUTS = 64;
+    private static final int N_GATES = 10000;
+    private static final int N_TRANSITIONS = 2000000;
+    private static final int N_CHUNKS = 20;
+    private static final long SEED = 1;
+
+    /**
+     * Run the benchmark.
+     * @param args the command line arguments (unused)
+     * @throws IOException if the stimulus file can't be written or read
+     */
+    public static void main(String[] args) throws IOException {
+        Path file = Files.createTempFile("stimulus", ".bin");
+        try {
+            double end = writeStimulus(file);
+            System.out.printf("%d transitions, %.1f bytes/transition in the file%n",
+                              N_TRANSITIONS, (double) Files.size(file) / N_TRANSITIONS);
+            simulate("Pre-scheduled", file, end, false);
+            simulate("Streamed", file, end, true);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Writes a random test bench.
+     * @return the time of the last transition
+     */
+    private static double writeStimulus(Path file) throws IOException {
+        Random random = new Random(SEED);
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < N_INPUTS; i++) {
+            names.add("in" + i);
+        }
+        double time = 0.0;
+        try (StimulusWriter out = new StimulusWriter(file, names)) {
+            for (int n = 0; n < N_TRANSITIONS; n++) {
+                time += 0.25 * random.nextInt(8);
+                out.add(time, random.nextInt(N_INPUTS), random.nextBoolean() ? Signal.HIGH : Signal.LOW);
+            }
+        }
+        return time;
+    }
+
+    /**
+     * Simulates the test bench in chunks of time, measuring as it goes.
+     */
+    private static void simulate(String label, Path file, double end, boolean stream) throws IOException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        SimulationContext ctx = new SimulationContext();
+        Scheduler sim = ctx.scheduler();
+        List<Wire> inputs = buildNetwork(ctx);
+
+        try (Stimulus stimulus = new Stimulus(file, inputs)) {
+            long start = System.nanoTime();
+            if (stream) {
+                sim.addStimulus(stimulus);
+            } else {
+                stimulus.setWindow(Integer.MAX_VALUE);
+                stimulus.inject(sim);
+            }
+            int max_pending = sim.pendingEvents();
+            long heap = 0;
+            long elapsed = 0;
+            for (int chunk = 1; chunk <= N_CHUNKS; chunk++) {
+                sim.setStopTime(end * chunk / N_CHUNKS + 1.0);
+                sim.run();
+                max_pending = Math.max(max_pending, sim.pendingEvents());
+                elapsed += System.nanoTime() - start;
+                if (chunk == 1) {
+                    heap = heapUsed(memory);
+                }
+                start = System.nanoTime();
+            }
+            System.out.printf("%-14s peak queue %8d events, heap %7.1f MB, %.1f ns/event%n",
+                              label + ":", max_pending, heap / 1.0e6,
+                              (double) elapsed / sim.eventCount());
+        }
+    }
+
+    /**
+     * Builds a random gate network.
+     * @return its inputs
+     */
+    private static List<Wire> buildNetwork(SimulationContext ctx) {
+        Random random = new Random(SEED);
+        Wire[] wires = new Wire[N_INPUTS + N_GATES];
+        List<Wire> inputs = new ArrayList<Wire>();
+        for (int i = 0; i < wires.length; i++) {
+            wires[i] = (i < N_INPUTS) ? new Wire(ctx, "in" + i) : new Wire(ctx);
+            if (i < N_INPUTS) {
+                inputs.add(wires[i]);
+            }
+        }
+        Block top = new Block(ctx.scheduler());
+        for (int i = 0; i < N_GATES; i++) {
+            int n = N_INPUTS + i;
+            Wire x = wires[n - 1 - random.nextInt(Math.min(n, 100))];
+            Wire y = wires[n - 1 - random.nextInt(Math.min(n, 100))];
+            switch (random.nextInt(3)) {
+                case 0: top.addComponent(new TwoInputAndGate(x, y, wires[n])); break;
+                case 1: top.addComponent(new TwoInputOrGate(x, y, wires[n])); break;
+                default: top.addComponent(new Inverter(x, wires[n])); break;
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * @return the heap in use after a full garbage collection
+     */
+    private static long heapUsed(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            memory.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,107 @@
+package logicsim;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the cost of recording waveforms with a VcdRecorder. A random
+ * circuit with a little over 10,000 wires is driven with random input
+ * vectors, first without recording, then with every wire recorded from the
+ * simulation thread, and then with every wire recorded by a background
+ * writer.
+ *
+ * @author Allan McInnes
+ */
+public class WaveformBenchmark {
+
+    private static final int N_INPUTS = 64;
+    private static final int N_GATES = 10000;
+    private static final int N_VECTORS = 2000;
+    private static final int N_ROUNDS = 5;
+    private static final long SEED = 1;
+
+    /**
+     * Run the benchmark.
+     * @param args the command line arguments (unused)
+     * @throws IOException if the waveform file can't be written
+     */
+    public static void main(String[] args) throws IOException {
+        Path file = Files.createTempFile("logicsim", ".vcd");
+        long plain = Long.MAX_VALUE;
+        long sync = Long.MAX_VALUE;
+        long background = Long.MAX_VALUE;
+        try {
+            // Keep the best of several runs, which also warms up the JIT compiler
+            for (int round = 0; round < N_ROUNDS; round++) {
+                plain = Math.min(plain, simulate(null, false));
+                sync = Math.min(sync, simulate(file, false));
+                background = Math.min(background, simulate(file, true));
+            }
+            System.out.printf("%d wires, VCD file size %.1f MB%n",
+                              N_INPUTS + N_GATES, Files.size(file) / 1.0e6);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        System.out.printf("Not recorded: %.1f ms%n", plain / 1.0e6);
+        System.out.printf("Recorded: %.1f ms (%.1f%% overhead)%n",
+                          sync / 1.0e6, 100.0 * (sync - plain) / plain);
+        System.out.printf("Recorded in background: %.1f ms (%.1f%% overhead)%n",
+                          background / 1.0e6, 100.0 * (background - plain) / plain);
+    }
+
+    /**
+     * Builds and runs the circuit, optionally recording every wire.
+     * @return the elapsed time in nanoseconds
+     */
+    private static long simulate(Path file, boolean background) throws IOException {
+        Random random = new Random(SEED);
+        SimulationContext ctx = new SimulationContext();
+        Scheduler sim = ctx.scheduler();
+        Block top = new Block(sim);
+        List<Wire> wires = new ArrayList<Wire>();
+        List<Wire> inputs = new ArrayList<Wire>();
+        for (int i = 0; i < N_INPUTS; i++) {
+            inputs.add(new Wire(ctx));
+        }
+        wires.addAll(inputs);
+
+        // Each gate takes its inputs from the most recent wires, which keeps
+        // the circuit deep without letting glitches multiply out of control.
+        for (int i = 0; i < N_GATES; i++) {
+            Wire a = wires.get(wires.size() - 1 - random.nextInt(Math.min(wires.size(), 100)));
+            Wire b = wires.get(wires.size() - 1 - random.nextInt(Math.min(wires.size(), 100)));
+            Wire out = new Wire(ctx);
+            switch (random.nextInt(3)) {
+                case 0: top.addComponent(new TwoInputAndGate(a, b, out)); break;
+                case 1: top.addComponent(new TwoInputOrGate(a, b, out)); break;
+                default: top.addComponent(new Inverter(a, out)); break;
+            }
+            wires.add(out);
+        }
+
+        VcdRecorder recorder = null;
+        if (file != null) {
+            recorder = new VcdRecorder(file, background);
+            recorder.record(wires);
+            recorder.start();
+        }
+
+        long start = System.nanoTime();
+        for (int v = 0; v < N_VECTORS; v++) {
+            for (Wire in : inputs) {
+                in.setSignal(random.nextBoolean() ? Signal.HIGH : Signal.LOW);
+            }
+            sim.run();
+        }
+        if (recorder != null) {
+            recorder.close();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        return elapsed;
+    }
+}
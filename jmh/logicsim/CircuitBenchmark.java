@@ -0,0 +1,100 @@
+package logicsim;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Simulates the reference circuits with the Scheduler. Each operation
+ * applies the next of a fixed sequence of random input vectors, and runs
+ * the simulation until it settles. The ring oscillator has no inputs, so
+ * each of its operations runs it for a fixed span of simulated time instead.
+ *
+ * As well as operations per second, the "events" counter reports events
+ * executed per second. Running with <code>-prof gc</code> adds allocation
+ * figures.
+ *
+ * @author Allan McInnes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CircuitBenchmark {
+    private static final int N_VECTORS = 1024;
+    private static final double RING_STEP = 600.0; // ns of simulated time per operation
+
+    @Param({"halfAdder", "ringOscillator", "rippleCarryAdder", "inverterChain",
+            "andOrTree", "randomDag"})
+    public String circuit;
+
+    /** Size of the scalable circuits (bits, inverters, inputs or gates) */
+    @Param({"64", "1024"})
+    public int size;
+
+    private ReferenceCircuit c;
+    private Signal[][] vectors;
+    private int next = 0;
+
+    /**
+     * Counts the events executed, so that JMH reports them as a rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Events {
+        public long events;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            events = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void build() {
+        c = ReferenceCircuit.create(circuit, size);
+        Random random = new Random(1);
+        vectors = new Signal[N_VECTORS][c.inputs.size()];
+        for (Signal[] v : vectors) {
+            for (int i = 0; i < v.length; i++) {
+                v[i] = random.nextBoolean() ? Signal.HIGH : Signal.LOW;
+            }
+        }
+        if (!c.inputs.isEmpty()) {
+            // Let the circuit settle (the ring oscillator never does)
+            c.scheduler.run();
+        }
+    }
+
+    @Benchmark
+    public Signal simulate(Events counter) {
+        Scheduler sim = c.scheduler;
+        long before = sim.eventCount();
+        if (c.inputs.isEmpty()) {
+            sim.setStopTime(sim.time() + RING_STEP);
+        } else {
+            Signal[] v = vectors[next];
+            next = (next + 1) % N_VECTORS;
+            for (int i = 0; i < v.length; i++) {
+                c.inputs.get(i).setSignal(v[i]);
+            }
+        }
+        sim.run();
+        counter.events += sim.eventCount() - before;
+        return c.outputs.get(0).getSignal();
+    }
+}
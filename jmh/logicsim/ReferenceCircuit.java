@@ -0,0 +1,190 @@
+package logicsim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A set of reference circuits for benchmarking, each built in a simulation
+ * context of its own. The small examples from LogicSim are included as they
+ * are, along with families of circuits that can be scaled to any size.
+ *
+ * @author Allan McInnes
+ */
+final class ReferenceCircuit {
+    final SimulationContext context;        // The simulation the circuit is part of
+    final Scheduler scheduler;              // The scheduler that runs it
+    final Block top;                        // The whole circuit
+    final List<Wire> inputs = new ArrayList<Wire>(); // Primary inputs
+    final List<Wire> outputs = new ArrayList<Wire>(); // Primary outputs
+
+    private ReferenceCircuit() {
+        context = new SimulationContext();
+        scheduler = context.scheduler();
+        top = new Block(scheduler);
+    }
+
+    /**
+     * Builds a circuit by name.
+     * @param name one of halfAdder, ringOscillator, rippleCarryAdder,
+     * inverterChain, andOrTree or randomDag
+     * @param size the size of a scalable circuit (ignored by the others)
+     * @return the circuit
+     * @throws IllegalArgumentException if the name is not recognized
+     */
+    static ReferenceCircuit create(String name, int size) {
+        switch (name) {
+            case "halfAdder": return halfAdder();
+            case "ringOscillator": return ringOscillator();
+            case "rippleCarryAdder": return rippleCarryAdder(size);
+            case "inverterChain": return inverterChain(size);
+            case "andOrTree": return andOrTree(size);
+            case "randomDag": return randomDag(size, 1);
+            default:
+                throw new IllegalArgumentException("Unknown circuit " + name);
+        }
+    }
+
+    /**
+     * The half adder from the LogicSim examples (without probes).
+     */
+    static ReferenceCircuit halfAdder() {
+        ReferenceCircuit c = new ReferenceCircuit();
+        Wire in1 = c.input("In1");
+        Wire in2 = c.input("In2");
+        Wire sum = c.output("Sum");
+        Wire carry = c.output("Carry");
+        c.top.addComponent(new HalfAdder(in1, in2, sum, carry));
+        return c;
+    }
+
+    /**
+     * The 3-inverter ring oscillator from the LogicSim examples (without
+     * probes). It has no inputs, and is started running when it is built.
+     */
+    static ReferenceCircuit ringOscillator() {
+        ReferenceCircuit c = new ReferenceCircuit();
+        Wire osc0 = new Wire(c.context);
+        Wire osc1 = new Wire(c.context);
+        Wire osc2 = c.output("Osc");
+        c.top.addComponent(new Inverter(osc0, osc1));
+        c.top.addComponent(new Inverter(osc1, osc2));
+        c.top.addComponent(new Inverter(osc2, osc0));
+        osc0.setSignal(Signal.LOW);
+        return c;
+    }
+
+    /**
+     * An n-bit ripple-carry adder. Each full adder is made of two
+     * HalfAdders and an OR gate.
+     * @param bits the width of the adder
+     */
+    static ReferenceCircuit rippleCarryAdder(int bits) {
+        ReferenceCircuit c = new ReferenceCircuit();
+        Wire carry = c.input("Cin");
+        for (int i = 0; i < bits; i++) {
+            Wire a = c.input("A" + i);
+            Wire b = c.input("B" + i);
+            Wire partial = new Wire(c.context);
+            Wire c1 = new Wire(c.context);
+            Wire c2 = new Wire(c.context);
+            Wire cout = new Wire(c.context, "C" + (i + 1));
+            c.top.addComponent(new HalfAdder(a, b, partial, c1));
+            c.top.addComponent(new HalfAdder(partial, carry, c.output("S" + i), c2));
+            c.top.addComponent(new TwoInputOrGate(c1, c2, cout));
+            carry = cout;
+        }
+        c.outputs.add(carry);
+        return c;
+    }
+
+    /**
+     * A chain of inverters.
+     * @param length the number of inverters
+     */
+    static ReferenceCircuit inverterChain(int length) {
+        ReferenceCircuit c = new ReferenceCircuit();
+        Wire w = c.input("In");
+        for (int i = 0; i < length; i++) {
+            Wire next = (i == length - 1) ? c.output("Out") : new Wire(c.context);
+            c.top.addComponent(new Inverter(w, next));
+            w = next;
+        }
+        return c;
+    }
+
+    /**
+     * A balanced tree of 2-input gates reducing a wide input bus to a single
+     * output, with alternate levels of AND and OR gates.
+     * @param width the number of inputs
+     */
+    static ReferenceCircuit andOrTree(int width) {
+        ReferenceCircuit c = new ReferenceCircuit();
+        List<Wire> level = new ArrayList<Wire>();
+        for (int i = 0; i < width; i++) {
+            level.add(c.input("In" + i));
+        }
+        boolean and = true;
+        while (level.size() > 1) {
+            List<Wire> next = new ArrayList<Wire>();
+            for (int i = 0; i + 1 < level.size(); i += 2) {
+                Wire out = new Wire(c.context);
+                if (and) {
+                    c.top.addComponent(new TwoInputAndGate(level.get(i), level.get(i + 1), out));
+                } else {
+                    c.top.addComponent(new TwoInputOrGate(level.get(i), level.get(i + 1), out));
+                }
+                next.add(out);
+            }
+            if (level.size() % 2 != 0) {
+                next.add(level.get(level.size() - 1));
+            }
+            level = next;
+            and = !and;
+        }
+        c.outputs.add(level.get(0));
+        return c;
+    }
+
+    /**
+     * A random directed acyclic graph of AND, OR and NOT gates, driven by
+     * 64 inputs. Each gate takes its inputs from among the 100 most recently
+     * created wires, which keeps the circuit deep without letting glitches
+     * multiply out of control.
+     * @param gates the number of gates
+     * @param seed the random number seed
+     */
+    static ReferenceCircuit randomDag(int gates, long seed) {
+        ReferenceCircuit c = new ReferenceCircuit();
+        Random random = new Random(seed);
+        List<Wire> wires = new ArrayList<Wire>();
+        for (int i = 0; i < 64; i++) {
+            wires.add(c.input("In" + i));
+        }
+        for (int i = 0; i < gates; i++) {
+            Wire a = wires.get(wires.size() - 1 - random.nextInt(Math.min(wires.size(), 100)));
+            Wire b = wires.get(wires.size() - 1 - random.nextInt(Math.min(wires.size(), 100)));
+            Wire out = new Wire(c.context);
+            switch (random.nextInt(3)) {
+                case 0: c.top.addComponent(new TwoInputAndGate(a, b, out)); break;
+                case 1: c.top.addComponent(new TwoInputOrGate(a, b, out)); break;
+                default: c.top.addComponent(new Inverter(a, out)); break;
+            }
+            wires.add(out);
+        }
+        c.outputs.add(wires.get(wires.size() - 1));
+        return c;
+    }
+
+    private Wire input(String name) {
+        Wire w = new Wire(context, name);
+        inputs.add(w);
+        return w;
+    }
+
+    private Wire output(String name) {
+        Wire w = new Wire(context, name);
+        outputs.add(w);
+        return w;
+    }
+}
@@ -0,0 +1,86 @@
+package logicsim;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost per event of the Scheduler itself, with each event
+ * queue implementation. Events are scheduled on a wire with nothing
+ * connected to it, so no time is spent in components.
+ *
+ * <ul>
+ * <li><code>newEvent</code> schedules a batch of events with random delays
+ *     and then discards them, so it measures Scheduler.newEvent() plus the
+ *     cost of removing an event from the queue;</li>
+ * <li><code>run</code> schedules the same batch and then executes it with
+ *     Scheduler.run(), so the difference between the two is the cost of
+ *     executing an event.</li>
+ * </ul>
+ *
+ * Scores are per event. With <code>-prof gc</code>, gc.alloc.rate.norm is
+ * the number of bytes allocated per event.
+ *
+ * @author Allan McInnes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchedulerBenchmark {
+    private static final int BATCH = 1024;
+
+    @Param({"heap", "wheel"})
+    public String queue;
+
+    private Scheduler sim;
+    private Wire wire;
+    private final double[] delays = new double[BATCH];
+
+    @Setup
+    public void build() {
+        SimulationContext ctx = new SimulationContext();
+        sim = ctx.scheduler();
+        sim.setEventQueue(queue.equals("wheel") ? new TimingWheelEventQueue() : new HeapEventQueue());
+        wire = new Wire(ctx);
+        Random random = new Random(1);
+        for (int i = 0; i < BATCH; i++) {
+            // Gate-like delays, on a 0.5ns grid
+            delays[i] = 0.5 * (1 + random.nextInt(100));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void newEvent() {
+        schedule();
+        sim.clearSchedule();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void run() {
+        schedule();
+        sim.run();
+    }
+
+    private void schedule() {
+        double now = sim.time();
+        for (int i = 0; i < BATCH; i++) {
+            sim.newEvent(now + delays[i], wire, ((i & 1) == 0) ? Signal.HIGH : Signal.LOW);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package logicsim;
+
+/**
+ * An AND-OR-INVERT (AOI) gate, which computes the OR of the
+ * ANDs of each group of inputs, and inverts it:
+ * <pre>
+ *   out = NOT((a0 AND a1 ...) OR (b0 AND b1 ...) OR ...)
+ * </pre>
+ * An AOI221 cell, for example, has two groups of two inputs and one of one.
+ * @author Allan McInnes
+ */
+public class AndOrInvertGate extends TwoLevelGate {
+
+    /**
+     * Constructor.
+     * @param out the output wire
+     * @param groups the inputs of each first level gate
+     * @throws IllegalArgumentException if there are no groups, a group is
+     *  empty, or the wires belong to different simulation contexts
+     */
+    public AndOrInvertGate(Wire out, Wire[]... groups) {
+        super(Signal.LOW, Signal.HIGH, true, out, groups);
+    }
+}
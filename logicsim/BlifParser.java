@@ -0,0 +1,606 @@
+package logicsim;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Parses a model of a BLIF (Berkeley Logic Interchange Format) netlist.
+ * The combinational subset of BLIF is understood: .model, .inputs,
+ * .outputs, .names, .subckt (and .gate, which is treated the same way) and
+ * .end. Latches are rejected, and timing commands such as .area or
+ * .input_arrival are ignored.
+ *
+ * Each .names cover is turned into gates. Covers of the usual simple
+ * functions (buffers, inverters, AND, OR, NAND, NOR, XOR and XNOR of any
+ * number of inputs) become a single gate. Other covers become a
+ * sum-of-products network: an AND gate for each row, feeding an OR (or,
+ * for a cover of the off-set, a NOR) gate, with inverters for any
+ * complemented inputs.
+ *
+ * @author Allan McInnes
+ */
+final class BlifParser extends NetlistParser {
+    /** Largest number of inputs for which a cover is checked for XOR */
+    private static final int MAX_XOR_INPUTS = 16;
+
+    private ModuleDefinition def;
+    private final NameTable nets = new NameTable();     // Net numbers
+    private final NameTable strings = new NameTable();  // Model and port names
+
+    private int[] list = new int[16];       // Nets of the latest command
+    private int n_list = 0;
+    private char[] cover = new char[64];    // Input planes of the latest cover
+    private int n_rows = 0;
+
+    // Creation
+    /**
+     * Constructor.
+     * @param source the model text
+     */
+    BlifParser(Source source) throws IOException {
+        super(source);
+    }
+
+    /**
+     * Creates a splitter that cuts a BLIF file into models.
+     * @param file the name of the file, for error messages
+     * @param permits limits the number of segments in flight
+     * @param sink receives the source of each model
+     * @return the splitter
+     */
+    static Splitter splitter(String file, Semaphore permits, Consumer<Source> sink) {
+        return new ModelSplitter(file, permits, sink);
+    }
+
+    // Parsing
+    /**
+     * Parses the model.
+     * @return the module definition
+     * @throws IOException if the text can't be read or isn't valid
+     */
+    @Override
+    ModuleDefinition parse() throws IOException {
+        while (!readToken()) {
+            if (c < 0) {
+                throw error("Expected a model.");
+            }
+        }
+        if (!wordIs(".model")) {
+            throw error("Expected .model but found " + wordString() + ".");
+        }
+        int start = line;
+        String name = readToken() ? wordString() : "unnamed";
+        def = new ModuleDefinition(name, file(), start);
+        endLine();
+
+        for (;;) {
+            if (!readToken()) {
+                if (c < 0) {
+                    break;
+                }
+                continue;
+            }
+            if (wordIs(".end")) {
+                break;
+            } else if (wordIs(".inputs")) {
+                ports(ModuleDefinition.INPUT);
+            } else if (wordIs(".outputs")) {
+                ports(ModuleDefinition.OUTPUT);
+            } else if (wordIs(".names")) {
+                names();
+            } else if (wordIs(".subckt") || wordIs(".gate")) {
+                subcircuit();
+            } else if (wordIs(".latch") || wordIs(".mlatch")) {
+                throw error("Latches are not supported.");
+            } else if (word[0] == '.' && !wordIs(".exdc") && !wordIs(".search")) {
+                // Timing and other information that doesn't affect the logic
+                endLine();
+            } else {
+                throw error("Unexpected " + wordString() + ".");
+            }
+        }
+        def.finish();
+        return def;
+    }
+
+    /**
+     * Parses the rest of an .inputs or .outputs line.
+     */
+    private void ports(byte direction) throws IOException {
+        while (readToken()) {
+            String name = intern(strings);
+            ModuleDefinition.Port p = def.addPort(name);
+            if (p == null) {
+                throw error("Port " + name + " is declared more than once.");
+            }
+            p.direction = direction;
+            p.nets = new int[] { net() };
+        }
+    }
+
+    /**
+     * Parses a .names command and its cover.
+     */
+    private void names() throws IOException {
+        n_list = 0;
+        while (readToken()) {
+            add(net());
+        }
+        if (n_list == 0) {
+            throw error(".names needs an output.");
+        }
+        int n_in = n_list - 1;
+
+        // Read the cover rows, up to the next command
+        n_rows = 0;
+        char on = 0;
+        for (;;) {
+            skipBlankLines();
+            if (c < 0 || c == '.') {
+                break;
+            }
+            if (n_in > 0) {
+                readToken();
+                if (word_len != n_in) {
+                    throw error("Cover row should have " + n_in + " inputs.");
+                }
+                if ((n_rows + 1) * n_in > cover.length) {
+                    cover = Arrays.copyOf(cover, 2 * cover.length + n_in);
+                }
+                for (int i = 0; i < n_in; i++) {
+                    char ch = word[i];
+                    if (ch != '0' && ch != '1' && ch != '-') {
+                        throw error("Invalid cover entry '" + ch + "'.");
+                    }
+                    cover[n_rows * n_in + i] = ch;
+                }
+            }
+            if (!readToken() || word_len != 1 || (word[0] != '0' && word[0] != '1')) {
+                throw error("Cover row should end with an output of 0 or 1.");
+            }
+            if (on != 0 && word[0] != on) {
+                throw error("A cover can't mix rows of the on-set and off-set.");
+            }
+            on = word[0];
+            n_rows++;
+            endLine();
+        }
+        coverToGates(n_in, on == '0');
+    }
+
+    /**
+     * Parses the rest of a .subckt or .gate line.
+     */
+    private void subcircuit() throws IOException {
+        if (!readToken()) {
+            throw error("Expected a model name.");
+        }
+        def.addInstance(intern(strings), line);
+        int[] one = new int[1];
+        while (readToken()) {
+            int eq = 0;
+            while (eq < word_len && word[eq] != '=') {
+                eq++;
+            }
+            if (eq == 0 || eq >= word_len - 1) {
+                throw error("Expected formal=actual but found " + wordString() + ".");
+            }
+            int e = strings.find(word, eq);
+            String port = (e >= 0) ? strings.name(e) : strings.name(strings.add(word, eq, 0));
+            System.arraycopy(word, eq + 1, word, 0, word_len - eq - 1);
+            word_len -= eq + 1;
+            one[0] = net();
+            def.addConnection(port, one, 1);
+        }
+    }
+
+    /**
+     * Turns the latest cover into gates. The output is the last net in the
+     * list, and the inputs are the others.
+     * @param n_in the number of inputs
+     * @param is_off_set true if the cover lists the rows where the output is 0
+     */
+    private void coverToGates(int n_in, boolean is_off_set) {
+        int out = list[n_in];
+        if (n_in == 0 || n_rows == 0) {
+            // A constant
+            boolean high = (n_rows > 0) != is_off_set;
+            def.addConstant(out, high ? Signal.HIGH : Signal.LOW);
+            return;
+        }
+
+        // A single product term is an AND of its literals, or a NOR if
+        // they are all complemented
+        if (n_rows == 1) {
+            int polarity = literalPolarity(0);
+            if (polarity >= 0) {
+                int n = literals(0);
+                byte op = (polarity == 1)
+                    ? (is_off_set ? Netlist.OP_NAND : Netlist.OP_AND)
+                    : (is_off_set ? Netlist.OP_OR : Netlist.OP_NOR);
+                if (n == 1 && op == Netlist.OP_NOR) {
+                    op = Netlist.OP_NOT;
+                } else if (n == 1 && op == Netlist.OP_OR) {
+                    op = ModuleDefinition.OP_BUF;
+                } else if (n == 1 && op == Netlist.OP_NAND) {
+                    op = Netlist.OP_NOT;
+                }
+                gate(op, out, 0);
+                return;
+            }
+        }
+
+        // Single literal rows of the same polarity are an OR (or a NAND of
+        // complemented literals)
+        int polarity = singleLiteralPolarity();
+        if (polarity >= 0) {
+            byte op = (polarity == 1)
+                ? (is_off_set ? Netlist.OP_NOR : Netlist.OP_OR)
+                : (is_off_set ? Netlist.OP_AND : Netlist.OP_NAND);
+            gateOfRows(op, out);
+            return;
+        }
+
+        // All the odd (or even) parity minterms make an XOR (or XNOR)
+        int parity = parity(n_in);
+        if (parity >= 0) {
+            boolean is_xor = (parity == 1) != is_off_set;
+            addGate(is_xor ? Netlist.OP_XOR : Netlist.OP_XNOR, out, list, 0, n_in);
+            return;
+        }
+
+        // Otherwise, a sum of products
+        int[] inverted = new int[n_in];
+        Arrays.fill(inverted, -1);
+        int[] terms = new int[n_rows];
+        int[] ins = new int[n_in];
+        for (int r = 0; r < n_rows; r++) {
+            int n = 0;
+            for (int i = 0; i < n_in; i++) {
+                char ch = cover[r * n_in + i];
+                if (ch == '1') {
+                    ins[n++] = list[i];
+                } else if (ch == '0') {
+                    if (inverted[i] < 0) {
+                        inverted[i] = def.addNet(null);
+                        def.addGate(Netlist.OP_NOT, inverted[i], list[i]);
+                    }
+                    ins[n++] = inverted[i];
+                }
+            }
+            if (n == 0) {
+                // A row of don't-cares covers everything
+                def.addConstant(out, is_off_set ? Signal.LOW : Signal.HIGH);
+                return;
+            }
+            if (n == 1) {
+                terms[r] = ins[0];
+            } else {
+                terms[r] = def.addNet(null);
+                addGate(Netlist.OP_AND, terms[r], ins, 0, n);
+            }
+        }
+        addGate(is_off_set ? Netlist.OP_NOR : Netlist.OP_OR, out, terms, 0, n_rows);
+    }
+
+    /**
+     * @return 1 if every literal in a row is uncomplemented, 0 if every
+     * literal is complemented, or -1 otherwise
+     */
+    private int literalPolarity(int r) {
+        int n_in = n_list - 1;
+        boolean ones = false;
+        boolean zeros = false;
+        for (int i = 0; i < n_in; i++) {
+            ones |= cover[r * n_in + i] == '1';
+            zeros |= cover[r * n_in + i] == '0';
+        }
+        return (ones == zeros) ? -1 : (ones ? 1 : 0);
+    }
+
+    /** @return the number of literals in a row */
+    private int literals(int r) {
+        int n_in = n_list - 1;
+        int n = 0;
+        for (int i = 0; i < n_in; i++) {
+            if (cover[r * n_in + i] != '-') {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return 1 or 0 if every row has a single literal, on a different
+     * input, and all of the same polarity, or -1 otherwise
+     */
+    private int singleLiteralPolarity() {
+        int n_in = n_list - 1;
+        boolean[] used = new boolean[n_in];
+        int polarity = -1;
+        for (int r = 0; r < n_rows; r++) {
+            if (literals(r) != 1) {
+                return -1;
+            }
+            int p = literalPolarity(r);
+            for (int i = 0; i < n_in; i++) {
+                if (cover[r * n_in + i] != '-') {
+                    if (used[i]) {
+                        return -1;
+                    }
+                    used[i] = true;
+                }
+            }
+            if (polarity >= 0 && p != polarity) {
+                return -1;
+            }
+            polarity = p;
+        }
+        return polarity;
+    }
+
+    /**
+     * @return 1 if the rows are exactly the minterms of odd parity, 0 if
+     * they are exactly the minterms of even parity, or -1 otherwise
+     */
+    private int parity(int n_in) {
+        if (n_in < 2 || n_in > MAX_XOR_INPUTS || n_rows != (1 << (n_in - 1))) {
+            return -1;
+        }
+        boolean[] seen = new boolean[1 << n_in];
+        int parity = -1;
+        for (int r = 0; r < n_rows; r++) {
+            int m = 0;
+            for (int i = 0; i < n_in; i++) {
+                char ch = cover[r * n_in + i];
+                if (ch == '-') {
+                    return -1;
+                }
+                m = (m << 1) | (ch - '0');
+            }
+            int p = Integer.bitCount(m) & 1;
+            if (seen[m] || (parity >= 0 && p != parity)) {
+                return -1;
+            }
+            seen[m] = true;
+            parity = p;
+        }
+        return parity;
+    }
+
+    /**
+     * Adds a gate whose inputs are the inputs used in a row of the cover.
+     */
+    private void gate(byte op, int out, int r) {
+        int n_in = n_list - 1;
+        int[] ins = new int[n_in];
+        int n = 0;
+        for (int i = 0; i < n_in; i++) {
+            if (cover[r * n_in + i] != '-') {
+                ins[n++] = list[i];
+            }
+        }
+        addGate(op, out, ins, 0, n);
+    }
+
+    /**
+     * Adds a gate whose inputs are the single literals of every row.
+     */
+    private void gateOfRows(byte op, int out) {
+        int n_in = n_list - 1;
+        int[] ins = new int[n_rows];
+        for (int r = 0; r < n_rows; r++) {
+            for (int i = 0; i < n_in; i++) {
+                if (cover[r * n_in + i] != '-') {
+                    ins[r] = list[i];
+                }
+            }
+        }
+        addGate(op, out, ins, 0, n_rows);
+    }
+
+    private void addGate(byte op, int out, int[] ins, int from, int n) {
+        int[] nets = new int[n + 1];
+        nets[0] = out;
+        System.arraycopy(ins, from, nets, 1, n);
+        def.addGate(op, nets, n + 1);
+    }
+
+    // Lexical helpers
+    /**
+     * Reads the next token on the current line into the current word.
+     * @return true if there was a token, or false at the end of the line,
+     * in which case the line is finished
+     */
+    private boolean readToken() throws IOException {
+        word_len = 0;
+        skipSpaces();
+        if (word_len == 0) {
+            if (c < 0) {
+                return false;
+            }
+            if (c == '\n') {
+                advance();
+                return false;
+            }
+        }
+        while (c > ' ' && c != '#') {
+            if (c == '\\') {
+                advance();
+                while (c == '\r') {
+                    advance();
+                }
+                if (c == '\n') {
+                    // A continuation ends the token
+                    advance();
+                    break;
+                }
+                append('\\');
+                continue;
+            }
+            append((char) c);
+            advance();
+        }
+        return true;
+    }
+
+    /**
+     * Skips spaces, comments and line continuations, stopping at a token
+     * or at the end of the line.
+     */
+    private void skipSpaces() throws IOException {
+        for (;;) {
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\f') {
+                advance();
+            } else if (c == '#') {
+                while (c >= 0 && c != '\n') {
+                    advance();
+                }
+            } else if (c == '\\') {
+                advance();
+                while (c == '\r') {
+                    advance();
+                }
+                if (c != '\n') {
+                    // Not a continuation after all, so the backslash
+                    // starts a token
+                    append('\\');
+                    return;
+                }
+                advance();
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Skips the rest of the current line.
+     */
+    private void endLine() throws IOException {
+        while (readToken()) {
+            // Ignore extra tokens
+        }
+    }
+
+    /**
+     * Skips blank and comment-only lines, stopping at the first character
+     * of the next line that has something on it.
+     */
+    private void skipBlankLines() throws IOException {
+        for (;;) {
+            skipSpaces();
+            if (c != '\n') {
+                return;
+            }
+            advance();
+        }
+    }
+
+    /**
+     * Finds or adds the net named by the current word.
+     */
+    private int net() {
+        int e = nets.find(word, word_len);
+        if (e < 0) {
+            int n = def.addNet(null);
+            e = nets.add(word, word_len, n);
+            def.net_names[n] = nets.name(e);
+            return n;
+        }
+        return nets.value(e);
+    }
+
+    /**
+     * @return the interned String for the current word
+     */
+    private String intern(NameTable table) {
+        int e = table.find(word, word_len);
+        if (e < 0) {
+            e = table.add(word, word_len, 0);
+        }
+        return table.name(e);
+    }
+
+    private void add(int net) {
+        if (n_list == list.length) {
+            list = Arrays.copyOf(list, 2 * n_list);
+        }
+        list[n_list++] = net;
+    }
+
+    /**
+     * Cuts a BLIF file into models. A model starts with a line beginning
+     * .model, and ends at the next .end line (or the next model).
+     */
+    private static final class ModelSplitter extends Splitter {
+        private static final int LINE_START = 0;
+        private static final int FIRST_WORD = 1;
+        private static final int REST = 2;
+
+        private int state = LINE_START;
+        private final char[] first = new char[8];  // Start of the first word of the line
+        private int n_first = 0;
+        private boolean is_ending = false;          // Is this the .end line?
+        private boolean is_continued = false;       // Does the line end with a backslash?
+
+        ModelSplitter(String file, Semaphore permits, Consumer<Source> sink) {
+            super(file, permits, sink);
+        }
+
+        @Override
+        protected void scan(char c) throws IOException {
+            if (state == LINE_START && c > ' ') {
+                state = FIRST_WORD;
+                n_first = 0;
+            }
+            if (state == FIRST_WORD) {
+                if (c > ' ' && n_first < first.length) {
+                    // Hold back the start of the line until we know which
+                    // model it belongs to
+                    first[n_first++] = c;
+                    return;
+                }
+                if (c <= ' ') {
+                    if (matches(".model")) {
+                        open("");
+                    } else if (matches(".end")) {
+                        is_ending = true;
+                    }
+                }
+                for (int i = 0; i < n_first; i++) {
+                    emit(first[i]);
+                }
+                is_continued = (first[n_first - 1] == '\\');
+                state = REST;
+            }
+            emit(c);
+            if (c == '\n') {
+                if (is_ending) {
+                    close();
+                    is_ending = false;
+                }
+                // The next line doesn't start a command if this line
+                // ended with a continuation
+                state = is_continued ? REST : LINE_START;
+                is_continued = false;
+            } else if (c > ' ') {
+                is_continued = (c == '\\');
+            }
+        }
+
+        private boolean matches(String s) {
+            if (n_first != s.length()) {
+                return false;
+            }
+            for (int i = 0; i < n_first; i++) {
+                if (first[i] != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
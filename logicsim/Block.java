@@ -2,10 +2,19 @@ package logicsim;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.function.Supplier;
 
 /**
  * A Block is a Composite Component.
  *
+ * The contents of a Block can be edited while the circuit is being
+ * simulated. Removing a component disconnects it from its wires, and
+ * inserting one updates it against the current levels of its inputs, so
+ * only the logic downstream of an edit is re-evaluated, through the
+ * ordinary scheduling of transitions, rather than the whole circuit.
+ * Edits should be made between runs of the Scheduler.
+ *
  * @author Allan McInnes
  */
 public class Block extends Component {
@@ -27,6 +36,16 @@ public class Block extends Component {
         super(model);
     }
 
+    // Queries
+    /**
+     * Queries the components contained in the Block.
+     * @return a read-only view of the components in the Block
+     */
+    public Collection<Component> components() {
+        return Collections.unmodifiableCollection(comps);
+    }
+
+    // Commands
     /**
      * Add a component to the Block.
      * @param comp the component to add
@@ -38,12 +57,62 @@ public class Block extends Component {
     }
 
     /**
-     * Remove a component from the Blocks.
+     * Add a component to a Block that is already being simulated. The
+     * component, and everything inside it, is updated against the current
+     * levels of its inputs, so that its outputs are driven as if it had
+     * been part of the circuit all along.
+     * @param comp the component to add, already connected to its wires
+     */
+    public void insertComponent(Component comp) {
+        addComponent(comp);
+        for (Component c : ComponentCollector.leaves(comp)) {
+            c.resync();
+            c.update();
+        }
+    }
+
+    /**
+     * Remove a component from the Block, and disconnect it (and everything
+     * inside it) from its wires. Transitions it had scheduled on its outputs
+     * are cancelled. The wires keep their levels, so nothing downstream is
+     * affected until something drives them again. Components that don't
+     * report their wires (see Component.inputs()) are left connected.
      * @param comp the component to remove.
      */
     @Override
     public void removeComponent(Component comp) {
-        comps.remove(comp);
+        if (comps.remove(comp)) {
+            for (Component c : ComponentCollector.leaves(comp)) {
+                for (Wire w : c.inputs()) {
+                    w.detachDrivenComponent(c);
+                }
+                for (Wire w : c.outputs()) {
+                    w.removeDrivingComponent(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace a component of the Block with another, in a circuit that is
+     * already being simulated. The old component is removed first, so the
+     * new one can be connected to the same output wires without them being
+     * treated as having two drivers. The new component is then inserted, so
+     * if its outputs come out at the levels the old component was driving,
+     * nothing downstream changes at all.
+     * @param comp the component to replace
+     * @param replacement creates the new component, connected to its wires
+     * @return the new component
+     * @throws IllegalArgumentException if comp isn't part of the Block
+     */
+    public Component replaceComponent(Component comp, Supplier<? extends Component> replacement) {
+        if (!comps.contains(comp)) {
+            throw new IllegalArgumentException("Only a component of the block can be replaced.");
+        }
+        removeComponent(comp);
+        Component created = replacement.get();
+        insertComponent(created);
+        return created;
     }
 
     /**
@@ -67,4 +136,13 @@ public class Block extends Component {
         // Events act directly on individual components, so no need
         // to do anything here.
     }
+
+    /**
+     * Accepts a visitor.
+     * @param visitor the visitor
+     */
+    @Override
+    public void accept(ComponentVisitor visitor) {
+        visitor.visitBlock(this);
+    }
 }
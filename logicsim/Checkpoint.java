@@ -0,0 +1,267 @@
+package logicsim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A Checkpoint is a saved copy of the state of a simulation: the signal
+ * level on every wire, the transitions waiting in the scheduler, the
+ * current simulation time, and the bound on simulation time. Restoring a
+ * checkpoint puts a simulation back into exactly that state, so a long
+ * initialization sequence only needs to be simulated once, and can then
+ * be the starting point for any number of different scenarios.
+ *
+ * A checkpoint can be restored into the simulation it was captured from,
+ * or into a fork: a separate SimulationContext in which the same circuit
+ * has been built again (see fork()). Wires are identified by number, so
+ * the circuit must create its wires in the same order each time it is
+ * built. A checkpoint never changes once captured, and several threads
+ * can restore it into their own contexts at the same time.
+ *
+ * Checkpoints can be saved to a compact binary file, and read back. Both
+ * are done through memory-mapped I/O. The file layout is:
+ *
+ * <pre>
+ *   header:  MAGIC, int VERSION, int number of wires,
+ *            int number of events, int 0, long time, long stop time
+ *   signals: the encoded level of each wire, two wires to a byte
+ *            (the first wire in the low four bits)
+ *   events:  for each event, in the order they will execute,
+ *            long time, int wire number, byte encoded level
+ * </pre>
+ *
+ * All numbers are big-endian. Times are in scheduler ticks, and the stop
+ * time is -1 if the simulation is unbounded.
+ *
+ * Only the state of the simulation itself is saved. Restoring a
+ * checkpoint doesn't notify WireMonitors, or change the scheduler's
+ * settings or statistics. Components are told to resynchronize (see
+ * Component.resync()), so they must not keep any state that can't be
+ * recomputed from their inputs. The edges scheduled by Clocks aren't saved
+ * either: restoring a checkpoint restarts the clocks, which schedule their
+ * next edges again from the restored time.
+ *
+ * @author Allan McInnes
+ */
+public class Checkpoint {
+    // File format
+    static final byte[] MAGIC = "LSCHKPT\0".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 40;
+    static final int EVENT_SIZE = 13;
+
+    private final ByteBuffer data;  // The saved state, in the file layout
+    private final int n_wires;      // Number of wires saved
+    private final int n_events;     // Number of events saved
+
+    // Creation
+    /**
+     * Constructor.
+     * @param data the saved state, in the file layout
+     */
+    private Checkpoint(ByteBuffer data) {
+        this.data = data;
+        n_wires = data.getInt(MAGIC.length + 4);
+        n_events = data.getInt(MAGIC.length + 8);
+    }
+
+    /**
+     * Captures the current state of a simulation. This should be done
+     * between runs of the scheduler, rather than while it is running.
+     * The edges of Clocks are left out, since restore() restarts the
+     * clocks, which schedules them again.
+     * @param context the simulation
+     * @return a checkpoint holding the state
+     * @throws IllegalStateException if the scheduler holds any other event
+     * of a class derived from Event, whose action can't be saved, or if the
+     * state is larger than 2GB
+     */
+    public static Checkpoint capture(SimulationContext context) {
+        Scheduler scheduler = context.scheduler();
+        Event[] scheduled = scheduler.scheduledEvents();
+        Event[] events = new Event[scheduled.length];
+        int n_events = 0;
+        for (Event event : scheduled) {
+            if (event instanceof Clock.Edge) {
+                continue;
+            }
+            if (event.getClass() != Event.class) {
+                throw new IllegalStateException("Can't save an event of type "
+                    + event.getClass().getName() + ".");
+            }
+            events[n_events++] = event;
+        }
+        events = Arrays.copyOf(events, n_events);
+
+        int n_wires = context.wireCount();
+        long size = sizeOf(n_wires, events.length);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The simulation state is too large for a checkpoint.");
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) size);
+        data.put(MAGIC);
+        data.putInt(VERSION);
+        data.putInt(n_wires);
+        data.putInt(events.length);
+        data.putInt(0);
+        data.putLong(scheduler.tick());
+        data.putLong(scheduler.stopTick());
+        for (int w = 0; w < n_wires; w += 2) {
+            int pair = Netlist.encode(context.wire(w).getSignal());
+            if (w + 1 < n_wires) {
+                pair |= Netlist.encode(context.wire(w + 1).getSignal()) << 4;
+            }
+            data.put((byte) pair);
+        }
+        for (Event event : events) {
+            data.putLong(event.tick());
+            data.putInt(event.wire().id());
+            data.put(Netlist.encode(event.level()));
+        }
+        return new Checkpoint(data);
+    }
+
+    /**
+     * Reads a checkpoint from a file. The file is mapped into memory, and
+     * must not be changed while the checkpoint is in use.
+     * @param file the file to read
+     * @return the checkpoint
+     * @throws IOException if the file can't be read, or isn't a checkpoint
+     */
+    public static Checkpoint read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not a LogicSim checkpoint.");
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (data.get(i) != MAGIC[i]) {
+                    throw new IOException(file + " is not a LogicSim checkpoint.");
+                }
+            }
+            if (data.getInt(MAGIC.length) != VERSION) {
+                throw new IOException(file + " is a checkpoint of an unsupported version.");
+            }
+            int n_wires = data.getInt(MAGIC.length + 4);
+            int n_events = data.getInt(MAGIC.length + 8);
+            if (n_wires < 0 || n_events < 0 || sizeOf(n_wires, n_events) != size) {
+                throw new IOException(file + " is truncated or corrupt.");
+            }
+            return new Checkpoint(data);
+        }
+    }
+
+    // Queries
+    /** @return the simulation time the checkpoint was captured at */
+    public double time() { return Scheduler.nanoseconds(tick()); }
+
+    /** @return the simulation time the checkpoint was captured at, in ticks */
+    public long tick() { return data.getLong(MAGIC.length + 16); }
+
+    /** @return the bound on simulation time, or Scheduler.NO_BOUND */
+    public double stopTime() {
+        long stop = data.getLong(MAGIC.length + 24);
+        return (stop < 0) ? Scheduler.NO_BOUND : Scheduler.nanoseconds(stop);
+    }
+
+    /** @return the number of wires saved */
+    public int wireCount() { return n_wires; }
+
+    /** @return the number of scheduled events saved */
+    public int eventCount() { return n_events; }
+
+    /** @return the size of the checkpoint in bytes */
+    public int size() { return data.capacity(); }
+
+    // Commands
+    /**
+     * Writes the checkpoint to a file, replacing anything already there.
+     * @param file the file to write
+     * @throws IOException if the file can't be written
+     */
+    public void write(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size());
+            out.put(data.duplicate().clear());
+        }
+    }
+
+    /**
+     * Restores the saved state into a simulation, replacing its current
+     * state. Any events already scheduled are discarded. A checkpoint
+     * doesn't hold clock edges, so any Clock in the simulation is restarted
+     * from the restored time instead, at the point of its cycle it would
+     * have reached by then.
+     * @param context a simulation with the same wires as the one captured
+     * @throws IllegalArgumentException if the simulation doesn't have the
+     * same number of wires as the one captured
+     */
+    public void restore(SimulationContext context) {
+        if (context.wireCount() != n_wires) {
+            throw new IllegalArgumentException("The checkpoint has " + n_wires
+                + " wires, but the simulation has " + context.wireCount() + ".");
+        }
+        Scheduler scheduler = context.scheduler();
+        scheduler.restoreTime(tick(), data.getLong(MAGIC.length + 24));
+
+        int pos = HEADER_SIZE;
+        for (int w = 0; w < n_wires; w += 2) {
+            int pair = data.get(pos++);
+            context.wire(w).restoreSignal(Netlist.decode((byte) (pair & 0xf)));
+            if (w + 1 < n_wires) {
+                context.wire(w + 1).restoreSignal(Netlist.decode((byte) ((pair >> 4) & 0xf)));
+            }
+        }
+        for (int e = 0; e < n_events; e++) {
+            scheduler.restoreEvent(data.getLong(pos), context.wire(data.getInt(pos + 8)),
+                                   Netlist.decode(data.get(pos + 12)));
+            pos += EVENT_SIZE;
+        }
+        for (int w = 0; w < n_wires; w++) {
+            context.wire(w).resyncDrivenComponents();
+        }
+        for (int w = 0; w < n_wires; w++) {
+            for (Component driver : context.wire(w).drivingComponents()) {
+                if (driver instanceof Clock) {
+                    driver.update();
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a fork: a new simulation, in the saved state. The builder is
+     * given the new context, and must build the same circuit in it as the
+     * one the checkpoint was captured from.
+     * @param builder builds the circuit in a new context
+     * @return the new simulation context
+     * @throws IllegalArgumentException if the circuit built doesn't have
+     * the same number of wires as the one captured
+     */
+    public SimulationContext fork(Consumer<SimulationContext> builder) {
+        SimulationContext context = new SimulationContext();
+        builder.accept(context);
+        restore(context);
+        return context;
+    }
+
+    // Helpers
+    /**
+     * @return the size in bytes of a checkpoint of a given number of wires
+     * and events
+     */
+    private static long sizeOf(int n_wires, int n_events) {
+        return HEADER_SIZE + (n_wires + 1L) / 2 + (long) n_events * EVENT_SIZE;
+    }
+}
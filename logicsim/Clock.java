@@ -0,0 +1,166 @@
+package logicsim;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A clock generator, which drives a wire with a square wave. The wave
+ * rises at the phase time, and every period after it, and stays HIGH for
+ * the fraction of the period given by the duty cycle. Before the first
+ * rising edge the wire is LOW. A clock started later than that picks the
+ * wave up where it would have been if it had been running all along.
+ *
+ * A clock drives its wire with a single recurring event, which the
+ * scheduler moves on to the next edge and queues again each time it is
+ * executed. Unlike an inverter ring, which takes several wires and an
+ * event per inverter for each edge, a clock costs one event per edge,
+ * and allocates nothing however long it runs.
+ *
+ * The clock starts as soon as it is created, at the current simulation
+ * time, and schedules its edges with the scheduler of its wire's context,
+ * so it runs whether or not it has been added to a Block. Since it never
+ * stops, a simulation with a clock in it needs a stop time (or
+ * fast-forwarding, see Scheduler.setFastForward()) to end. Removing the
+ * clock from its Block, or clearing the schedule, stops it; update()
+ * starts it again. A Checkpoint leaves clock edges out when it is
+ * captured, and restarts the clocks of the simulation when it is restored.
+ *
+ * @author Allan McInnes
+ */
+public class Clock extends Component {
+    protected Wire out;
+    private final long period;      // Length of a cycle in ticks
+    private final long high;        // Ticks spent HIGH in each cycle
+    private final long phase;       // Time of the first rising edge in ticks
+    private Edge edge = null;       // The next edge, while running
+
+    // Creation
+    /**
+     * Constructor for a clock with a 50% duty cycle, whose first rising
+     * edge is at time 0.
+     * @param out the wire to drive
+     * @param period the length of a cycle in nanoseconds
+     * @throws IllegalArgumentException if the period is too short
+     */
+    public Clock(Wire out, double period) {
+        this(out, period, 0.5, 0.0);
+    }
+
+    /**
+     * Constructor.
+     * @param out the wire to drive
+     * @param period the length of a cycle in nanoseconds
+     * @param duty the fraction of each cycle that the clock is HIGH
+     * @param phase the time of the first rising edge in nanoseconds
+     * @throws IllegalArgumentException if the period is too short, or the
+     * duty cycle doesn't leave the clock both HIGH and LOW for some time
+     */
+    public Clock(Wire out, double period, double duty, double phase) {
+        this.period = Scheduler.ticks(period);
+        this.high = Scheduler.ticks(period * duty);
+        this.phase = Scheduler.ticks(phase);
+        if (this.period < 2 || !(duty > 0.0 && duty < 1.0)
+                || high < 1 || high >= this.period) {
+            throw new IllegalArgumentException("A clock must spend some time both HIGH and LOW in every period.");
+        }
+        this.out = out;
+        this.out.setDrivingComponent(this);
+        update();
+    }
+
+    // Queries
+    /** @return the length of a cycle in nanoseconds */
+    public double period() { return Scheduler.nanoseconds(period); }
+
+    /** @return the fraction of each cycle that the clock is HIGH */
+    public double dutyCycle() { return (double) high / period; }
+
+    /** @return the time of the first rising edge in nanoseconds */
+    public double phase() { return Scheduler.nanoseconds(phase); }
+
+    /** @return true if the clock has an edge scheduled */
+    public boolean isRunning() { return edge != null && !edge.cancelled; }
+
+    /** @return the clock output */
+    @Override
+    public List<Wire> outputs() { return Collections.singletonList(out); }
+
+    // Commands
+    /**
+     * Starts the clock, if it isn't already running. The wire is set at
+     * once to the level the clock has at the current time (LOW, if that is
+     * before the phase time), and the next edge is scheduled.
+     */
+    @Override
+    public void update() {
+        if (isRunning()) {
+            return;
+        }
+        Scheduler scheduler = out.context().scheduler();
+        long now = scheduler.tick();
+        long into = Math.floorMod(now - phase, period); // Time since a rising edge
+        Wire target = out.driveTarget(this);
+        if (now < phase) {
+            target.setSignal(Signal.LOW); // Not started yet
+            edge = new Edge(phase, target, Signal.HIGH);
+        } else if (into < high) {
+            target.setSignal(Signal.HIGH);
+            edge = new Edge(now + high - into, target, Signal.LOW);
+        } else {
+            target.setSignal(Signal.LOW);
+            edge = new Edge(now + period - into, target, Signal.HIGH);
+        }
+        scheduler.newEvent(edge);
+    }
+
+    /**
+     * Moves the clock to another wire.
+     * @param from the wire being replaced
+     * @param to the wire replacing it
+     */
+    @Override
+    protected void replaceWire(Wire from, Wire to) {
+        out = to;
+    }
+
+    /**
+     * The recurring event that makes the edges of a clock. A new one is
+     * only created when the clock is started.
+     */
+    final class Edge extends Event {
+        /**
+         * Constructor.
+         * @param tick the time of the edge in ticks
+         * @param wire the wire the edge occurs on
+         * @param level the level after the edge
+         */
+        Edge(long tick, Wire wire, Signal level) {
+            super(Scheduler.START_TIME, wire, level);
+            set(tick, wire, level);
+        }
+
+        /**
+         * Moves the edge on to the next one, after a falling edge if this
+         * was a rising edge, and vice versa.
+         * @return true, since a clock never stops by itself
+         */
+        @Override
+        boolean recur() {
+            Wire target = out.driveTarget(Clock.this);
+            if (level() == Signal.HIGH) {
+                set(tick() + high, target, Signal.LOW);
+            } else {
+                set(tick() + period - high, target, Signal.HIGH);
+            }
+            return true;
+        }
+
+        /**
+         * Marks the edge as cancelled, so the clock knows it has stopped.
+         */
+        @Override
+        void discarded() {
+            cancelled = true;
+        }
+    }
+}
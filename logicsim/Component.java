@@ -1,5 +1,8 @@
 package logicsim;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Component is an abstract base class for digital logic components.
  * It implements the SimulationModel interface to allow recursive
@@ -7,11 +10,18 @@ package logicsim;
  *
  * Components acts as Observers of Wires.
  *
+ * A component can be taken out of a circuit that is being simulated (see
+ * Block.removeComponent()), or moved to different wires (see reconnect()).
+ * Both depend on the component listing its wires in inputs() and outputs().
+ *
  * @author aim
  */
 
 public abstract class Component implements SimulationModel {
     protected SimulationModel model; // Simulation model
+    boolean is_triggered = false;    // Waiting for the end of a delta cycle?
+    private Wire changed_input = null; // An input changed in the delta cycle
+    private int n_changed_inputs = 0;  // Number of inputs changed in it
 
     /**
      * Default constructor
@@ -37,6 +47,26 @@ public abstract class Component implements SimulationModel {
         return model.time();
     }
 
+    /**
+     * Queries the wires the component reads. Components that read wires
+     * override this, so that they can be disconnected when they are
+     * removed from a Block. By default there are none.
+     * @return the input wires
+     */
+    public List<Wire> inputs() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Queries the wires the component drives. Components that drive wires
+     * override this, so that they can be disconnected when they are
+     * removed from a Block. By default there are none.
+     * @return the output wires
+     */
+    public List<Wire> outputs() {
+        return Collections.emptyList();
+    }
+
     // Commands
     /**
      * Define the parent model to be used when simulating the component.
@@ -68,12 +98,146 @@ public abstract class Component implements SimulationModel {
         throw new UnsupportedOperationException("Only supported by Blocks.");
     }
 
+    /**
+     * Moves every connection of the component from one wire to another,
+     * while the circuit is being simulated, and updates the component
+     * against the levels it now sees. Transitions the component has already
+     * scheduled on a wire it no longer drives are cancelled, so only the
+     * logic downstream of the component is affected.
+     * @param from a wire the component is connected to
+     * @param to the wire to connect it to instead
+     * @throws IllegalArgumentException if the component isn't connected to
+     *  from, or the wires belong to different simulation contexts
+     * @throws UnsupportedOperationException if the component can't be
+     *  reconnected
+     */
+    public void reconnect(Wire from, Wire to) {
+        if (!from.isConnected(this)) {
+            throw new IllegalArgumentException("The component isn't connected to " + from.name() + ".");
+        }
+        if (to.context() != from.context()) {
+            throw new IllegalArgumentException("Component wires must belong to the same simulation context.");
+        }
+        replaceWire(from, to);
+        if (from.isDrivenComponent(this)) {
+            from.detachDrivenComponent(this);
+            to.attachDrivenComponent(this);
+        }
+        if (from.isDrivingComponent(this)) {
+            from.removeDrivingComponent(this);
+            to.setDrivingComponent(this);
+        }
+        resync();
+        update();
+    }
+
+    /**
+     * Replaces a wire with another wherever the component refers to it, on
+     * behalf of reconnect(), which then moves the connections themselves.
+     * Components that can be reconnected override this.
+     * @param from the wire being replaced
+     * @param to the wire replacing it
+     * @throws UnsupportedOperationException if the component can't be
+     *  reconnected
+     */
+    protected void replaceWire(Wire from, Wire to) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " can't be reconnected.");
+    }
+
     /**
      * Updates the component's state based on the new inputs that have
      * resulted from a transition in one or more input signals.
      */
     public abstract void update();
 
+    /**
+     * Updates the component's state after a transition on one particular
+     * input wire. Components that can use the knowledge of which input
+     * changed to update themselves more cheaply override this. By default,
+     * the whole component is updated.
+     * @param source the input wire that changed
+     */
+    public void update(Wire source) {
+        update();
+    }
+
+    /**
+     * Records that an input changed during the current delta cycle. Once
+     * all of the changes of the delta cycle have been recorded, the
+     * component is updated by deltaUpdate(). Components that override this
+     * must also override deltaUpdate().
+     * @param source the input wire that changed
+     */
+    public void changedInput(Wire source) {
+        if (n_changed_inputs++ == 0) {
+            changed_input = source;
+        }
+    }
+
+    /**
+     * Updates the component once at the end of a delta cycle in which one
+     * or more of its inputs changed. By default, this is update(Wire) if
+     * only one input changed, and update() otherwise.
+     */
+    public void deltaUpdate() {
+        Wire source = changed_input;
+        int n = n_changed_inputs;
+        changed_input = null;
+        n_changed_inputs = 0;
+        if (n == 1) {
+            update(source);
+        } else {
+            update();
+        }
+    }
+
+    /**
+     * Discards anything the component remembers about its input signals,
+     * after they have been changed without the component being notified
+     * (for example, when a Checkpoint is restored). The next update then
+     * reads every input afresh. Components that don't keep such state
+     * needn't override this.
+     */
+    public void resync() {
+    }
+
+    /**
+     * Records that a redundant transition was not scheduled.
+     */
+    @Override
+    public void eventSuppressed() {
+        model.eventSuppressed();
+    }
+
+    /**
+     * Schedules a transition on an output wire, one propagation delay from
+     * now. If the wire is already going to carry the new level (either
+     * because it already does, or because that is the level of the latest
+     * transition scheduled for it) then the transition would have no effect,
+     * so it isn't scheduled at all. On a wire with several drivers, the
+     * transition is scheduled on the component's own contribution.
+     * @param out the output wire
+     * @param delay the propagation delay in nanoseconds (must be > 0.0)
+     * @param level the new output level
+     */
+    protected void drive(Wire out, double delay, Signal level) {
+        Wire target = out.driveTarget(this);
+        if (target.projectedSignal() == level) {
+            model.eventSuppressed();
+        } else {
+            model.newEvent(model.time() + delay, target, level);
+        }
+    }
+
+    /**
+     * Accepts a visitor. Components that don't have a more specific visit
+     * method are visited as generic components.
+     * @param visitor the visitor
+     */
+    public void accept(ComponentVisitor visitor) {
+        visitor.visitComponent(this);
+    }
+
     /**
      * Adds a new future event to the model.
      * @param event a new event (which must have a time later
@@ -83,4 +247,17 @@ public abstract class Component implements SimulationModel {
     public void newEvent(Event event) {
         model.newEvent(event);
     }
+
+    /**
+     * Adds a new future transition to the model.
+     * @param time the time the transition occurs, in nanoseconds (which
+     *  must be later than the current time)
+     * @param wire the wire the transition occurs on
+     * @param level the new signal level on the wire
+     * @throws IllegalArgumentException if event delay <= 0.0
+     */
+    @Override
+    public void newEvent(double time, Wire wire, Signal level) {
+        model.newEvent(time, wire, level);
+    }
 }
@@ -0,0 +1,84 @@
+package logicsim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects every component in a hierarchy: the component itself and, if it
+ * is (or wraps) a Block, everything inside it, however deeply nested.
+ * Components are compared by identity.
+ *
+ * The components are also listed in the order they were visited: a Block's
+ * components in the order they were added, each followed by its contents.
+ *
+ * @author Allan McInnes
+ */
+final class ComponentCollector implements ComponentVisitor {
+    private final Set<Component> found =
+        Collections.newSetFromMap(new IdentityHashMap<Component, Boolean>());
+    private final List<Component> order = new ArrayList<Component>(); // Found, in visit order
+
+    /**
+     * Collects the components in a hierarchy.
+     * @param root the top of the hierarchy
+     * @return the set of components found
+     */
+    static Set<Component> collect(Component root) {
+        ComponentCollector collector = new ComponentCollector();
+        root.accept(collector);
+        return collector.found;
+    }
+
+    /**
+     * Lists the components in a hierarchy that aren't Blocks: the gates and
+     * other components that connect to wires.
+     * @param root the top of the hierarchy
+     * @return the components found, in the order they were visited
+     */
+    static List<Component> leaves(Component root) {
+        ComponentCollector collector = new ComponentCollector();
+        root.accept(collector);
+        List<Component> leaves = new ArrayList<Component>();
+        for (Component c : collector.order) {
+            if (!(c instanceof Block)) {
+                leaves.add(c);
+            }
+        }
+        return leaves;
+    }
+
+    @Override
+    public void visitBlock(Block block) {
+        add(block);
+        for (Component c : block.components()) {
+            c.accept(this);
+        }
+    }
+
+    @Override
+    public void visitTwoInputAndGate(TwoInputAndGate gate) { add(gate); }
+
+    @Override
+    public void visitTwoInputOrGate(TwoInputOrGate gate) { add(gate); }
+
+    @Override
+    public void visitNInputGate(NInputGate gate) { add(gate); }
+
+    @Override
+    public void visitInverter(Inverter inverter) { add(inverter); }
+
+    @Override
+    public void visitProbe(Probe probe) { add(probe); }
+
+    @Override
+    public void visitComponent(Component comp) { add(comp); }
+
+    private void add(Component comp) {
+        if (found.add(comp)) {
+            order.add(comp);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package logicsim;
 
+import java.util.List;
+
 /**
  * Wraps a component with some kind of additional behaviour that
  * occurs whenever the component generates an event.
@@ -37,6 +39,35 @@ public abstract class ComponentDecorator extends Component {
         // be directly accessed any Events that change it.
     }
 
+    /** @return the input wires of the decorated component */
+    @Override
+    public List<Wire> inputs() { return comp.inputs(); }
+
+    /** @return the output wires of the decorated component */
+    @Override
+    public List<Wire> outputs() { return comp.outputs(); }
+
+    /**
+     * Reconnects the decorated component, which is the one connected to
+     * the wires.
+     * @param from a wire the component is connected to
+     * @param to the wire to connect it to instead
+     */
+    @Override
+    public void reconnect(Wire from, Wire to) {
+        comp.reconnect(from, to);
+    }
+
+    /**
+     * Accepts a visitor. Decorations don't change the structure of a
+     * model, so the visitor is passed straight on to the decorated component.
+     * @param visitor the visitor
+     */
+    @Override
+    public void accept(ComponentVisitor visitor) {
+        comp.accept(visitor);
+    }
+
     /**
      * Add a new event to the model
      * @param event the new event
@@ -48,6 +79,19 @@ public abstract class ComponentDecorator extends Component {
         postEventAction();
     }
 
+    /**
+     * Add a new transition to the model
+     * @param time the time the transition occurs
+     * @param wire the wire the transition occurs on
+     * @param level the new signal level on the wire
+     */
+    @Override
+    public void newEvent(double time, Wire wire, Signal level) {
+        preEventAction();
+        model.newEvent(time, wire, level);
+        postEventAction();
+    }
+
     /**
      * The action to perform prior to posting a new event.
      */
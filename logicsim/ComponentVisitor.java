@@ -0,0 +1,57 @@
+package logicsim;
+
+/**
+ * ComponentVisitor allows operations to be defined over a hierarchy of
+ * components without adding a new method to every Component class. Each
+ * concrete component calls back the corresponding visit method in its
+ * <code>accept()</code> method.
+ *
+ * This is an instance of the Visitor pattern. Blocks do not automatically
+ * visit their children, so a visitor that needs to walk a whole hierarchy
+ * should do so from <code>visitBlock()</code>.
+ *
+ * @author Allan McInnes
+ */
+public interface ComponentVisitor {
+    /**
+     * Visit a composite component.
+     * @param block the block being visited
+     */
+    public void visitBlock(Block block);
+
+    /**
+     * Visit a 2-input AND gate.
+     * @param gate the gate being visited
+     */
+    public void visitTwoInputAndGate(TwoInputAndGate gate);
+
+    /**
+     * Visit a 2-input OR gate.
+     * @param gate the gate being visited
+     */
+    public void visitTwoInputOrGate(TwoInputOrGate gate);
+
+    /**
+     * Visit an N-input gate.
+     * @param gate the gate being visited
+     */
+    public void visitNInputGate(NInputGate gate);
+
+    /**
+     * Visit an inverter.
+     * @param inverter the inverter being visited
+     */
+    public void visitInverter(Inverter inverter);
+
+    /**
+     * Visit a probe.
+     * @param probe the probe being visited
+     */
+    public void visitProbe(Probe probe);
+
+    /**
+     * Visit a component that has no more specific visit method.
+     * @param comp the component being visited
+     */
+    public void visitComponent(Component comp);
+}
@@ -4,18 +4,30 @@ package logicsim;
  * Events represent transitions in the signal level on a wire at
  * a specific time. Events are queued in the scheduler, and when the event
  * is "executed", the corresponding wire signal level transition occurs. The
- * event time is measured in nanoseconds.
+ * event time is given in nanoseconds, but is held as a whole number of
+ * Scheduler ticks, so events that occur at the same time compare exactly
+ * equal no matter how their times were calculated.
  *
  * Event can be viewed as a Command in the Command pattern, with a Wire as the
  * Receiver. It could easily be extended to allow multiple Wires to be modified
  * by a single Event.
  *
+ * Events created by a component are owned by the scheduler once they have
+ * been added to it. To avoid allocating a new object for every transition,
+ * the Scheduler keeps a pool of the events it creates itself (see
+ * SimulationModel.newEvent(double, Wire, Signal)) and reuses them once they
+ * have been executed. A recurring event, such as the edges of a Clock, is
+ * instead scheduled again each time it is executed.
+ *
  * @author Allan McInnes
  */
 public class Event implements Comparable<Event> {
-    private final double event_time;   // Time at which the event should occur
-    private final Wire wire;           // Wire the event occurs on
-    private final Signal level;        // The event is a transition to this level
+    private long event_tick;           // Time at which the event should occur, in ticks
+    private Wire wire;                 // Wire the event occurs on
+    private Signal level;              // The event is a transition to this level
+    long seq;                          // Order in which the event was scheduled
+    boolean pooled = false;            // Can the scheduler reuse this event?
+    boolean cancelled = false;         // Has a later transition superseded this one?
 
     // Creation
     /**
@@ -26,14 +38,14 @@ public class Event implements Comparable<Event> {
      * the event occurs
      */
     public Event(double t, Wire w, Signal l) {
-        event_time = t;
+        event_tick = Scheduler.ticks(t);
         wire = w;
         level = l;
     }
 
     /** Copy constructor. */
     public Event(Event other) {
-        event_time = other.event_time;
+        event_tick = other.event_tick;
         wire = other.wire;
         level = other.level;
     }
@@ -43,9 +55,59 @@ public class Event implements Comparable<Event> {
      * Queries the time of the event.
      * @return the event time in nanoseconds
      */
-    public double time() { return event_time; }
+    public double time() { return Scheduler.nanoseconds(event_tick); }
+
+    /**
+     * Queries the time of the event in scheduler ticks.
+     * @return the event time in ticks
+     */
+    public long tick() { return event_tick; }
+
+    /**
+     * Queries the wire the event occurs on.
+     * @return the wire
+     */
+    public Wire wire() { return wire; }
+
+    /**
+     * Queries the signal level the event changes its wire to.
+     * @return the new signal level
+     */
+    public Signal level() { return level; }
 
     // Commands
+    /**
+     * Reinitializes a pooled event so that it can be reused.
+     * @param t the time the event occurs, in ticks
+     * @param w the wire the event occurs on
+     * @param l the new signal level
+     */
+    void set(long t, Wire w, Signal l) {
+        event_tick = t;
+        wire = w;
+        level = l;
+        cancelled = false;
+    }
+
+    /**
+     * Moves a recurring event on to its next occurrence, once it has been
+     * executed, so that the scheduler can queue the same object again
+     * rather than a new one (see Clock). Ordinary events happen only once.
+     * @return true if the event has been moved on, and should be scheduled
+     * again
+     */
+    boolean recur() {
+        return false;
+    }
+
+    /**
+     * Tells the event that the scheduler has dropped it without executing
+     * it, when the schedule is cleared. An ordinary event can be added to
+     * the schedule again afterwards, so by default this does nothing.
+     */
+    void discarded() {
+    }
+
     /**
      * Make the transition defined by the event.
      */
@@ -54,17 +116,22 @@ public class Event implements Comparable<Event> {
     }
 
     /**
-     * Events are ordered in the scheduler strictly based on their time
-     * and not on any other value.
+     * Events are ordered in the scheduler based on their time. Events that
+     * occur at the same time are ordered by when they were scheduled, so
+     * that the last transition scheduled for a given time is the one that
+     * takes effect.
      *
      * @param other the Event to be compared
      *
-     * @return a negative integer occurs earlier than the specified Event, otherwise
-     * return a positive integer.
+     * @return a negative integer if this Event occurs earlier than the
+     * specified Event, a positive integer if it occurs later, or zero if
+     * it is the same Event.
      */
     public int compareTo(Event other) {
-        if (this.time() < other.time()) { return -1; }
-        return 1; 
+        if (event_tick != other.event_tick) {
+            return (event_tick < other.event_tick) ? -1 : 1;
+        }
+        return Long.compare(seq, other.seq);
     }
 
     /**
@@ -0,0 +1,47 @@
+package logicsim;
+
+/**
+ * EventQueue is the interface to the data structure the Scheduler uses to
+ * hold pending events. Implementations must return events in the order
+ * defined by Event.compareTo(): earliest time first, with events that occur
+ * at the same time returned in the order in which they were scheduled.
+ *
+ * Different implementations trade off generality against speed. This is an
+ * instance of the Strategy pattern.
+ *
+ * @author Allan McInnes
+ */
+public interface EventQueue {
+    /**
+     * @return true if there are no events in the queue
+     */
+    public boolean isEmpty();
+
+    /**
+     * @return the number of events in the queue
+     */
+    public int size();
+
+    /**
+     * Queries the next event without removing it from the queue.
+     * @return the earliest event in the queue, or null if the queue is empty
+     */
+    public Event peek();
+
+    /**
+     * Removes the next event from the queue.
+     * @return the earliest event in the queue, or null if the queue is empty
+     */
+    public Event poll();
+
+    /**
+     * Adds an event to the queue.
+     * @param event the event to add
+     */
+    public void add(Event event);
+
+    /**
+     * Removes all events from the queue.
+     */
+    public void clear();
+}
@@ -0,0 +1,283 @@
+package logicsim;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An EventTracer keeps a record of the most recent transitions executed by
+ * one or more Schedulers. Each record holds the time of the transition, the
+ * component driving the wire, the wire, and the new signal level. Unlike a
+ * LoggingDecorator, which formats and prints a line for every event, a
+ * tracer just stores the record in a preallocated ring buffer, so it is
+ * cheap enough to leave switched on for a whole run. Once the buffer is
+ * full, each new record overwrites the oldest one.
+ *
+ * Tracing is enabled by giving a Scheduler a tracer; a Scheduler without
+ * one pays only for a null check per event. A tracer can be limited to the
+ * components in a chosen set of Blocks, and can record just one in every n
+ * transitions. It can also forward each record to Java Flight Recorder as a
+ * FlightRecorderTransition event.
+ *
+ * The ring buffer is lock-free, so one tracer can be shared by schedulers
+ * running on different threads, and read with snapshot() while they run.
+ * Writers take sequence numbers from an atomic counter, and each then
+ * claims the slot for its number by marking it as being written. A writer
+ * that finds an older record being written into its slot waits for it to
+ * be published, and one that finds a newer record there drops its own, so
+ * no two writers ever fill a slot at once. Each slot is published with its
+ * sequence number, which lets a reader detect (and skip) a slot that was
+ * overwritten while it was being read. The sampling count is shared by
+ * all the writers too. Filters and the sampling period should be set up
+ * before tracing starts.
+ *
+ * @author Allan McInnes
+ */
+public class EventTracer {
+
+    /**
+     * One traced transition.
+     */
+    public static final class Record {
+        private final double time;
+        private final Component component;
+        private final Wire wire;
+        private final Signal level;
+
+        Record(double time, Component component, Wire wire, Signal level) {
+            this.time = time;
+            this.component = component;
+            this.wire = wire;
+            this.level = level;
+        }
+
+        /** @return the simulation time of the transition in nanoseconds */
+        public double time() { return time; }
+
+        /** @return the component driving the wire, or null if it has none */
+        public Component component() { return component; }
+
+        /** @return the wire that changed */
+        public Wire wire() { return wire; }
+
+        /** @return the new signal level */
+        public Signal level() { return level; }
+
+        @Override
+        public String toString() {
+            return String.format("[%4f] %s\t%s\t%s", time, component,
+                                 (wire != null) ? wire.name() : null, level);
+        }
+    }
+
+    private static final Signal[] SIGNALS = Signal.values();
+
+    // The ring buffer
+    private final int mask;
+    private final double[] times;
+    private final Component[] components;
+    private final Wire[] wires;
+    private final byte[] levels;
+    private final AtomicLongArray published; // Sequence number of the record in each slot
+    private final AtomicLong next = new AtomicLong(0); // Sequence number of the next record
+
+    private static final long EMPTY = -1;   // Published value of a slot never written
+
+    private Set<Component> filter = null;   // Components to trace (null means all)
+    private int sample_period = 1;          // Trace one in every sample_period transitions
+    private final AtomicLong passed = new AtomicLong(0); // Transitions that passed the filter
+    private boolean is_flight_recorder = false; // Forward records to JFR?
+
+    // Creation
+    /**
+     * Constructor.
+     * @param capacity the number of records to keep, which is rounded up
+     * to a power of two
+     * @throws IllegalArgumentException if capacity is less than 1
+     */
+    public EventTracer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("A tracer must be able to hold at least one record.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        times = new double[size];
+        components = new Component[size];
+        wires = new Wire[size];
+        levels = new byte[size];
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, EMPTY);
+        }
+    }
+
+    // Queries
+    /** @return the maximum number of records kept */
+    public int capacity() { return mask + 1; }
+
+    /** @return the total number of records made, including those overwritten */
+    public long recordCount() { return next.get(); }
+
+    /** @return the sampling period (1 means every transition is traced) */
+    public int samplePeriod() { return sample_period; }
+
+    /** @return true if records are forwarded to Java Flight Recorder */
+    public boolean isFlightRecorderEnabled() { return is_flight_recorder; }
+
+    /**
+     * Checks whether transitions driven by a component will be traced.
+     * @param comp a component
+     * @return true if comp passes the filter
+     */
+    public boolean isTraced(Component comp) {
+        return filter == null || filter.contains(comp);
+    }
+
+    /**
+     * Copies the records currently held in the buffer, oldest first.
+     * Records that are overwritten while the copy is being made are left out.
+     * @return the records
+     */
+    public List<Record> snapshot() {
+        long end = next.get();
+        long start = Math.max(0, end - capacity());
+        List<Record> result = new ArrayList<Record>((int) (end - start));
+        for (long seq = start; seq < end; seq++) {
+            int i = (int) seq & mask;
+            if (published.get(i) != seq) {
+                continue;
+            }
+            Record r = new Record(times[i], components[i], wires[i], SIGNALS[levels[i]]);
+            VarHandle.acquireFence();
+            if (published.get(i) == seq) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    // Commands
+    /**
+     * Limits tracing to transitions on wires driven by the given component.
+     * If the component is a Block, or contains one, every component inside
+     * it is traced. Calling this more than once traces the union of the
+     * components.
+     * @param comp the component to trace
+     */
+    public void traceComponent(Component comp) {
+        if (filter == null) {
+            filter = Collections.newSetFromMap(new IdentityHashMap<Component, Boolean>());
+        }
+        filter.addAll(ComponentCollector.collect(comp));
+    }
+
+    /**
+     * Removes any limit on the components that are traced.
+     */
+    public void clearFilter() {
+        filter = null;
+    }
+
+    /**
+     * Sets the sampling period. With a period of n, only every n-th
+     * transition that passes the filter is traced.
+     * @param period the sampling period (must be >= 1)
+     * @throws IllegalArgumentException if period is less than 1
+     */
+    public void setSamplePeriod(int period) {
+        if (period < 1) {
+            throw new IllegalArgumentException("The sampling period must be at least 1.");
+        }
+        sample_period = period;
+        passed.set(0);
+    }
+
+    /**
+     * Enables or disables forwarding of records to Java Flight Recorder.
+     * The logicsim.Transition event also has to be enabled in the recording.
+     * @param enabled true to forward records
+     */
+    public void setFlightRecorderEnabled(boolean enabled) {
+        is_flight_recorder = enabled;
+    }
+
+    /**
+     * Records a transition, if it passes the filter and is sampled.
+     * Called by a Scheduler as it executes each transition.
+     * @param time the time of the transition
+     * @param wire the wire that is changing
+     * @param level the new signal level
+     */
+    void record(double time, Wire wire, Signal level) {
+        Component comp = (wire != null) ? wire.drivingComponent() : null;
+        if (filter != null && !filter.contains(comp)) {
+            return;
+        }
+        if (sample_period > 1 && passed.incrementAndGet() % sample_period != 0) {
+            return;
+        }
+
+        long seq = next.getAndIncrement();
+        int i = (int) seq & mask;
+        if (!claim(i, seq)) {
+            return; // Already overwritten by a newer record
+        }
+        times[i] = time;
+        components[i] = comp;
+        wires[i] = wire;
+        levels[i] = (byte) level.ordinal();
+        published.set(i, seq);
+
+        if (is_flight_recorder) {
+            FlightRecorderTransition event = new FlightRecorderTransition();
+            if (event.shouldCommit()) {
+                event.time = time;
+                event.component = String.valueOf(comp);
+                event.wire = (wire != null) ? wire.name() : null;
+                event.level = level.name();
+                event.commit();
+            }
+        }
+    }
+
+    // Helpers
+    /**
+     * Marks a slot as being written by the writer of a record. A slot
+     * being written holds the value writing(seq), which is below EMPTY, so
+     * it never matches a sequence number that a reader is looking for.
+     * @param i the slot
+     * @param seq the sequence number of the record
+     * @return true if the slot was claimed, or false if a newer record has
+     * already taken it
+     */
+    private boolean claim(int i, long seq) {
+        while (true) {
+            long current = published.get(i);
+            long owner = (current < EMPTY) ? writing(current) : current;
+            if (owner > seq) {
+                return false;
+            }
+            if (current < EMPTY) {
+                Thread.onSpinWait(); // An older record is still being written
+            } else if (published.compareAndSet(i, current, writing(seq))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Converts between a sequence number and the value that marks its slot
+     * as being written. The conversion is its own inverse.
+     */
+    private static long writing(long value) {
+        return EMPTY - 1 - value;
+    }
+}
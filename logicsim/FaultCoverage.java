@@ -0,0 +1,125 @@
+package logicsim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A FaultCoverage is the result of grading a set of test vectors with the
+ * FaultSimulator: which of the faults were detected, and by which vector.
+ *
+ * @author Allan McInnes
+ */
+public class FaultCoverage {
+    private final List<StuckAtFault> faults; // The faults simulated
+    private final int[] detected_by;    // First vector to detect each fault, or -1
+    private final int n_vectors;        // Number of vectors applied
+    private final int n_detected;       // Number of faults detected
+
+    // Creation
+    /**
+     * Constructor.
+     * @param faults the faults simulated
+     * @param detected_by the first vector to detect each fault, or -1 if
+     * it wasn't detected
+     * @param n_vectors the number of vectors applied
+     */
+    FaultCoverage(List<StuckAtFault> faults, int[] detected_by, int n_vectors) {
+        this.faults = Collections.unmodifiableList(faults);
+        this.detected_by = detected_by;
+        this.n_vectors = n_vectors;
+        int n = 0;
+        for (int v : detected_by) {
+            if (v >= 0) {
+                n++;
+            }
+        }
+        n_detected = n;
+    }
+
+    // Queries
+    /** @return the faults simulated */
+    public List<StuckAtFault> faults() { return faults; }
+
+    /** @return the number of faults simulated */
+    public int faultCount() { return faults.size(); }
+
+    /** @return the number of faults detected */
+    public int detectedCount() { return n_detected; }
+
+    /** @return the number of test vectors applied */
+    public int vectorCount() { return n_vectors; }
+
+    /** @return the fraction of the faults detected, from 0.0 to 1.0 */
+    public double coverage() {
+        return faults.isEmpty() ? 1.0 : (double) n_detected / faults.size();
+    }
+
+    /**
+     * @param i the index of a fault in faults()
+     * @return the index of the first vector to detect the fault, or -1 if
+     * it wasn't detected
+     */
+    public int detectingVector(int i) { return detected_by[i]; }
+
+    /** @return the faults that weren't detected, in the order of faults() */
+    public List<StuckAtFault> undetected() {
+        List<StuckAtFault> missed = new ArrayList<StuckAtFault>();
+        for (int i = 0; i < detected_by.length; i++) {
+            if (detected_by[i] < 0) {
+                missed.add(faults.get(i));
+            }
+        }
+        return missed;
+    }
+
+    /**
+     * Counts the faults detected by each vector that no earlier vector had
+     * detected. A vector that detects nothing new adds nothing to the test.
+     * @return the number of faults first detected by each vector
+     */
+    public int[] newDetections() {
+        int[] counts = new int[n_vectors];
+        for (int v : detected_by) {
+            if (v >= 0) {
+                counts[v]++;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Describes the coverage: the totals, the cumulative coverage after
+     * each vector, and the faults that weren't detected.
+     * @return a multi-line report
+     */
+    public String report() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("Fault coverage: %d of %d stuck-at faults detected (%.2f%%) by %d vectors%n",
+                                 n_detected, faults.size(), 100.0 * coverage(), n_vectors));
+        int[] counts = newDetections();
+        int total = 0;
+        for (int v = 0; v < n_vectors; v++) {
+            total += counts[v];
+            out.append(String.format("  vector %d: %d new, %.2f%%%n", v, counts[v],
+                                     faults.isEmpty() ? 100.0 : 100.0 * total / faults.size()));
+        }
+        List<StuckAtFault> missed = undetected();
+        if (!missed.isEmpty()) {
+            out.append("Undetected:");
+            for (StuckAtFault f : missed) {
+                out.append(' ').append(f);
+            }
+            out.append(String.format("%n"));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Returns a one-line summary of the coverage.
+     */
+    @Override
+    public String toString() {
+        return String.format("%d/%d faults detected (%.2f%%)", n_detected, faults.size(), 100.0 * coverage());
+    }
+}
@@ -0,0 +1,276 @@
+package logicsim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * FaultSimulator grades a set of test vectors against stuck-at faults: it
+ * finds which faults in a circuit would make at least one of the observed
+ * outputs differ from the fault-free circuit, for some vector.
+ *
+ * The vectors are applied to the circuit inputs one after another, one
+ * every period, starting at time 0, and the outputs are compared at the
+ * end of each period, just before the next vector is applied. The period
+ * should be long enough for the circuit to settle. A fault is only counted
+ * as detected when the fault-free output is HIGH or LOW and the faulty
+ * output is the opposite level: an output that is X in either doesn't
+ * detect anything.
+ *
+ * Rather than running the whole simulation once per fault, the faults are
+ * simulated in parallel in two ways at once:
+ *
+ * <ul>
+ * <li>each VectorNetlistSimulator lane simulates a different faulty copy
+ *     of the circuit, with the faulty wire stuck in that lane only, so one
+ *     simulation handles a batch of 64 faults;</li>
+ * <li>the batches are shared out among a pool of threads with fork/join,
+ *     so batches that finish early leave their threads free to take work
+ *     from the others.</li>
+ * </ul>
+ *
+ * The fault-free circuit is simulated once, beforehand, and only its
+ * output levels are kept, for every batch to compare against. Each fault
+ * is dropped as soon as it has been detected, and a batch stops as soon as
+ * all of its faults have been dropped, since the remaining vectors can't
+ * change its result.
+ *
+ * A fault on a wire with several fanouts affects all of them (a "stem"
+ * fault). Faults on the individual branches are not modelled.
+ *
+ * @author Allan McInnes
+ */
+public class FaultSimulator {
+    private final Netlist net;              // The circuit being graded
+    private final int[] inputs;             // Wire ids of the circuit inputs
+    private final int[] outputs;            // Wire ids of the observed outputs
+    private final List<StuckAtFault> faults; // The faults to simulate
+    private final int[] fault_wire;         // Wire id of each fault
+    private int n_threads = Runtime.getRuntime().availableProcessors();
+
+    /** Number of faults simulated together in one batch */
+    public static final int BATCH_SIZE = VectorNetlistSimulator.LANES;
+
+    // Creation
+    /**
+     * Constructor. Both stuck-at faults are simulated on every wire of the
+     * netlist.
+     * @param net the circuit
+     * @param inputs the wires that test vectors are applied to
+     * @param outputs the wires that are observed
+     * @throws IllegalArgumentException if a wire isn't part of the netlist
+     */
+    public FaultSimulator(Netlist net, List<Wire> inputs, List<Wire> outputs) {
+        this(net, inputs, outputs, allFaults(net));
+    }
+
+    /**
+     * Constructor.
+     * @param net the circuit
+     * @param inputs the wires that test vectors are applied to
+     * @param outputs the wires that are observed
+     * @param faults the faults to simulate
+     * @throws IllegalArgumentException if a wire isn't part of the netlist
+     */
+    public FaultSimulator(Netlist net, List<Wire> inputs, List<Wire> outputs,
+                          List<StuckAtFault> faults) {
+        this.net = net;
+        this.inputs = wireIds(net, inputs);
+        this.outputs = wireIds(net, outputs);
+        this.faults = new ArrayList<StuckAtFault>(faults);
+        fault_wire = new int[faults.size()];
+        for (int i = 0; i < fault_wire.length; i++) {
+            fault_wire[i] = net.wireId(faults.get(i).wire());
+        }
+    }
+
+    /**
+     * Lists both stuck-at faults on every wire of a netlist.
+     * @param net the circuit
+     * @return the faults, in order of wire id, stuck-at-0 first
+     */
+    public static List<StuckAtFault> allFaults(Netlist net) {
+        List<StuckAtFault> all = new ArrayList<StuckAtFault>(2 * net.wireCount());
+        for (int w = 0; w < net.wireCount(); w++) {
+            all.add(new StuckAtFault(net.wire(w), Signal.LOW));
+            all.add(new StuckAtFault(net.wire(w), Signal.HIGH));
+        }
+        return all;
+    }
+
+    // Queries
+    /** @return the faults to simulate */
+    public List<StuckAtFault> faults() { return faults; }
+
+    /** @return the netlist being graded */
+    public Netlist netlist() { return net; }
+
+    // Commands
+    /**
+     * Sets the number of threads used to simulate batches of faults. The
+     * default is the number of processors available.
+     * @param n the number of threads
+     * @throws IllegalArgumentException if n is less than 1
+     */
+    public void setThreads(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("At least one simulation thread is needed.");
+        }
+        n_threads = n;
+    }
+
+    /**
+     * Grades a set of test vectors.
+     * @param vectors the test vectors, each holding one level for each input
+     * @param period the time between vectors, in nanoseconds
+     * @return the faults detected, and the vectors that detected them
+     * @throws IllegalArgumentException if period <= 0.0, or if a vector
+     * doesn't have a level for each input
+     */
+    public FaultCoverage run(Signal[][] vectors, double period) {
+        if (!(period > 0.0)) {
+            throw new IllegalArgumentException("The period must be > 0.0.");
+        }
+        for (Signal[] vector : vectors) {
+            if (vector.length != inputs.length) {
+                throw new IllegalArgumentException("Each vector must have " + inputs.length
+                    + " levels, one for each input.");
+            }
+        }
+
+        byte[][] expected = goodResponse(vectors, period);
+        int[] detected_by = new int[faults.size()];
+        Arrays.fill(detected_by, -1);
+        int n_batches = (faults.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+        ForkJoinPool pool = new ForkJoinPool(n_threads);
+        try {
+            pool.invoke(new Batches(0, n_batches, vectors, period, expected, detected_by));
+        } finally {
+            pool.shutdown();
+        }
+        return new FaultCoverage(faults, detected_by, vectors.length);
+    }
+
+    // Helpers
+    /**
+     * Simulates the fault-free circuit.
+     * @return the encoded level of each output at the end of each period,
+     * indexed by vector and then by output
+     */
+    private byte[][] goodResponse(Signal[][] vectors, double period) {
+        VectorNetlistSimulator sim = new VectorNetlistSimulator(net);
+        byte[][] expected = new byte[vectors.length][outputs.length];
+        for (int v = 0; v < vectors.length; v++) {
+            step(sim, vectors, v, period);
+            for (int o = 0; o < outputs.length; o++) {
+                if ((sim.high(outputs[o]) & 1L) != 0) {
+                    expected[v][o] = Netlist.HIGH;
+                } else if ((sim.low(outputs[o]) & 1L) != 0) {
+                    expected[v][o] = Netlist.LOW;
+                } else {
+                    expected[v][o] = Netlist.X;
+                }
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * Simulates one batch of faults, and records the vector that first
+     * detects each of them.
+     * @param batch the batch number
+     */
+    private void simulateBatch(int batch, Signal[][] vectors, double period,
+                               byte[][] expected, int[] detected_by) {
+        int first = batch * BATCH_SIZE;
+        int n = Math.min(BATCH_SIZE, faults.size() - first);
+        VectorNetlistSimulator sim = new VectorNetlistSimulator(net);
+        for (int i = 0; i < n; i++) {
+            sim.stick(fault_wire[first + i], 1L << i, faults.get(first + i).level());
+        }
+
+        long remaining = (n == BATCH_SIZE) ? VectorNetlistSimulator.ALL_LANES : (1L << n) - 1;
+        for (int v = 0; v < vectors.length && remaining != 0; v++) {
+            step(sim, vectors, v, period);
+            long found = 0;
+            for (int o = 0; o < outputs.length; o++) {
+                if (expected[v][o] == Netlist.HIGH) {
+                    found |= sim.low(outputs[o]);
+                } else if (expected[v][o] == Netlist.LOW) {
+                    found |= sim.high(outputs[o]);
+                }
+            }
+            found &= remaining;
+            remaining &= ~found;
+            for (long bits = found; bits != 0; bits &= bits - 1) {
+                detected_by[first + Long.numberOfTrailingZeros(bits)] = v;
+            }
+        }
+    }
+
+    /**
+     * Applies a vector to every lane, and simulates until just before the
+     * next vector is due.
+     * @param v the index of the vector
+     */
+    private void step(VectorNetlistSimulator sim, Signal[][] vectors, int v, double period) {
+        sim.advanceTo(v * period);
+        Signal[] vector = vectors[v];
+        for (int i = 0; i < inputs.length; i++) {
+            sim.setSignals(inputs[i],
+                           (vector[i] == Signal.HIGH) ? VectorNetlistSimulator.ALL_LANES : 0L,
+                           (vector[i] == Signal.LOW) ? VectorNetlistSimulator.ALL_LANES : 0L);
+        }
+        sim.setStopTime((v + 1) * period);
+        sim.run();
+    }
+
+    /**
+     * @return the ids of a list of wires
+     */
+    private static int[] wireIds(Netlist net, List<Wire> wires) {
+        int[] ids = new int[wires.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = net.wireId(wires.get(i));
+        }
+        return ids;
+    }
+
+    /**
+     * A range of batches, which is split in half until each half is a
+     * single batch, so that idle threads can steal the other half.
+     */
+    private class Batches extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;             // First batch in the range
+        private final int to;               // One past the last batch
+        private final Signal[][] vectors;
+        private final double period;
+        private final byte[][] expected;    // Fault-free output levels
+        private final int[] detected_by;    // Results, shared by every batch
+
+        Batches(int from, int to, Signal[][] vectors, double period,
+                byte[][] expected, int[] detected_by) {
+            this.from = from;
+            this.to = to;
+            this.vectors = vectors;
+            this.period = period;
+            this.expected = expected;
+            this.detected_by = detected_by;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                simulateBatch(from, vectors, period, expected, detected_by);
+            } else if (to > from) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Batches(from, mid, vectors, period, expected, detected_by),
+                          new Batches(mid, to, vectors, period, expected, detected_by));
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package logicsim;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Java Flight Recorder event describing one wire transition executed by
+ * the Scheduler. An EventTracer emits these when its flight recorder bridge
+ * is enabled, so that simulation activity appears on the same timeline as
+ * GC, CPU and lock profiles.
+ *
+ * The event is disabled by default, and has to be enabled in the
+ * recording settings (for example with
+ * <code>-XX:StartFlightRecording:settings=profile,logicsim.Transition#enabled=true</code>).
+ *
+ * @author Allan McInnes
+ */
+@Name("logicsim.Transition")
+@Label("Wire Transition")
+@Category("LogicSim")
+@Description("A transition executed by the logic simulator")
+@Enabled(false)
+@StackTrace(false)
+final class FlightRecorderTransition extends Event {
+    @Label("Simulation Time")
+    @Description("Simulation time of the transition in nanoseconds")
+    double time;
+
+    @Label("Component")
+    String component;
+
+    @Label("Wire")
+    String wire;
+
+    @Label("Level")
+    String level;
+}
@@ -6,8 +6,8 @@ package logicsim;
  */
 class HalfAdder extends Component {
     private Block halfAdderImpl = new Block(); // How we'll implement
-    private Wire internalA = new Wire(); // Internal wiring
-    private Wire internalB = new Wire(); // Internal wiring
+    private Wire internalA; // Internal wiring
+    private Wire internalB; // Internal wiring
 
     /**
      * Constructor.
@@ -17,6 +17,10 @@ class HalfAdder extends Component {
      * @param carry the output wire that will contain the carry output
      */
     public HalfAdder(Wire in1, Wire in2, Wire sum, Wire carry) {
+        // The internal wiring is part of the same simulation as the inputs
+        internalA = new Wire(in1.context());
+        internalB = new Wire(in1.context());
+
         // Wire up all of the components to each other.
         halfAdderImpl.setSimulationModel(this);
         halfAdderImpl.addComponent(new TwoInputAndGate(in1, in2, carry));
@@ -32,4 +36,14 @@ class HalfAdder extends Component {
     public void update() {
         halfAdderImpl.update();
     }
+
+    /**
+     * Accepts a visitor. The half-adder is visited as the Block that
+     * implements it.
+     * @param visitor the visitor
+     */
+    @Override
+    public void accept(ComponentVisitor visitor) {
+        halfAdderImpl.accept(visitor);
+    }
 }
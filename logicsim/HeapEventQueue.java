@@ -0,0 +1,32 @@
+package logicsim;
+
+import java.util.PriorityQueue;
+
+/**
+ * An EventQueue implemented as a binary heap. Adding and removing events
+ * takes O(log n) time, but there are no restrictions on event times. This
+ * is the default queue used by the Scheduler.
+ *
+ * @author Allan McInnes
+ */
+public class HeapEventQueue implements EventQueue {
+    private PriorityQueue<Event> events = new PriorityQueue<Event>();
+
+    @Override
+    public boolean isEmpty() { return events.isEmpty(); }
+
+    @Override
+    public int size() { return events.size(); }
+
+    @Override
+    public Event peek() { return events.peek(); }
+
+    @Override
+    public Event poll() { return events.poll(); }
+
+    @Override
+    public void add(Event event) { events.add(event); }
+
+    @Override
+    public void clear() { events.clear(); }
+}
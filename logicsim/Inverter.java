@@ -1,22 +1,30 @@
 package logicsim;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * A logic inverter.
  * @author Allan McInnes
  */
 public class Inverter extends Component {
-    private Wire in;
-    private Wire out;
+    protected Wire in;
+    protected Wire out;
 
-    private static final double GATE_DELAY = 2.0; // Propagation delay in nanoseconds
+    protected static final double GATE_DELAY = 2.0; // Propagation delay in nanoseconds
 
     // Creation
     /**
      * Constructor.
      * @param in the input wire
      * @param out the output wire
+     * @throws IllegalArgumentException if the wires belong to different
+     *  simulation contexts
      */
     public Inverter(Wire in, Wire out) {        
+        if (in.context() != out.context()) {
+            throw new IllegalArgumentException("Inverter wires must belong to the same simulation context.");
+        }
         this.in = in;
         this.out = out;
         
@@ -25,13 +33,44 @@ public class Inverter extends Component {
         this.out.setDrivingComponent(this);
     }
 
+    /** @return the input wire */
+    @Override
+    public List<Wire> inputs() { return Collections.singletonList(in); }
+
+    /** @return the output wire */
+    @Override
+    public List<Wire> outputs() { return Collections.singletonList(out); }
+
     /**
      * Updates the component's state based on the new inputs that have
      * resulted from a update in one or more input signals.
      */
     @Override
     public void update() {
-        model.newEvent(new Event(model.time() + GATE_DELAY,
-                                 out, Signal.not(in.getSignal())));
+        drive(out, GATE_DELAY, Signal.not(in.getSignal()));
+    }
+
+    /**
+     * Replaces a wire with another wherever the inverter refers to it.
+     * @param from the wire being replaced
+     * @param to the wire replacing it
+     */
+    @Override
+    protected void replaceWire(Wire from, Wire to) {
+        if (in == from) {
+            in = to;
+        }
+        if (out == from) {
+            out = to;
+        }
+    }
+
+    /**
+     * Accepts a visitor.
+     * @param visitor the visitor
+     */
+    @Override
+    public void accept(ComponentVisitor visitor) {
+        visitor.visitInverter(this);
     }
 }
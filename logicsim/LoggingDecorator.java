@@ -2,7 +2,8 @@ package logicsim;
 
 /**
  * An example of a ComponentDecorator implementation. This one just performs
- * simple logging of events.
+ * simple logging of events. Printing a line for every event is slow, so for
+ * anything beyond small examples an EventTracer is a better choice.
  *
  * @author Allan McInnes
  */
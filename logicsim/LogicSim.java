@@ -22,14 +22,15 @@ public class LogicSim {
      */
     public static void main(String[] args) {
 
-        Scheduler sim = Scheduler.getScheduler(); // The simulation kernel
+        SimulationContext ctx = new SimulationContext(); // The simulation
+        Scheduler sim = ctx.scheduler(); // The simulation kernel
 
         // Example 1: a simple half-adder
         // Half-adder inputs and outputs
-        Wire in1 = new Wire("In1");
-        Wire in2 = new Wire("In2");
-        Wire sum = new Wire("Sum");
-        Wire carry = new Wire("Carry");
+        Wire in1 = new Wire(ctx, "In1");
+        Wire in2 = new Wire(ctx, "In2");
+        Wire sum = new Wire(ctx, "Sum");
+        Wire carry = new Wire(ctx, "Carry");
 
         // The half-adder, plus probes on its inputs and outputs is all wrapped
         // up in a Block that manages the overall simulation.
@@ -62,9 +63,9 @@ public class LogicSim {
         // drive any more input transitions. 
 
         // Example 2: A simple 3-inverter ring oscillator
-        Wire osc0 = new Wire();
-        Wire osc1 = new Wire();
-        Wire osc2 = new Wire("Osc");
+        Wire osc0 = new Wire(ctx);
+        Wire osc1 = new Wire(ctx);
+        Wire osc2 = new Wire(ctx, "Osc");
 
         // Again, we assemble the simulation as a Block
         Block ringOscillator = new Block(sim);
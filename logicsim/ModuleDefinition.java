@@ -0,0 +1,244 @@
+package logicsim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A ModuleDefinition is the parsed form of one module of a netlist file:
+ * its nets, ports, primitive gates, instances of other modules, and nets
+ * tied to constant levels. A NetlistLoader turns definitions into Wires,
+ * Components and Blocks.
+ *
+ * Definitions are kept compact, since a gate-level module can hold
+ * millions of gates. Nets are numbered, gates and instances are stored in
+ * flat arrays (in the same "compressed sparse row" layout as a Netlist),
+ * and each distinct name is stored once, however many times it is used.
+ *
+ * @author Allan McInnes
+ */
+final class ModuleDefinition {
+    // Port directions
+    static final byte INPUT = 0;
+    static final byte OUTPUT = 1;
+    static final byte INOUT = 2;
+
+    /** Opcode used for a buffer, which is an AND gate with one input */
+    static final byte OP_BUF = Netlist.OP_AND;
+
+    /**
+     * A port, which may be a single net or a bus of several nets.
+     */
+    static final class Port {
+        final String name;
+        byte direction = INOUT;
+        int[] nets = null;          // The nets of the port, most significant first
+        int offset;                 // Position of the first net among all port nets
+
+        Port(String name) {
+            this.name = name;
+        }
+    }
+
+    final String name;              // Module name
+    final String file;              // File the module was defined in
+    final int line;                 // Line the module was defined on
+
+    // Nets
+    String[] net_names = new String[64];    // Name of each net (null if anonymous)
+    int n_nets = 0;
+
+    // Ports, in declaration order
+    final List<Port> ports = new ArrayList<Port>();
+    private final Map<String, Port> port_names = new HashMap<String, Port>();
+    private int port_width = 0;
+
+    // Gates: an opcode, and the output net followed by the input nets
+    byte[] gate_op = new byte[64];
+    int[] gate_start = new int[65];
+    int[] gate_nets = new int[192];
+    int n_gates = 0;
+
+    // Instances: module name, line, and a list of connections, each
+    // of which names a port (or is null for a connection by position) and
+    // gives a list of nets
+    String[] inst_module = new String[16];
+    int[] inst_line = new int[16];
+    int[] inst_start = new int[17];
+    String[] conn_port = new String[64];
+    int[] conn_start = new int[65];
+    int[] conn_nets = new int[64];
+    int n_insts = 0;
+    int n_conns = 0;
+    int n_conn_nets = 0;
+
+    // Constants
+    int[] const_nets = new int[4];
+    byte[] const_levels = new byte[4];
+    int n_consts = 0;
+
+    // Creation
+    /**
+     * Constructor.
+     * @param name the module name
+     * @param file the file the module was defined in
+     * @param line the line the module was defined on
+     */
+    ModuleDefinition(String name, String file, int line) {
+        this.name = name;
+        this.file = file;
+        this.line = line;
+    }
+
+    // Queries
+    /**
+     * Finds a port by name.
+     * @param name the port name
+     * @return the port, or null if there is no such port
+     */
+    Port port(String name) {
+        return port_names.get(name);
+    }
+
+    /** @return the total number of nets in all ports */
+    int portWidth() { return port_width; }
+
+    /**
+     * @param line a line number
+     * @return a description of a place in the module, for error messages
+     */
+    String location(int line) {
+        return file + ":" + line;
+    }
+
+    // Commands
+    /**
+     * Adds a port. Its nets are set when the port is declared.
+     * @param name the port name
+     * @return the new port, or null if there is already a port with that name
+     */
+    Port addPort(String name) {
+        if (port_names.containsKey(name)) {
+            return null;
+        }
+        Port p = new Port(name);
+        ports.add(p);
+        port_names.put(name, p);
+        return p;
+    }
+
+    /**
+     * Adds a net.
+     * @param name the name of the net, or null for an anonymous net
+     * @return the new net number
+     */
+    int addNet(String name) {
+        if (n_nets == net_names.length) {
+            net_names = Arrays.copyOf(net_names, 2 * n_nets);
+        }
+        net_names[n_nets] = name;
+        return n_nets++;
+    }
+
+    /**
+     * Adds a primitive gate.
+     * @param op the gate opcode (one of the Netlist gate opcodes)
+     * @param nets the output net followed by the input nets
+     * @param n the number of nets
+     */
+    void addGate(byte op, int[] nets, int n) {
+        if (n_gates == gate_op.length) {
+            gate_op = Arrays.copyOf(gate_op, 2 * n_gates);
+            gate_start = Arrays.copyOf(gate_start, 2 * n_gates + 1);
+        }
+        int end = gate_start[n_gates];
+        if (end + n > gate_nets.length) {
+            gate_nets = Arrays.copyOf(gate_nets, Math.max(2 * gate_nets.length, end + n));
+        }
+        System.arraycopy(nets, 0, gate_nets, end, n);
+        gate_op[n_gates++] = op;
+        gate_start[n_gates] = end + n;
+    }
+
+    /**
+     * Adds a single-input gate.
+     * @param op the gate opcode
+     * @param out the output net
+     * @param in the input net
+     */
+    void addGate(byte op, int out, int in) {
+        addGate(op, new int[] { out, in }, 2);
+    }
+
+    /**
+     * Starts a new instance of a module. Its connections are added with
+     * addConnection().
+     * @param module the name of the module instantiated
+     * @param line the line the instance was defined on
+     */
+    void addInstance(String module, int line) {
+        if (n_insts == inst_module.length) {
+            inst_module = Arrays.copyOf(inst_module, 2 * n_insts);
+            inst_line = Arrays.copyOf(inst_line, 2 * n_insts);
+            inst_start = Arrays.copyOf(inst_start, 2 * n_insts + 1);
+        }
+        inst_module[n_insts] = module;
+        inst_line[n_insts] = line;
+        inst_start[n_insts] = n_conns;
+        n_insts++;
+        inst_start[n_insts] = n_conns;
+    }
+
+    /**
+     * Adds a connection to the latest instance.
+     * @param port the name of the port connected, or null for a
+     * connection by position
+     * @param nets the nets connected to the port
+     * @param n the number of nets
+     */
+    void addConnection(String port, int[] nets, int n) {
+        if (n_conns == conn_port.length) {
+            conn_port = Arrays.copyOf(conn_port, 2 * n_conns);
+            conn_start = Arrays.copyOf(conn_start, 2 * n_conns + 1);
+        }
+        if (n_conn_nets + n > conn_nets.length) {
+            conn_nets = Arrays.copyOf(conn_nets, Math.max(2 * conn_nets.length, n_conn_nets + n));
+        }
+        System.arraycopy(nets, 0, conn_nets, n_conn_nets, n);
+        conn_port[n_conns] = port;
+        conn_start[n_conns] = n_conn_nets;
+        n_conn_nets += n;
+        n_conns++;
+        conn_start[n_conns] = n_conn_nets;
+        inst_start[n_insts] = n_conns;
+    }
+
+    /**
+     * Ties a net to a constant level.
+     * @param net the net
+     * @param level the level
+     */
+    void addConstant(int net, Signal level) {
+        if (n_consts == const_nets.length) {
+            const_nets = Arrays.copyOf(const_nets, 2 * n_consts);
+            const_levels = Arrays.copyOf(const_levels, 2 * n_consts);
+        }
+        const_nets[n_consts] = net;
+        const_levels[n_consts] = Netlist.encode(level);
+        n_consts++;
+    }
+
+    /**
+     * Completes the definition once the whole module has been parsed, by
+     * laying out the port nets one after another.
+     */
+    void finish() {
+        port_width = 0;
+        for (Port p : ports) {
+            p.offset = port_width;
+            port_width += p.nets.length;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package logicsim;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MultiInputGate is an abstract base class for gates with any number of
+ * inputs and a single output, which evaluate incrementally. Rather than
+ * reading every input each time one of them changes, the gate remembers
+ * the level it last saw on each input, and tells the derived class only
+ * about the input that changed (through <code>inputChanged()</code>). The
+ * derived class keeps whatever summary of its inputs it needs, such as a
+ * count of the inputs at each level, so that updating it costs the same
+ * however many inputs the gate has.
+ *
+ * A wire may be connected to more than one input. Each distinct input wire
+ * has a "slot", and the derived class is told how many inputs each slot
+ * feeds with <code>multiplicity()</code>. Every slot starts out as X, and the
+ * gate catches up with the real input levels the first time it is updated.
+ * The levels seen are logic levels (see Signal.logicLevel()), so derived
+ * classes only ever see LOW, HIGH and X.
+ *
+ * @author Allan McInnes
+ */
+public abstract class MultiInputGate extends Component {
+    protected final Wire[] in;      // Inputs, in the order given
+    protected Wire out;             // Output
+
+    /** Propagation delay in nanoseconds */
+    public static final double GATE_DELAY = 5.0;
+
+    // Gates with up to this many inputs find the slot of an input wire by
+    // searching, which is quicker than a hash lookup and saves a map per gate
+    private static final int MAX_SEARCH = 8;
+
+    private final Wire[] slot_wire;         // Distinct input wires
+    private final int[] slot_count;         // Number of inputs fed by each
+    private final Signal[] seen;            // Level last seen on each
+    private final int[] input_slot;         // Slot of each input
+    private final Map<Wire, Integer> slots; // Wire to slot, for wide gates only
+    private boolean is_synced = false;      // Have all slots been read?
+
+    // Creation
+    /**
+     * Constructor.
+     * @param out the output wire
+     * @param in the input wires
+     * @throws IllegalArgumentException if there are no inputs, or the wires
+     *  belong to different simulation contexts
+     */
+    public MultiInputGate(Wire out, Wire... in) {
+        assert out != null;
+        if (in.length == 0) {
+            throw new IllegalArgumentException("A gate must have at least one input.");
+        }
+        for (Wire w : in) {
+            if (w.context() != out.context()) {
+                throw new IllegalArgumentException("Gate wires must belong to the same simulation context.");
+            }
+        }
+        this.in = in.clone();
+        this.out = out;
+
+        slots = (in.length > MAX_SEARCH) ? new IdentityHashMap<Wire, Integer>(2 * in.length) : null;
+        Wire[] wires = new Wire[in.length];
+        input_slot = new int[in.length];
+        int n_slots = 0;
+        for (int i = 0; i < in.length; i++) {
+            int s = (slots != null) ? slots.getOrDefault(in[i], -1) : search(wires, n_slots, in[i]);
+            if (s < 0) {
+                s = n_slots++;
+                wires[s] = in[i];
+                if (slots != null) {
+                    slots.put(in[i], s);
+                }
+            }
+            input_slot[i] = s;
+        }
+        slot_wire = (n_slots < in.length) ? Arrays.copyOf(wires, n_slots) : wires;
+        slot_count = new int[n_slots];
+        seen = new Signal[n_slots];
+        for (int i = 0; i < in.length; i++) {
+            slot_count[input_slot[i]]++;
+        }
+        for (int s = 0; s < n_slots; s++) {
+            seen[s] = Signal.X;
+            slot_wire[s].attachDrivenComponent(this);
+        }
+        out.setDrivingComponent(this);
+    }
+
+    // Queries
+    /** @return the number of inputs */
+    public int inputCount() { return in.length; }
+
+    /**
+     * Queries an input wire.
+     * @param i an input number
+     * @return the wire connected to that input
+     */
+    public Wire input(int i) { return in[i]; }
+
+    /** @return the output wire */
+    public Wire output() { return out; }
+
+    /** @return the input wires, in the order given */
+    @Override
+    public List<Wire> inputs() {
+        return Collections.unmodifiableList(Arrays.asList(in));
+    }
+
+    /** @return the output wire */
+    @Override
+    public List<Wire> outputs() { return Collections.singletonList(out); }
+
+    /**
+     * Queries the slot an input is connected through.
+     * @param i an input number
+     * @return the slot number
+     */
+    protected int slotOf(int i) { return input_slot[i]; }
+
+    /**
+     * Queries the number of inputs fed by a slot.
+     * @param slot a slot number
+     * @return the number of inputs connected to the slot's wire
+     */
+    protected int multiplicity(int slot) { return slot_count[slot]; }
+
+    /**
+     * Queries the level last seen on a slot.
+     * @param slot a slot number
+     * @return the level the gate currently assumes for the slot's inputs
+     */
+    protected Signal seen(int slot) { return seen[slot]; }
+
+    /**
+     * Queries the current gate output.
+     * @return the output signal level of the gate, based on the inputs seen
+     */
+    protected abstract Signal outputValue();
+
+    // Commands
+    /**
+     * Updates the gate after one or more inputs changed, reading all of
+     * the inputs.
+     */
+    @Override
+    public void update() {
+        for (int s = 0; s < slot_wire.length; s++) {
+            sync(s);
+        }
+        is_synced = true;
+        drive(out, GATE_DELAY, outputValue());
+    }
+
+    /**
+     * Updates the gate after a change on one input wire.
+     * @param source the input wire that changed
+     */
+    @Override
+    public void update(Wire source) {
+        int s = findSlot(source);
+        if (!is_synced || s < 0) {
+            update();
+            return;
+        }
+        sync(s);
+        drive(out, GATE_DELAY, outputValue());
+    }
+
+    /**
+     * Reads the level on an input that changed during a delta cycle. The
+     * output is updated by deltaUpdate() once all of the changes have
+     * been read.
+     * @param source the input wire that changed
+     */
+    @Override
+    public void changedInput(Wire source) {
+        int s = findSlot(source);
+        if (is_synced && s >= 0) {
+            sync(s);
+        } else {
+            is_synced = false;
+        }
+    }
+
+    /**
+     * Updates the output at the end of a delta cycle.
+     */
+    @Override
+    public void deltaUpdate() {
+        if (!is_synced) {
+            update();
+            return;
+        }
+        drive(out, GATE_DELAY, outputValue());
+    }
+
+    /**
+     * Forgets the input levels seen, so that the next update reads every
+     * input.
+     */
+    @Override
+    public void resync() {
+        is_synced = false;
+    }
+
+    /**
+     * Replaces a wire with another wherever the gate refers to it. An input
+     * keeps its slot, which the gate catches up with on its next update, so
+     * derived classes see an ordinary change of input level.
+     * @param from the wire being replaced
+     * @param to the wire replacing it
+     * @throws IllegalArgumentException if from is an input, and to is
+     *  already an input too
+     */
+    @Override
+    protected void replaceWire(Wire from, Wire to) {
+        int s = findSlot(from);
+        if (s >= 0) {
+            if (findSlot(to) >= 0) {
+                throw new IllegalArgumentException(to.name() + " is already an input of the gate.");
+            }
+            slot_wire[s] = to;
+            if (slots != null) {
+                slots.remove(from);
+                slots.put(to, s);
+            }
+            for (int i = 0; i < in.length; i++) {
+                if (in[i] == from) {
+                    in[i] = to;
+                }
+            }
+        }
+        if (out == from) {
+            out = to;
+        }
+    }
+
+    /**
+     * Tells the derived class that the level on a slot has changed.
+     * @param slot the slot that changed
+     * @param old_level the level previously seen
+     * @param new_level the new level
+     */
+    protected abstract void inputChanged(int slot, Signal old_level, Signal new_level);
+
+    // Helpers
+    /**
+     * @return the slot of an input wire, or -1 if it isn't an input
+     */
+    private int findSlot(Wire w) {
+        return (slots != null) ? slots.getOrDefault(w, -1) : search(slot_wire, slot_wire.length, w);
+    }
+
+    /**
+     * @return the position of a wire among the first n of an array, or -1
+     */
+    private static int search(Wire[] wires, int n, Wire w) {
+        for (int s = 0; s < n; s++) {
+            if (wires[s] == w) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Catches up with the level on a slot's wire.
+     */
+    private void sync(int s) {
+        Signal level = slot_wire[s].getSignal().logicLevel();
+        if (level != seen[s]) {
+            Signal old_level = seen[s];
+            seen[s] = level;
+            inputChanged(s, old_level, level);
+        }
+    }
+}
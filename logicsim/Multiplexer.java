@@ -0,0 +1,89 @@
+package logicsim;
+
+/**
+ * A multiplexer, which copies one of its 2^k data inputs to its output,
+ * chosen by k select inputs. Select input 0 is the least significant bit of
+ * the number of the chosen data input. If any select input is X, the output
+ * is X.
+ *
+ * The multiplexer keeps the number formed by its select inputs up to date as
+ * they change, so a change on any input is handled in constant time.
+ *
+ * @author Allan McInnes
+ */
+public class Multiplexer extends MultiInputGate {
+    /** Maximum number of select inputs */
+    public static final int MAX_SELECT = 20;
+
+    private final int n_select;         // Number of select inputs
+    private final int[] select_bits;    // Select bits fed by each slot
+    private int high_bits = 0;          // Select bits that are HIGH
+    private int x_bits;                 // Select bits that are X
+
+    // Creation
+    /**
+     * Constructor.
+     * @param select the select inputs, least significant first
+     * @param data the data inputs
+     * @param out the output wire
+     * @throws IllegalArgumentException if there isn't exactly one data input
+     *  for each combination of select inputs, or the wires belong to different
+     *  simulation contexts
+     */
+    public Multiplexer(Wire[] select, Wire[] data, Wire out) {
+        super(out, concat(select, data));
+        n_select = select.length;
+        select_bits = new int[data.length + n_select];
+        for (int i = 0; i < n_select; i++) {
+            select_bits[slotOf(i)] |= 1 << i;
+        }
+        x_bits = (1 << n_select) - 1;
+    }
+
+    // Queries
+    /** @return the number of select inputs */
+    public int selectCount() { return n_select; }
+
+    /**
+     * Queries the current multiplexer output.
+     * @return the level on the selected data input, or X if the selection
+     *  is unknown
+     */
+    @Override
+    protected Signal outputValue() {
+        if (x_bits != 0) {
+            return Signal.X;
+        }
+        return seen(slotOf(n_select + high_bits));
+    }
+
+    // Commands
+    /**
+     * Updates the select bits fed by a slot.
+     */
+    @Override
+    protected void inputChanged(int slot, Signal old_level, Signal new_level) {
+        int bits = select_bits[slot];
+        if (bits != 0) {
+            high_bits = (new_level == Signal.HIGH) ? (high_bits | bits) : (high_bits & ~bits);
+            x_bits = (new_level == Signal.X) ? (x_bits | bits) : (x_bits & ~bits);
+        }
+    }
+
+    // Helpers
+    /**
+     * Checks the number of inputs, and joins the select and data inputs
+     * into one list.
+     */
+    private static Wire[] concat(Wire[] select, Wire[] data) {
+        if (select.length > MAX_SELECT || data.length != (1 << select.length)) {
+            throw new IllegalArgumentException("A multiplexer with " + select.length
+                                               + " select inputs needs " + (1 << Math.min(select.length, MAX_SELECT))
+                                               + " data inputs.");
+        }
+        Wire[] in = new Wire[select.length + data.length];
+        System.arraycopy(select, 0, in, 0, select.length);
+        System.arraycopy(data, 0, in, select.length, data.length);
+        return in;
+    }
+}
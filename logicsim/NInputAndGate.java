@@ -0,0 +1,30 @@
+package logicsim;
+
+/**
+ * An N-input AND gate
+ * @author Allan McInnes
+ */
+public class NInputAndGate extends NInputGate {
+
+    /**
+     * Constructor.
+     * @param out the output wire
+     * @param in the input wires
+     */
+    public NInputAndGate(Wire out, Wire... in) {
+        super(out, in);
+    }
+
+    /**
+     * Generates an output signal that is the logical
+     *  AND of the inputs.
+     * @return the output signal level of the gate, based on the current inputs
+     */
+    @Override
+    protected Signal outputValue() {
+        return and();
+    }
+
+    @Override
+    byte opcode() { return Netlist.OP_AND; }
+}
@@ -0,0 +1,88 @@
+package logicsim;
+
+/**
+ * NInputGate is an abstract base class for symmetric gates with any number
+ * of inputs, such as AND, OR and XOR, whose output depends only on how many
+ * inputs are at each level. The gate keeps those counts up to date as its
+ * inputs change, so evaluating it takes constant time regardless of width.
+ *
+ * As with the 2-input gates, an X on any input makes the output X.
+ *
+ * @author Allan McInnes
+ */
+public abstract class NInputGate extends MultiInputGate {
+    private final int[] count = new int[Signal.values().length]; // Inputs at each level
+
+    // Creation
+    /**
+     * Constructor.
+     * @param out the output wire
+     * @param in the input wires
+     * @throws IllegalArgumentException if there are no inputs, or the wires
+     *  belong to different simulation contexts
+     */
+    public NInputGate(Wire out, Wire... in) {
+        super(out, in);
+        count[Signal.X.ordinal()] = in.length;
+    }
+
+    // Queries
+    /**
+     * @param level a signal level
+     * @return the number of inputs currently at that level
+     */
+    protected int inputsAt(Signal level) {
+        return count[level.ordinal()];
+    }
+
+    /**
+     * Queries the opcode a NetlistCompiler uses for the gate.
+     * @return one of the Netlist gate opcodes
+     */
+    abstract byte opcode();
+
+    /**
+     * Accepts a visitor.
+     * @param visitor the visitor
+     */
+    @Override
+    public void accept(ComponentVisitor visitor) {
+        visitor.visitNInputGate(this);
+    }
+
+    // Commands
+    /**
+     * Moves a slot's inputs from one count to another.
+     */
+    @Override
+    protected void inputChanged(int slot, Signal old_level, Signal new_level) {
+        int m = multiplicity(slot);
+        count[old_level.ordinal()] -= m;
+        count[new_level.ordinal()] += m;
+    }
+
+    // Helpers
+    /** @return the AND of all inputs */
+    protected Signal and() {
+        if (inputsAt(Signal.X) > 0) {
+            return Signal.X;
+        }
+        return (inputsAt(Signal.LOW) > 0) ? Signal.LOW : Signal.HIGH;
+    }
+
+    /** @return the OR of all inputs */
+    protected Signal or() {
+        if (inputsAt(Signal.X) > 0) {
+            return Signal.X;
+        }
+        return (inputsAt(Signal.HIGH) > 0) ? Signal.HIGH : Signal.LOW;
+    }
+
+    /** @return the exclusive-OR of all inputs */
+    protected Signal xor() {
+        if (inputsAt(Signal.X) > 0) {
+            return Signal.X;
+        }
+        return ((inputsAt(Signal.HIGH) & 1) != 0) ? Signal.HIGH : Signal.LOW;
+    }
+}
@@ -0,0 +1,30 @@
+package logicsim;
+
+/**
+ * An N-input NAND gate
+ * @author Allan McInnes
+ */
+public class NInputNandGate extends NInputGate {
+
+    /**
+     * Constructor.
+     * @param out the output wire
+     * @param in the input wires
+     */
+    public NInputNandGate(Wire out, Wire... in) {
+        super(out, in);
+    }
+
+    /**
+     * Generates an output signal that is the logical
+     *  NAND of the inputs.
+     * @return the output signal level of the gate, based on the current inputs
+     */
+    @Override
+    protected Signal outputValue() {
+        return Signal.not(and());
+    }
+
+    @Override
+    byte opcode() { return Netlist.OP_NAND; }
+}
@@ -0,0 +1,30 @@
+package logicsim;
+
+/**
+ * An N-input NOR gate
+ * @author Allan McInnes
+ */
+public class NInputNorGate extends NInputGate {
+
+    /**
+     * Constructor.
+     * @param out the output wire
+     * @param in the input wires
+     */
+    public NInputNorGate(Wire out, Wire... in) {
+        super(out, in);
+    }
+
+    /**
+     * Generates an output signal that is the logical
+     *  NOR of the inputs.
+     * @return the output signal level of the gate, based on the current inputs
+     */
+    @Override
+    protected Signal outputValue() {
+        return Signal.not(or());
+    }
+
+    @Override
+    byte opcode() { return Netlist.OP_NOR; }
+}
@@ -0,0 +1,30 @@
+package logicsim;
+
+/**
+ * An N-input OR gate
+ * @author Allan McInnes
+ */
+public class NInputOrGate extends NInputGate {
+
+    /**
+     * Constructor.
+     * @param out the output wire
+     * @param in the input wires
+     */
+    public NInputOrGate(Wire out, Wire... in) {
+        super(out, in);
+    }
+
+    /**
+     * Generates an output signal that is the logical
+     *  OR of the inputs.
+     * @return the output signal level of the gate, based on the current inputs
+     */
+    @Override
+    protected Signal outputValue() {
+        return or();
+    }
+
+    @Override
+    byte opcode() { return Netlist.OP_OR; }
+}
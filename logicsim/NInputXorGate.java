@@ -0,0 +1,30 @@
+package logicsim;
+
+/**
+ * An N-input XOR gate
+ * @author Allan McInnes
+ */
+public class NInputXorGate extends NInputGate {
+
+    /**
+     * Constructor.
+     * @param out the output wire
+     * @param in the input wires
+     */
+    public NInputXorGate(Wire out, Wire... in) {
+        super(out, in);
+    }
+
+    /**
+     * Generates an output signal that is the logical
+     *  XOR of the inputs.
+     * @return the output signal level of the gate, based on the current inputs
+     */
+    @Override
+    protected Signal outputValue() {
+        return xor();
+    }
+
+    @Override
+    byte opcode() { return Netlist.OP_XOR; }
+}
@@ -0,0 +1,156 @@
+package logicsim;
+
+import java.util.Arrays;
+
+/**
+ * A hash table of names, used by the netlist parsers to intern identifiers.
+ * Names are looked up directly from the parser's character buffer, so a
+ * String is only created the first time each distinct name is seen. Each
+ * name is stored with an int value, such as the number of a net.
+ *
+ * Entries are numbered in the order they are added.
+ *
+ * @author Allan McInnes
+ */
+final class NameTable {
+    private int[] slots;            // Entry number + 1 in each hash slot (0 if empty)
+    private String[] names = new String[16]; // Name of each entry
+    private int[] hashes = new int[16];      // Hash of each entry's name
+    private int[] values = new int[16];      // Value of each entry
+    private int n_entries = 0;
+
+    // Creation
+    /** Default constructor. */
+    NameTable() {
+        slots = new int[64];
+    }
+
+    // Queries
+    /** @return the number of names in the table */
+    int size() { return n_entries; }
+
+    /**
+     * @param entry an entry number
+     * @return the name of the entry
+     */
+    String name(int entry) { return names[entry]; }
+
+    /**
+     * @param entry an entry number
+     * @return the value of the entry
+     */
+    int value(int entry) { return values[entry]; }
+
+    /**
+     * Looks up a name held in a character buffer.
+     * @param s the buffer
+     * @param len the length of the name, which starts at the start of the buffer
+     * @return the entry number, or -1 if the name isn't in the table
+     */
+    int find(char[] s, int len) {
+        int h = hash(s, len);
+        int mask = slots.length - 1;
+        for (int i = h & mask; slots[i] != 0; i = (i + 1) & mask) {
+            int e = slots[i] - 1;
+            if (hashes[e] == h && matches(names[e], s, len)) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Looks up a name.
+     * @param name the name
+     * @return the entry number, or -1 if the name isn't in the table
+     */
+    int find(String name) {
+        return find(name.toCharArray(), name.length());
+    }
+
+    // Commands
+    /**
+     * Adds a name that isn't already in the table.
+     * @param s a buffer holding the name
+     * @param len the length of the name
+     * @param value the value to store with the name
+     * @return the new entry number
+     */
+    int add(char[] s, int len, int value) {
+        return add(new String(s, 0, len), value);
+    }
+
+    /**
+     * Adds a name that isn't already in the table.
+     * @param name the name
+     * @param value the value to store with the name
+     * @return the new entry number
+     */
+    int add(String name, int value) {
+        if (n_entries == names.length) {
+            names = Arrays.copyOf(names, 2 * n_entries);
+            hashes = Arrays.copyOf(hashes, 2 * n_entries);
+            values = Arrays.copyOf(values, 2 * n_entries);
+        }
+        if (2 * (n_entries + 1) > slots.length) {
+            rehash(2 * slots.length);
+        }
+        int e = n_entries++;
+        names[e] = name;
+        hashes[e] = hash(name);
+        values[e] = value;
+        insert(e);
+        return e;
+    }
+
+    /**
+     * Changes the value stored with a name.
+     * @param entry an entry number
+     * @param value the new value
+     */
+    void setValue(int entry, int value) {
+        values[entry] = value;
+    }
+
+    // Helpers
+    private void insert(int e) {
+        int mask = slots.length - 1;
+        int i = hashes[e] & mask;
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = e + 1;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int e = 0; e < n_entries; e++) {
+            insert(e);
+        }
+    }
+
+    private static int hash(char[] s, int len) {
+        int h = 0;
+        for (int i = 0; i < len; i++) {
+            h = 31 * h + s[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(String s) {
+        int h = s.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String name, char[] s, int len) {
+        if (name.length() != len) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (name.charAt(i) != s[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,239 @@
+package logicsim;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A Netlist is a flattened, compiled form of a component hierarchy. Rather
+ * than a graph of Wire and Component objects, it stores the circuit as a
+ * set of parallel primitive arrays (a "structure of arrays"):
+ *
+ * <ul>
+ * <li>wires are numbered 0..wireCount()-1, and signal levels are stored as
+ *     the <code>byte</code> ordinal of the corresponding Signal;</li>
+ * <li>gates are numbered 0..gateCount()-1, and each has an opcode, a
+ *     propagation delay, an output wire, and a list of fan-in wires;</li>
+ * <li>each wire has a list of the gates that it fans out to.</li>
+ * </ul>
+ *
+ * Variable-length fan-in and fan-out lists are packed into a single array
+ * each, with a start-offset array indexed by gate or wire number (the
+ * "compressed sparse row" layout).
+ *
+ * Netlists are immutable, and are created by a NetlistCompiler.
+ *
+ * @author Allan McInnes
+ */
+public class Netlist {
+    // Gate opcodes
+    /** Logical AND of all inputs */
+    public static final byte OP_AND = 0;
+    /** Logical OR of all inputs */
+    public static final byte OP_OR = 1;
+    /** Logical NOT of a single input */
+    public static final byte OP_NOT = 2;
+    /** A sink that prints transitions of its input, like a Probe */
+    public static final byte OP_PROBE = 3;
+    /** Logical NAND of all inputs */
+    public static final byte OP_NAND = 4;
+    /** Logical NOR of all inputs */
+    public static final byte OP_NOR = 5;
+    /** Exclusive-OR (odd parity) of all inputs */
+    public static final byte OP_XOR = 6;
+    /** Exclusive-NOR (even parity) of all inputs */
+    public static final byte OP_XNOR = 7;
+
+    // Signal encodings
+    /** Encoded form of Signal.LOW */
+    public static final byte LOW = (byte) Signal.LOW.ordinal();
+    /** Encoded form of Signal.HIGH */
+    public static final byte HIGH = (byte) Signal.HIGH.ordinal();
+    /** Encoded form of Signal.X */
+    public static final byte X = (byte) Signal.X.ordinal();
+
+    private static final Signal[] SIGNALS = Signal.values();
+    private static final int N_SIGNALS = SIGNALS.length;
+
+    // Truth tables for the basic logic functions, indexed by encoded signals.
+    // Derived from the Signal methods so that the semantics always match.
+    static final byte[] AND_TABLE = new byte[N_SIGNALS * N_SIGNALS];
+    static final byte[] OR_TABLE = new byte[N_SIGNALS * N_SIGNALS];
+    static final byte[] XOR_TABLE = new byte[N_SIGNALS * N_SIGNALS];
+    static final byte[] NOT_TABLE = new byte[N_SIGNALS];
+
+    static {
+        for (Signal a : SIGNALS) {
+            NOT_TABLE[a.ordinal()] = encode(Signal.not(a));
+            for (Signal b : SIGNALS) {
+                int i = a.ordinal() * N_SIGNALS + b.ordinal();
+                AND_TABLE[i] = encode(Signal.and(a, b));
+                OR_TABLE[i] = encode(Signal.or(a, b));
+                XOR_TABLE[i] = encode(Signal.xor(a, b));
+            }
+        }
+    }
+
+    private final Wire[] wires;              // Wire objects, indexed by wire id
+    private final Map<Wire, Integer> ids;    // Wire object to wire id
+    private final byte[] initial;            // Signal levels at compile time
+
+    final byte[] opcode;      // Per-gate function
+    final double[] delay;     // Per-gate propagation delay in nanoseconds
+    final int[] output;       // Per-gate output wire id (-1 if none)
+    final int[] faninStart;   // Offset of each gate's inputs in fanin
+    final int[] fanin;        // Packed gate input wire ids
+    final int[] fanoutStart;  // Offset of each wire's gates in fanout
+    final int[] fanout;       // Packed driven gate ids
+
+    // Creation
+    /**
+     * Constructor. Only used by NetlistCompiler, which is responsible for
+     * ensuring that the arrays are consistent.
+     */
+    Netlist(Wire[] wires, byte[] opcode, double[] delay, int[] output,
+            int[] faninStart, int[] fanin, int[] fanoutStart, int[] fanout) {
+        this.wires = wires;
+        this.opcode = opcode;
+        this.delay = delay;
+        this.output = output;
+        this.faninStart = faninStart;
+        this.fanin = fanin;
+        this.fanoutStart = fanoutStart;
+        this.fanout = fanout;
+
+        ids = new IdentityHashMap<Wire, Integer>(wires.length * 2);
+        initial = new byte[wires.length];
+        for (int i = 0; i < wires.length; i++) {
+            ids.put(wires[i], i);
+            initial[i] = encode(wires[i].getSignal());
+        }
+    }
+
+    // Queries
+    /** @return the number of wires in the netlist */
+    public int wireCount() { return wires.length; }
+
+    /** @return the number of gates in the netlist */
+    public int gateCount() { return opcode.length; }
+
+    /**
+     * Queries the id assigned to a wire.
+     * @param w a wire
+     * @return the id of the wire
+     * @throws IllegalArgumentException if the wire isn't part of the netlist
+     */
+    public int wireId(Wire w) {
+        Integer id = ids.get(w);
+        if (id == null) {
+            throw new IllegalArgumentException("Wire " + w.name() + " is not part of the netlist.");
+        }
+        return id;
+    }
+
+    /**
+     * Queries the wire with a given id.
+     * @param id a wire id
+     * @return the corresponding Wire object
+     */
+    public Wire wire(int id) { return wires[id]; }
+
+    /**
+     * Queries the signal level a wire had when the netlist was compiled.
+     * @param id a wire id
+     * @return the encoded signal level
+     */
+    public byte initialSignal(int id) { return initial[id]; }
+
+    /**
+     * Queries the smallest propagation delay of any gate in the netlist.
+     * @return the minimum gate delay in nanoseconds, or positive infinity
+     * if there are no gates with outputs
+     */
+    public double minDelay() {
+        double min = Double.POSITIVE_INFINITY;
+        for (int g = 0; g < opcode.length; g++) {
+            if (output[g] >= 0 && delay[g] < min) {
+                min = delay[g];
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Converts a signal to its encoded form.
+     * @param s a signal level
+     * @return the encoded signal level
+     */
+    public static byte encode(Signal s) {
+        return (byte) s.ordinal();
+    }
+
+    /**
+     * Converts an encoded signal back into a Signal.
+     * @param level an encoded signal level
+     * @return the corresponding Signal
+     */
+    public static Signal decode(byte level) {
+        return SIGNALS[level];
+    }
+
+    /**
+     * Evaluates a gate given a set of wire signal levels.
+     * @param g a gate id
+     * @param signal the current encoded signal level of every wire
+     * @return the encoded output level of the gate
+     */
+    byte evaluate(int g, byte[] signal) {
+        return evaluate(opcode[g], fanin, faninStart[g], faninStart[g + 1], signal);
+    }
+
+    /**
+     * Evaluates a gate function, for code that keeps gates in the same
+     * packed form as a netlist.
+     * @param op the gate opcode
+     * @param fanin packed gate input wire ids
+     * @param i the offset of the gate's first input in fanin
+     * @param end the offset just past its last input
+     * @param signal the current encoded signal level of every wire
+     * @return the encoded output level of the gate
+     */
+    static byte evaluate(byte op, int[] fanin, int i, int end, byte[] signal) {
+        byte result = signal[fanin[i]];
+        switch (op) {
+            case OP_AND:
+                while (++i < end) {
+                    result = AND_TABLE[result * N_SIGNALS + signal[fanin[i]]];
+                }
+                return result;
+            case OP_OR:
+                while (++i < end) {
+                    result = OR_TABLE[result * N_SIGNALS + signal[fanin[i]]];
+                }
+                return result;
+            case OP_NAND:
+                while (++i < end) {
+                    result = AND_TABLE[result * N_SIGNALS + signal[fanin[i]]];
+                }
+                return NOT_TABLE[result];
+            case OP_NOR:
+                while (++i < end) {
+                    result = OR_TABLE[result * N_SIGNALS + signal[fanin[i]]];
+                }
+                return NOT_TABLE[result];
+            case OP_XOR:
+                while (++i < end) {
+                    result = XOR_TABLE[result * N_SIGNALS + signal[fanin[i]]];
+                }
+                return result;
+            case OP_XNOR:
+                while (++i < end) {
+                    result = XOR_TABLE[result * N_SIGNALS + signal[fanin[i]]];
+                }
+                return NOT_TABLE[result];
+            case OP_NOT:
+                return NOT_TABLE[result];
+            default:
+                return result;
+        }
+    }
+}
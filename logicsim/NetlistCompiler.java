@@ -0,0 +1,190 @@
+package logicsim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * NetlistCompiler flattens a component hierarchy into a Netlist. Blocks
+ * (including components such as HalfAdder that are implemented with Blocks)
+ * are expanded recursively, and decorators are stripped off, leaving only
+ * the primitive gates and probes.
+ *
+ * Compiling a hierarchy that contains a component the compiler doesn't
+ * know how to flatten is an error.
+ *
+ * @author Allan McInnes
+ */
+public class NetlistCompiler implements ComponentVisitor {
+    private Map<Wire, Integer> ids = new IdentityHashMap<Wire, Integer>();
+    private List<Wire> wires = new ArrayList<Wire>();
+
+    // Gates collected so far
+    private int n_gates = 0;
+    private byte[] opcode = new byte[16];
+    private double[] delay = new double[16];
+    private int[] output = new int[16];
+    private int[] faninStart = new int[17];
+    private int[] fanin = new int[32];
+    private int n_fanin = 0;
+
+    /**
+     * Compiles a component hierarchy into a flat netlist. The signal levels
+     * currently on the wires become the initial signal levels of the netlist.
+     * @param root the top-level component (usually a Block)
+     * @return the compiled netlist
+     * @throws IllegalArgumentException if the hierarchy contains a component
+     * that can't be compiled
+     */
+    public static Netlist compile(Component root) {
+        NetlistCompiler compiler = new NetlistCompiler();
+        root.accept(compiler);
+        return compiler.build();
+    }
+
+    // Visitor implementation
+    /** Expand a block into its constituent components. */
+    @Override
+    public void visitBlock(Block block) {
+        for (Component comp : block.components()) {
+            comp.accept(this);
+        }
+    }
+
+    /** Add an AND gate to the netlist. */
+    @Override
+    public void visitTwoInputAndGate(TwoInputAndGate gate) {
+        addGate(Netlist.OP_AND, TwoInputGate.GATE_DELAY, gate.out, gate.inA, gate.inB);
+    }
+
+    /** Add an OR gate to the netlist. */
+    @Override
+    public void visitTwoInputOrGate(TwoInputOrGate gate) {
+        addGate(Netlist.OP_OR, TwoInputGate.GATE_DELAY, gate.out, gate.inA, gate.inB);
+    }
+
+    /** Add an N-input gate to the netlist. */
+    @Override
+    public void visitNInputGate(NInputGate gate) {
+        addGate(gate.opcode(), MultiInputGate.GATE_DELAY, gate.out, gate.in);
+    }
+
+    /** Add an inverter to the netlist. */
+    @Override
+    public void visitInverter(Inverter inverter) {
+        addGate(Netlist.OP_NOT, Inverter.GATE_DELAY, inverter.out, inverter.in);
+    }
+
+    /** Add a probe to the netlist. */
+    @Override
+    public void visitProbe(Probe probe) {
+        addGate(Netlist.OP_PROBE, 0.0, null, probe.in);
+    }
+
+    /**
+     * Unknown components can't be compiled.
+     * @throws IllegalArgumentException always
+     */
+    @Override
+    public void visitComponent(Component comp) {
+        throw new IllegalArgumentException("Cannot compile component of type "
+                                           + comp.getClass().getName());
+    }
+
+    // Helpers
+    /**
+     * Add a gate to the netlist being built.
+     * @param op the gate opcode
+     * @param d the gate propagation delay in nanoseconds
+     * @param out the output wire, or null for sinks
+     * @param ins the input wires
+     */
+    protected void addGate(byte op, double d, Wire out, Wire... ins) {
+        if (n_gates == opcode.length) {
+            int capacity = 2 * n_gates;
+            opcode = Arrays.copyOf(opcode, capacity);
+            delay = Arrays.copyOf(delay, capacity);
+            output = Arrays.copyOf(output, capacity);
+            faninStart = Arrays.copyOf(faninStart, capacity + 1);
+        }
+        if (n_fanin + ins.length > fanin.length) {
+            fanin = Arrays.copyOf(fanin, Math.max(2 * fanin.length, n_fanin + ins.length));
+        }
+
+        opcode[n_gates] = op;
+        delay[n_gates] = d;
+        output[n_gates] = (out != null) ? idOf(out) : -1;
+        faninStart[n_gates] = n_fanin;
+        for (Wire in : ins) {
+            fanin[n_fanin++] = idOf(in);
+        }
+        n_gates++;
+        faninStart[n_gates] = n_fanin;
+    }
+
+    /**
+     * Finds the id of a wire, assigning a new one if necessary.
+     * @param w a wire
+     * @return the id of the wire
+     */
+    private int idOf(Wire w) {
+        Integer id = ids.get(w);
+        if (id == null) {
+            id = wires.size();
+            ids.put(w, id);
+            wires.add(w);
+        }
+        return id;
+    }
+
+    /**
+     * Builds the fan-out tables and assembles the final netlist.
+     * @return the compiled netlist
+     */
+    private Netlist build() {
+        int n_wires = wires.size();
+
+        // Count the fan-out of each wire, then convert the counts into
+        // start offsets. A gate that uses a wire more than once only
+        // appears once in that wire's fan-out, just as a Component is only
+        // attached to a Wire once.
+        int[] fanoutStart = new int[n_wires + 1];
+        int[] last = new int[n_wires];
+        Arrays.fill(last, -1);
+        for (int g = 0; g < n_gates; g++) {
+            for (int i = faninStart[g]; i < faninStart[g + 1]; i++) {
+                int w = fanin[i];
+                if (last[w] != g) {
+                    last[w] = g;
+                    fanoutStart[w + 1]++;
+                }
+            }
+        }
+        for (int w = 0; w < n_wires; w++) {
+            fanoutStart[w + 1] += fanoutStart[w];
+        }
+
+        int[] fanout = new int[fanoutStart[n_wires]];
+        int[] next = Arrays.copyOf(fanoutStart, n_wires);
+        Arrays.fill(last, -1);
+        for (int g = 0; g < n_gates; g++) {
+            for (int i = faninStart[g]; i < faninStart[g + 1]; i++) {
+                int w = fanin[i];
+                if (last[w] != g) {
+                    last[w] = g;
+                    fanout[next[w]++] = g;
+                }
+            }
+        }
+
+        return new Netlist(wires.toArray(new Wire[n_wires]),
+                           Arrays.copyOf(opcode, n_gates),
+                           Arrays.copyOf(delay, n_gates),
+                           Arrays.copyOf(output, n_gates),
+                           Arrays.copyOf(faninStart, n_gates + 1),
+                           Arrays.copyOf(fanin, n_fanin),
+                           fanoutStart, fanout);
+    }
+}
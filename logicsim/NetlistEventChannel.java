@@ -0,0 +1,85 @@
+package logicsim;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free, single-producer single-consumer queue of wire
+ * transitions, used by the ParallelNetlistSimulator to pass time-stamped
+ * events from one partition to another.
+ *
+ * The producer and consumer each own one of the two position counters, and
+ * publish it with release semantics after writing or reading the slots it
+ * covers, so no locks or compare-and-set operations are needed.
+ *
+ * @author Allan McInnes
+ */
+final class NetlistEventChannel {
+    private final double[] ev_time;
+    private final int[] ev_wire;
+    private final byte[] ev_level;
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong(0); // Next slot to read
+    private final AtomicLong tail = new AtomicLong(0); // Next slot to write
+    private long cached_head = 0;   // Producer's copy of head
+    private long cached_tail = 0;   // Consumer's copy of tail
+
+    /**
+     * Constructor.
+     * @param capacity the maximum number of events in transit, which is
+     * rounded up to a power of two
+     */
+    NetlistEventChannel(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2));
+        if (size < capacity) {
+            size <<= 1;
+        }
+        ev_time = new double[size];
+        ev_wire = new int[size];
+        ev_level = new byte[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an event to the channel. Must only be called by the producer.
+     * @return false if the channel is full
+     */
+    boolean offer(double t, int w, byte level) {
+        long t_pos = tail.get();
+        if (t_pos - cached_head > mask) {
+            cached_head = head.get();
+            if (t_pos - cached_head > mask) {
+                return false;
+            }
+        }
+        int i = (int) t_pos & mask;
+        ev_time[i] = t;
+        ev_wire[i] = w;
+        ev_level[i] = level;
+        tail.lazySet(t_pos + 1);
+        return true;
+    }
+
+    /**
+     * Moves every event currently in the channel into an event heap. Must
+     * only be called by the consumer.
+     * @param heap the heap to add the events to
+     * @return the number of events moved
+     */
+    int drainTo(NetlistEventHeap heap) {
+        long h_pos = head.get();
+        if (h_pos == cached_tail) {
+            cached_tail = tail.get();
+            if (h_pos == cached_tail) {
+                return 0;
+            }
+        }
+        int n = (int) (cached_tail - h_pos);
+        for (long p = h_pos; p < cached_tail; p++) {
+            int i = (int) p & mask;
+            heap.add(ev_time[i], ev_wire[i], ev_level[i]);
+        }
+        head.lazySet(cached_tail);
+        return n;
+    }
+}
@@ -0,0 +1,127 @@
+package logicsim;
+
+import java.util.Arrays;
+
+/**
+ * A priority queue of wire transitions for the netlist simulators. Each
+ * event is a (time, wire id, encoded level) triple, and events are stored
+ * in a binary heap built from parallel primitive arrays, so adding and
+ * removing events never allocates objects. Events that occur at the same
+ * time are returned in the order in which they were added.
+ *
+ * @author Allan McInnes
+ */
+final class NetlistEventHeap {
+    private double[] ev_time = new double[64];
+    private long[] ev_seq = new long[64];
+    private int[] ev_wire = new int[64];
+    private byte[] ev_level = new byte[64];
+    private int n_events = 0;
+    private long next_seq = 0;
+
+    // Queries
+    /** @return true if there are no events in the heap */
+    boolean isEmpty() { return n_events == 0; }
+
+    /** @return the number of events in the heap */
+    int size() { return n_events; }
+
+    /** @return the time of the earliest event (the heap must not be empty) */
+    double peekTime() { return ev_time[0]; }
+
+    /** @return the wire of the earliest event (the heap must not be empty) */
+    int peekWire() { return ev_wire[0]; }
+
+    /** @return the level of the earliest event (the heap must not be empty) */
+    byte peekLevel() { return ev_level[0]; }
+
+    // Commands
+    /**
+     * Adds an event to the heap.
+     * @param t the event time
+     * @param w the wire id
+     * @param level the encoded signal level
+     */
+    void add(double t, int w, byte level) {
+        if (n_events == ev_time.length) {
+            int capacity = 2 * n_events;
+            ev_time = Arrays.copyOf(ev_time, capacity);
+            ev_seq = Arrays.copyOf(ev_seq, capacity);
+            ev_wire = Arrays.copyOf(ev_wire, capacity);
+            ev_level = Arrays.copyOf(ev_level, capacity);
+        }
+
+        long seq = next_seq++;
+        int i = n_events++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(t, seq, parent)) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        ev_time[i] = t;
+        ev_seq[i] = seq;
+        ev_wire[i] = w;
+        ev_level[i] = level;
+    }
+
+    /**
+     * Removes the earliest event from the heap (which must not be empty).
+     */
+    void removeFirst() {
+        int last = --n_events;
+        if (last == 0) {
+            return;
+        }
+        double t = ev_time[last];
+        long seq = ev_seq[last];
+        int w = ev_wire[last];
+        byte level = ev_level[last];
+
+        int i = 0;
+        int half = last >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < last && before(ev_time[right], ev_seq[right], child)) {
+                child = right;
+            }
+            if (before(t, seq, child)) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        ev_time[i] = t;
+        ev_seq[i] = seq;
+        ev_wire[i] = w;
+        ev_level[i] = level;
+    }
+
+    /**
+     * Removes all events from the heap.
+     */
+    void clear() {
+        n_events = 0;
+    }
+
+    // Helpers
+    /**
+     * Checks whether an event should occur before the one at a heap position.
+     */
+    private boolean before(double t, long seq, int pos) {
+        return t < ev_time[pos] || (t == ev_time[pos] && seq < ev_seq[pos]);
+    }
+
+    /**
+     * Copies the event at one heap position to another.
+     */
+    private void move(int from, int to) {
+        ev_time[to] = ev_time[from];
+        ev_seq[to] = ev_seq[from];
+        ev_wire[to] = ev_wire[from];
+        ev_level[to] = ev_level[from];
+    }
+}
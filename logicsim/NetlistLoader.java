@@ -0,0 +1,487 @@
+package logicsim;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * NetlistLoader builds circuits from gate-level netlist files, rather than
+ * by hand in Java. Two formats are understood: a structural subset of
+ * Verilog (see VerilogParser) and the combinational subset of BLIF (see
+ * BlifParser). Each module of the netlist becomes a Block, each primitive
+ * gate becomes a Component, and each net becomes a Wire.
+ *
+ * Loading happens in two stages. First the file is read, in a single pass,
+ * and cut into modules as it goes. The modules are parsed in parallel, on a
+ * pool of threads, into compact module definitions in which every name is
+ * interned. The text of a module is passed to its parser in segments, so
+ * neither the whole file nor any syntax tree is ever held in memory. Then
+ * the top-level module is built, on the calling thread, by creating the
+ * Wires and Components of each module instance in turn.
+ *
+ * Module definitions are remembered, so a library of cell definitions can
+ * be loaded once with loadLibrary() and then used by any number of designs.
+ * The top-level module is the one that no other module in the file
+ * instantiates (or, for BLIF, the first model in the file), unless it is
+ * chosen with setTopModule().
+ *
+ * Nets that are tied to a constant level are set once the circuit has been
+ * built, which schedules the resulting events on the context's Scheduler.
+ * All other wires start out as X.
+ *
+ * @author Allan McInnes
+ */
+public class NetlistLoader {
+    /**
+     * The netlist file formats that can be loaded.
+     */
+    public enum Format {
+        /** Structural Verilog */
+        VERILOG,
+        /** Berkeley Logic Interchange Format */
+        BLIF;
+
+        /**
+         * Chooses a format from a file name: BLIF for names ending in
+         * ".blif", and Verilog for anything else.
+         * @param file a file
+         * @return the format of the file
+         */
+        public static Format of(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            return name.endsWith(".blif") ? BLIF : VERILOG;
+        }
+    }
+
+    private final SimulationContext context;    // The simulation circuits are built in
+    private final Map<String, ModuleDefinition> modules = new HashMap<String, ModuleDefinition>();
+    private int n_threads = Runtime.getRuntime().availableProcessors();
+    private String top_name = null;             // Chosen top-level module, if any
+    private boolean is_flat = false;            // Put every component in the top Block?
+
+    // Results of the latest load
+    private ModuleDefinition top = null;
+    private Wire[] top_wires = null;
+    private Map<String, Wire> top_names = null; // Top-level wires by name, built on demand
+    private int n_components = 0;
+    private final List<Wire> const_wires = new ArrayList<Wire>();
+    private final List<Signal> const_levels = new ArrayList<Signal>();
+
+    // Creation
+    /**
+     * Constructor.
+     * @param context the simulation the circuits are built in
+     * @throws IllegalArgumentException if context is null
+     */
+    public NetlistLoader(SimulationContext context) {
+        if (context == null) {
+            throw new IllegalArgumentException("A loader needs a simulation context.");
+        }
+        this.context = context;
+    }
+
+    // Queries
+    /** @return the simulation circuits are built in */
+    public SimulationContext context() { return context; }
+
+    /** @return the names of every module definition loaded so far */
+    public Set<String> moduleNames() {
+        return Collections.unmodifiableSet(modules.keySet());
+    }
+
+    /** @return the name of the top-level module of the latest load, or null */
+    public String topModule() {
+        return (top != null) ? top.name : null;
+    }
+
+    /** @return the number of primitive components built by the latest load */
+    public int componentCount() { return n_components; }
+
+    /**
+     * Finds a net of the top-level module of the latest load.
+     * @param name the name of the net (for a bit of a bus, like "data[3]")
+     * @return the net's wire, or null if there is no net with that name
+     */
+    public Wire wire(String name) {
+        if (top == null) {
+            return null;
+        }
+        if (top_names == null) {
+            top_names = new HashMap<String, Wire>(2 * top.n_nets);
+            for (int n = 0; n < top.n_nets; n++) {
+                if (top.net_names[n] != null) {
+                    top_names.put(top.net_names[n], top_wires[n]);
+                }
+            }
+        }
+        return top_names.get(name);
+    }
+
+    /** @return the wires of the top-level input (and inout) ports, in port order */
+    public List<Wire> inputs() {
+        return portWires(false);
+    }
+
+    /** @return the wires of the top-level output ports, in port order */
+    public List<Wire> outputs() {
+        return portWires(true);
+    }
+
+    // Commands
+    /**
+     * Sets the number of threads used to parse modules.
+     * @param n the number of threads
+     * @throws IllegalArgumentException if n is less than 1
+     */
+    public void setThreads(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("At least one parser thread is needed.");
+        }
+        n_threads = n;
+    }
+
+    /**
+     * Chooses the top-level module to build.
+     * @param name the module name, or null to choose automatically
+     */
+    public void setTopModule(String name) {
+        top_name = name;
+    }
+
+    /**
+     * Chooses whether to keep the module hierarchy. A hierarchical circuit
+     * has a Block for every module instance. A flat circuit puts every
+     * component directly into the top-level Block, which saves memory when
+     * a design instantiates millions of small cells.
+     * @param flat true to build flat circuits
+     */
+    public void setFlatten(boolean flat) {
+        is_flat = flat;
+    }
+
+    /**
+     * Reads the module definitions in a file, without building anything.
+     * Definitions replace any earlier definitions of the same modules.
+     * @param file the file to read
+     * @throws IOException if the file can't be read or isn't valid
+     */
+    public void loadLibrary(Path file) throws IOException {
+        try (Reader in = open(file)) {
+            read(in, file.toString(), Format.of(file));
+        }
+    }
+
+    /**
+     * Loads a netlist file, and builds its top-level module.
+     * @param file the file to load, in the format given by its name
+     * @return a Block holding the circuit
+     * @throws IOException if the file can't be read or isn't valid
+     */
+    public Block load(Path file) throws IOException {
+        try (Reader in = open(file)) {
+            return load(in, file.toString(), Format.of(file));
+        }
+    }
+
+    /**
+     * Loads a netlist, and builds its top-level module.
+     * @param in the netlist text
+     * @param name a name for the netlist, used in error messages
+     * @param format the netlist format
+     * @return a Block holding the circuit
+     * @throws IOException if the netlist can't be read or isn't valid
+     */
+    public Block load(Reader in, String name, Format format) throws IOException {
+        List<ModuleDefinition> defs = read(in, name, format);
+        return build(chooseTop(defs, format, name));
+    }
+
+    // Helpers
+    private static Reader open(Path file) throws IOException {
+        return new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads and parses every module in a netlist, and adds them to the
+     * known definitions.
+     * @return the definitions read, in file order
+     */
+    private List<ModuleDefinition> read(Reader in, String name, Format format) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(n_threads, r -> {
+            Thread t = new Thread(r, "netlist-parser");
+            t.setDaemon(true);
+            return t;
+        });
+        Semaphore permits = new Semaphore(4 * n_threads + 4);
+        List<Future<ModuleDefinition>> parsed = new ArrayList<Future<ModuleDefinition>>();
+        try {
+            NetlistParser.Splitter splitter = (format == Format.BLIF)
+                ? BlifParser.splitter(name, permits, s -> parsed.add(pool.submit(() -> parse(s, format))))
+                : VerilogParser.splitter(name, permits, s -> parsed.add(pool.submit(() -> parse(s, format))));
+            splitter.split(in);
+
+            List<ModuleDefinition> defs = new ArrayList<ModuleDefinition>();
+            Map<String, ModuleDefinition> found = new HashMap<String, ModuleDefinition>();
+            for (Future<ModuleDefinition> f : parsed) {
+                ModuleDefinition def = result(f);
+                ModuleDefinition prev = found.put(def.name, def);
+                if (prev != null) {
+                    throw new IOException(def.location(def.line) + ": module " + def.name
+                                          + " is already defined at line " + prev.line + ".");
+                }
+                defs.add(def);
+            }
+            modules.putAll(found);
+            return defs;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Parses one module, on a pool thread.
+     */
+    private static ModuleDefinition parse(NetlistParser.Source source, Format format) throws IOException {
+        try {
+            NetlistParser parser = (format == Format.BLIF) ? new BlifParser(source)
+                                                           : new VerilogParser(source);
+            return parser.parse();
+        } finally {
+            source.abandon();
+        }
+    }
+
+    /**
+     * Waits for a module to be parsed.
+     */
+    private static ModuleDefinition result(Future<ModuleDefinition> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading a netlist.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Chooses the top-level module among the modules of a file.
+     */
+    private ModuleDefinition chooseTop(List<ModuleDefinition> defs, Format format, String name)
+        throws IOException {
+        if (top_name != null) {
+            ModuleDefinition def = modules.get(top_name);
+            if (def == null) {
+                throw new IOException("No module named " + top_name + ".");
+            }
+            return def;
+        }
+        if (defs.isEmpty()) {
+            throw new IOException(name + " contains no modules.");
+        }
+        if (format == Format.BLIF) {
+            return defs.get(0);
+        }
+        Set<String> used = new HashSet<String>();
+        for (ModuleDefinition def : defs) {
+            for (int i = 0; i < def.n_insts; i++) {
+                used.add(def.inst_module[i]);
+            }
+        }
+        List<String> candidates = new ArrayList<String>();
+        ModuleDefinition found = null;
+        for (ModuleDefinition def : defs) {
+            if (!used.contains(def.name)) {
+                candidates.add(def.name);
+                found = def;
+            }
+        }
+        if (candidates.size() != 1) {
+            throw new IOException(name + " has " + (candidates.isEmpty() ? "no" : "several")
+                                  + " top-level modules " + candidates
+                                  + "; choose one with setTopModule().");
+        }
+        return found;
+    }
+
+    /**
+     * Builds a top-level module, and sets any constant nets.
+     */
+    private Block build(ModuleDefinition def) throws IOException {
+        top = null;
+        top_wires = null;
+        top_names = null;
+        n_components = 0;
+        const_wires.clear();
+        const_levels.clear();
+
+        Block root = new Block(context.scheduler());
+        Wire[] wires = instantiate(def, new Wire[def.portWidth()], root,
+                                   new IdentityHashMap<ModuleDefinition, Boolean>());
+        top = def;
+        top_wires = wires;
+        for (int i = 0; i < const_wires.size(); i++) {
+            const_wires.get(i).setSignal(const_levels.get(i));
+        }
+        const_wires.clear();
+        const_levels.clear();
+        return root;
+    }
+
+    /**
+     * Builds an instance of a module.
+     * @param def the module
+     * @param ports the wires connected to the module's port nets, in port
+     * order (null for unconnected nets)
+     * @param block the Block to add the module's components to
+     * @param active the modules being built, to catch recursive instances
+     * @return the wires of the module's nets
+     */
+    private Wire[] instantiate(ModuleDefinition def, Wire[] ports, Block block,
+                               Map<ModuleDefinition, Boolean> active) throws IOException {
+        if (active.put(def, Boolean.TRUE) != null) {
+            throw new IOException(def.location(def.line) + ": module " + def.name
+                                  + " instantiates itself.");
+        }
+
+        // Wires for the nets, using the connected wires for ports
+        Wire[] w = new Wire[def.n_nets];
+        for (ModuleDefinition.Port p : def.ports) {
+            for (int i = 0; i < p.nets.length; i++) {
+                if (w[p.nets[i]] == null) {
+                    w[p.nets[i]] = ports[p.offset + i];
+                }
+            }
+        }
+        for (int n = 0; n < def.n_nets; n++) {
+            if (w[n] == null) {
+                w[n] = (def.net_names[n] != null) ? new Wire(context, def.net_names[n])
+                                                  : new Wire(context);
+            }
+        }
+
+        // Gates
+        for (int g = 0; g < def.n_gates; g++) {
+            int start = def.gate_start[g];
+            Wire out = w[def.gate_nets[start]];
+            Wire[] ins = new Wire[def.gate_start[g + 1] - start - 1];
+            for (int i = 0; i < ins.length; i++) {
+                ins[i] = w[def.gate_nets[start + 1 + i]];
+            }
+            block.addComponent(gate(def.gate_op[g], out, ins));
+            n_components++;
+        }
+
+        // Instances of other modules
+        for (int k = 0; k < def.n_insts; k++) {
+            ModuleDefinition child = modules.get(def.inst_module[k]);
+            String where = def.location(def.inst_line[k]);
+            if (child == null) {
+                throw new IOException(where + ": no definition of module " + def.inst_module[k] + ".");
+            }
+            Wire[] child_ports = new Wire[child.portWidth()];
+            for (int c = def.inst_start[k]; c < def.inst_start[k + 1]; c++) {
+                ModuleDefinition.Port p;
+                if (def.conn_port[c] != null) {
+                    p = child.port(def.conn_port[c]);
+                    if (p == null) {
+                        throw new IOException(where + ": module " + child.name
+                                              + " has no port " + def.conn_port[c] + ".");
+                    }
+                } else {
+                    int position = c - def.inst_start[k];
+                    if (position >= child.ports.size()) {
+                        throw new IOException(where + ": too many connections to module "
+                                              + child.name + ".");
+                    }
+                    p = child.ports.get(position);
+                }
+                int n = def.conn_start[c + 1] - def.conn_start[c];
+                if (n != 0 && n != p.nets.length) {
+                    throw new IOException(where + ": port " + p.name + " of module " + child.name
+                                          + " is " + p.nets.length + " bits wide, but "
+                                          + n + " are connected.");
+                }
+                for (int i = 0; i < n; i++) {
+                    child_ports[p.offset + i] = w[def.conn_nets[def.conn_start[c] + i]];
+                }
+            }
+            Block sub = block;
+            if (!is_flat) {
+                sub = new Block();
+                block.addComponent(sub);
+            }
+            instantiate(child, child_ports, sub, active);
+        }
+
+        for (int i = 0; i < def.n_consts; i++) {
+            const_wires.add(w[def.const_nets[i]]);
+            const_levels.add(Netlist.decode(def.const_levels[i]));
+        }
+        active.remove(def);
+        return w;
+    }
+
+    /**
+     * Creates the component for a primitive gate.
+     */
+    private static Component gate(byte op, Wire out, Wire[] ins) {
+        switch (op) {
+            case Netlist.OP_NOT:
+                return new Inverter(ins[0], out);
+            case Netlist.OP_OR:
+                return new NInputOrGate(out, ins);
+            case Netlist.OP_NAND:
+                return new NInputNandGate(out, ins);
+            case Netlist.OP_NOR:
+                return new NInputNorGate(out, ins);
+            case Netlist.OP_XOR:
+                return new NInputXorGate(out, ins);
+            case Netlist.OP_XNOR:
+                return new NInputXnorGate(out, ins);
+            default:
+                return new NInputAndGate(out, ins);
+        }
+    }
+
+    /**
+     * Lists the wires of the top-level inputs or outputs.
+     */
+    private List<Wire> portWires(boolean outputs) {
+        List<Wire> result = new ArrayList<Wire>();
+        if (top != null) {
+            for (ModuleDefinition.Port p : top.ports) {
+                if ((p.direction == ModuleDefinition.OUTPUT) == outputs) {
+                    for (int n : p.nets) {
+                        result.add(top_wires[n]);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,302 @@
+package logicsim;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * NetlistParser is an abstract base class for the parsers used by a
+ * NetlistLoader. Each parser turns the text of one module into a
+ * ModuleDefinition.
+ *
+ * A netlist file is read once, by a Splitter, which cuts it into the text of
+ * each module as it goes. The text of a module is handed over in segments
+ * of at most SEGMENT_SIZE characters, through a Source, so a parser can
+ * start work on a module before the end of the module has been read, and
+ * the text of a large module is never all held in memory at once. The
+ * number of segments waiting to be parsed is limited by a semaphore that
+ * the splitter shares with the parsers.
+ *
+ * @author Allan McInnes
+ */
+abstract class NetlistParser {
+    /** Maximum number of characters in a segment of module text */
+    static final int SEGMENT_SIZE = 1 << 16;
+
+    private static final char[] END = new char[0]; // Marks the end of a module
+
+    /**
+     * The text of one module, passed from a splitter to a parser.
+     */
+    static final class Source {
+        final String file;          // File the module comes from
+        final int first_line;       // Line the module starts on
+        private final BlockingQueue<char[]> segments = new LinkedBlockingQueue<char[]>();
+        private final Semaphore permits;    // Limit on segments in flight
+        private boolean is_abandoned = false;
+
+        Source(String file, int first_line, Semaphore permits) {
+            this.file = file;
+            this.first_line = first_line;
+            this.permits = permits;
+        }
+
+        /**
+         * Passes on a segment of text, waiting if too many segments are
+         * already waiting to be parsed.
+         */
+        void add(char[] segment) throws IOException {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while loading a netlist.");
+            }
+            synchronized (this) {
+                if (is_abandoned) {
+                    permits.release();
+                } else {
+                    segments.add(segment);
+                }
+            }
+        }
+
+        /**
+         * Marks the end of the module.
+         */
+        void finish() {
+            segments.add(END);
+        }
+
+        /**
+         * Takes the next segment of text, waiting for it if necessary.
+         * @return the segment, or an empty array at the end of the module
+         */
+        char[] take() throws IOException {
+            char[] segment;
+            try {
+                segment = segments.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while loading a netlist.");
+            }
+            if (segment != END) {
+                permits.release();
+            }
+            return segment;
+        }
+
+        /**
+         * Discards any text the parser has no use for, such as the rest of
+         * a module containing an error, so that the splitter isn't held up.
+         */
+        synchronized void abandon() {
+            is_abandoned = true;
+            for (char[] segment; (segment = segments.poll()) != null; ) {
+                if (segment != END) {
+                    permits.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a netlist file, and cuts it into the text of each module.
+     * Subclasses recognize where modules start and end.
+     */
+    abstract static class Splitter {
+        private final String file;
+        private final Semaphore permits;
+        private final Consumer<Source> sink;    // Receives each new module
+        private char[] segment = new char[SEGMENT_SIZE];
+        private int n_chars = 0;
+        private Source current = null;          // Module being read
+        protected int line = 1;                 // Current line
+
+        /**
+         * Constructor.
+         * @param file the name of the file, for error messages
+         * @param permits limits the number of segments in flight
+         * @param sink receives the source of each module as it starts
+         */
+        Splitter(String file, Semaphore permits, Consumer<Source> sink) {
+            this.file = file;
+            this.permits = permits;
+            this.sink = sink;
+        }
+
+        /**
+         * Reads the whole of a file.
+         * @param in the file contents
+         */
+        void split(Reader in) throws IOException {
+            char[] buf = new char[SEGMENT_SIZE];
+            for (int len; (len = in.read(buf)) > 0; ) {
+                for (int i = 0; i < len; i++) {
+                    scan(buf[i]);
+                    if (buf[i] == '\n') {
+                        line++;
+                    }
+                }
+            }
+            scan('\n');
+            close();
+        }
+
+        /**
+         * Processes the next character of the file, passing it on with
+         * emit() if it is part of a module.
+         */
+        protected abstract void scan(char c) throws IOException;
+
+        /** @return true if a module is being read */
+        protected boolean isOpen() { return current != null; }
+
+        /**
+         * Starts a new module.
+         * @param prefix text to start the module with
+         */
+        protected void open(String prefix) throws IOException {
+            close();
+            current = new Source(file, line, permits);
+            sink.accept(current);
+            for (int i = 0; i < prefix.length(); i++) {
+                emit(prefix.charAt(i));
+            }
+        }
+
+        /**
+         * Adds a character to the current module, if there is one.
+         */
+        protected void emit(char c) throws IOException {
+            if (current != null) {
+                segment[n_chars++] = c;
+                if (n_chars == SEGMENT_SIZE) {
+                    current.add(segment);
+                    segment = new char[SEGMENT_SIZE];
+                    n_chars = 0;
+                }
+            }
+        }
+
+        /**
+         * Ends the current module, if there is one.
+         */
+        protected void close() throws IOException {
+            if (current != null) {
+                if (n_chars > 0) {
+                    current.add(Arrays.copyOf(segment, n_chars));
+                    n_chars = 0;
+                }
+                current.finish();
+                current = null;
+            }
+        }
+    }
+
+    private final Source source;    // The module text
+    private char[] buf = END;       // Current segment
+    private int pos = 0;            // Position of the next character in buf
+    protected int c;                // Current character, or -1 at the end
+    protected int line;             // Line of the current character
+
+    protected char[] word = new char[64]; // Latest name read
+    protected int word_len = 0;
+
+    // Creation
+    /**
+     * Constructor.
+     * @param source the module text
+     */
+    NetlistParser(Source source) throws IOException {
+        this.source = source;
+        line = source.first_line;
+        c = ' ';
+        advance();
+    }
+
+    /**
+     * Parses the module.
+     * @return the module definition
+     * @throws IOException if the text can't be read or isn't valid
+     */
+    abstract ModuleDefinition parse() throws IOException;
+
+    // Helpers
+    /**
+     * Moves on to the next character.
+     */
+    protected final void advance() throws IOException {
+        if (c == '\n') {
+            line++;
+        }
+        if (pos == buf.length) {
+            if (c < 0 || (buf = source.take()).length == 0) {
+                c = -1;
+                return;
+            }
+            pos = 0;
+        }
+        c = buf[pos++];
+    }
+
+    /**
+     * Adds a character to the current word.
+     */
+    protected final void append(char ch) {
+        if (word_len == word.length) {
+            word = Arrays.copyOf(word, 2 * word_len);
+        }
+        word[word_len++] = ch;
+    }
+
+    /**
+     * Appends a number to the current word.
+     */
+    protected final void append(int n) {
+        String s = Integer.toString(n);
+        for (int i = 0; i < s.length(); i++) {
+            append(s.charAt(i));
+        }
+    }
+
+    /**
+     * @return true if the current word is the given keyword
+     */
+    protected final boolean wordIs(String keyword) {
+        if (word_len != keyword.length()) {
+            return false;
+        }
+        for (int i = 0; i < word_len; i++) {
+            if (word[i] != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return the current word */
+    protected final String wordString() {
+        return new String(word, 0, word_len);
+    }
+
+    /** @return the name of the file being parsed */
+    protected final String file() { return source.file; }
+
+    /** @return a description of the current character, for error messages */
+    protected final String current() {
+        return (c < 0) ? "end of module" : "'" + (char) c + "'";
+    }
+
+    /**
+     * @return an exception describing a syntax error at the current line
+     */
+    protected final IOException error(String message) {
+        return new IOException(source.file + ":" + line + ": " + message);
+    }
+}
@@ -0,0 +1,176 @@
+package logicsim;
+
+/**
+ * NetlistSimulator executes a compiled Netlist. It is a discrete-event
+ * simulator like the Scheduler: when a wire changes level, each gate it
+ * fans out to is evaluated and schedules a transition on its output wire
+ * one gate delay into the future.
+ *
+ * The two agree on the levels the wires settle to, but not on the events
+ * it takes to get there. The netlist engine keeps time as a double rather
+ * than in whole ticks, and evaluates a gate after every event rather than
+ * once per delta cycle. It also schedules every transition, even one that
+ * wouldn't change its wire. So when several inputs of a gate change at
+ * the same instant, it can produce zero-width glitches that the Scheduler
+ * doesn't, and execute more events. When the inputs of a half adder swap
+ * at the same instant, for example, the Scheduler executes 2 events and
+ * the NetlistSimulator executes 6.
+ *
+ * The difference is in representation. Wire levels are held in a single
+ * byte array, gates are dispatched on an opcode rather than through a
+ * virtual update() call, and pending events are kept in a NetlistEventHeap
+ * built from parallel primitive arrays, so no objects are allocated while the
+ * simulation runs. Events that occur at the same time are executed in the
+ * order in which they were scheduled.
+ *
+ * The simulator works on its own copy of the wire levels. The Wire objects
+ * that the netlist was compiled from are left untouched.
+ *
+ * @author Allan McInnes
+ */
+public class NetlistSimulator {
+    private final Netlist net;          // The circuit being simulated
+    private final byte[] signal;        // Current level of each wire
+
+    private double current_time;        // The current simulation time in ns
+    private double stop_time;           // The upper bound on simulation time
+    private boolean is_bounded;         // Is there a bound on sim time?
+    private long n_executed = 0;        // Number of events executed
+
+    private final NetlistEventHeap events = new NetlistEventHeap(); // Pending events
+
+    // Creation
+    /**
+     * Constructor. All wires start with the levels they had when the netlist
+     * was compiled.
+     * @param net the netlist to simulate
+     */
+    public NetlistSimulator(Netlist net) {
+        this.net = net;
+        signal = new byte[net.wireCount()];
+        for (int w = 0; w < signal.length; w++) {
+            signal[w] = net.initialSignal(w);
+        }
+        current_time = Scheduler.START_TIME;
+        stop_time = Scheduler.NO_BOUND;
+        is_bounded = false;
+    }
+
+    // Queries
+    /** @return the netlist being simulated */
+    public Netlist netlist() { return net; }
+
+    /** @return the current simulation time in nanoseconds */
+    public double time() { return current_time; }
+
+    /** @return the total number of events executed so far */
+    public long eventCount() { return n_executed; }
+
+    /** @return the number of events waiting to be executed */
+    public int pendingEvents() { return events.size(); }
+
+    /**
+     * Queries the signal level currently on a wire.
+     * @param w a wire that is part of the netlist
+     * @return the current signal level
+     */
+    public Signal getSignal(Wire w) {
+        return Netlist.decode(signal[net.wireId(w)]);
+    }
+
+    /**
+     * Queries the signal level currently on a wire.
+     * @param id a wire id
+     * @return the current encoded signal level
+     */
+    public byte getSignal(int id) {
+        return signal[id];
+    }
+
+    // Commands
+    /**
+     * Sets the signal level on a wire at the current time, in the same way
+     * as Wire.setSignal().
+     * @param w a wire that is part of the netlist
+     * @param level the new signal level
+     */
+    public void setSignal(Wire w, Signal level) {
+        setSignal(net.wireId(w), Netlist.encode(level));
+    }
+
+    /**
+     * Sets the signal level on a wire at the current time.
+     * @param id a wire id
+     * @param level the new encoded signal level
+     */
+    public void setSignal(int id, byte level) {
+        if (signal[id] != level) {
+            signal[id] = level;
+            notifyFanout(id);
+        }
+    }
+
+    /**
+     * Execute a simulation. Execution proceeds until there are no
+     * future events scheduled, or until an optional upper bound on the
+     * simulation time is reached.
+     */
+    public void run() {
+        while (!events.isEmpty() && (!is_bounded || events.peekTime() < stop_time)) {
+            current_time = events.peekTime();
+            int w = events.peekWire();
+            byte level = events.peekLevel();
+            events.removeFirst();
+            n_executed++;
+            setSignal(w, level);
+        }
+    }
+
+    /**
+     * Sets the upper bound on simulation time, in nanoseconds
+     * @param time the maximum simulation time (must be > 0)
+     */
+    public void setStopTime(double time) {
+        assert (time >= Scheduler.START_TIME);
+        stop_time = time;
+        is_bounded = true;
+    }
+
+    /**
+     * Removes any upper bound on simulation time.
+     */
+    public void clearStopTime() {
+        is_bounded = false;
+        stop_time = Scheduler.NO_BOUND;
+    }
+
+    /**
+     * Removes any remaining events, and resets the simulation time back to
+     * the starting time. Wire levels are not changed.
+     */
+    public void reset() {
+        current_time = Scheduler.START_TIME;
+        events.clear();
+        clearStopTime();
+    }
+
+    // Helpers
+    /**
+     * Evaluates every gate driven by a wire that has just changed.
+     * @param w the id of the wire that changed
+     */
+    private void notifyFanout(int w) {
+        final int[] fanout = net.fanout;
+        for (int i = net.fanoutStart[w], end = net.fanoutStart[w + 1]; i < end; i++) {
+            int g = fanout[i];
+            int out = net.output[g];
+            if (out >= 0) {
+                events.add(current_time + net.delay[g], out, net.evaluate(g, signal));
+            } else {
+                // Probes are the only sinks
+                System.out.printf("[%4f] %s\t%s\n", current_time,
+                                  net.wire(w).name(), Netlist.decode(signal[w]));
+            }
+        }
+    }
+}
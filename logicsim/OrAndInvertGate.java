@@ -0,0 +1,24 @@
+package logicsim;
+
+/**
+ * An OR-AND-INVERT (OAI) gate, which computes the AND of the
+ * ORs of each group of inputs, and inverts it:
+ * <pre>
+ *   out = NOT((a0 OR a1 ...) AND (b0 OR b1 ...) AND ...)
+ * </pre>
+ * An OAI221 cell, for example, has two groups of two inputs and one of one.
+ * @author Allan McInnes
+ */
+public class OrAndInvertGate extends TwoLevelGate {
+
+    /**
+     * Constructor.
+     * @param out the output wire
+     * @param groups the inputs of each first level gate
+     * @throws IllegalArgumentException if there are no groups, a group is
+     *  empty, or the wires belong to different simulation contexts
+     */
+    public OrAndInvertGate(Wire out, Wire[]... groups) {
+        super(Signal.HIGH, Signal.LOW, true, out, groups);
+    }
+}
@@ -0,0 +1,698 @@
+package logicsim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ParallelNetlistSimulator executes a compiled Netlist on several threads,
+ * using a conservative parallel discrete-event algorithm in the style of
+ * Chandy, Misra and Bryant.
+ *
+ * The gates of the netlist are divided into partitions, each of which is
+ * simulated by its own thread with its own event heap and its own copy of
+ * the wire levels it needs. When a gate's output wire is also read by gates
+ * in other partitions, the transition is sent to those partitions over a
+ * lock-free NetlistEventChannel. To keep that traffic down, the gates are
+ * partitioned by their connections: starting from equal slices of the
+ * netlist, each gate is moved to the partition holding most of the gates
+ * that drive it or read it, within a small allowance for imbalance.
+ * crossingCount() tells how many wires still have to be sent across.
+ *
+ * A partition may only execute events that are earlier than the "promise"
+ * published by every partition that sends to it. A promise is a lower bound
+ * on the time of any event the sender may send in future. Every gate has a
+ * propagation delay of at least the partition's lookahead (its smallest gate
+ * delay), so a partition whose next event is at time t can promise that it
+ * won't send anything earlier than t + lookahead. Promises are republished
+ * whenever a partition runs out of safe work, which plays the role of the
+ * "null messages" in the original algorithm. Global termination (when there
+ * is no stop time) is detected by counting the events that are pending
+ * anywhere in the simulation.
+ *
+ * Within a partition, all of the transitions at a given time are applied
+ * before any gate is evaluated, and each affected gate is then evaluated
+ * once. Since each wire has a single driver with a fixed delay, this gives
+ * every wire exactly the same level after each time step as the sequential
+ * NetlistSimulator, but means that eventCount() may be smaller. Probes are
+ * not evaluated by the parallel simulator.
+ *
+ * Wire levels and pending events are held by the simulator, and persist
+ * between calls to run(), just as they do in the sequential simulators.
+ * The threads that run the partitions are started by the first run(), and
+ * wait between runs to be used again, until shutdown() is called.
+ *
+ * How well the simulator scales with the number of threads hasn't been
+ * measured: it has only been run on a single core, where the partitions
+ * share one processor, and compared there with the sequential simulator
+ * for correctness, not speed.
+ *
+ * @author Allan McInnes
+ */
+public class ParallelNetlistSimulator {
+    private final Netlist net;          // The circuit being simulated
+    private final Partition[] parts;    // The partitions
+    private final int[] partOf;         // Partition of each gate
+    private final int[] owner;          // Partition holding the master level of each wire
+    private final int[] destStart;      // Offset of each wire's remote readers in dest
+    private final int[] dest;           // Partitions (other than the owner) that read a wire
+    private final byte[] gate_mark;     // Marks gates already due for evaluation
+
+    private double current_time;        // The current simulation time in ns
+    private double stop_time;           // The upper bound on simulation time
+    private boolean is_bounded;         // Is there a bound on sim time?
+
+    // Shared state used while running
+    private final AtomicLong active = new AtomicLong(0);       // Events pending anywhere
+    private final AtomicInteger n_done = new AtomicInteger(0); // Partitions with no more work
+    private volatile Throwable failure = null;                 // First exception in a worker
+
+    // The worker threads, which run partitions 1 and up
+    private Thread[] workers = null;    // Started by the first run()
+    private final Phaser rounds;        // Starts and finishes each run
+    private volatile boolean is_shut_down = false;
+
+    /** Maximum number of events in transit between any pair of partitions */
+    public static final int CHANNEL_CAPACITY = 1 << 14;
+    /** Fraction by which a partition may differ from an equal share of the gates */
+    public static final double IMBALANCE = 0.05;
+    private static final int PARTITION_PASSES = 8; // Most passes moving gates between partitions
+
+    // Creation
+    /**
+     * Constructor. The gates are divided into partitions of roughly equal
+     * size, arranged so that as few wires as possible cross between them.
+     * @param net the netlist to simulate
+     * @param n_partitions the number of partitions (and threads) to use
+     * @throws IllegalArgumentException if n_partitions < 1, or if any wire
+     * in the netlist is driven by more than one gate
+     */
+    public ParallelNetlistSimulator(Netlist net, int n_partitions) {
+        if (n_partitions < 1) {
+            throw new IllegalArgumentException("There must be at least one partition.");
+        }
+        this.net = net;
+        int n_gates = net.gateCount();
+        int n_wires = net.wireCount();
+
+        int[] driver = new int[n_wires];
+        Arrays.fill(driver, -1);
+        for (int g = 0; g < n_gates; g++) {
+            int w = net.output[g];
+            if (w >= 0) {
+                if (driver[w] >= 0) {
+                    throw new IllegalArgumentException("Wire " + net.wire(w).name()
+                                                       + " has more than one driver.");
+                }
+                driver[w] = g;
+            }
+        }
+        partOf = partition(net, driver, n_partitions);
+        gate_mark = new byte[n_gates];
+
+        // Each wire belongs to the partition that drives it. Undriven wires
+        // (the circuit inputs) are held by partition 0.
+        owner = new int[n_wires];
+        for (int w = 0; w < n_wires; w++) {
+            if (driver[w] >= 0) {
+                owner[w] = partOf[driver[w]];
+            }
+        }
+
+        // Find the other partitions that need to see transitions on each wire
+        destStart = new int[n_wires + 1];
+        List<Integer> dests = new ArrayList<Integer>();
+        boolean[] seen = new boolean[n_partitions];
+        for (int w = 0; w < n_wires; w++) {
+            for (int i = net.fanoutStart[w]; i < net.fanoutStart[w + 1]; i++) {
+                int p = partOf[net.fanout[i]];
+                if (p != owner[w] && !seen[p]) {
+                    seen[p] = true;
+                    dests.add(p);
+                }
+            }
+            for (int i = destStart[w]; i < dests.size(); i++) {
+                seen[dests.get(i)] = false;
+            }
+            destStart[w + 1] = dests.size();
+        }
+        dest = new int[dests.size()];
+        for (int i = 0; i < dest.length; i++) {
+            dest[i] = dests.get(i);
+        }
+
+        parts = new Partition[n_partitions];
+        for (int p = 0; p < n_partitions; p++) {
+            parts[p] = new Partition(p);
+        }
+
+        // Connect a channel between each pair of partitions that communicate
+        for (int w = 0; w < n_wires; w++) {
+            Partition from = parts[owner[w]];
+            for (int i = destStart[w]; i < destStart[w + 1]; i++) {
+                if (from.out[dest[i]] == null) {
+                    NetlistEventChannel channel = new NetlistEventChannel(CHANNEL_CAPACITY);
+                    from.out[dest[i]] = channel;
+                    parts[dest[i]].connect(from, channel);
+                }
+            }
+        }
+
+        rounds = new Phaser(n_partitions);
+        current_time = Scheduler.START_TIME;
+        stop_time = Scheduler.NO_BOUND;
+        is_bounded = false;
+    }
+
+    // Queries
+    /** @return the netlist being simulated */
+    public Netlist netlist() { return net; }
+
+    /** @return the number of partitions */
+    public int partitionCount() { return parts.length; }
+
+    /**
+     * @return the number of wires read in partitions other than the one
+     * driving them, with each wire counted once for every such partition.
+     * Each transition on a wire is sent to every partition it is counted for.
+     */
+    public int crossingCount() { return dest.length; }
+
+    /** @return the current simulation time in nanoseconds */
+    public double time() { return current_time; }
+
+    /**
+     * @return the total number of events executed so far. Transitions that
+     * are copied to other partitions are only counted once.
+     */
+    public long eventCount() {
+        long n = 0;
+        for (Partition part : parts) {
+            n += part.n_executed;
+        }
+        return n;
+    }
+
+    /**
+     * Queries the signal level currently on a wire.
+     * @param w a wire that is part of the netlist
+     * @return the current signal level
+     */
+    public Signal getSignal(Wire w) {
+        return Netlist.decode(getSignal(net.wireId(w)));
+    }
+
+    /**
+     * Queries the signal level currently on a wire.
+     * @param id a wire id
+     * @return the current encoded signal level
+     */
+    public byte getSignal(int id) {
+        return parts[owner[id]].signal[id];
+    }
+
+    // Commands
+    /**
+     * Sets the signal level on a wire at the current time, in the same way
+     * as Wire.setSignal(). Must not be called while the simulation is running.
+     * @param w a wire that is part of the netlist
+     * @param level the new signal level
+     */
+    public void setSignal(Wire w, Signal level) {
+        setSignal(net.wireId(w), Netlist.encode(level));
+    }
+
+    /**
+     * Sets the signal level on a wire at the current time. Must not be
+     * called while the simulation is running.
+     * @param id a wire id
+     * @param level the new encoded signal level
+     */
+    public void setSignal(int id, byte level) {
+        parts[owner[id]].force(id, level);
+        for (int i = destStart[id]; i < destStart[id + 1]; i++) {
+            parts[dest[i]].force(id, level);
+        }
+    }
+
+    /**
+     * Execute a simulation. Execution proceeds until there are no
+     * future events scheduled, or until an optional upper bound on the
+     * simulation time is reached. Partition 0 runs on the calling thread,
+     * and each other partition runs on a worker thread of its own.
+     * @throws RuntimeException if any partition fails
+     * @throws IllegalStateException if the simulator has been shut down
+     */
+    public void run() {
+        if (is_shut_down) {
+            throw new IllegalStateException("The simulator has been shut down.");
+        }
+        // Nobody can send anything earlier than the earliest pending event
+        // plus their lookahead, which gives us the initial promises.
+        double earliest = Double.POSITIVE_INFINITY;
+        for (Partition part : parts) {
+            if (!part.events.isEmpty()) {
+                earliest = Math.min(earliest, part.events.peekTime());
+            }
+        }
+        for (Partition part : parts) {
+            part.promise = earliest + part.lookahead;
+        }
+        n_done.set(0);
+        failure = null;
+
+        if (workers == null) {
+            startWorkers();
+        }
+        rounds.arriveAndAwaitAdvance(); // Start the workers
+        parts[0].run();
+        rounds.arriveAndAwaitAdvance(); // Wait for them to finish
+
+        for (Partition part : parts) {
+            current_time = Math.max(current_time, part.last_time);
+        }
+        if (failure != null) {
+            throw new RuntimeException("Parallel simulation failed.", failure);
+        }
+    }
+
+    /**
+     * Stops the worker threads. The threads are daemon threads, so they
+     * don't keep the JVM running, but each simulator keeps its own until
+     * it is shut down. The simulator can't be run again afterwards, but
+     * its wire levels can still be read.
+     */
+    public void shutdown() {
+        if (!is_shut_down) {
+            is_shut_down = true;
+            if (workers != null) {
+                rounds.arriveAndDeregister(); // Let the workers see the flag
+            }
+        }
+    }
+
+    /**
+     * Sets the upper bound on simulation time, in nanoseconds
+     * @param time the maximum simulation time (must be > 0)
+     */
+    public void setStopTime(double time) {
+        assert (time >= Scheduler.START_TIME);
+        stop_time = time;
+        is_bounded = true;
+    }
+
+    /**
+     * Removes any upper bound on simulation time.
+     */
+    public void clearStopTime() {
+        is_bounded = false;
+        stop_time = Scheduler.NO_BOUND;
+    }
+
+    /**
+     * Removes any remaining events, and resets the simulation time back to
+     * the starting time. Wire levels are not changed.
+     */
+    public void reset() {
+        current_time = Scheduler.START_TIME;
+        for (Partition part : parts) {
+            part.events.clear();
+            part.last_time = Scheduler.START_TIME;
+        }
+        active.set(0);
+        clearStopTime();
+    }
+
+    /**
+     * One partition of the netlist, together with the thread-confined state
+     * needed to simulate it.
+     */
+    private final class Partition implements Runnable {
+        final int index;                 // Partition number
+        final byte[] signal;             // Local copy of wire levels
+        final NetlistEventHeap events = new NetlistEventHeap(); // Pending local events
+        final NetlistEventChannel[] out; // Channel to each partition, if any
+        final double lookahead;          // Minimum delay of any local gate
+        volatile double promise;         // No event will be sent earlier than this
+        double last_time = Scheduler.START_TIME; // Time of the last step executed
+        long n_executed = 0;             // Events executed on owned wires
+
+        private NetlistEventChannel[] in = new NetlistEventChannel[0]; // Incoming channels
+        private Partition[] senders = new Partition[0];  // Sources of incoming channels
+
+        // Scratch space for a time step
+        private final byte[] wire_mark;  // Marks wires already in changed
+        private int[] changed = new int[64];
+        private byte[] old_level = new byte[64];
+        private int[] due = new int[64];
+
+        // Events produced for other partitions during the current round
+        private double[] ob_time = new double[64];
+        private int[] ob_wire = new int[64];
+        private byte[] ob_level = new byte[64];
+        private int[] ob_dest = new int[64];
+        private int n_outbox = 0;
+
+        private long produced = 0;       // Events created this round
+        private long consumed = 0;       // Events executed this round
+
+        Partition(int index) {
+            this.index = index;
+            signal = new byte[net.wireCount()];
+            for (int w = 0; w < signal.length; w++) {
+                signal[w] = net.initialSignal(w);
+            }
+            wire_mark = new byte[net.wireCount()];
+            out = new NetlistEventChannel[parts.length];
+
+            double min = Double.POSITIVE_INFINITY;
+            for (int g = 0; g < partOf.length; g++) {
+                if (partOf[g] == index && net.output[g] >= 0) {
+                    min = Math.min(min, net.delay[g]);
+                }
+            }
+            lookahead = min;
+        }
+
+        /**
+         * Adds an incoming channel.
+         */
+        void connect(Partition sender, NetlistEventChannel channel) {
+            senders = Arrays.copyOf(senders, senders.length + 1);
+            senders[senders.length - 1] = sender;
+            in = Arrays.copyOf(in, in.length + 1);
+            in[in.length - 1] = channel;
+        }
+
+        /**
+         * Sets a wire level from outside the simulation, and evaluates the
+         * local gates that it drives.
+         */
+        void force(int w, byte level) {
+            if (signal[w] != level) {
+                signal[w] = level;
+                int n = 0;
+                for (int i = net.fanoutStart[w]; i < net.fanoutStart[w + 1]; i++) {
+                    if (partOf[net.fanout[i]] == index) {
+                        due = grow(due, n);
+                        due[n++] = net.fanout[i];
+                    }
+                }
+                evaluate(n, current_time);
+                // Nothing is running, so deliver directly to the other heaps
+                for (int i = 0; i < n_outbox; i++) {
+                    parts[ob_dest[i]].events.add(ob_time[i], ob_wire[i], ob_level[i]);
+                }
+                n_outbox = 0;
+                active.addAndGet(produced);
+                produced = 0;
+            }
+        }
+
+        /**
+         * The main loop of the partition's thread.
+         */
+        @Override
+        public void run() {
+            try {
+                boolean done = false;
+                int idle = 0;
+                while (failure == null) {
+                    // Read the promises before draining the channels, so that
+                    // every event sent before a promise was made is received.
+                    double safe = Double.POSITIVE_INFINITY;
+                    for (Partition sender : senders) {
+                        safe = Math.min(safe, sender.promise);
+                    }
+                    drain();
+
+                    double limit = is_bounded ? Math.min(safe, stop_time) : safe;
+                    boolean progress = false;
+                    while (!events.isEmpty() && events.peekTime() < limit) {
+                        step(events.peekTime());
+                        progress = true;
+                    }
+                    flush();
+
+                    double bound = events.isEmpty() ? safe : Math.min(events.peekTime(), safe);
+                    double p = bound + lookahead;
+                    if (p > promise) {
+                        promise = p;
+                    }
+
+                    if (!done && ((is_bounded && bound >= stop_time) || active.get() == 0)) {
+                        done = true;
+                        n_done.incrementAndGet();
+                    }
+                    if (done && n_done.get() == parts.length) {
+                        // No more events can be sent, so collect the last
+                        // of them for the next run.
+                        drain();
+                        return;
+                    }
+
+                    if (progress) {
+                        idle = 0;
+                    } else if (++idle < 100) {
+                        Thread.onSpinWait();
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            } catch (Throwable e) {
+                failure = e;
+            }
+        }
+
+        /**
+         * Executes all local events at a given time, then evaluates each of
+         * the affected gates once.
+         */
+        private void step(double t) {
+            int n_changed = 0;
+            while (!events.isEmpty() && events.peekTime() == t) {
+                int w = events.peekWire();
+                byte level = events.peekLevel();
+                events.removeFirst();
+                consumed++;
+                if (owner[w] == index) {
+                    n_executed++;
+                }
+                if (signal[w] != level) {
+                    if (wire_mark[w] == 0) {
+                        wire_mark[w] = 1;
+                        changed = grow(changed, n_changed);
+                        old_level = grow(old_level, n_changed);
+                        changed[n_changed] = w;
+                        old_level[n_changed] = signal[w];
+                        n_changed++;
+                    }
+                    signal[w] = level;
+                }
+            }
+
+            int n_due = 0;
+            for (int k = 0; k < n_changed; k++) {
+                int w = changed[k];
+                wire_mark[w] = 0;
+                if (signal[w] == old_level[k]) {
+                    continue; // Changed and changed back again
+                }
+                for (int i = net.fanoutStart[w]; i < net.fanoutStart[w + 1]; i++) {
+                    int g = net.fanout[i];
+                    if (partOf[g] == index && gate_mark[g] == 0) {
+                        gate_mark[g] = 1;
+                        due = grow(due, n_due);
+                        due[n_due++] = g;
+                    }
+                }
+            }
+            evaluate(n_due, t);
+            last_time = t;
+        }
+
+        /**
+         * Evaluates the gates in the due list, and schedules their outputs.
+         */
+        private void evaluate(int n_due, double t) {
+            for (int k = 0; k < n_due; k++) {
+                int g = due[k];
+                gate_mark[g] = 0;
+                int w = net.output[g];
+                if (w < 0) {
+                    continue; // Probes aren't simulated
+                }
+                double when = t + net.delay[g];
+                byte level = net.evaluate(g, signal);
+                events.add(when, w, level);
+                produced++;
+                for (int i = destStart[w]; i < destStart[w + 1]; i++) {
+                    if (n_outbox == ob_time.length) {
+                        int capacity = 2 * n_outbox;
+                        ob_time = Arrays.copyOf(ob_time, capacity);
+                        ob_wire = Arrays.copyOf(ob_wire, capacity);
+                        ob_level = Arrays.copyOf(ob_level, capacity);
+                        ob_dest = Arrays.copyOf(ob_dest, capacity);
+                    }
+                    ob_time[n_outbox] = when;
+                    ob_wire[n_outbox] = w;
+                    ob_level[n_outbox] = level;
+                    ob_dest[n_outbox] = dest[i];
+                    n_outbox++;
+                    produced++;
+                }
+            }
+        }
+
+        /**
+         * Sends the events produced this round to the other partitions, and
+         * updates the global count of pending events. New events are counted
+         * before they become visible, and executed events afterwards, so the
+         * count never reaches zero while there is still work to do.
+         */
+        private void flush() {
+            if (produced != 0) {
+                active.addAndGet(produced);
+                produced = 0;
+            }
+            for (int i = 0; i < n_outbox; i++) {
+                NetlistEventChannel channel = out[ob_dest[i]];
+                while (!channel.offer(ob_time[i], ob_wire[i], ob_level[i])) {
+                    // The receiver may be waiting to send to us, so keep
+                    // our own channels moving while we wait.
+                    drain();
+                    if (failure != null) {
+                        return;
+                    }
+                    Thread.onSpinWait();
+                }
+            }
+            n_outbox = 0;
+            if (consumed != 0) {
+                active.addAndGet(-consumed);
+                consumed = 0;
+            }
+        }
+
+        /**
+         * Moves everything waiting in the incoming channels to the heap.
+         */
+        private void drain() {
+            for (NetlistEventChannel channel : in) {
+                channel.drainTo(events);
+            }
+        }
+    }
+
+    // Helpers
+    /**
+     * Starts a worker thread for each partition other than partition 0.
+     */
+    private void startWorkers() {
+        workers = new Thread[parts.length - 1];
+        for (int p = 1; p < parts.length; p++) {
+            Partition part = parts[p];
+            workers[p - 1] = new Thread(() -> work(part), "logicsim-partition-" + p);
+            workers[p - 1].setDaemon(true);
+            workers[p - 1].start();
+        }
+    }
+
+    /**
+     * The main loop of a worker thread, which runs its partition once in
+     * every run(), until the simulator is shut down.
+     */
+    private void work(Partition part) {
+        while (true) {
+            rounds.arriveAndAwaitAdvance();
+            if (is_shut_down) {
+                rounds.arriveAndDeregister();
+                return;
+            }
+            part.run();
+            rounds.arriveAndAwaitAdvance();
+        }
+    }
+
+    /**
+     * Divides the gates into partitions of roughly equal size. The gates
+     * start out in slices of the netlist order, which keeps the gates of
+     * each Block together, and are then moved, a few passes over the
+     * netlist at a time, to the partition that most of the gates they are
+     * connected to (the gates driving their inputs and reading their
+     * output) are in, as long as no partition grows or shrinks by more than
+     * IMBALANCE of its share.
+     * @return the partition of each gate
+     */
+    private static int[] partition(Netlist net, int[] driver, int n_partitions) {
+        int n_gates = net.gateCount();
+        int[] partOf = new int[n_gates];
+        int[] size = new int[n_partitions];
+        for (int g = 0; g < n_gates; g++) {
+            partOf[g] = (int) ((long) g * n_partitions / n_gates);
+            size[partOf[g]]++;
+        }
+        if (n_partitions == 1) {
+            return partOf;
+        }
+        double share = (double) n_gates / n_partitions;
+        int max_size = (int) Math.ceil(share * (1.0 + IMBALANCE));
+        int min_size = (int) Math.floor(share * (1.0 - IMBALANCE));
+
+        int[] links = new int[n_partitions]; // Neighbours in each partition
+        int[] touched = new int[n_partitions];
+        for (int pass = 0; pass < PARTITION_PASSES; pass++) {
+            int moved = 0;
+            for (int g = 0; g < n_gates; g++) {
+                int n_touched = 0;
+                for (int i = net.faninStart[g]; i < net.faninStart[g + 1]; i++) {
+                    int d = driver[net.fanin[i]];
+                    if (d >= 0 && links[partOf[d]]++ == 0) {
+                        touched[n_touched++] = partOf[d];
+                    }
+                }
+                int w = net.output[g];
+                if (w >= 0) {
+                    for (int i = net.fanoutStart[w]; i < net.fanoutStart[w + 1]; i++) {
+                        int r = partOf[net.fanout[i]];
+                        if (links[r]++ == 0) {
+                            touched[n_touched++] = r;
+                        }
+                    }
+                }
+                int from = partOf[g];
+                int best = from;
+                for (int k = 0; k < n_touched; k++) {
+                    int p = touched[k];
+                    if (links[p] > links[best] && size[p] < max_size) {
+                        best = p;
+                    }
+                }
+                for (int k = 0; k < n_touched; k++) {
+                    links[touched[k]] = 0;
+                }
+                if (best != from && size[from] > min_size) {
+                    partOf[g] = best;
+                    size[from]--;
+                    size[best]++;
+                    moved++;
+                }
+            }
+            if (moved == 0) {
+                break;
+            }
+        }
+        return partOf;
+    }
+
+    private static int[] grow(int[] a, int n) {
+        return (n < a.length) ? a : Arrays.copyOf(a, 2 * a.length);
+    }
+
+    private static byte[] grow(byte[] a, int n) {
+        return (n < a.length) ? a : Arrays.copyOf(a, 2 * a.length);
+    }
+}
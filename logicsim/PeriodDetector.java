@@ -0,0 +1,252 @@
+package logicsim;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Detects when the state of a simulation starts to repeat itself. The state
+ * is the level on every wire, together with the pending events, measured
+ * relative to the current time. Once the state at one delta cycle is the
+ * same as at an earlier one, everything in between repeats forever.
+ *
+ * Comparing whole states at every delta cycle would take far too long, so
+ * the detector keeps a hash of the state up to date as it changes: a sum of
+ * a hash of each wire's level, and sums over the pending events of a hash
+ * of each event and of that hash times the event's tick. From those sums,
+ * the hash of the events relative to any time t can be found in constant
+ * time, since sum(h * (tick - t)) = sum(h * tick) - t * sum(h).
+ *
+ * The current state is compared with a reference state, using Brent's cycle
+ * detection algorithm: the reference is replaced by the current state
+ * whenever the number of delta cycles since it was taken reaches a power
+ * of two, so a cycle is found within a small multiple of its length once
+ * the simulation has settled into it. When the hashes match, the states are
+ * compared in full, so a hash collision can never be mistaken for a period.
+ *
+ * @author Allan McInnes
+ */
+final class PeriodDetector {
+    private static final long EVENT_SALT = 0x5851f42d4c957f2dL;
+
+    private final SimulationContext context; // The simulation being watched
+    private final Scheduler scheduler;
+
+    // Hashes of the current state
+    private long wire_hash = 0;         // Sum of the hashes of the wire levels
+    private long event_sum = 0;         // Sum of the hashes of the pending events
+    private long event_moment = 0;      // Sum of each event hash times its tick
+    private int n_events = 0;           // Number of pending events
+
+    // The reference state
+    private boolean has_reference = false;
+    private long steps = 0;             // Delta cycles since the reference was taken
+    private long limit = 1;             // Delta cycles before it is replaced
+    private long ref_signature;         // Hash of the reference state
+    private long ref_tick;              // Time of the reference state
+    private long ref_executed;          // Events executed before the reference state
+    private byte[] ref_levels;          // Level on each wire
+    private long[] ref_offsets;         // Time of each pending event after ref_tick
+    private int[] ref_wires;            // Wire of each pending event
+    private byte[] ref_event_levels;    // Level of each pending event
+    private long[] changed = new long[0]; // Wires changed since the reference, one bit each
+
+    // Creation
+    /**
+     * Constructor.
+     * @param scheduler the scheduler whose simulation is watched
+     */
+    PeriodDetector(Scheduler scheduler) {
+        this.scheduler = scheduler;
+        this.context = scheduler.context();
+    }
+
+    // Queries
+    /**
+     * @param executed the number of events executed so far
+     * @return the number of events executed since the reference state
+     */
+    long eventsSinceReference(long executed) {
+        return executed - ref_executed;
+    }
+
+    /**
+     * @return the wires that have changed since the reference state
+     */
+    List<Wire> changedWires() {
+        List<Wire> wires = new ArrayList<Wire>();
+        for (int i = 0; i < changed.length; i++) {
+            for (long bits = changed[i]; bits != 0; bits &= bits - 1) {
+                wires.add(context.wire(64 * i + Long.numberOfTrailingZeros(bits)));
+            }
+        }
+        return wires;
+    }
+
+    // Commands
+    /**
+     * Starts watching afresh, at the start of a run.
+     */
+    void start() {
+        wire_hash = 0;
+        for (int w = 0; w < context.wireCount(); w++) {
+            wire_hash += wireHash(w, context.wire(w).getSignal());
+        }
+        event_sum = 0;
+        event_moment = 0;
+        n_events = 0;
+        for (Event event : scheduler.scheduledEvents()) {
+            eventAdded(event);
+        }
+        has_reference = false;
+        steps = 0;
+        limit = 1;
+        changed = new long[(context.wireCount() + 63) / 64];
+    }
+
+    /**
+     * Records a change in the level on a wire.
+     */
+    void wireChanged(Wire wire, Signal from, Signal to) {
+        int w = wire.id();
+        wire_hash += wireHash(w, to) - wireHash(w, from);
+        if (w < 64 * changed.length) {
+            changed[w >>> 6] |= 1L << w;
+        }
+    }
+
+    /**
+     * Records an event added to the schedule.
+     */
+    void eventAdded(Event event) {
+        long h = eventHash(event);
+        event_sum += h;
+        event_moment += h * event.tick();
+        n_events++;
+    }
+
+    /**
+     * Records an event taken out of the schedule, or cancelled.
+     */
+    void eventRemoved(Event event) {
+        long h = eventHash(event);
+        event_sum -= h;
+        event_moment -= h * event.tick();
+        n_events--;
+    }
+
+    /**
+     * Checks the state at the start of a delta cycle.
+     * @param tick the time of the delta cycle
+     * @param executed the number of events executed so far
+     * @return the length of the period in ticks if the state is the same as
+     * the reference state, or 0 if it isn't
+     */
+    long check(long tick, long executed) {
+        long signature = signature(tick);
+        if (has_reference && signature == ref_signature && matchesReference(tick)) {
+            return tick - ref_tick;
+        }
+        if (!has_reference || steps == limit) {
+            takeReference(tick, executed, signature);
+            limit *= 2;
+            steps = 0;
+        }
+        steps++;
+        return 0;
+    }
+
+    // Helpers
+    /**
+     * @return a hash of the current state, relative to a given time
+     */
+    private long signature(long tick) {
+        return mix(wire_hash) ^ mix(event_sum + n_events)
+            ^ mix(event_moment - tick * event_sum + EVENT_SALT);
+    }
+
+    /**
+     * Saves the current state as the reference state.
+     */
+    private void takeReference(long tick, long executed, long signature) {
+        int n_wires = context.wireCount();
+        ref_levels = new byte[n_wires];
+        for (int w = 0; w < n_wires; w++) {
+            ref_levels[w] = Netlist.encode(context.wire(w).getSignal());
+        }
+        Event[] events = scheduler.scheduledEvents();
+        ref_offsets = new long[events.length];
+        ref_wires = new int[events.length];
+        ref_event_levels = new byte[events.length];
+        for (int e = 0; e < events.length; e++) {
+            ref_offsets[e] = events[e].tick() - tick;
+            ref_wires[e] = events[e].wire().id();
+            ref_event_levels[e] = Netlist.encode(events[e].level());
+            if (!isComparable(events[e])) {
+                // The action of a derived event can't be compared, so a
+                // state with one in it never counts as a repeat
+                ref_wires[e] = -1;
+            }
+        }
+        ref_signature = signature;
+        ref_tick = tick;
+        ref_executed = executed;
+        has_reference = true;
+        changed = new long[(n_wires + 63) / 64];
+    }
+
+    /**
+     * @return true if the current state is exactly the reference state,
+     * relative to a given time
+     */
+    private boolean matchesReference(long tick) {
+        if (context.wireCount() != ref_levels.length) {
+            return false;
+        }
+        for (int w = 0; w < ref_levels.length; w++) {
+            if (Netlist.encode(context.wire(w).getSignal()) != ref_levels[w]) {
+                return false;
+            }
+        }
+        Event[] events = scheduler.scheduledEvents();
+        if (events.length != ref_offsets.length) {
+            return false;
+        }
+        for (int e = 0; e < events.length; e++) {
+            if (events[e].tick() - tick != ref_offsets[e]
+                || events[e].wire().id() != ref_wires[e]
+                || Netlist.encode(events[e].level()) != ref_event_levels[e]
+                || !isComparable(events[e])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the future of an event is fixed by its time, wire and
+     * level: an ordinary event, or the edge of a Clock, whose next edge
+     * follows from its own
+     */
+    private static boolean isComparable(Event event) {
+        return event.getClass() == Event.class || event instanceof Clock.Edge;
+    }
+
+    /** @return the hash of a level on a wire */
+    private static long wireHash(int wire, Signal level) {
+        return mix(((long) wire << 4) | level.ordinal());
+    }
+
+    /** @return the hash of an event, ignoring its time */
+    private static long eventHash(Event event) {
+        return mix((((long) event.wire().id() << 4) | event.level().ordinal()) ^ EVENT_SALT);
+    }
+
+    /**
+     * Scrambles the bits of a number (the SplitMix64 finalizer).
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,5 +1,8 @@
 package logicsim;
 
+import java.util.Collections;
+import java.util.List;
+
 // TODO: Could define a Probe interface, and make this a TextProbe implementation
 
 /**
@@ -8,7 +11,7 @@ package logicsim;
  * @author Allan McInnes
  */
 public class Probe extends Component {
-    private Wire in;  // The wire that is being probed
+    protected Wire in;  // The wire that is being probed
 
     /**
      * Constructor.
@@ -19,6 +22,10 @@ public class Probe extends Component {
         in.attachDrivenComponent(this);
     }
 
+    /** @return the probed wire */
+    @Override
+    public List<Wire> inputs() { return Collections.singletonList(in); }
+
     /**
      * Update the probe display
      */
@@ -27,4 +34,23 @@ public class Probe extends Component {
         System.out.printf("[%4f] %s\t%s\n", model.time(), in.name(), in.getSignal());
     }
 
+    /**
+     * Accepts a visitor.
+     * @param visitor the visitor
+     */
+    @Override
+    public void accept(ComponentVisitor visitor) {
+        visitor.visitProbe(this);
+    }
+
+    /**
+     * Moves the probe to another wire.
+     * @param from the wire being replaced
+     * @param to the wire replacing it
+     */
+    @Override
+    protected void replaceWire(Wire from, Wire to) {
+        in = to;
+    }
+
 }
@@ -0,0 +1,56 @@
+package logicsim;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A pull-up or pull-down resistor, which weakly drives a wire to a fixed
+ * level. Any strong driver of the same wire overrides it, so a bus that
+ * is pulled up is HIGH (weakly) while none of its tri-state drivers is
+ * enabled. The level is applied as soon as the resistor is connected.
+ * @author Allan McInnes
+ */
+public class Pull extends Component {
+    protected Wire out;
+    protected Signal level;     // The weak level driven
+
+    // Creation
+    /**
+     * Constructor.
+     * @param out the wire to pull
+     * @param level HIGH for a pull-up, or LOW for a pull-down
+     * @throws IllegalArgumentException if level isn't HIGH or LOW
+     */
+    public Pull(Wire out, Signal level) {
+        if (!level.isValid()) {
+            throw new IllegalArgumentException("A wire can only be pulled HIGH or LOW.");
+        }
+        this.out = out;
+        this.level = Signal.weaken(level);
+        this.out.setDrivingComponent(this);
+        update();
+    }
+
+    /** @return the pulled wire */
+    @Override
+    public List<Wire> outputs() { return Collections.singletonList(out); }
+
+    /**
+     * Applies the weak level to the wire at once. A resistor has no
+     * inputs, so this is only needed when it is connected to a wire.
+     */
+    @Override
+    public void update() {
+        out.driveTarget(this).setSignal(level);
+    }
+
+    /**
+     * Moves the resistor to another wire.
+     * @param from the wire being replaced
+     * @param to the wire replacing it
+     */
+    @Override
+    protected void replaceWire(Wire from, Wire to) {
+        out = to;
+    }
+}
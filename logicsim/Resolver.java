@@ -0,0 +1,150 @@
+package logicsim;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Resolver sets the level on a wire that has more than one driver. Each
+ * driver drives a contribution wire of its own instead of the shared wire,
+ * and whenever a contribution changes the resolver combines them all with
+ * Signal.resolve() and sets the result on the shared wire. During a run
+ * the shared wire changes in the same delta cycle as the contribution, so
+ * its readers are updated once along with every other component.
+ *
+ * Contribution wires are ordinary wires of the same simulation context,
+ * so their transitions are scheduled, traced and saved in checkpoints like
+ * any others. Each is named after the shared wire and the number of its
+ * driver.
+ *
+ * @author Allan McInnes
+ */
+final class Resolver extends Component {
+    private final Wire out;                         // The shared wire
+    private Component[] drivers = new Component[0]; // Its drivers
+    private Wire[] contributions = new Wire[0];     // The level each drives
+
+    // Creation
+    /**
+     * Constructor.
+     * @param out the shared wire
+     * @param first the wire's existing driver, whose contribution starts
+     * out as the wire's current level
+     */
+    Resolver(Wire out, Component first) {
+        super(out.context().scheduler());
+        this.out = out;
+        add(first).setSignal(out.getSignal());
+    }
+
+    // Queries
+    /** @return the drivers, in the order they were added */
+    List<Component> drivers() {
+        return Collections.unmodifiableList(Arrays.asList(drivers));
+    }
+
+    /**
+     * @param driver a component
+     * @return the contribution wire of the driver, or null if it isn't one
+     */
+    Wire contribution(Component driver) {
+        for (int i = 0; i < drivers.length; i++) {
+            if (drivers[i] == driver) {
+                return contributions[i];
+            }
+        }
+        return null;
+    }
+
+    // Commands
+    /**
+     * Adds a driver, whose contribution starts out as X, and resolves the
+     * level on the shared wire again.
+     * @param driver the new driver
+     */
+    void addDriver(Component driver) {
+        add(driver);
+        update();
+    }
+
+    /**
+     * Removes a driver, dropping its contribution wire along with any
+     * transitions scheduled on it, and resolves the level on the shared
+     * wire again from the drivers that remain.
+     * @param driver the driver to remove
+     * @return the number of drivers left
+     */
+    int removeDriver(Component driver) {
+        for (int i = 0; i < drivers.length; i++) {
+            if (drivers[i] == driver) {
+                Wire contribution = contributions[i];
+                contribution.removeDrivingComponent(driver);
+                contribution.detachDrivenComponent(this);
+                drivers = remove(drivers, i);
+                contributions = remove(contributions, i);
+                if (drivers.length > 0) {
+                    update();
+                }
+                break;
+            }
+        }
+        return drivers.length;
+    }
+
+    /**
+     * Sets the shared wire to the resolution of every contribution.
+     */
+    @Override
+    public void update() {
+        Signal level = contributions[0].getSignal();
+        for (int i = 1; i < contributions.length; i++) {
+            level = Signal.resolve(level, contributions[i].getSignal());
+        }
+        out.setSignal(level);
+    }
+
+    /**
+     * Resolves the shared wire as soon as a contribution changes in a
+     * delta cycle, while the other changes of the cycle are still being
+     * gathered, so the components reading the shared wire are updated once
+     * along with the rest.
+     * @param source the contribution that changed
+     */
+    @Override
+    public void changedInput(Wire source) {
+        update();
+    }
+
+    /**
+     * Does nothing, since the shared wire has already been resolved.
+     */
+    @Override
+    public void deltaUpdate() {
+    }
+
+    // Helpers
+    /**
+     * Creates the contribution wire of a new driver.
+     * @return the contribution wire
+     */
+    private Wire add(Component driver) {
+        int n = drivers.length;
+        Wire contribution = new Wire(out.context(), out.name() + "#" + n);
+        contribution.setDrivingComponent(driver);
+        contribution.attachDrivenComponent(this);
+        drivers = Arrays.copyOf(drivers, n + 1);
+        contributions = Arrays.copyOf(contributions, n + 1);
+        drivers[n] = driver;
+        contributions[n] = contribution;
+        return contribution;
+    }
+
+    /**
+     * @return a copy of an array without one of its elements
+     */
+    private static <T> T[] remove(T[] array, int i) {
+        T[] remaining = Arrays.copyOf(array, array.length - 1);
+        System.arraycopy(array, i + 1, remaining, i, remaining.length - i);
+        return remaining;
+    }
+}
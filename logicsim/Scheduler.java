@@ -14,51 +14,216 @@ package logicsim;
  * until either no new events are scheduled, or some defined upper bound
  * on the simulation time is reached.
  *
- * The simulation time is measured in nanoseconds.
+ * The simulation time is given in nanoseconds, but is kept as a whole
+ * number of ticks of one femtosecond (see TICKS_PER_NS). Times are rounded
+ * to the nearest tick, so events whose times were calculated differently
+ * but are meant to coincide really do happen at the same time.
+ *
+ * Events are executed in delta cycles. All of the events at the current
+ * time are applied to their wires first, and only then is each component
+ * with a changed input updated, once, however many of its inputs changed.
+ * Without this, a gate whose inputs both change at the same instant (as
+ * happens in reconvergent logic such as a half adder) would be updated
+ * twice, and might schedule a spurious glitch on its output. A wire that
+ * changes and changes back within a delta cycle doesn't update anything.
+ * Signal changes made directly with Wire.setSignal() outside of run() are
+ * still passed on at once.
+ *
+ * Each SimulationContext has its own Scheduler, which only accepts events
+ * on wires that belong to the same context.
+ *
+ * By default the queue of future events is a binary heap, but a different
+ * EventQueue implementation can be selected with setEventQueue().
+ *
+ * By default every scheduled transition takes place (a "transport delay"
+ * model). In the optional inertial delay model, scheduling a transition on
+ * a wire cancels any transition that is still pending on that wire, so that
+ * pulses shorter than a gate delay are filtered out instead of propagating
+ * through the circuit. Each wire remembers its latest pending transition,
+ * and cancelled events are simply skipped when they reach the front of the
+ * queue.
+ *
+ * Events added with newEvent(double, Wire, Signal) are taken from a pool
+ * of previously executed events rather than being freshly allocated, so a
+ * running simulation does not generate garbage for every transition.
+ * Recurring events (the edges of a Clock) are put straight back in the
+ * queue for their next occurrence once they have been executed.
+ *
+ * With fast-forwarding turned on (see setFastForward()), the scheduler
+ * watches for the simulation to reach a steady state. Once the whole state
+ * of the simulation repeats, it skips as many whole periods as fit before
+ * the stop time, and simulates only the remainder. What was found is then
+ * available from steadyState().
+ *
+ * Long test benches can be read from a file as the simulation runs by
+ * adding a Stimulus (see addStimulus()). Rather than scheduling the whole
+ * test bench up front, the scheduler takes the next window of transitions
+ * from the stimulus just before the first of them is due.
  *
  * @author Allan McInnes
  */
 
-import java.util.PriorityQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 public class Scheduler implements SimulationModel {
-    private double current_time;         // The current simulation time in ns
-    private double stop_time;            // The upper bound on simulation time
+    private long current_tick;           // The current simulation time in ticks
+    private double current_time;         // The same time in ns, for time()
+    private long stop_tick;              // The upper bound on simulation time in ticks
     private boolean is_bounded;          // Is there a bound on sim time?
-    private PriorityQueue<Event> events = new PriorityQueue<Event>(); // Scheduled events
-    private static final double EPSILON = 0.001; // Times accurate to 0.1% are good enough
+    private EventQueue events = new HeapEventQueue(); // Scheduled events
+    private final SimulationContext context; // The simulation this belongs to
+    private long next_seq = 0;           // Sequence number of the next event
+    private long n_executed = 0;         // Number of events executed
+    private long n_cancelled = 0;        // Number of events cancelled
+    private long n_suppressed = 0;       // Number of redundant events not scheduled
+    private EventTracer tracer = null;   // Records executed events, if tracing
+    private SimulationMetrics metrics = null; // Measures activity, if enabled
+    private boolean is_inertial = false; // Inertial rather than transport delays?
+    private Event[] pool = new Event[64]; // Executed events available for reuse
+    private int n_pooled = 0;            // Number of events in the pool
+    private PeriodDetector detector = null; // Looks for repeats, if fast-forwarding
+    private boolean is_detecting = false; // Still looking in this run?
+    private SteadyState steady_state = null; // Steady state found by the last run
+    private Stimulus[] stimuli = NO_STIMULI; // Sources of input transitions
+    private boolean is_stimulated = false; // Do they have transitions left?
 
-    // Singleton scheduler
-    private static final Scheduler sched = new Scheduler();
+    // Delta cycle state
+    private boolean is_applying = false; // Are events being applied to wires?
+    private Wire[] changed = new Wire[64]; // Wires changed in this delta cycle
+    private Signal[] changed_from = new Signal[64]; // Their levels before it
+    private int n_changed = 0;
+    private Component[] triggered = new Component[64]; // Components to update
+    private int n_triggered = 0;
 
     // Constants
+    /** Number of ticks in a nanosecond (a tick is one femtosecond) */
+    public static final long TICKS_PER_NS = 1000000L;
     /** Default stop time when no bound is set */
     public static final double NO_BOUND = -1.0;
     /** Simulation start time */
     public static final double START_TIME = 0.0;
 
+    private static final Stimulus[] NO_STIMULI = new Stimulus[0];
+
     // Creation
-    /** Default constructor. */
-    private Scheduler() {
+    /**
+     * Constructor. Schedulers are created by, and accessed through, a
+     * SimulationContext.
+     * @param context the simulation this scheduler executes
+     */
+    Scheduler(SimulationContext context) {
+        this.context = context;
+        current_tick = 0;
         current_time = START_TIME;
-        stop_time = NO_BOUND;
+        stop_tick = 0;
         is_bounded = false;
     }
 
     /**
-     * Provides access the Scheduler.
-     * @return an instance of a Scheduler
+     * Converts a time to ticks.
+     * @param time a time in nanoseconds
+     * @return the nearest whole number of ticks
+     */
+    public static long ticks(double time) {
+        // Quicker than Math.round(), which only matters for negative times
+        double t = time * TICKS_PER_NS;
+        return (t >= 0.0) ? (long) (t + 0.5) : Math.round(t);
+    }
+
+    /**
+     * Converts a number of ticks to a time.
+     * @param ticks a time in ticks
+     * @return the time in nanoseconds
      */
-    public static Scheduler getScheduler() {
-        return sched;
+    public static double nanoseconds(long ticks) {
+        return (double) ticks / TICKS_PER_NS;
     }
 
     // Queries
+    /**
+     * @return the simulation context this scheduler belongs to
+     */
+    public SimulationContext context() { return context; }
+
     /**
      * @return the current simulation time in nanoseconds
      */
     public double time() { return current_time; }
 
+    /**
+     * @return the current simulation time in ticks
+     */
+    public long tick() { return current_tick; }
+
+    /**
+     * @return the upper bound on simulation time in nanoseconds, or NO_BOUND
+     * if there isn't one
+     */
+    public double stopTime() { return is_bounded ? nanoseconds(stop_tick) : NO_BOUND; }
+
+    /**
+     * @return the upper bound on simulation time in ticks, or -1 if there
+     * isn't one
+     */
+    long stopTick() { return is_bounded ? stop_tick : -1; }
+
+    /**
+     * @return the total number of events executed so far
+     */
+    public long eventCount() { return n_executed; }
+
+    /**
+     * @return the total number of events cancelled by the inertial delay model
+     */
+    public long cancelledCount() { return n_cancelled; }
+
+    /**
+     * @return the total number of redundant events that components chose
+     * not to schedule
+     */
+    public long suppressedCount() { return n_suppressed; }
+
+    /**
+     * @return the number of events waiting to be executed
+     */
+    public int pendingEvents() { return events.size(); }
+
+    /**
+     * @return the metrics measuring this scheduler, or null if they are off
+     */
+    public SimulationMetrics metrics() { return metrics; }
+
+    /**
+     * @return the tracer recording executed events, or null if tracing is off
+     */
+    public EventTracer tracer() { return tracer; }
+
+    /**
+     * @return true if the inertial delay model is in use
+     */
+    public boolean isInertial() { return is_inertial; }
+
+    /**
+     * @return true if fast-forwarding over steady states is turned on
+     */
+    public boolean isFastForward() { return detector != null; }
+
+    /**
+     * @return the steady state reached by the last run, or null if none
+     * was found, or fast-forwarding is off
+     */
+    public SteadyState steadyState() { return steady_state; }
+
+    /**
+     * @return the stimuli feeding transitions into the simulation
+     */
+    public List<Stimulus> stimuli() {
+        return Collections.unmodifiableList(Arrays.asList(stimuli));
+    }
+
     // Commands
     /**
      * Execute a simulation. Execution proceeds until there are no
@@ -66,22 +231,176 @@ public class Scheduler implements SimulationModel {
      * simulation time is reached.
      */
     public void run() {
-        Event event;
+        if (metrics != null) {
+            metrics.runStarted();
+        }
+        if (stimuli.length != 0) {
+            injectStimuli();
+        }
+        if (detector != null) {
+            steady_state = null;
+            detector.start();
+            is_detecting = true;
+        }
 
         // Keep executing events until the queue there aren't any more to execute
         // or the simulation time will exceed the stopping time.
         while(!events.isEmpty()
-                && (!is_bounded || events.peek().time() < stop_time)) {
-            // Get the next event
-            event = events.poll();
+                && (!is_bounded || events.peek().tick() < stop_tick)) {
+            if (is_detecting && !is_stimulated && fastForward()) {
+                break;
+            }
+            // Advance the simulation time and execute everything due then
+            Event event = events.poll();
+            if (event.tick() != current_tick) {
+                current_tick = event.tick();
+                current_time = nanoseconds(current_tick);
+            }
+            if (events.isEmpty() || events.peek().tick() != current_tick) {
+                // A delta cycle of one event can't update anything twice,
+                // so there is no need to hold back the updates
+                execute(event);
+            } else {
+                applyEvents(event);
+                updateComponents();
+            }
+            if (stimuli.length != 0) {
+                injectStimuli();
+            }
+        }
+        if (is_detecting && events.isEmpty()) {
+            steady_state = new SteadyState(current_time, 0, 0, 0, new ArrayList<Wire>());
+        }
+        is_detecting = false;
+        if (metrics != null) {
+            metrics.runFinished();
+        }
 
-            // Advance the simulation time and execute the event
-            //System.out.println(event);
-            current_time = event.time();
-            event.execute();
+        assert (events.isEmpty() || (is_bounded && events.peek().tick() >= stop_tick)
+                || (steady_state != null && steady_state.isPeriodic()));
+    }
+
+    /**
+     * Selects the data structure used to hold scheduled events. Any events
+     * that are already scheduled are moved to the new queue.
+     * @param queue the new (empty) event queue
+     * @throws IllegalArgumentException if queue is null or not empty
+     */
+    public void setEventQueue(EventQueue queue) {
+        if (queue == null || !queue.isEmpty()) {
+            throw new IllegalArgumentException("The new event queue must be empty.");
+        }
+        while (!events.isEmpty()) {
+            queue.add(events.poll());
+        }
+        events = queue;
+    }
+
+    /**
+     * Selects between the transport delay model (the default), in which
+     * every scheduled transition takes place, and the inertial delay model,
+     * in which a new transition on a wire cancels any transition that is
+     * still pending on the same wire.
+     * @param inertial true to use the inertial delay model
+     */
+    public void setInertial(boolean inertial) {
+        is_inertial = inertial;
+    }
+
+    /**
+     * Turns fast-forwarding over steady states on or off. While it is on,
+     * each run watches for the simulation to become periodic: for the level
+     * on every wire, and every pending event relative to the current time,
+     * to be exactly what they were at some earlier delta cycle. From then
+     * on the simulation must repeat the same events forever, so instead of
+     * executing them the scheduler moves every pending event, and the
+     * simulation time, on by as many whole periods as fit before the stop
+     * time, and simulates the part period that is left. If there is no stop
+     * time, the run ends as soon as the period is found, since it would
+     * otherwise never end. Either way, steadyState() describes the period
+     * afterwards, or reports that the simulation became quiescent instead.
+     *
+     * The events in the skipped periods are never executed, so they aren't
+     * seen by tracers, metrics, or WireMonitors, and aren't counted by
+     * eventCount(). Components must depend only on the levels of their
+     * inputs, since a component with hidden state (a counter, say) could
+     * behave differently in the next period even though its wires repeat.
+     * Looking for a period costs a little time in every delta cycle, and
+     * a copy of the simulation state now and then.
+     * @param fast_forward true to turn fast-forwarding on
+     */
+    public void setFastForward(boolean fast_forward) {
+        if (!fast_forward) {
+            detector = null;
+            steady_state = null;
+        } else if (detector == null) {
+            detector = new PeriodDetector(this);
+        }
+    }
+
+    /**
+     * Adds a stimulus, whose transitions are scheduled a window at a time
+     * as the simulation reaches them. Transitions that the stimulus has
+     * already handed over are lost if the schedule is cleared, since the
+     * stimulus isn't rewound. Adding the same stimulus twice has no effect.
+     * While a stimulus has transitions left, the simulation isn't treated
+     * as having reached a steady state (see setFastForward()).
+     * @param stimulus the stimulus to add
+     * @throws IllegalArgumentException if the stimulus drives wires from a
+     * different simulation context
+     */
+    public void addStimulus(Stimulus stimulus) {
+        if (stimulus.context() != context) {
+            throw new IllegalArgumentException("The stimulus drives wires of a different simulation context.");
+        }
+        if (!stimuli().contains(stimulus)) {
+            stimuli = Arrays.copyOf(stimuli, stimuli.length + 1);
+            stimuli[stimuli.length - 1] = stimulus;
+        }
+    }
+
+    /**
+     * Removes a stimulus. Transitions it has already handed over stay in
+     * the schedule.
+     * @param stimulus the stimulus to remove
+     */
+    public void removeStimulus(Stimulus stimulus) {
+        for (int i = 0; i < stimuli.length; i++) {
+            if (stimuli[i] == stimulus) {
+                Stimulus[] remaining = new Stimulus[stimuli.length - 1];
+                System.arraycopy(stimuli, 0, remaining, 0, i);
+                System.arraycopy(stimuli, i + 1, remaining, i, remaining.length - i);
+                stimuli = (remaining.length == 0) ? NO_STIMULI : remaining;
+                return;
+            }
         }
+    }
 
-        assert (events.isEmpty() || (is_bounded && events.peek().time() >= stop_time));
+    /**
+     * Starts recording executed events with a tracer, or stops recording.
+     * @param tracer the tracer to use, or null to turn tracing off
+     */
+    public void setTracer(EventTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Starts measuring the activity of the simulation. If metrics are
+     * already enabled, the existing metrics are kept.
+     * @return the metrics
+     */
+    public SimulationMetrics enableMetrics() {
+        if (metrics == null) {
+            metrics = new SimulationMetrics(this);
+        }
+        return metrics;
+    }
+
+    /**
+     * Stops measuring the activity of the simulation.
+     */
+    public void disableMetrics() {
+        metrics = null;
     }
 
     /**
@@ -91,10 +410,9 @@ public class Scheduler implements SimulationModel {
     public void setStopTime(double time) {
         assert (time >= START_TIME);
 
-        stop_time = time;
+        stop_tick = ticks(time);
         is_bounded = true;  // Must be, since there's now a stop time
 
-        assert (Math.abs(stop_time - time) < EPSILON*Math.abs(time));
         assert (is_bounded);
     }
 
@@ -104,14 +422,21 @@ public class Scheduler implements SimulationModel {
      */
     public void clearStopTime() {
         is_bounded = false;
-        stop_time = NO_BOUND; // Set to a default value, just in case
+        stop_tick = 0; // Set to a default value, just in case
     }
 
     /**
      * Removes any remaining events in the schedule.
      */
     public void  clearSchedule() {
-        events.clear();
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            if (event.wire().pending == event) {
+                event.wire().pending = null;
+            }
+            event.discarded();
+            recycle(event);
+        }
     }
 
     /**
@@ -119,6 +444,7 @@ public class Scheduler implements SimulationModel {
      * simulation time back to the starting time.
      */
     public void  reset() {
+        current_tick = 0;
         current_time = START_TIME;
         clearSchedule();
         clearStopTime();
@@ -128,15 +454,427 @@ public class Scheduler implements SimulationModel {
      * Adds a new future event to the schedule.
      * @param event a new event (which must have a time later
      *  than the current time).
-     * @throws IllegalArgumentException if event delay <= 0.0
+     * @throws IllegalArgumentException if event delay <= 0.0, or if the
+     *  event is on a wire from a different simulation context
      */
     public void newEvent(Event event) {
-        if (event.time() > current_time) {
+        checkContext(event.wire());
+        if (event.tick() > current_tick) {
             // The new event should sometime in the future...
-            events.add(event);
+            schedule(event);
         } else {
             throw new IllegalArgumentException("The delay of an event must be > 0.0.");
         }
 
     }
+
+    /**
+     * Adds a new future transition to the schedule, reusing a previously
+     * executed event if one is available.
+     * @param time the time the transition occurs, in nanoseconds (which
+     *  must be later than the current time)
+     * @param wire the wire the transition occurs on
+     * @param level the new signal level on the wire
+     * @throws IllegalArgumentException if event delay <= 0.0, or if the
+     *  wire is from a different simulation context
+     */
+    @Override
+    public void newEvent(double time, Wire wire, Signal level) {
+        checkContext(wire);
+        long tick = ticks(time);
+        if (tick <= current_tick) {
+            throw new IllegalArgumentException("The delay of an event must be > 0.0.");
+        }
+
+        schedule(obtain(tick, wire, level));
+    }
+
+    /**
+     * Lists the events waiting to be executed, leaving them in the schedule.
+     * Events that have been cancelled are left out.
+     * @return the scheduled events, in the order they will be executed
+     */
+    Event[] scheduledEvents() {
+        Event[] all = new Event[events.size()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = events.poll();
+        }
+        int n = 0;
+        Event[] live = new Event[all.length];
+        for (Event event : all) {
+            events.add(event);
+            if (!event.cancelled) {
+                live[n++] = event;
+            }
+        }
+        return Arrays.copyOf(live, n);
+    }
+
+    /**
+     * Cancels every transition still scheduled on a wire, as when the
+     * component driving it is removed from the circuit. The cancelled
+     * events are skipped when they reach the front of the queue.
+     * @param wire the wire
+     */
+    void cancelEvents(Wire wire) {
+        if (wire.pending == null) {
+            return; // The latest transition has happened, so they all have
+        }
+        for (Event event : scheduledEvents()) {
+            if (event.wire() == wire) {
+                if (is_detecting) {
+                    detector.eventRemoved(event);
+                }
+                event.cancelled = true;
+            }
+        }
+        wire.pending = null;
+    }
+
+    /**
+     * Empties the schedule, and moves the simulation to a given time, ready
+     * for the events of a checkpoint to be restored with restoreEvent().
+     * The events are simply dropped rather than returned to the pool, so
+     * the caller must also clear the pending transition of every wire.
+     * Like clearSchedule(), this stops any Clock whose edge is dropped.
+     * @param tick the new simulation time in ticks
+     * @param stop the new upper bound on simulation time in ticks, or a
+     * negative number if there is no bound
+     */
+    void restoreTime(long tick, long stop) {
+        while (!events.isEmpty()) {
+            events.poll().discarded();
+        }
+        current_tick = tick;
+        current_time = nanoseconds(tick);
+        stop_tick = Math.max(stop, 0);
+        is_bounded = (stop >= 0);
+    }
+
+    /**
+     * Adds a transition saved in a checkpoint to the schedule. Transitions
+     * must be restored in the order they were scheduled, and aren't subject
+     * to the inertial delay model, since any they superseded were never
+     * saved.
+     * @param tick the time the transition occurs, in ticks
+     * @param wire the wire the transition occurs on
+     * @param level the new signal level on the wire
+     */
+    void restoreEvent(long tick, Wire wire, Signal level) {
+        Event event = obtain(tick, wire, level);
+        if (wire.pending == null || tick >= wire.pending.tick()) {
+            wire.pending = event;
+        }
+        event.seq = next_seq++;
+        events.add(event);
+    }
+
+    /**
+     * Adds a transition read by a Stimulus to the schedule. Like a restored
+     * transition, it isn't subject to the inertial delay model, since a
+     * stimulus schedules many transitions on a wire at once.
+     * @param tick the time the transition occurs, in ticks (which must be
+     * later than the current time)
+     * @param wire the wire the transition occurs on
+     * @param level the new signal level on the wire
+     */
+    void injectEvent(long tick, Wire wire, Signal level) {
+        Event event = obtain(tick, wire, level);
+        if (wire.pending == null || tick >= wire.pending.tick()) {
+            wire.pending = event;
+        }
+        event.seq = next_seq++;
+        events.add(event);
+        if (is_detecting) {
+            detector.eventAdded(event);
+        }
+        if (metrics != null) {
+            metrics.eventQueued(events.size());
+        }
+    }
+
+    /**
+     * Takes an event from the pool, or creates one if the pool is empty.
+     * @return an event for a transition
+     */
+    private Event obtain(long tick, Wire wire, Signal level) {
+        Event event;
+        if (n_pooled > 0) {
+            event = pool[--n_pooled];
+            pool[n_pooled] = null;
+        } else {
+            event = new Event(START_TIME, wire, level);
+            event.pooled = true;
+        }
+        event.set(tick, wire, level);
+        return event;
+    }
+
+    /**
+     * Records a change in the level on a wire. While the events of a delta
+     * cycle are being applied, the change is held back until they have all
+     * been applied. While looking for a steady state, the change is also
+     * passed on to the period detector.
+     * @param wire the wire that changed
+     * @param old_level the level on the wire before the change
+     * @return true if the change has been held back, or false if the
+     * driven components of the wire should be updated at once
+     */
+    boolean deferChange(Wire wire, Signal old_level) {
+        if (is_detecting) {
+            // Every change comes through here, including those made by a
+            // Resolver or a Stimulus rather than by an event on the wire
+            detector.wireChanged(wire, old_level, wire.getSignal());
+        }
+        if (!is_applying) {
+            return false;
+        }
+        if (!wire.is_changed) {
+            if (n_changed == changed.length) {
+                changed = Arrays.copyOf(changed, 2 * n_changed);
+                changed_from = Arrays.copyOf(changed_from, 2 * n_changed);
+            }
+            wire.is_changed = true;
+            changed[n_changed] = wire;
+            changed_from[n_changed] = old_level;
+            n_changed++;
+        }
+        return true;
+    }
+
+    /**
+     * Records that an input of a component changed in the current delta
+     * cycle, and adds the component to those to be updated.
+     * @param comp the component
+     * @param source the input that changed
+     */
+    void trigger(Component comp, Wire source) {
+        if (!comp.is_triggered) {
+            if (n_triggered == triggered.length) {
+                triggered = Arrays.copyOf(triggered, 2 * n_triggered);
+            }
+            comp.is_triggered = true;
+            triggered[n_triggered++] = comp;
+        }
+        comp.changedInput(source);
+    }
+
+    /**
+     * Executes every event at the current time, holding back the updates
+     * of the components driven by the wires that change.
+     * @param first the first event, already taken from the queue
+     */
+    private void applyEvents(Event first) {
+        is_applying = true;
+        try {
+            execute(first);
+            while (!events.isEmpty() && events.peek().tick() == current_tick) {
+                execute(events.poll());
+            }
+        } finally {
+            is_applying = false;
+        }
+    }
+
+    /**
+     * Executes an event taken from the queue, unless it has been cancelled.
+     * @param event the event
+     */
+    private void execute(Event event) {
+        if (!event.cancelled) {
+            if (event.wire().pending == event) {
+                event.wire().pending = null;
+            }
+            if (tracer != null) {
+                tracer.record(current_time, event.wire(), event.level());
+            }
+            if (metrics != null) {
+                metrics.eventExecuting(event.wire(), event.level());
+            }
+            if (is_detecting) {
+                detector.eventRemoved(event);
+            }
+            event.execute();
+            n_executed++;
+            if (event.recur()) {
+                schedule(event);
+                return;
+            }
+        }
+        recycle(event);
+    }
+
+    /**
+     * Checks, at the start of a delta cycle, whether the simulation has
+     * become periodic, and if so skips as many whole periods as fit before
+     * the stop time.
+     * @return true if the run should end, because the simulation is
+     * periodic and there is no stop time
+     */
+    private boolean fastForward() {
+        long next = events.peek().tick();
+        long period = detector.check(next, n_executed);
+        if (period == 0) {
+            return false;
+        }
+        is_detecting = false;
+        long skipped = is_bounded ? (stop_tick - next) / period : 0;
+        steady_state = new SteadyState(nanoseconds(next), period,
+                                       detector.eventsSinceReference(n_executed),
+                                       skipped, detector.changedWires());
+        if (skipped > 0) {
+            shift(skipped * period);
+        }
+        return !is_bounded;
+    }
+
+    /**
+     * Moves every scheduled event, and the simulation time, later by the
+     * same amount. Events keep their order, since their sequence numbers
+     * are unchanged. Cancelled events are dropped along the way.
+     * @param delta the amount to move them by, in ticks
+     */
+    private void shift(long delta) {
+        Event[] live = new Event[events.size()];
+        int n = 0;
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            if (event.cancelled) {
+                recycle(event);
+            } else {
+                live[n++] = event;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            Event event = live[i];
+            event.set(event.tick() + delta, event.wire(), event.level());
+            events.add(event);
+        }
+        current_tick += delta;
+        current_time = nanoseconds(current_tick);
+    }
+
+    /**
+     * Takes more transitions from any stimulus whose next transition is due
+     * no later than the next scheduled event, and before the stop time.
+     */
+    private void injectStimuli() {
+        boolean more = false;
+        for (Stimulus stimulus : stimuli) {
+            long next = events.isEmpty() ? Long.MAX_VALUE : events.peek().tick();
+            if (is_bounded) {
+                next = Math.min(next, stop_tick - 1);
+            }
+            while (!stimulus.isFinished() && stimulus.nextTick() <= next) {
+                stimulus.inject(this);
+                if (!events.isEmpty()) {
+                    next = Math.min(next, events.peek().tick());
+                }
+            }
+            more |= !stimulus.isFinished();
+        }
+        is_stimulated = more;
+    }
+
+    /**
+     * Updates, once each, the components driven by the wires whose levels
+     * changed in the current delta cycle.
+     */
+    private void updateComponents() {
+        // A Resolver sets its shared wire as soon as it is triggered, so
+        // changes are still held back here, and the shared wire joins the
+        // list and triggers its readers along with every other wire
+        is_applying = true;
+        try {
+            for (int i = 0; i < n_changed; i++) {
+                Wire wire = changed[i];
+                changed[i] = null;
+                wire.is_changed = false;
+                if (wire.getSignal() != changed_from[i]) {
+                    wire.triggerDrivenComponents(this);
+                }
+                changed_from[i] = null;
+            }
+        } finally {
+            is_applying = false;
+        }
+        n_changed = 0;
+
+        try {
+            for (int i = 0; i < n_triggered; i++) {
+                Component comp = triggered[i];
+                comp.is_triggered = false;
+                comp.deltaUpdate();
+            }
+        } finally {
+            for (int i = 0; i < n_triggered; i++) {
+                triggered[i].is_triggered = false;
+                triggered[i] = null;
+            }
+            n_triggered = 0;
+        }
+    }
+
+    /**
+     * Adds an event to the queue, and records it as the pending transition
+     * on its wire if it is the latest one.
+     * @param event a new event
+     */
+    private void schedule(Event event) {
+        Wire wire = event.wire();
+        if (is_inertial && wire.pending != null) {
+            if (is_detecting && !wire.pending.cancelled) {
+                detector.eventRemoved(wire.pending);
+            }
+            wire.pending.cancelled = true;
+            n_cancelled++;
+            wire.pending = event;
+        } else if (wire.pending == null || event.tick() >= wire.pending.tick()) {
+            // Transitions are normally scheduled in time order, but an
+            // event added directly may be earlier than one already pending.
+            wire.pending = event;
+        }
+        event.seq = next_seq++;
+        events.add(event);
+        if (is_detecting) {
+            detector.eventAdded(event);
+        }
+        if (metrics != null) {
+            metrics.eventQueued(events.size());
+        }
+    }
+
+    /**
+     * Records that a redundant transition was not scheduled.
+     */
+    @Override
+    public void eventSuppressed() {
+        n_suppressed++;
+    }
+
+    /**
+     * Checks that a wire belongs to the same simulation as this scheduler.
+     * @param wire a wire
+     * @throws IllegalArgumentException if the wire is from another context
+     */
+    private void checkContext(Wire wire) {
+        if (wire.context() != context) {
+            throw new IllegalArgumentException("Wire " + wire.name()
+                + " belongs to a different simulation context.");
+        }
+    }
+
+    /**
+     * Returns an executed event to the pool if it was created by the pool.
+     * @param event an event that is no longer in the schedule
+     */
+    private void recycle(Event event) {
+        if (event.pooled) {
+            event.set(0, null, null); // Don't hold on to the wire
+            if (n_pooled == pool.length) {
+                pool = Arrays.copyOf(pool, 2 * n_pooled);
+            }
+            pool[n_pooled++] = event;
+        }
+    }
 }
@@ -2,13 +2,118 @@ package logicsim;
 
 /**
  * A set of symbols for representing signal states.
+ *
+ * Besides the logic levels LOW and HIGH, and X for a level that isn't
+ * known, a signal may be high-impedance (Z, driven by nothing), or driven
+ * weakly, as by a pull-up resistor, so that any strong driver on the same
+ * wire overrides it. Together with U (uninitialized) and DONT_CARE these
+ * are the nine values of the IEEE 1164 std_logic type, and the signal on a
+ * wire with more than one driver is found with the std_logic resolution
+ * function (see resolve()).
+ *
+ * Gates only distinguish three levels on their inputs (see logicLevel()):
+ * weak levels count as their strong counterparts, and anything else counts
+ * as X. Their outputs are always strong.
+ *
+ * Every logic function is a lookup in a table built when the class is
+ * loaded, and indexed by the ordinals of the operands packed into one int,
+ * so evaluating a gate doesn't branch on the levels of its inputs. The
+ * ordinals of LOW, HIGH and X are fixed, since they are also the encoded
+ * levels used by Netlists and Checkpoints.
+ *
  * @author Allan McInnes
  */
 public enum Signal {
-    LOW,  // Logic low
-    HIGH, // Logic high
-    X;    // Don't know or don't care
+    LOW('0'),       // Logic low
+    HIGH('1'),      // Logic high
+    X('X'),         // Don't know or don't care
+    Z('Z'),         // High impedance (not driven)
+    WEAK_LOW('L'),  // Weakly driven low
+    WEAK_HIGH('H'), // Weakly driven high
+    WEAK_X('W'),    // Weakly driven, level unknown
+    U('U'),         // Uninitialized
+    DONT_CARE('-'); // Don't care
+
+    private final char symbol;  // IEEE 1164 character for the level
+
+    // The tables, indexed by (a.ordinal() << SHIFT) | b.ordinal()
+    private static final int SHIFT = 4;
+    private static final Signal[] VALUES = values();
+    private static final Signal[] LOGIC = new Signal[VALUES.length];
+    private static final Signal[] NOT = new Signal[VALUES.length];
+    private static final Signal[] AND = new Signal[VALUES.length << SHIFT];
+    private static final Signal[] OR = new Signal[VALUES.length << SHIFT];
+    private static final Signal[] XOR = new Signal[VALUES.length << SHIFT];
+    private static final Signal[] RESOLVE = new Signal[VALUES.length << SHIFT];
+    private static final Signal[] TRISTATE = new Signal[VALUES.length << SHIFT];
+
+    // The std_logic resolution table, with rows and columns in this order
+    private static final String STD_ORDER = "UX01ZWLH-";
+    private static final String[] STD_RESOLVE = {
+        "UUUUUUUUU",    // U
+        "UXXXXXXXX",    // X
+        "UX0X0000X",    // 0
+        "UXX11111X",    // 1
+        "UX01ZWLHX",    // Z
+        "UX01WWWWX",    // W
+        "UX01LWLWX",    // L
+        "UX01HWWHX",    // H
+        "UXXXXXXXX"     // -
+    };
+
+    static {
+        for (Signal a : VALUES) {
+            LOGIC[a.ordinal()] = (a == LOW || a == WEAK_LOW) ? LOW
+                               : (a == HIGH || a == WEAK_HIGH) ? HIGH : X;
+        }
+        for (Signal a : VALUES) {
+            Signal la = LOGIC[a.ordinal()];
+            NOT[a.ordinal()] = (la == X) ? X : (la == LOW) ? HIGH : LOW;
+            for (Signal b : VALUES) {
+                Signal lb = LOGIC[b.ordinal()];
+                int i = (a.ordinal() << SHIFT) | b.ordinal();
+                if (la == X || lb == X) {
+                    AND[i] = X;
+                    OR[i] = X;
+                    XOR[i] = X;
+                } else {
+                    AND[i] = (la == HIGH && lb == HIGH) ? HIGH : LOW;
+                    OR[i] = (la == HIGH || lb == HIGH) ? HIGH : LOW;
+                    XOR[i] = (la != lb) ? HIGH : LOW;
+                }
+                TRISTATE[i] = (lb == HIGH) ? la : (lb == LOW) ? Z : X;
+                char r = STD_RESOLVE[STD_ORDER.indexOf(a.symbol)].charAt(STD_ORDER.indexOf(b.symbol));
+                RESOLVE[i] = fromSymbol(r);
+            }
+        }
+    }
+
+    // Creation
+    /**
+     * Constructor.
+     * @param symbol the IEEE 1164 character for the level
+     */
+    Signal(char symbol) {
+        this.symbol = symbol;
+    }
 
+    /**
+     * Finds the level with a given IEEE 1164 character.
+     * @param symbol one of the characters "01XZLHWU-" (lower case is allowed)
+     * @return the level
+     * @throws IllegalArgumentException if symbol doesn't stand for a level
+     */
+    public static Signal fromSymbol(char symbol) {
+        char c = Character.toUpperCase(symbol);
+        for (Signal s : VALUES) {
+            if (s.symbol == c) {
+                return s;
+            }
+        }
+        throw new IllegalArgumentException("'" + symbol + "' is not a signal level.");
+    }
+
+    // Queries
     /**
      * Checks if a signal is a valid logic level.
      * @return true if the signal is 'low' or 'high'
@@ -17,19 +122,34 @@ public enum Signal {
         return (this == HIGH || this == LOW);
     }
 
+    /**
+     * Checks if a signal is driven weakly, so that a strong driver on the
+     * same wire overrides it.
+     * @return true if the signal is WEAK_LOW, WEAK_HIGH or WEAK_X
+     */
+    public boolean isWeak() {
+        return (this == WEAK_LOW || this == WEAK_HIGH || this == WEAK_X);
+    }
+
+    /** @return the IEEE 1164 character for the level */
+    public char symbol() { return symbol; }
+
+    /**
+     * Queries the level a gate input sees for this signal.
+     * @return LOW for LOW or WEAK_LOW, HIGH for HIGH or WEAK_HIGH, and X
+     * for anything else
+     */
+    public Signal logicLevel() {
+        return LOGIC[ordinal()];
+    }
+
     /**
      * AND a pair of signals
      * @return Logical AND of two signals, or X if the result
      * cannot be determined.
      */
     public static Signal and(Signal a, Signal b) {
-        if (a == HIGH && b == HIGH) {
-            return HIGH;
-        }
-        if (a.isValid() && b.isValid()) {
-            return LOW;
-        }
-        return X;
+        return AND[(a.ordinal() << SHIFT) | b.ordinal()];
     }
 
     /**
@@ -38,13 +158,16 @@ public enum Signal {
      * cannot be determined.
      */
     public static Signal or(Signal a, Signal b) {
-        if (a == LOW && b == LOW) {
-            return LOW;
-        }
-        if (a.isValid() && b.isValid()) {
-            return HIGH;
-        }
-        return X;
+        return OR[(a.ordinal() << SHIFT) | b.ordinal()];
+    }
+
+    /**
+     * Exclusive-OR a pair of signals
+     * @return Logical XOR of two signals, or X if the result
+     * cannot be determined.
+     */
+    public static Signal xor(Signal a, Signal b) {
+        return XOR[(a.ordinal() << SHIFT) | b.ordinal()];
     }
 
     /**
@@ -53,10 +176,42 @@ public enum Signal {
      * cannot be determined.
      */
     public static Signal not(Signal s) {
+        return NOT[s.ordinal()];
+    }
+
+    /**
+     * Finds the level on a wire driven by two signals at once. A strong
+     * level overrides a weak one, and a driven level overrides Z, but two
+     * different levels of the same strength give X (or WEAK_X).
+     * @return the resolved level, as in IEEE 1164
+     */
+    public static Signal resolve(Signal a, Signal b) {
+        return RESOLVE[(a.ordinal() << SHIFT) | b.ordinal()];
+    }
+
+    /**
+     * The output of a tri-state buffer.
+     * @param data the level on the data input
+     * @param enable the level on the enable input
+     * @return the data level (made strong) if enable is HIGH, Z if enable
+     * is LOW, and X if enable is unknown
+     */
+    public static Signal tristate(Signal data, Signal enable) {
+        return TRISTATE[(data.ordinal() << SHIFT) | enable.ordinal()];
+    }
+
+    /**
+     * Weakens a signal, as a resistor does.
+     * @return the weak form of a logic level, or the signal itself if it
+     * is Z, U or already weak
+     */
+    public static Signal weaken(Signal s) {
         switch (s) {
-            case LOW: return HIGH;
-            case HIGH: return LOW;
-            default: return X;
+            case LOW: return WEAK_LOW;
+            case HIGH: return WEAK_HIGH;
+            case X:
+            case DONT_CARE: return WEAK_X;
+            default: return s;
         }
     }
 }
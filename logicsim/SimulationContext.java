@@ -0,0 +1,71 @@
+package logicsim;
+
+import java.util.Arrays;
+
+/**
+ * A SimulationContext holds everything that belongs to one simulation: the
+ * Scheduler that executes it, and the state used to name its wires. Every
+ * Wire is created in a context, and every Component connected to those
+ * wires belongs to the same context.
+ *
+ * Contexts share no mutable state, so any number of independent simulations
+ * can exist in the same program, and separate contexts can be run
+ * concurrently on different threads. A single context is not thread-safe,
+ * and should only be used from one thread at a time.
+ *
+ * @author Allan McInnes
+ */
+public class SimulationContext {
+    private final Scheduler scheduler; // The simulation kernel
+    private Wire[] wires = new Wire[64]; // Wires created in this context, by id
+    private int n_wires = 0;           // Number of wires created in this context
+
+    // Creation
+    /** Default constructor. */
+    public SimulationContext() {
+        scheduler = new Scheduler(this);
+    }
+
+    // Queries
+    /**
+     * @return the scheduler that executes this simulation
+     */
+    public Scheduler scheduler() { return scheduler; }
+
+    /**
+     * @return the current simulation time in nanoseconds
+     */
+    public double time() { return scheduler.time(); }
+
+    /**
+     * @return the number of wires that have been created in this context
+     */
+    public int wireCount() { return n_wires; }
+
+    /**
+     * Finds a wire by number.
+     * @param id a wire number
+     * @return the wire created with that number
+     * @throws IndexOutOfBoundsException if no wire has that number
+     */
+    Wire wire(int id) {
+        if (id < 0 || id >= n_wires) {
+            throw new IndexOutOfBoundsException("No wire number " + id + " in this context.");
+        }
+        return wires[id];
+    }
+
+    // Commands
+    /**
+     * Records a new wire, and allocates an identifying number for it.
+     * @param wire the new wire
+     * @return a number that is unique within this context
+     */
+    int addWire(Wire wire) {
+        if (n_wires == wires.length) {
+            wires = Arrays.copyOf(wires, 2 * n_wires);
+        }
+        wires[n_wires] = wire;
+        return n_wires++;
+    }
+}
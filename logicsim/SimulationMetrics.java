@@ -0,0 +1,452 @@
+package logicsim;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * SimulationMetrics measures the activity of a Scheduler: how many events
+ * it executes and how fast, how deep its event queue gets, how quickly
+ * simulated time advances compared to wall-clock time, and which wires
+ * and components generate the most events and toggles (events that
+ * actually change the level on a wire).
+ *
+ * Metrics are created with Scheduler.enableMetrics(). Since a Scheduler
+ * only ever runs on one thread at a time, the counters are plain fields
+ * owned by that thread, which is as cheap as counting gets: a few array
+ * increments per event. Counts are kept per wire, and only summed up per
+ * component (the component driving each wire) or per Block when a report
+ * is asked for. Other threads, such as a JMX client, can read the metrics
+ * while a simulation runs, but may see values that are slightly out of date.
+ * The per-wire counts are kept together in one holder, which is replaced
+ * as a whole when it grows, so a reader always sees arrays of one size.
+ *
+ * The metrics can be registered as an MXBean, so that they can be watched
+ * with any JMX console, and a copy of the headline figures can be taken at
+ * any time with snapshot(). The figures are read one after another, not
+ * atomically, so while a simulation runs they may be from slightly
+ * different moments.
+ *
+ * @author Allan McInnes
+ */
+public class SimulationMetrics implements SimulationMetricsMXBean {
+    /** Number of components listed in the JMX hottest components report */
+    public static final int REPORT_SIZE = 10;
+
+    private final Scheduler scheduler;      // The scheduler being measured
+
+    private volatile Counts counts = new Counts(64); // Per-wire counts
+
+    private long n_events = 0;              // Events executed while measuring
+    private long run_events = 0;            // Events executed during measured runs
+    private int high_water = 0;             // Largest queue depth seen
+    private long wall_time = 0;             // Wall-clock time spent running, in ns
+    private double sim_time = 0.0;          // Simulated time advanced while running, in ns
+    private long run_start = 0;             // Wall-clock start of the current run
+    private double run_sim_start = 0.0;     // Simulation time at the start of the current run
+    private long run_events_start = 0;      // Event count at the start of the current run
+    private volatile boolean is_running = false;
+    private ObjectName registered = null;   // Name the MXBean is registered under
+
+    /**
+     * The per-wire counts, indexed by wire id. The arrays are replaced
+     * together, by a new Counts, when more wires are needed.
+     */
+    private static final class Counts {
+        final Wire[] wires;
+        final long[] events;
+        final long[] toggles;
+
+        Counts(int capacity) {
+            this(new Wire[capacity], new long[capacity], new long[capacity]);
+        }
+
+        Counts(Wire[] wires, long[] events, long[] toggles) {
+            this.wires = wires;
+            this.events = events;
+            this.toggles = toggles;
+        }
+
+        /** @return a copy of the counts with room for more wires */
+        Counts grow(int capacity) {
+            return new Counts(Arrays.copyOf(wires, capacity),
+                              Arrays.copyOf(events, capacity),
+                              Arrays.copyOf(toggles, capacity));
+        }
+    }
+
+    /**
+     * The activity of a wire or component.
+     */
+    public static final class Activity {
+        private final Object subject;
+        private final long events;
+        private final long toggles;
+
+        Activity(Object subject, long events, long toggles) {
+            this.subject = subject;
+            this.events = events;
+            this.toggles = toggles;
+        }
+
+        /** @return the wire or component the counts are for */
+        public Object subject() { return subject; }
+
+        /** @return the number of events executed */
+        public long events() { return events; }
+
+        /** @return the number of events that changed a level */
+        public long toggles() { return toggles; }
+
+        @Override
+        public String toString() {
+            String name = (subject instanceof Wire) ? ((Wire) subject).name() : String.valueOf(subject);
+            return String.format("%s: %d events, %d toggles", name, events, toggles);
+        }
+    }
+
+    /**
+     * A copy of the headline metrics, taken by snapshot().
+     */
+    public static final class Snapshot {
+        private final long events;
+        private final double event_rate;
+        private final int queue_depth;
+        private final int high_water;
+        private final double sim_time;
+        private final double wall_time;
+        private final double time_ratio;
+
+        Snapshot(long events, double event_rate, int queue_depth, int high_water,
+                 double sim_time, double wall_time, double time_ratio) {
+            this.events = events;
+            this.event_rate = event_rate;
+            this.queue_depth = queue_depth;
+            this.high_water = high_water;
+            this.sim_time = sim_time;
+            this.wall_time = wall_time;
+            this.time_ratio = time_ratio;
+        }
+
+        /** @return the number of events executed */
+        public long events() { return events; }
+
+        /** @return events executed per second of wall-clock time */
+        public double eventRate() { return event_rate; }
+
+        /** @return the number of events waiting to be executed */
+        public int queueDepth() { return queue_depth; }
+
+        /** @return the largest number of events that have been waiting at once */
+        public int queueHighWaterMark() { return high_water; }
+
+        /** @return the simulation time in nanoseconds */
+        public double simulatedTime() { return sim_time; }
+
+        /** @return the wall-clock time spent running, in milliseconds */
+        public double wallTime() { return wall_time; }
+
+        /** @return nanoseconds of simulated time per nanosecond of wall-clock time */
+        public double timeRatio() { return time_ratio; }
+
+        @Override
+        public String toString() {
+            return String.format("%d events at %.3g events/s, queue depth %d (max %d), "
+                                 + "sim time %.1f ns in %.1f ms (ratio %.3g)",
+                                 events, event_rate, queue_depth, high_water,
+                                 sim_time, wall_time, time_ratio);
+        }
+    }
+
+    // Creation
+    /**
+     * Constructor. Metrics are created by Scheduler.enableMetrics().
+     * @param scheduler the scheduler being measured
+     */
+    SimulationMetrics(Scheduler scheduler) {
+        this.scheduler = scheduler;
+        high_water = scheduler.pendingEvents();
+    }
+
+    // Queries
+    /** @return the scheduler being measured */
+    public Scheduler scheduler() { return scheduler; }
+
+    @Override
+    public long getEventCount() { return n_events; }
+
+    @Override
+    public long getSuppressedCount() { return scheduler.suppressedCount(); }
+
+    @Override
+    public long getCancelledCount() { return scheduler.cancelledCount(); }
+
+    @Override
+    public double getEventRate() {
+        long events = run_events;
+        long wall = wall_time;
+        if (is_running) {
+            events += n_events - run_events_start;
+            wall += System.nanoTime() - run_start;
+        }
+        return (wall > 0) ? events * 1.0e9 / wall : 0.0;
+    }
+
+    @Override
+    public int getQueueDepth() { return scheduler.pendingEvents(); }
+
+    @Override
+    public int getQueueHighWaterMark() { return high_water; }
+
+    @Override
+    public double getSimulatedTime() { return scheduler.time(); }
+
+    @Override
+    public double getWallTime() {
+        long wall = wall_time;
+        if (is_running) {
+            wall += System.nanoTime() - run_start;
+        }
+        return wall / 1.0e6;
+    }
+
+    @Override
+    public double getTimeRatio() {
+        double sim = sim_time;
+        long wall = wall_time;
+        if (is_running) {
+            sim += scheduler.time() - run_sim_start;
+            wall += System.nanoTime() - run_start;
+        }
+        return (wall > 0) ? sim / wall : 0.0;
+    }
+
+    @Override
+    public String[] getHottestComponents() {
+        List<Activity> hottest = hottestComponents(REPORT_SIZE);
+        String[] report = new String[hottest.size()];
+        for (int i = 0; i < report.length; i++) {
+            report[i] = hottest.get(i).toString();
+        }
+        return report;
+    }
+
+    /**
+     * Takes a copy of the headline metrics. While the simulation is
+     * running, the figures may be from slightly different moments.
+     * @return the current metrics
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(n_events, getEventRate(), getQueueDepth(), high_water,
+                            getSimulatedTime(), getWallTime(), getTimeRatio());
+    }
+
+    /**
+     * @param wire a wire
+     * @return the number of events executed on the wire
+     */
+    public long wireEvents(Wire wire) {
+        Counts c = counts;
+        int id = wire.id();
+        return (id < c.wires.length && c.wires[id] == wire) ? c.events[id] : 0;
+    }
+
+    /**
+     * @param wire a wire
+     * @return the number of events that changed the level on the wire
+     */
+    public long wireToggles(Wire wire) {
+        Counts c = counts;
+        int id = wire.id();
+        return (id < c.wires.length && c.wires[id] == wire) ? c.toggles[id] : 0;
+    }
+
+    /**
+     * Queries the activity of a component, counting the events on every
+     * wire it drives. For a Block, the activity of every component inside
+     * the block is counted.
+     * @param comp a component
+     * @return the component's activity
+     */
+    public Activity activity(Component comp) {
+        Set<Component> members = ComponentCollector.collect(comp);
+        Counts c = counts;
+        long events = 0;
+        long toggles = 0;
+        for (int id = 0; id < c.wires.length; id++) {
+            Wire wire = c.wires[id];
+            if (wire != null && members.contains(wire.drivingComponent())) {
+                events += c.events[id];
+                toggles += c.toggles[id];
+            }
+        }
+        return new Activity(comp, events, toggles);
+    }
+
+    /**
+     * Finds the wires with the most events.
+     * @param n the maximum number of wires to list
+     * @return the activity of up to n wires, busiest first
+     */
+    public List<Activity> hottestWires(int n) {
+        Counts c = counts;
+        List<Activity> all = new ArrayList<Activity>();
+        for (int id = 0; id < c.wires.length; id++) {
+            Wire wire = c.wires[id];
+            if (wire != null) {
+                all.add(new Activity(wire, c.events[id], c.toggles[id]));
+            }
+        }
+        return top(all, n);
+    }
+
+    /**
+     * Finds the primitive components (those that drive wires directly) that
+     * generate the most events.
+     * @param n the maximum number of components to list
+     * @return the activity of up to n components, busiest first
+     */
+    public List<Activity> hottestComponents(int n) {
+        Counts c = counts;
+        Map<Component, long[]> totals = new IdentityHashMap<Component, long[]>();
+        for (int id = 0; id < c.wires.length; id++) {
+            Wire wire = c.wires[id];
+            Component driver = (wire != null) ? wire.drivingComponent() : null;
+            if (driver != null) {
+                long[] total = totals.get(driver);
+                if (total == null) {
+                    total = new long[2];
+                    totals.put(driver, total);
+                }
+                total[0] += c.events[id];
+                total[1] += c.toggles[id];
+            }
+        }
+        List<Activity> all = new ArrayList<Activity>();
+        for (Map.Entry<Component, long[]> e : totals.entrySet()) {
+            all.add(new Activity(e.getKey(), e.getValue()[0], e.getValue()[1]));
+        }
+        return top(all, n);
+    }
+
+    // Commands
+    @Override
+    public void resetHighWaterMark() {
+        high_water = scheduler.pendingEvents();
+    }
+
+    /**
+     * Clears all counts.
+     */
+    public void clear() {
+        counts = new Counts(counts.wires.length);
+        n_events = 0;
+        run_events = 0;
+        wall_time = 0;
+        sim_time = 0.0;
+        run_start = System.nanoTime();
+        run_sim_start = scheduler.time();
+        run_events_start = 0;
+        resetHighWaterMark();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     * @param name a name that identifies this simulation
+     * @throws JMException if the metrics can't be registered
+     */
+    public void register(String name) throws JMException {
+        unregister();
+        ObjectName object = new ObjectName("logicsim:type=SimulationMetrics,name="
+                                           + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, object);
+        registered = object;
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server, if they were registered.
+     * @throws JMException if the metrics can't be unregistered
+     */
+    public void unregister() throws JMException {
+        if (registered != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+            registered = null;
+        }
+    }
+
+    // Collection, called by the scheduler
+    /**
+     * Called when the scheduler starts running.
+     */
+    void runStarted() {
+        run_start = System.nanoTime();
+        run_sim_start = scheduler.time();
+        run_events_start = n_events;
+        is_running = true;
+    }
+
+    /**
+     * Called when the scheduler stops running.
+     */
+    void runFinished() {
+        is_running = false;
+        wall_time += System.nanoTime() - run_start;
+        sim_time += scheduler.time() - run_sim_start;
+        run_events += n_events - run_events_start;
+    }
+
+    /**
+     * Called just before an event is executed.
+     * @param wire the wire the event changes
+     * @param level the new level
+     */
+    void eventExecuting(Wire wire, Signal level) {
+        n_events++;
+        if (wire == null) {
+            return;
+        }
+        Counts c = counts;
+        int id = wire.id();
+        if (id >= c.wires.length) {
+            c = c.grow(Math.max(id + 1, 2 * c.wires.length));
+            counts = c;
+        }
+        c.wires[id] = wire;
+        c.events[id]++;
+        if (wire.getSignal() != level) {
+            c.toggles[id]++;
+        }
+    }
+
+    /**
+     * Called when an event is added to the queue.
+     * @param depth the new number of events in the queue
+     */
+    void eventQueued(int depth) {
+        if (depth > high_water) {
+            high_water = depth;
+        }
+    }
+
+    // Helpers
+    /**
+     * Sorts activities busiest first, and keeps the first n.
+     */
+    private static List<Activity> top(List<Activity> all, int n) {
+        Collections.sort(all, new Comparator<Activity>() {
+            @Override
+            public int compare(Activity a, Activity b) {
+                return Long.compare(b.events(), a.events());
+            }
+        });
+        return new ArrayList<Activity>(all.subList(0, Math.min(n, all.size())));
+    }
+}
@@ -0,0 +1,43 @@
+package logicsim;
+
+/**
+ * The management interface through which SimulationMetrics are published
+ * over JMX. Registering a SimulationMetrics object makes these attributes
+ * visible in tools such as JConsole and VisualVM.
+ *
+ * @author Allan McInnes
+ */
+public interface SimulationMetricsMXBean {
+    /** @return the total number of events executed */
+    long getEventCount();
+
+    /** @return the number of redundant events that were never scheduled */
+    long getSuppressedCount();
+
+    /** @return the number of events cancelled by the inertial delay model */
+    long getCancelledCount();
+
+    /** @return events executed per second of wall-clock time spent running */
+    double getEventRate();
+
+    /** @return the number of events waiting to be executed */
+    int getQueueDepth();
+
+    /** @return the largest number of events that have been waiting at once */
+    int getQueueHighWaterMark();
+
+    /** @return the current simulation time in nanoseconds */
+    double getSimulatedTime();
+
+    /** @return the wall-clock time spent running, in milliseconds */
+    double getWallTime();
+
+    /** @return nanoseconds of simulated time per nanosecond of wall-clock time */
+    double getTimeRatio();
+
+    /** @return descriptions of the ten most active components */
+    String[] getHottestComponents();
+
+    /** Restarts the queue high-water mark from the current queue depth. */
+    void resetHighWaterMark();
+}
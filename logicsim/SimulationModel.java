@@ -18,4 +18,26 @@ public interface SimulationModel {
      * @throws IllegalArgumentException if event delay <= 0.0
      */
     public void newEvent(Event event);
+
+    /**
+     * Adds a new future transition to the model. This is equivalent to
+     * adding a new Event, but allows the model to avoid allocating an
+     * Event object for the transition.
+     * @param time the time the transition occurs, in nanoseconds (which
+     *  must be later than the current time)
+     * @param wire the wire the transition occurs on
+     * @param level the new signal level on the wire
+     * @throws IllegalArgumentException if event delay <= 0.0
+     */
+    public default void newEvent(double time, Wire wire, Signal level) {
+        newEvent(new Event(time, wire, level));
+    }
+
+    /**
+     * Records that a component chose not to schedule a transition, because
+     * it wouldn't have changed the level on the wire. Models that don't keep
+     * statistics can ignore this.
+     */
+    public default void eventSuppressed() {
+    }
 }
@@ -0,0 +1,85 @@
+package logicsim;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A SteadyState describes how a simulation settled down, as found by a
+ * Scheduler with fast-forwarding turned on (see Scheduler.setFastForward()).
+ * A simulation is quiescent once there are no more events to execute, and
+ * periodic once its whole state (the level on every wire, and the pending
+ * events relative to the current time) repeats exactly. From then on it
+ * goes through the same events in every period, so the scheduler can skip
+ * whole periods instead of executing them.
+ *
+ * @author Allan McInnes
+ */
+public class SteadyState {
+    private final double detected_at;       // Time the steady state was found
+    private final long period;              // Length of the period in ticks (0 if quiescent)
+    private final long events_per_period;   // Events executed in each period
+    private final long periods_skipped;     // Whole periods fast-forwarded over
+    private final List<Wire> active;        // Wires that change during a period
+
+    // Creation
+    /**
+     * Constructor.
+     * @param detected_at the time the steady state was found, in nanoseconds
+     * @param period the length of the period in ticks, or 0 if quiescent
+     * @param events_per_period the number of events executed in each period
+     * @param periods_skipped the number of periods fast-forwarded over
+     * @param active the wires that change during a period
+     */
+    SteadyState(double detected_at, long period, long events_per_period,
+                long periods_skipped, List<Wire> active) {
+        this.detected_at = detected_at;
+        this.period = period;
+        this.events_per_period = events_per_period;
+        this.periods_skipped = periods_skipped;
+        this.active = Collections.unmodifiableList(active);
+    }
+
+    // Queries
+    /** @return true if the simulation stopped because nothing was left to do */
+    public boolean isQuiescent() { return period == 0; }
+
+    /** @return true if the simulation was found to repeat itself */
+    public boolean isPeriodic() { return period != 0; }
+
+    /** @return the time the steady state was found, in nanoseconds */
+    public double detectedAt() { return detected_at; }
+
+    /** @return the length of the period in nanoseconds, or 0.0 if quiescent */
+    public double period() { return Scheduler.nanoseconds(period); }
+
+    /** @return the length of the period in ticks, or 0 if quiescent */
+    public long periodTicks() { return period; }
+
+    /** @return the number of events executed in each period */
+    public long eventsPerPeriod() { return events_per_period; }
+
+    /** @return the number of whole periods that were skipped */
+    public long periodsSkipped() { return periods_skipped; }
+
+    /** @return the number of events that were skipped rather than executed */
+    public long eventsSkipped() { return periods_skipped * events_per_period; }
+
+    /**
+     * Lists the wires that are still active: those whose level changes at
+     * some point during a period.
+     * @return the active wires, in order of wire number
+     */
+    public List<Wire> activeWires() { return active; }
+
+    /**
+     * Returns a one-line summary of the steady state.
+     */
+    @Override
+    public String toString() {
+        if (isQuiescent()) {
+            return String.format("quiescent at %f ns", detected_at);
+        }
+        return String.format("periodic from %f ns, period %f ns, %d events and %d active wires per period, %d periods skipped",
+                             detected_at, period(), events_per_period, active.size(), periods_skipped);
+    }
+}
@@ -0,0 +1,444 @@
+package logicsim;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stimulus drives the inputs of a circuit from a test bench file, reading
+ * the file lazily as the simulation runs. Once the stimulus is added to a
+ * Scheduler (see Scheduler.addStimulus()), the scheduler asks it for more
+ * transitions whenever the next one it holds back is due, and it schedules
+ * the next window of them: WINDOW transitions by default. Only that window
+ * is ever in the event queue, and only a small buffer of the file is in
+ * memory, so a test bench of any length runs in the same space, and the
+ * queue stays as small as the circuit's own activity needs.
+ *
+ * The file can be in either of two formats, told apart by its first bytes:
+ *
+ * <ul>
+ * <li>the binary format written by a StimulusWriter, which is read through
+ *     a fixed-size buffer;</li>
+ * <li>CSV text, with a header line naming the wires after a first column
+ *     for the time, and then one line for each vector, giving the time in
+ *     nanoseconds and a level for each wire as an IEEE 1164 character
+ *     ("0", "1", "X", "Z", "L", "H", ...). A level that is the same as in
+ *     the previous vector, or left empty, is not a transition. Blank lines
+ *     and lines starting with '#' are ignored.</li>
+ * </ul>
+ *
+ * Times in the file must not decrease. Transitions at or before the time
+ * the scheduler has reached when they are read are applied to their wires
+ * at once, so a test bench can set the initial levels at time 0.
+ *
+ * Each wire named in the file is matched by name with one of the wires the
+ * stimulus is given. The stimulus only ever moves forward: it isn't
+ * rewound by Scheduler.reset(), and its position isn't saved in a
+ * Checkpoint.
+ *
+ * @author Allan McInnes
+ */
+public class Stimulus implements Closeable {
+    /** Default number of transitions scheduled at a time */
+    public static final int WINDOW = 4096;
+
+    private static final long TICKS_PER_PS = Scheduler.TICKS_PER_NS / 1000;
+    private static final int INPUT_SIZE = 1 << 16; // Size of the input buffer
+    private static final int N_LEVELS = Signal.values().length;
+
+    private final Path file;                // The test bench
+    private final Source source;            // Reads transitions from the file
+    private final Wire[] wires;             // The wires, by number in the file
+    private final SimulationContext context; // The simulation they are part of
+    private int window = WINDOW;            // Transitions scheduled at a time
+    private long n_injected = 0;            // Transitions passed to the scheduler
+    private boolean has_next;               // Is there a transition held back?
+
+    // Creation
+    /**
+     * Constructor. Opens a stimulus file, and reads its first transition.
+     * @param file the stimulus file, in CSV or binary form
+     * @param wires the wires that may be stimulated, which must all be part
+     * of the same simulation
+     * @throws IOException if the file can't be read, or is malformed
+     * @throws IllegalArgumentException if the file names a wire that isn't
+     * one of the wires given, or the wires aren't all part of the same
+     * simulation
+     */
+    public Stimulus(Path file, Collection<Wire> wires) throws IOException {
+        if (wires.isEmpty()) {
+            throw new IllegalArgumentException("A stimulus needs at least one wire to drive.");
+        }
+        Map<String, Wire> by_name = new HashMap<String, Wire>();
+        SimulationContext ctx = null;
+        for (Wire w : wires) {
+            if (ctx == null) {
+                ctx = w.context();
+            } else if (w.context() != ctx) {
+                throw new IllegalArgumentException("All stimulated wires must be part of the same simulation.");
+            }
+            by_name.putIfAbsent(w.name(), w);
+        }
+        this.file = file;
+        this.context = ctx;
+        this.source = isBinary(file) ? new BinarySource(file) : new CsvSource(file);
+        try {
+            this.wires = new Wire[source.names.length];
+            for (int i = 0; i < this.wires.length; i++) {
+                this.wires[i] = by_name.get(source.names[i]);
+                if (this.wires[i] == null) {
+                    throw new IllegalArgumentException("No wire named " + source.names[i]
+                        + " to stimulate from " + file + ".");
+                }
+            }
+            has_next = source.advance();
+        } catch (IOException | RuntimeException e) {
+            source.close();
+            throw e;
+        }
+    }
+
+    // Queries
+    /** @return the simulation the stimulated wires are part of */
+    public SimulationContext context() { return context; }
+
+    /** @return the stimulated wires, in the order they are named in the file */
+    public List<Wire> wires() {
+        return Collections.unmodifiableList(Arrays.asList(wires));
+    }
+
+    /** @return the number of transitions scheduled at a time */
+    public int window() { return window; }
+
+    /** @return the number of transitions passed to the scheduler so far */
+    public long injectedCount() { return n_injected; }
+
+    /** @return true if every transition in the file has been scheduled */
+    public boolean isFinished() { return !has_next; }
+
+    /**
+     * @return the time of the next transition held back, in ticks, or
+     * Long.MAX_VALUE if there are none left
+     */
+    long nextTick() {
+        return has_next ? source.tick : Long.MAX_VALUE;
+    }
+
+    // Commands
+    /**
+     * Sets the number of transitions scheduled at a time. A larger window
+     * means fewer, larger refills of the event queue.
+     * @param n the number of transitions
+     * @throws IllegalArgumentException if n is less than 1
+     */
+    public void setWindow(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("At least one transition must be scheduled at a time.");
+        }
+        window = n;
+    }
+
+    /**
+     * Closes the stimulus file. Transitions that haven't been scheduled yet
+     * are dropped.
+     * @throws IOException if the file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        has_next = false;
+        source.close();
+    }
+
+    /**
+     * Schedules the next window of transitions, or applies them at once if
+     * they aren't in the future, and reads ahead to the transition after.
+     * @param scheduler the scheduler to add them to
+     * @throws UncheckedIOException if the file can't be read, or is malformed
+     */
+    void inject(Scheduler scheduler) {
+        try {
+            for (int k = 0; k < window && has_next; k++) {
+                Wire wire = wires[source.wire];
+                if (source.tick <= scheduler.tick()) {
+                    wire.setSignal(source.level);
+                } else {
+                    scheduler.injectEvent(source.tick, wire, source.level);
+                }
+                n_injected++;
+                has_next = source.advance();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Helpers
+    /**
+     * @return true if a file starts like a binary stimulus file
+     */
+    private static boolean isBinary(Path file) throws IOException {
+        byte[] start = new byte[StimulusWriter.MAGIC.length];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n = in.readNBytes(start, 0, start.length);
+            return n == start.length && Arrays.equals(start, StimulusWriter.MAGIC);
+        }
+    }
+
+    /**
+     * Reads the transitions of a stimulus file one at a time. The fields
+     * hold the transition read by the last call to advance().
+     */
+    private abstract class Source implements Closeable {
+        String[] names;     // The wires named in the file
+        long tick;          // Time of the transition
+        int wire;           // Number of the wire
+        Signal level;       // New level on the wire
+
+        /**
+         * Reads the next transition.
+         * @return false if there are no more
+         * @throws IOException if the file can't be read, or is malformed
+         */
+        abstract boolean advance() throws IOException;
+    }
+
+    /**
+     * Reads a binary stimulus file through a buffer.
+     */
+    private final class BinarySource extends Source {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(INPUT_SIZE);
+        private boolean is_eof = false;
+
+        BinarySource(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                buf.flip();
+                fill(StimulusWriter.MAGIC.length + 8);
+                buf.position(StimulusWriter.MAGIC.length);
+                if (buf.getInt() != StimulusWriter.VERSION) {
+                    throw new IOException(file + " is not a stimulus file this version can read.");
+                }
+                names = new String[buf.getInt()];
+                for (int w = 0; w < names.length; w++) {
+                    fill(4);
+                    byte[] name = new byte[buf.getInt()];
+                    for (int i = 0; i < name.length; i += INPUT_SIZE) {
+                        int n = Math.min(INPUT_SIZE, name.length - i);
+                        fill(n);
+                        buf.get(name, i, n);
+                    }
+                    names[w] = new String(name, StandardCharsets.UTF_8);
+                }
+            } catch (BufferUnderflowException e) {
+                channel.close();
+                throw truncated();
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            if (buf.remaining() < StimulusWriter.MAX_TRANSITION) {
+                fill(StimulusWriter.MAX_TRANSITION);
+            }
+            if (!buf.hasRemaining()) {
+                return false;
+            }
+            try {
+                tick += getVarint() * TICKS_PER_PS;
+                long v = getVarint();
+                long w = v >>> StimulusWriter.LEVEL_BITS;
+                int l = (int) (v & StimulusWriter.LEVEL_MASK);
+                if (w >= names.length || l >= N_LEVELS) {
+                    throw new IOException(file + " has a corrupt transition.");
+                }
+                wire = (int) w;
+                level = Netlist.decode((byte) l);
+            } catch (BufferUnderflowException e) {
+                throw truncated();
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        /**
+         * Reads more of the file, until at least n bytes are buffered or the
+         * end of the file is reached.
+         */
+        private void fill(int n) throws IOException {
+            if (buf.remaining() >= n || is_eof) {
+                return;
+            }
+            buf.compact();
+            while (buf.position() < n && !is_eof) {
+                is_eof = (channel.read(buf) < 0);
+            }
+            buf.flip();
+        }
+
+        private long getVarint() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf.get();
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return v;
+        }
+
+        private IOException truncated() {
+            return new IOException(file + " is truncated.");
+        }
+    }
+
+    /**
+     * Reads a CSV stimulus file a line at a time, producing a transition
+     * for each level that differs from the one before it.
+     */
+    private final class CsvSource extends Source {
+        private final BufferedReader in;
+        private Signal[] current;       // The levels in the latest vector
+        private Signal[] row;           // The levels read from the latest line
+        private int column;             // Next column of the row to look at
+        private long row_tick = 0;      // Time of the latest vector
+        private int line_no = 0;
+
+        CsvSource(Path file) throws IOException {
+            in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+            try {
+                String[] header = split(nextLine());
+                if (header == null || header.length < 2) {
+                    throw error("expected a header naming the time and the wires");
+                }
+                names = Arrays.copyOfRange(header, 1, header.length);
+                current = new Signal[names.length];
+                row = new Signal[names.length];
+                column = names.length;
+            } catch (IOException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            while (true) {
+                for (; column < row.length; column++) {
+                    if (row[column] != null && row[column] != current[column]) {
+                        current[column] = row[column];
+                        tick = row_tick;
+                        wire = column++;
+                        level = current[wire];
+                        return true;
+                    }
+                }
+                if (!readRow()) {
+                    return false;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        /**
+         * Reads the next vector into row.
+         * @return false if there are no more
+         */
+        private boolean readRow() throws IOException {
+            String[] fields = split(nextLine());
+            if (fields == null) {
+                return false;
+            }
+            if (fields.length > names.length + 1) {
+                throw error("expected at most " + (names.length + 1) + " fields");
+            }
+            long t;
+            try {
+                t = Scheduler.ticks(Double.parseDouble(fields[0]));
+            } catch (NumberFormatException e) {
+                throw error("'" + fields[0] + "' is not a time");
+            }
+            if (t < row_tick) {
+                throw error("the time goes backwards");
+            }
+            row_tick = t;
+            Arrays.fill(row, null);
+            for (int i = 1; i < fields.length; i++) {
+                if (!fields[i].isEmpty()) {
+                    row[i - 1] = level(fields[i]);
+                }
+            }
+            column = 0;
+            return true;
+        }
+
+        /**
+         * @return the signal level written as a field
+         */
+        private Signal level(String field) throws IOException {
+            if (field.length() == 1) {
+                try {
+                    return Signal.fromSymbol(field.charAt(0));
+                } catch (IllegalArgumentException e) {
+                    // Reported below, with the line number
+                }
+            }
+            throw error("'" + field + "' is not a signal level");
+        }
+
+        /**
+         * @return the next line that isn't blank or a comment, or null at
+         * the end of the file
+         */
+        private String nextLine() throws IOException {
+            String line;
+            do {
+                line = in.readLine();
+                line_no++;
+            } while (line != null && (line.trim().isEmpty() || line.trim().startsWith("#")));
+            return line;
+        }
+
+        private String[] split(String line) {
+            if (line == null) {
+                return null;
+            }
+            String[] fields = line.split(",", -1);
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = fields[i].trim();
+            }
+            return fields;
+        }
+
+        private IOException error(String message) {
+            return new IOException(file + ", line " + line_no + ": " + message + ".");
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package logicsim;
+
+/**
+ * A StuckAtFault is a wire that is permanently stuck at one level, as if
+ * it were shorted to ground (stuck-at-0) or to the supply (stuck-at-1).
+ * It is the fault model used by the FaultSimulator.
+ *
+ * @author Allan McInnes
+ */
+public final class StuckAtFault {
+    private final Wire wire;        // The faulty wire
+    private final Signal level;     // The level it is stuck at
+
+    // Creation
+    /**
+     * Constructor.
+     * @param wire the faulty wire
+     * @param level the level it is stuck at
+     * @throws IllegalArgumentException if level isn't HIGH or LOW
+     */
+    public StuckAtFault(Wire wire, Signal level) {
+        if (level != Signal.HIGH && level != Signal.LOW) {
+            throw new IllegalArgumentException("A wire can only be stuck HIGH or LOW.");
+        }
+        this.wire = wire;
+        this.level = level;
+    }
+
+    // Queries
+    /** @return the faulty wire */
+    public Wire wire() { return wire; }
+
+    /** @return the level the wire is stuck at */
+    public Signal level() { return level; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof StuckAtFault)) {
+            return false;
+        }
+        StuckAtFault f = (StuckAtFault) o;
+        return f.wire == wire && f.level == level;
+    }
+
+    @Override
+    public int hashCode() {
+        return 2 * System.identityHashCode(wire) + level.ordinal();
+    }
+
+    /**
+     * Returns the fault in the usual notation, such as "sum/SA0".
+     */
+    @Override
+    public String toString() {
+        return wire.name() + ((level == Signal.HIGH) ? "/SA1" : "/SA0");
+    }
+}
@@ -0,0 +1,330 @@
+package logicsim;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * TableCollapser is an optimization pass that replaces small, purely
+ * combinational blocks in a circuit with TruthTables. A block whose
+ * outputs are a function of a handful of inputs (a HalfAdder, say) is
+ * otherwise simulated gate by gate, with events on its internal wires.
+ * As a TruthTable it is a single component, with no internal wires, that
+ * updates once per input change.
+ *
+ * A block can be collapsed if it is made only of gates and inverters
+ * that the NetlistCompiler understands, with no probes or decorators, no
+ * feedback loops, no more than maxInputs() inputs, and no wire driven by
+ * anything outside it or by more than one of its gates. Its outputs are
+ * the wires its gates drive that are read outside it, have names or
+ * monitors, or aren't read at all. Its other wires are internal: they are
+ * left out of the simulation once it is collapsed, and keep the last level
+ * they had.
+ *
+ * By default, each output of a table changes after the worst-case delay
+ * of any path to it through the original gates, once for each input
+ * change, so the glitches the gates would have produced along the way
+ * are lost. With setPreserveGlitches(), only blocks in which every path
+ * from an input to an output has the same delay are collapsed. The
+ * outputs of such a block are always the function of its inputs one
+ * path delay earlier, so the table produces exactly the waveforms the
+ * gates would have, glitches included, under the transport delay model.
+ * Other blocks are left as they are.
+ *
+ * A collapsed circuit can no longer be compiled into a Netlist, since
+ * the NetlistCompiler doesn't know about TruthTables.
+ *
+ * @author Allan McInnes
+ */
+public class TableCollapser {
+    /** Default largest number of inputs of a collapsed block */
+    public static final int MAX_INPUTS = 12;
+    /** Largest number of inputs that a table can have at all */
+    public static final int LIMIT_INPUTS = 20;
+
+    private int max_inputs = MAX_INPUTS; // Largest block to collapse
+    private boolean preserve_glitches = false; // Only collapse balanced blocks?
+    private int n_collapsed = 0;         // Blocks replaced so far
+    private final Map<String, TruthTable.Table> tables =
+        new HashMap<String, TruthTable.Table>(); // Tables enumerated, by structure
+
+    // Queries
+    /** @return the largest number of inputs of a block that is collapsed */
+    public int maxInputs() { return max_inputs; }
+
+    /** @return true if only blocks without internal glitches are collapsed */
+    public boolean isPreservingGlitches() { return preserve_glitches; }
+
+    /** @return the number of blocks replaced with tables so far */
+    public int collapsedCount() { return n_collapsed; }
+
+    /** @return the number of different truth tables enumerated so far */
+    public int tableCount() { return tables.size(); }
+
+    // Commands
+    /**
+     * Sets the largest number of inputs of a block that is collapsed. Each
+     * extra input doubles the size of a table, and the time taken to
+     * enumerate it.
+     * @param n the number of inputs
+     * @throws IllegalArgumentException if n is less than 1 or more than
+     *  LIMIT_INPUTS
+     */
+    public void setMaxInputs(int n) {
+        if (n < 1 || n > LIMIT_INPUTS) {
+            throw new IllegalArgumentException("A truth table can have from 1 to "
+                                               + LIMIT_INPUTS + " inputs.");
+        }
+        max_inputs = n;
+    }
+
+    /**
+     * Chooses whether to preserve glitches, by collapsing only blocks in
+     * which every path from an input to an output has the same delay.
+     * @param preserve true to preserve glitches
+     */
+    public void setPreserveGlitches(boolean preserve) {
+        preserve_glitches = preserve;
+    }
+
+    /**
+     * Replaces each component of a Block that can be collapsed with a
+     * TruthTable. Blocks inside the Block that can't be collapsed as a
+     * whole are searched for smaller ones that can. Components that are
+     * single gates are left alone, since a table wouldn't be any cheaper.
+     * This can be done before or between runs of the simulation (see
+     * Block.replaceComponent()).
+     * @param top the Block whose contents to collapse
+     * @return the number of components replaced
+     */
+    public int collapse(Block top) {
+        int n = collapseContents(top);
+        n_collapsed += n;
+        return n;
+    }
+
+    // Helpers
+    /**
+     * Collapses what can be collapsed inside a Block.
+     * @return the number of components replaced
+     */
+    private int collapseContents(Block block) {
+        int n = 0;
+        for (Component comp : new ArrayList<Component>(block.components())) {
+            Plan plan = plan(comp);
+            if (plan != null) {
+                block.replaceComponent(comp, () -> new TruthTable(plan.in, plan.out, plan.table));
+                n++;
+            } else if (comp instanceof Block) {
+                n += collapseContents((Block) comp);
+            }
+        }
+        return n;
+    }
+
+    /** The wires and function of a table to replace a component with. */
+    private static final class Plan {
+        final Wire[] in;
+        final Wire[] out;
+        final TruthTable.Table table;
+
+        Plan(Wire[] in, Wire[] out, TruthTable.Table table) {
+            this.in = in;
+            this.out = out;
+            this.table = table;
+        }
+    }
+
+    /**
+     * Works out how to replace a component with a table.
+     * @return the plan, or null if the component can't be collapsed
+     */
+    private Plan plan(Component comp) {
+        List<Component> leaves = ComponentCollector.leaves(comp);
+        if (leaves.size() < 2 || hasDecorator(comp)) {
+            return null;
+        }
+        Netlist net;
+        try {
+            net = NetlistCompiler.compile(comp);
+        } catch (IllegalArgumentException e) {
+            return null; // Something other than simple gates
+        }
+        Set<Component> inside = Collections.newSetFromMap(new IdentityHashMap<Component, Boolean>());
+        inside.addAll(leaves);
+
+        // Find each wire's driving gate, and check no other drives it
+        int n_wires = net.wireCount();
+        int n_gates = net.gateCount();
+        int[] driver = new int[n_wires];
+        Arrays.fill(driver, -1);
+        for (int g = 0; g < n_gates; g++) {
+            int w = net.output[g];
+            if (w < 0 || driver[w] >= 0) {
+                return null; // A probe, or two gates on one wire
+            }
+            Wire wire = net.wire(w);
+            if (wire.isResolved() || !inside.contains(wire.drivingComponent())) {
+                return null;
+            }
+            driver[w] = g;
+        }
+
+        // Sort out inputs, outputs and internal wires
+        List<Integer> ins = new ArrayList<Integer>();
+        List<Integer> outs = new ArrayList<Integer>();
+        for (int w = 0; w < n_wires; w++) {
+            Wire wire = net.wire(w);
+            int readers = net.fanoutStart[w + 1] - net.fanoutStart[w];
+            if (driver[w] < 0) {
+                ins.add(w);
+            } else if (readers == 0 || wire.fanout() != readers
+                       || wire.isMonitored() || wire.isNamed()) {
+                outs.add(w);
+            }
+        }
+        if (ins.size() > max_inputs) {
+            return null;
+        }
+
+        // Order the gates so that each follows the gates driving it, and
+        // find the shortest and longest paths to each wire on the way
+        int[] order = topologicalOrder(net, driver);
+        if (order == null) {
+            return null; // Feedback
+        }
+        long[] shortest = new long[n_wires];
+        long[] longest = new long[n_wires];
+        for (int g : order) {
+            long lo = Long.MAX_VALUE;
+            long hi = 0;
+            for (int i = net.faninStart[g]; i < net.faninStart[g + 1]; i++) {
+                lo = Math.min(lo, shortest[net.fanin[i]]);
+                hi = Math.max(hi, longest[net.fanin[i]]);
+            }
+            long d = Scheduler.ticks(net.delay[g]);
+            shortest[net.output[g]] = lo + d;
+            longest[net.output[g]] = hi + d;
+        }
+        double[] delay = new double[outs.size()];
+        for (int j = 0; j < delay.length; j++) {
+            int w = outs.get(j);
+            if (preserve_glitches && shortest[w] != longest[w]) {
+                return null;
+            }
+            delay[j] = Scheduler.nanoseconds(longest[w]);
+        }
+
+        TruthTable.Table table = table(net, order, toArray(ins), toArray(outs), delay);
+        Wire[] in = new Wire[ins.size()];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = net.wire(ins.get(i));
+        }
+        Wire[] out = new Wire[outs.size()];
+        for (int j = 0; j < out.length; j++) {
+            out[j] = net.wire(outs.get(j));
+        }
+        return new Plan(in, out, table);
+    }
+
+    /**
+     * Finds the table for a block, enumerating it if no block of the
+     * same structure has been seen before. Blocks built the same way
+     * compile to the same gates, with their wires numbered the same.
+     */
+    private TruthTable.Table table(Netlist net, int[] order, int[] in, int[] out, double[] delay) {
+        byte[] opcode = new byte[order.length];
+        int[] faninStart = new int[order.length + 1];
+        int[] fanin = new int[net.fanin.length];
+        int[] driven = new int[order.length];
+        int n = 0;
+        for (int k = 0; k < order.length; k++) {
+            int g = order[k];
+            opcode[k] = net.opcode[g];
+            driven[k] = net.output[g];
+            faninStart[k] = n;
+            for (int i = net.faninStart[g]; i < net.faninStart[g + 1]; i++) {
+                fanin[n++] = net.fanin[i];
+            }
+        }
+        faninStart[order.length] = n;
+
+        String key = net.wireCount() + Arrays.toString(in) + Arrays.toString(out)
+            + Arrays.toString(delay) + Arrays.toString(opcode) + Arrays.toString(driven)
+            + Arrays.toString(faninStart) + Arrays.toString(fanin);
+        TruthTable.Table table = tables.get(key);
+        if (table == null) {
+            table = new TruthTable.Table(net.wireCount(), in, out, delay,
+                                         opcode, faninStart, fanin, driven);
+            tables.put(key, table);
+        }
+        return table;
+    }
+
+    /**
+     * Orders the gates of a netlist so that each gate comes after the
+     * gates that drive its inputs.
+     * @return the gate numbers in order, or null if there is a loop
+     */
+    private static int[] topologicalOrder(Netlist net, int[] driver) {
+        int n_gates = net.gateCount();
+        int[] waiting = new int[n_gates]; // Inputs not yet driven, per gate
+        Deque<Integer> ready = new ArrayDeque<Integer>();
+        for (int g = 0; g < n_gates; g++) {
+            for (int i = net.faninStart[g]; i < net.faninStart[g + 1]; i++) {
+                if (driver[net.fanin[i]] >= 0) {
+                    waiting[g]++;
+                }
+            }
+            if (waiting[g] == 0) {
+                ready.add(g);
+            }
+        }
+        int[] order = new int[n_gates];
+        int n = 0;
+        while (!ready.isEmpty()) {
+            int g = ready.poll();
+            order[n++] = g;
+            int w = net.output[g];
+            for (int k = net.fanoutStart[w]; k < net.fanoutStart[w + 1]; k++) {
+                int next = net.fanout[k];
+                for (int i = net.faninStart[next]; i < net.faninStart[next + 1]; i++) {
+                    if (net.fanin[i] == w && --waiting[next] == 0) {
+                        ready.add(next);
+                    }
+                }
+            }
+        }
+        return (n == n_gates) ? order : null;
+    }
+
+    /** @return true if there is a decorator anywhere in a hierarchy */
+    private static boolean hasDecorator(Component comp) {
+        if (comp instanceof ComponentDecorator) {
+            return true;
+        }
+        if (comp instanceof Block) {
+            for (Component c : ((Block) comp).components()) {
+                if (hasDecorator(c)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
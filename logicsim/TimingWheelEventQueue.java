@@ -0,0 +1,221 @@
+package logicsim;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * An EventQueue implemented as a timing wheel (also known as a calendar
+ * queue). Simulation time is divided into fixed-size ticks, and the wheel
+ * has one slot for each tick in a window of time starting at the earliest
+ * pending event. An event is added by appending it to the slot for its
+ * tick, and the next event is found by stepping through the slots in order,
+ * so both operations take O(1) time when event times are spread across
+ * the window.
+ *
+ * This works well for logic simulation, where every new event is only a
+ * gate delay or two into the future. Events beyond the end of the window
+ * are kept in a spill-over heap, and moved onto the wheel when the window
+ * reaches them.
+ *
+ * Each slot is kept sorted by time and scheduling order, so events are
+ * returned in the same order as from a HeapEventQueue.
+ *
+ * @author Allan McInnes
+ */
+public class TimingWheelEventQueue implements EventQueue {
+    private final long resolution;     // Width of a slot in scheduler ticks
+    private final Slot[] slots;        // The wheel
+    private final int mask;            // Maps a tick onto a slot index
+    private long cursor = 0;           // Tick of the slot to search from
+    private int n_wheel = 0;           // Number of events on the wheel
+    private PriorityQueue<Event> overflow = new PriorityQueue<Event>(); // Far-future events
+
+    /** Default slot width in nanoseconds */
+    public static final double DEFAULT_RESOLUTION = 1.0;
+    /** Default number of slots */
+    public static final int DEFAULT_SLOTS = 256;
+
+    // Creation
+    /**
+     * Default constructor. Creates a wheel of DEFAULT_SLOTS slots, each
+     * DEFAULT_RESOLUTION nanoseconds wide.
+     */
+    public TimingWheelEventQueue() {
+        this(DEFAULT_RESOLUTION, DEFAULT_SLOTS);
+    }
+
+    /**
+     * Constructor.
+     * @param resolution the width of a slot in nanoseconds. Ideally this is
+     * no larger than the smallest gate delay.
+     * @param n_slots the number of slots in the wheel, which is rounded up
+     * to a power of two. The wheel should span more than the largest gate
+     * delay, so that most events never go to the spill-over heap.
+     * @throws IllegalArgumentException if either parameter is not positive
+     */
+    public TimingWheelEventQueue(double resolution, int n_slots) {
+        if (!(resolution > 0.0) || n_slots <= 0) {
+            throw new IllegalArgumentException("Timing wheel resolution and size must be > 0.");
+        }
+        int size = Integer.highestOneBit(n_slots);
+        if (size < n_slots) {
+            size <<= 1;
+        }
+
+        this.resolution = Math.max(1, Scheduler.ticks(resolution));
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        mask = size - 1;
+    }
+
+    // Queries
+    @Override
+    public boolean isEmpty() { return n_wheel == 0 && overflow.isEmpty(); }
+
+    @Override
+    public int size() { return n_wheel + overflow.size(); }
+
+    @Override
+    public Event peek() {
+        Slot slot = advance();
+        return (slot != null) ? slot.first() : null;
+    }
+
+    // Commands
+    @Override
+    public Event poll() {
+        Slot slot = advance();
+        if (slot == null) {
+            return null;
+        }
+        n_wheel--;
+        return slot.removeFirst();
+    }
+
+    @Override
+    public void add(Event event) {
+        long tick = tickOf(event);
+        if (tick < cursor) {
+            // Earlier than anything currently pending (for example, a new
+            // event added after the scheduler stopped at a time bound).
+            // Slots stay sorted, so it is safe to simply move the cursor back.
+            cursor = tick;
+        }
+        if (tick - cursor < slots.length) {
+            slots[(int) tick & mask].insert(event);
+            n_wheel++;
+        } else {
+            overflow.add(event);
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Slot slot : slots) {
+            slot.clear();
+        }
+        overflow.clear();
+        n_wheel = 0;
+        cursor = 0;
+    }
+
+    // Helpers
+    /**
+     * Moves the cursor forward to the slot that holds the earliest event.
+     * @return the slot holding the earliest event, or null if the queue
+     * is empty
+     */
+    private Slot advance() {
+        if (n_wheel == 0) {
+            if (overflow.isEmpty()) {
+                return null;
+            }
+            // Nothing on the wheel, so jump straight to the next far-future event
+            cursor = tickOf(overflow.peek());
+        }
+
+        while (true) {
+            refill();
+            Slot slot = slots[(int) cursor & mask];
+            // A slot may also hold events from a later revolution of the
+            // wheel, but since it is sorted those are never at the front
+            // unless the slot has nothing for the current tick.
+            if (!slot.isEmpty() && tickOf(slot.first()) == cursor) {
+                return slot;
+            }
+            cursor++;
+        }
+    }
+
+    /**
+     * Moves any spill-over events that are now within the span of the wheel
+     * onto the wheel.
+     */
+    private void refill() {
+        Event next = overflow.peek();
+        while (next != null && tickOf(next) - cursor < slots.length) {
+            overflow.poll();
+            slots[(int) tickOf(next) & mask].insert(next);
+            n_wheel++;
+            next = overflow.peek();
+        }
+    }
+
+    /**
+     * Finds the tick that an event occurs in.
+     */
+    private long tickOf(Event event) {
+        return event.tick() / resolution;
+    }
+
+    /**
+     * A slot of the wheel: a list of events kept sorted in event order.
+     * Events are usually added in order, so inserting is normally just an
+     * append.
+     */
+    private static final class Slot {
+        private Event[] items = new Event[4];
+        private int head = 0;   // Index of the first event
+        private int tail = 0;   // Index after the last event
+
+        boolean isEmpty() { return head == tail; }
+
+        Event first() { return items[head]; }
+
+        Event removeFirst() {
+            Event event = items[head];
+            items[head++] = null;
+            if (head == tail) {
+                head = tail = 0;
+            }
+            return event;
+        }
+
+        void insert(Event event) {
+            if (tail == items.length) {
+                int n = tail - head;
+                if (head > 0) {
+                    System.arraycopy(items, head, items, 0, n);
+                    Arrays.fill(items, n, tail, null);
+                } else {
+                    items = Arrays.copyOf(items, 2 * items.length);
+                }
+                head = 0;
+                tail = n;
+            }
+            int i = tail++;
+            while (i > head && event.compareTo(items[i - 1]) < 0) {
+                items[i] = items[i - 1];
+                i--;
+            }
+            items[i] = event;
+        }
+
+        void clear() {
+            Arrays.fill(items, head, tail, null);
+            head = tail = 0;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package logicsim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TraceReader answers questions about a binary trace file written by a
+ * TraceWriter: the level of a wire at a given time, or the changes on a
+ * wire over a range of times.
+ *
+ * The file is memory-mapped rather than read, so opening a trace only
+ * reads the wire names, however big the trace is. Each query does a binary
+ * search of the wire's block index, followed by a scan of a single block
+ * (or, for a range query, of just the blocks that overlap the range).
+ *
+ * Files larger than 2GB are mapped as a series of overlapping segments. Each
+ * segment extends past the start of the next by more than the largest
+ * block, so any block or index entry can be read from a single segment.
+ *
+ * Wires are numbered in the order they were added to the TraceWriter.
+ *
+ * @author Allan McInnes
+ */
+public class TraceReader implements Closeable {
+    private static final int SEGMENT_BITS = 30;                // 1GB segments
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+    private static final int OVERLAP = 2 * TraceWriter.BLOCK_SIZE;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long wires;               // Position of the wire table
+    private final long start_tick;          // Time recording started
+    private final long end_tick;            // Time of the last change
+    private final String[] names;           // Wire names, by wire number
+    private final Map<String, Integer> numbers = new HashMap<String, Integer>();
+
+    /**
+     * A change in the level on a wire.
+     */
+    public static final class Transition {
+        private final double time;
+        private final Signal level;
+
+        Transition(double time, Signal level) {
+            this.time = time;
+            this.level = level;
+        }
+
+        /** @return the time of the change in nanoseconds */
+        public double time() { return time; }
+
+        /** @return the new signal level */
+        public Signal level() { return level; }
+
+        @Override
+        public String toString() {
+            return String.format("[%4f] %s", time, level);
+        }
+    }
+
+    // Creation
+    /**
+     * Constructor. Opens and maps a trace file.
+     * @param file the trace file to read
+     * @throws IOException if the file can't be read, or isn't a trace file
+     */
+    public TraceReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            int n_segments = (int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS);
+            segments = new MappedByteBuffer[n_segments];
+            for (int s = 0; s < n_segments; s++) {
+                long start = (long) s << SEGMENT_BITS;
+                long length = Math.min(size - start, (1L << SEGMENT_BITS) + OVERLAP);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+
+            long footer = size - TraceWriter.FOOTER_SIZE;
+            if (footer < TraceWriter.HEADER_SIZE
+                || !hasMagic(0) || !hasMagic(size - TraceWriter.MAGIC.length)
+                || getInt(0 + TraceWriter.MAGIC.length) != TraceWriter.VERSION) {
+                throw new IOException(file + " is not a LogicSim trace file.");
+            }
+            wires = getLong(footer);
+            long names_pos = getLong(footer + 8);
+            start_tick = getLong(footer + 16);
+            end_tick = getLong(footer + 24);
+            names = new String[getInt(footer + 32)];
+
+            long p = names_pos;
+            for (int w = 0; w < names.length; w++) {
+                byte[] name = new byte[getInt(p)];
+                p += 4;
+                for (int i = 0; i < name.length; i++) {
+                    name[i] = getByte(p++);
+                }
+                names[w] = new String(name, StandardCharsets.UTF_8);
+                numbers.putIfAbsent(names[w], w);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Queries
+    /** @return the number of wires in the trace */
+    public int wireCount() { return names.length; }
+
+    /**
+     * @param wire a wire number
+     * @return the name of the wire
+     */
+    public String name(int wire) {
+        return names[wire];
+    }
+
+    /**
+     * Finds a wire by name. If several wires have the same name, the first
+     * one recorded is found.
+     * @param name the name of a wire
+     * @return the wire number, or -1 if there is no wire with that name
+     */
+    public int find(String name) {
+        Integer w = numbers.get(name);
+        return (w != null) ? w : -1;
+    }
+
+    /** @return the time at which recording started, in nanoseconds */
+    public double startTime() { return start_tick / TraceWriter.TICKS_PER_NS; }
+
+    /** @return the time of the last recorded change, in nanoseconds */
+    public double endTime() { return end_tick / TraceWriter.TICKS_PER_NS; }
+
+    /**
+     * @param wire a wire number
+     * @return the total number of changes recorded on the wire
+     */
+    public long changeCount(int wire) {
+        return getLong(wireEntry(wire) + 16);
+    }
+
+    /**
+     * Queries the level on a wire at a given time. The level at the time
+     * of a change is the level after the change.
+     * @param wire a wire number
+     * @param time a time in nanoseconds
+     * @return the signal level on the wire at that time
+     */
+    public Signal signalAt(int wire, double time) {
+        long tick = Math.round(time * TraceWriter.TICKS_PER_NS);
+        long entry = wireEntry(wire);
+        long index = getLong(entry);
+        int n_blocks = getInt(entry + 8);
+        int block = lastBlockAtOrBefore(index, n_blocks, tick);
+        if (block < 0) {
+            return Netlist.decode((byte) getInt(entry + 12));
+        }
+
+        long e = index + (long) block * TraceWriter.ENTRY_SIZE;
+        long t = getLong(e);
+        long p = getLong(e + 8);
+        int count = getInt(e + 16);
+        ByteBuffer data = segment(p);
+        int i = (int) (p & SEGMENT_MASK);
+        byte level = 0;
+        for (int k = 0; k < count; k++) {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data.get(i++);
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            t += v >>> TraceWriter.LEVEL_BITS;
+            if (t > tick) {
+                break;
+            }
+            level = (byte) (v & TraceWriter.LEVEL_MASK);
+        }
+        return Netlist.decode(level);
+    }
+
+    /**
+     * Queries the level on a named wire at a given time.
+     * @param name the name of a wire
+     * @param time a time in nanoseconds
+     * @return the signal level on the wire at that time
+     * @throws IllegalArgumentException if there is no wire with that name
+     */
+    public Signal signalAt(String name, double time) {
+        return signalAt(number(name), time);
+    }
+
+    /**
+     * Finds the changes on a wire within a range of times.
+     * @param wire a wire number
+     * @param from the start of the range in nanoseconds (inclusive)
+     * @param to the end of the range in nanoseconds (inclusive)
+     * @return the changes in the range, in time order
+     */
+    public List<Transition> transitions(int wire, double from, double to) {
+        long lo = Math.round(from * TraceWriter.TICKS_PER_NS);
+        long hi = Math.round(to * TraceWriter.TICKS_PER_NS);
+        List<Transition> result = new ArrayList<Transition>();
+        long entry = wireEntry(wire);
+        long index = getLong(entry);
+        int n_blocks = getInt(entry + 8);
+
+        // Start from the block that was current at the start of the range
+        for (int block = Math.max(0, lastBlockAtOrBefore(index, n_blocks, lo));
+             block < n_blocks; block++) {
+            long e = index + (long) block * TraceWriter.ENTRY_SIZE;
+            long t = getLong(e);
+            if (t > hi) {
+                break;
+            }
+            long p = getLong(e + 8);
+            int count = getInt(e + 16);
+            ByteBuffer data = segment(p);
+            int i = (int) (p & SEGMENT_MASK);
+            for (int k = 0; k < count; k++) {
+                long v = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data.get(i++);
+                    v |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                t += v >>> TraceWriter.LEVEL_BITS;
+                if (t > hi) {
+                    return result;
+                }
+                if (t >= lo) {
+                    result.add(new Transition(t / TraceWriter.TICKS_PER_NS,
+                                              Netlist.decode((byte) (v & TraceWriter.LEVEL_MASK))));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the changes on a named wire within a range of times.
+     * @param name the name of a wire
+     * @param from the start of the range in nanoseconds (inclusive)
+     * @param to the end of the range in nanoseconds (inclusive)
+     * @return the changes in the range, in time order
+     * @throws IllegalArgumentException if there is no wire with that name
+     */
+    public List<Transition> transitions(String name, double from, double to) {
+        return transitions(number(name), from, to);
+    }
+
+    // Commands
+    /**
+     * Closes the trace file.
+     * @throws IOException if the file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Helpers
+    /**
+     * Finds the last of a wire's blocks that starts no later than a given time.
+     * @return the block number, or -1 if every block starts later
+     */
+    private int lastBlockAtOrBefore(long index, int n_blocks, long tick) {
+        int lo = 0;
+        int hi = n_blocks - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getLong(index + (long) mid * TraceWriter.ENTRY_SIZE) <= tick) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi;
+    }
+
+    /**
+     * @return the position of a wire's entry in the wire table
+     * @throws IndexOutOfBoundsException if there is no such wire
+     */
+    private long wireEntry(int wire) {
+        if (wire < 0 || wire >= names.length) {
+            throw new IndexOutOfBoundsException("No wire number " + wire + " in trace.");
+        }
+        return wires + (long) wire * TraceWriter.WIRE_SIZE;
+    }
+
+    /**
+     * @return the number of a named wire
+     * @throws IllegalArgumentException if there is no wire with that name
+     */
+    private int number(String name) {
+        int w = find(name);
+        if (w < 0) {
+            throw new IllegalArgumentException("No wire named " + name + " in trace.");
+        }
+        return w;
+    }
+
+    private boolean hasMagic(long pos) {
+        for (int i = 0; i < TraceWriter.MAGIC.length; i++) {
+            if (getByte(pos + i) != TraceWriter.MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer segment(long pos) {
+        return segments[(int) (pos >>> SEGMENT_BITS)];
+    }
+
+    private byte getByte(long pos) {
+        return segment(pos).get((int) (pos & SEGMENT_MASK));
+    }
+
+    private int getInt(long pos) {
+        return segment(pos).getInt((int) (pos & SEGMENT_MASK));
+    }
+
+    private long getLong(long pos) {
+        return segment(pos).getLong((int) (pos & SEGMENT_MASK));
+    }
+}
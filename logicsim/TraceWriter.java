@@ -0,0 +1,360 @@
+package logicsim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * TraceWriter records the signal changes on a set of wires in a compact
+ * binary trace file, which can be queried later with a TraceReader without
+ * re-running the simulation. Like a VcdRecorder, it watches each recorded
+ * wire through a WireMonitor of its own.
+ *
+ * The changes on each wire are collected into blocks of up to BLOCK_SIZE
+ * bytes. Within a block, each change is stored as a single variable-length
+ * integer holding the time since the previous change (in picoseconds)
+ * shifted left by four bits, with the new encoded signal level in the low
+ * bits. Most changes therefore take one to three bytes. Full blocks are
+ * written to the file as soon as they fill up, so only the latest block of
+ * each wire is kept in memory.
+ *
+ * When the writer is closed, it writes an index that lists, for each wire,
+ * the starting time and file position of every one of its blocks. A reader
+ * can find the block holding any given time with a binary search, and then
+ * only has to decode that one block. The file layout is:
+ *
+ * <pre>
+ *   header:  MAGIC, int VERSION, int 0
+ *   blocks:  change data, in the order the blocks filled up
+ *   index:   for each wire, its block entries in time order
+ *            (long first tick, long file position, int number of changes)
+ *   wires:   for each wire, long position of its first block entry,
+ *            int number of blocks, int initial level, long number of changes
+ *   names:   for each wire, int length followed by the UTF-8 name
+ *   footer:  long wires position, long names position, long start tick,
+ *            long end tick, int number of wires, int VERSION, MAGIC
+ * </pre>
+ *
+ * All numbers are big-endian. A trace records from the time start() is
+ * called until the writer is closed, and simulation time must not go
+ * backwards in between, so a simulation that is reset needs a new writer.
+ *
+ * @author Allan McInnes
+ */
+public class TraceWriter implements Closeable {
+    /** Maximum size of a block of changes, in bytes */
+    public static final int BLOCK_SIZE = 512;
+
+    // File format
+    static final byte[] MAGIC = "LSTRACE\0".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 16;
+    static final int ENTRY_SIZE = 20;       // Size of a block index entry
+    static final int WIRE_SIZE = 24;        // Size of a wire table entry
+    static final int FOOTER_SIZE = 48;
+    static final double TICKS_PER_NS = 1000.0; // Times are in picoseconds
+    static final int LEVEL_BITS = 4;        // Bits of a change holding the level
+    static final int LEVEL_MASK = (1 << LEVEL_BITS) - 1;
+
+    private static final int OUTPUT_SIZE = 1 << 20; // Size of the output buffer
+    private static final int MAX_CHANGE = 10;       // Longest encoded change
+
+    private final WritableByteChannel out;  // Where the trace goes
+    private final ByteBuffer buf = ByteBuffer.allocate(OUTPUT_SIZE); // Output buffer
+    private long position = 0;              // File position of the start of buf
+    private final List<Trace> traces = new ArrayList<Trace>(); // The recorded wires
+    private final Set<Wire> recorded = new HashSet<Wire>();
+    private SimulationContext context = null; // The simulation being recorded
+    private long start_tick = 0;            // Time recording started
+    private long n_changes = 0;             // Number of changes recorded
+    private boolean is_started = false;
+    private boolean is_closed = false;
+
+    // Creation
+    /**
+     * Constructor. Creates (or truncates) a file to record to.
+     * @param file the file to write
+     * @throws IOException if the file can't be opened
+     */
+    public TraceWriter(Path file) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.CREATE,
+                              StandardOpenOption.TRUNCATE_EXISTING,
+                              StandardOpenOption.WRITE));
+    }
+
+    /**
+     * Constructor. The channel is closed when the writer is closed.
+     * @param out the channel to write to
+     * @throws IllegalArgumentException if out is null
+     */
+    public TraceWriter(WritableByteChannel out) {
+        if (out == null) {
+            throw new IllegalArgumentException("A trace needs somewhere to write to.");
+        }
+        this.out = out;
+        buf.put(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(0);
+    }
+
+    // Queries
+    /** @return the number of wires being recorded */
+    public int wireCount() { return traces.size(); }
+
+    /** @return the number of signal changes recorded so far */
+    public long changeCount() { return n_changes; }
+
+    /** @return true if recording has started */
+    public boolean isStarted() { return is_started; }
+
+    // Commands
+    /**
+     * Adds a wire to the set of wires to record. Adding the same wire twice
+     * has no effect. Wires are numbered in the trace in the order they are
+     * added.
+     * @param wire the wire to record
+     * @throws IllegalStateException if recording has already started
+     * @throws IllegalArgumentException if the wire is part of a different
+     * simulation to the wires already added
+     */
+    public void record(Wire wire) {
+        if (is_started || is_closed) {
+            throw new IllegalStateException("Wires must be added before recording starts.");
+        }
+        if (context == null) {
+            context = wire.context();
+        } else if (wire.context() != context) {
+            throw new IllegalArgumentException("All recorded wires must be part of the same simulation.");
+        }
+        if (recorded.add(wire)) {
+            traces.add(new Trace(wire));
+        }
+    }
+
+    /**
+     * Adds a set of wires to the set of wires to record.
+     * @param wires the wires to record
+     * @throws IllegalStateException if recording has already started
+     * @throws IllegalArgumentException if the wires are not all part of the
+     * same simulation
+     */
+    public void record(Collection<Wire> wires) {
+        for (Wire w : wires) {
+            record(w);
+        }
+    }
+
+    /**
+     * Starts recording. The current level of each recorded wire is taken
+     * as its initial level in the trace.
+     * @throws IllegalStateException if recording has already started
+     */
+    public void start() {
+        if (is_started || is_closed) {
+            throw new IllegalStateException("Recording has already started.");
+        }
+        double now = (context != null) ? context.time() : Scheduler.START_TIME;
+        start_tick = Math.round(now * TICKS_PER_NS);
+        for (Trace t : traces) {
+            t.begin(start_tick);
+            t.wire.addMonitor(t);
+        }
+        is_started = true;
+    }
+
+    /**
+     * Stops recording, writes out the remaining changes and the index,
+     * and closes the output. The file is a complete trace even if start()
+     * was never called.
+     * @throws IOException if the output can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (is_closed) {
+            return;
+        }
+        if (!is_started) {
+            start();
+        }
+        is_closed = true;
+        try {
+            long end_tick = start_tick;
+            for (Trace t : traces) {
+                t.wire.removeMonitor(t);
+                t.writeBlock();
+                end_tick = Math.max(end_tick, t.last_tick);
+            }
+
+            long index = tell();
+            for (Trace t : traces) {
+                for (int k = 0; k < t.n_blocks; k++) {
+                    reserve(ENTRY_SIZE);
+                    buf.putLong(t.entries[3 * k]);
+                    buf.putLong(t.entries[3 * k + 1]);
+                    buf.putInt((int) t.entries[3 * k + 2]);
+                }
+            }
+
+            long wires = tell();
+            for (Trace t : traces) {
+                reserve(WIRE_SIZE);
+                buf.putLong(index);
+                buf.putInt(t.n_blocks);
+                buf.putInt(t.initial);
+                buf.putLong(t.n_changes);
+                index += (long) t.n_blocks * ENTRY_SIZE;
+            }
+
+            long names = tell();
+            for (Trace t : traces) {
+                byte[] name = t.wire.name().getBytes(StandardCharsets.UTF_8);
+                reserve(4);
+                buf.putInt(name.length);
+                for (int i = 0; i < name.length; i += OUTPUT_SIZE) {
+                    int n = Math.min(OUTPUT_SIZE, name.length - i);
+                    reserve(n);
+                    buf.put(name, i, n);
+                }
+            }
+
+            reserve(FOOTER_SIZE);
+            buf.putLong(wires);
+            buf.putLong(names);
+            buf.putLong(start_tick);
+            buf.putLong(end_tick);
+            buf.putInt(traces.size());
+            buf.putInt(VERSION);
+            buf.put(MAGIC);
+            flushBuffer();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            out.close();
+        }
+    }
+
+    // Helpers
+    /**
+     * @return the file position of the next byte to be written
+     */
+    private long tell() {
+        return position + buf.position();
+    }
+
+    /**
+     * Makes sure the output buffer has room for a given number of bytes.
+     */
+    private void reserve(int n) {
+        if (buf.remaining() < n) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Writes the contents of the output buffer to the output.
+     */
+    private void flushBuffer() {
+        buf.flip();
+        position += buf.remaining();
+        try {
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buf.clear();
+    }
+
+    /**
+     * A recorded wire, the monitor that records its changes, and the
+     * block of changes currently being filled.
+     */
+    private final class Trace implements WireMonitor {
+        final Wire wire;                // The recorded wire
+        int initial;                    // Encoded level when recording started
+        byte[] block = new byte[0];     // Changes not yet written
+        int n_bytes = 0;                // Size of the block
+        int n_block_changes = 0;        // Number of changes in the block
+        long first_tick;                // Time of the first change in the block
+        long last_tick;                 // Time of the latest change
+        long n_changes = 0;             // Total number of changes
+        long[] entries = new long[0];   // Index entries for the blocks written so far
+        int n_blocks = 0;               // Number of blocks written so far
+
+        Trace(Wire wire) {
+            this.wire = wire;
+        }
+
+        /**
+         * Prepares to record, starting from the wire's current level.
+         */
+        void begin(long tick) {
+            initial = Netlist.encode(wire.getSignal());
+            last_tick = tick;
+        }
+
+        @Override
+        public void signalChanged(Wire wire, Signal level, double time) {
+            long tick = Math.round(time * TICKS_PER_NS);
+            if (n_bytes + MAX_CHANGE > block.length) {
+                if (block.length < BLOCK_SIZE) {
+                    // Blocks start small, so that wires that rarely
+                    // change don't use much memory
+                    block = Arrays.copyOf(block, Math.max(16, Math.min(BLOCK_SIZE, 2 * block.length)));
+                } else {
+                    writeBlock();
+                }
+            }
+            if (n_block_changes == 0) {
+                first_tick = tick;
+                last_tick = tick;
+            }
+
+            long v = ((tick - last_tick) << LEVEL_BITS) | Netlist.encode(level);
+            while ((v & ~0x7FL) != 0) {
+                block[n_bytes++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            block[n_bytes++] = (byte) v;
+
+            last_tick = tick;
+            n_block_changes++;
+            n_changes++;
+            TraceWriter.this.n_changes++;
+        }
+
+        /**
+         * Writes the current block to the output, and adds it to the index.
+         */
+        void writeBlock() {
+            if (n_block_changes == 0) {
+                return;
+            }
+            if (3 * n_blocks == entries.length) {
+                entries = Arrays.copyOf(entries, Math.max(6, 2 * entries.length));
+            }
+            entries[3 * n_blocks] = first_tick;
+            entries[3 * n_blocks + 1] = tell();
+            entries[3 * n_blocks + 2] = n_block_changes;
+            n_blocks++;
+
+            reserve(n_bytes);
+            buf.put(block, 0, n_bytes);
+            n_bytes = 0;
+            n_block_changes = 0;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package logicsim;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A tri-state buffer. While its enable input is HIGH the buffer drives its
+ * data input on to its output; while enable is LOW it drives nothing (Z),
+ * so that other drivers of the same wire can drive it instead. See
+ * Signal.tristate().
+ * @author Allan McInnes
+ */
+public class TriStateBuffer extends Component {
+    protected Wire in;
+    protected Wire enable;
+    protected Wire out;
+
+    protected static final double GATE_DELAY = 2.0; // Propagation delay in nanoseconds
+
+    // Creation
+    /**
+     * Constructor.
+     * @param in the data input wire
+     * @param enable the enable input wire
+     * @param out the output wire
+     * @throws IllegalArgumentException if the wires belong to different
+     *  simulation contexts
+     */
+    public TriStateBuffer(Wire in, Wire enable, Wire out) {
+        if (in.context() != out.context() || enable.context() != out.context()) {
+            throw new IllegalArgumentException("Buffer wires must belong to the same simulation context.");
+        }
+        this.in = in;
+        this.enable = enable;
+        this.out = out;
+
+        // Set up driving and driven wires
+        this.in.attachDrivenComponent(this);
+        this.enable.attachDrivenComponent(this);
+        this.out.setDrivingComponent(this);
+    }
+
+    /** @return the data and enable input wires */
+    @Override
+    public List<Wire> inputs() { return Arrays.asList(in, enable); }
+
+    /** @return the output wire */
+    @Override
+    public List<Wire> outputs() { return Collections.singletonList(out); }
+
+    /**
+     * Updates the component's state based on the new inputs that have
+     * resulted from a transition in one or more input signals.
+     */
+    @Override
+    public void update() {
+        drive(out, GATE_DELAY, Signal.tristate(in.getSignal(), enable.getSignal()));
+    }
+
+    /**
+     * Replaces a wire with another wherever the buffer refers to it.
+     * @param from the wire being replaced
+     * @param to the wire replacing it
+     */
+    @Override
+    protected void replaceWire(Wire from, Wire to) {
+        if (in == from) {
+            in = to;
+        }
+        if (enable == from) {
+            enable = to;
+        }
+        if (out == from) {
+            out = to;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package logicsim;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A combinational component that looks its outputs up in a truth table,
+ * rather than evaluating gates. TruthTables are made by a TableCollapser,
+ * which replaces small blocks of gates with them, so that a block such as
+ * a half adder costs one component update and one event per output
+ * change, instead of an update and an event for every gate it contains.
+ *
+ * While every input is LOW or HIGH, the outputs come straight from the
+ * table. If any input has another level (X, Z, a weak level, and so on),
+ * the gates of the original block are evaluated instead, one after another,
+ * so the outputs have the levels the gates would have settled to.
+ *
+ * Each output changes one fixed delay after the input change that caused
+ * it. How that delay relates to the paths through the original gates is up
+ * to the TableCollapser.
+ *
+ * Structurally identical blocks share a Table, so a design built from many
+ * copies of the same block only enumerates its truth table once.
+ *
+ * @author Allan McInnes
+ */
+public class TruthTable extends Component {
+    protected final Wire[] in;
+    protected final Wire[] out;
+    private final Table table;      // Function and delays, shared
+
+    // Creation
+    /**
+     * Constructor. Connects the table to its wires.
+     * @param in the input wires, in the order of the bits of a row number
+     * @param out the output wires
+     * @param table the function of the inputs to look up
+     * @throws IllegalArgumentException if the wires don't match the table,
+     *  or belong to different simulation contexts
+     */
+    TruthTable(Wire[] in, Wire[] out, Table table) {
+        if (in.length != table.n_inputs || out.length != table.delay.length) {
+            throw new IllegalArgumentException("The wires don't match the truth table.");
+        }
+        for (Wire w : in) {
+            checkContext(w, out[0]);
+        }
+        for (Wire w : out) {
+            checkContext(w, out[0]);
+        }
+        this.in = in.clone();
+        this.out = out.clone();
+        this.table = table;
+
+        for (Wire w : this.in) {
+            w.attachDrivenComponent(this);
+        }
+        for (Wire w : this.out) {
+            w.setDrivingComponent(this);
+        }
+    }
+
+    // Queries
+    /** @return the input wires */
+    @Override
+    public List<Wire> inputs() { return Collections.unmodifiableList(Arrays.asList(in)); }
+
+    /** @return the output wires */
+    @Override
+    public List<Wire> outputs() { return Collections.unmodifiableList(Arrays.asList(out)); }
+
+    /**
+     * Queries the delay of an output.
+     * @param output the number of the output, in the order of outputs()
+     * @return the delay in nanoseconds between an input change and the
+     *  output change it causes
+     */
+    public double delay(int output) { return table.delay[output]; }
+
+    // Commands
+    /**
+     * Looks up the outputs for the current inputs, and schedules any that
+     * change.
+     */
+    @Override
+    public void update() {
+        int row = 0;
+        for (int i = 0; i < in.length; i++) {
+            Signal s = in[i].getSignal();
+            if (s == Signal.HIGH) {
+                row |= 1 << i;
+            } else if (s != Signal.LOW) {
+                updateGates();
+                return;
+            }
+        }
+        for (int j = 0; j < out.length; j++) {
+            drive(out[j], table.delay[j], table.lookup(j, row));
+        }
+    }
+
+    // Helpers
+    private static void checkContext(Wire w, Wire other) {
+        if (w.context() != other.context()) {
+            throw new IllegalArgumentException("Truth table wires must belong to the same simulation context.");
+        }
+    }
+
+    /**
+     * Works the outputs out from the original gates, for inputs whose
+     * levels the table doesn't cover.
+     */
+    private void updateGates() {
+        byte[] signal = new byte[table.n_wires];
+        for (int i = 0; i < in.length; i++) {
+            signal[table.input[i]] = Netlist.encode(in[i].getSignal());
+        }
+        table.evaluate(signal);
+        for (int j = 0; j < out.length; j++) {
+            drive(out[j], table.delay[j], Netlist.decode(signal[table.output[j]]));
+        }
+    }
+
+    /**
+     * The function a TruthTable computes, and the gates it was found from.
+     * The gates are kept in the packed form of a Netlist, in an order in
+     * which each gate comes after the gates driving its inputs, with wires
+     * numbered within the block. A Table is immutable once enumerated, so
+     * it can be shared by any number of TruthTables.
+     */
+    static final class Table {
+        final int n_inputs;
+        final int n_wires;          // Wires within the block
+        final int[] input;          // Wire number of each input
+        final int[] output;         // Wire number of each output
+        final double[] delay;       // Delay of each output in nanoseconds
+        private final byte[] opcode;     // Per-gate function
+        private final int[] faninStart;  // Offset of each gate's inputs
+        private final int[] fanin;       // Packed gate input wire numbers
+        private final int[] driven;      // Per-gate output wire number
+        private final long[][] bits;     // Per-output bit set, indexed by row
+
+        /**
+         * Constructor. Enumerates the truth table by evaluating the gates
+         * for every combination of LOW and HIGH inputs.
+         */
+        Table(int n_wires, int[] input, int[] output, double[] delay,
+              byte[] opcode, int[] faninStart, int[] fanin, int[] driven) {
+            this.n_inputs = input.length;
+            this.n_wires = n_wires;
+            this.input = input;
+            this.output = output;
+            this.delay = delay;
+            this.opcode = opcode;
+            this.faninStart = faninStart;
+            this.fanin = fanin;
+            this.driven = driven;
+
+            int rows = 1 << n_inputs;
+            bits = new long[output.length][(rows + 63) / 64];
+            byte[] signal = new byte[n_wires];
+            for (int row = 0; row < rows; row++) {
+                for (int i = 0; i < n_inputs; i++) {
+                    signal[input[i]] = ((row >>> i) & 1) != 0 ? Netlist.HIGH : Netlist.LOW;
+                }
+                evaluate(signal);
+                for (int j = 0; j < output.length; j++) {
+                    if (signal[output[j]] == Netlist.HIGH) {
+                        bits[j][row >>> 6] |= 1L << row;
+                    }
+                }
+            }
+        }
+
+        /** @return the level of an output in a row of the table */
+        Signal lookup(int output, int row) {
+            return ((bits[output][row >>> 6] >>> row) & 1) != 0 ? Signal.HIGH : Signal.LOW;
+        }
+
+        /**
+         * Evaluates the gates in order, given the levels of the inputs.
+         * @param signal the encoded level of every wire in the block
+         */
+        void evaluate(byte[] signal) {
+            for (int g = 0; g < opcode.length; g++) {
+                signal[driven[g]] = Netlist.evaluate(opcode[g], fanin, faninStart[g],
+                                                     faninStart[g + 1], signal);
+            }
+        }
+    }
+}
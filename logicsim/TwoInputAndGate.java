@@ -25,4 +25,13 @@ public class TwoInputAndGate extends TwoInputGate {
     protected Signal outputValue() {
         return Signal.and(inA.getSignal(), inB.getSignal());
     }
+
+    /**
+     * Accepts a visitor.
+     * @param visitor the visitor
+     */
+    @Override
+    public void accept(ComponentVisitor visitor) {
+        visitor.visitTwoInputAndGate(this);
+    }
 }
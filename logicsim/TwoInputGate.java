@@ -1,5 +1,9 @@
 package logicsim;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * TwoInputGate is an abstract base class for two input logic gates.
  * Derived classes must implement the <code>output()</code> method to specify
@@ -19,13 +23,17 @@ public abstract class TwoInputGate extends Component {
      * @param inA an input wire
      * @param inB an input wire
      * @param out the output wire
+     * @throws IllegalArgumentException if the wires belong to different
+     *  simulation contexts
      */
     public TwoInputGate(Wire inA, Wire inB, Wire out) {
-        // Currently assumes that components are always constructed with
-        // connections to wires. This works fine, but would be problematic
-        // for dynamic circuit editing in (for example) a schematic editor.
+        // Components are always constructed with connections to wires,
+        // which can be moved later with reconnect()
         assert inA != null && inB != null && out != null;
-        
+        if (inA.context() != out.context() || inB.context() != out.context()) {
+            throw new IllegalArgumentException("Gate wires must belong to the same simulation context.");
+        }
+
         this.inA = inA;
         this.inB = inB;
         this.out = out;
@@ -42,6 +50,14 @@ public abstract class TwoInputGate extends Component {
      */
     protected abstract Signal outputValue();
 
+    /** @return the input wires */
+    @Override
+    public List<Wire> inputs() { return Arrays.asList(inA, inB); }
+
+    /** @return the output wire */
+    @Override
+    public List<Wire> outputs() { return Collections.singletonList(out); }
+
     // Commands
     /**
      * Updates the component's state based on the new inputs that have
@@ -49,7 +65,24 @@ public abstract class TwoInputGate extends Component {
      */
     @Override
     public void update() {
-        model.newEvent(new Event(model.time() + GATE_DELAY,
-                                 out, outputValue()));
+        drive(out, GATE_DELAY, outputValue());
+    }
+
+    /**
+     * Replaces a wire with another wherever the gate refers to it.
+     * @param from the wire being replaced
+     * @param to the wire replacing it
+     */
+    @Override
+    protected void replaceWire(Wire from, Wire to) {
+        if (inA == from) {
+            inA = to;
+        }
+        if (inB == from) {
+            inB = to;
+        }
+        if (out == from) {
+            out = to;
+        }
     }
 }
@@ -25,4 +25,13 @@ public class TwoInputOrGate extends TwoInputGate {
     protected Signal outputValue() {
         return Signal.or(inA.getSignal(), inB.getSignal());
     }
+
+    /**
+     * Accepts a visitor.
+     * @param visitor the visitor
+     */
+    @Override
+    public void accept(ComponentVisitor visitor) {
+        visitor.visitTwoInputOrGate(this);
+    }
 }
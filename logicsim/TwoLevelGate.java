@@ -0,0 +1,145 @@
+package logicsim;
+
+/**
+ * TwoLevelGate is an abstract base class for compound gates, such as
+ * AND-OR-INVERT cells, built from a first level of gates that each combine
+ * one group of inputs, a second level gate that combines the outputs of
+ * the first level, and an optional inverter on the output.
+ *
+ * Each gate is either an AND or an OR, which are treated alike through the
+ * level that "controls" the gate: LOW for an AND, HIGH for an OR. The output
+ * of such a gate is X if any input is X, its controlling level if any input
+ * is at the controlling level, and the opposite level otherwise. So the gate
+ * only needs to know how many inputs are X and how many are at the
+ * controlling level. These counts are kept for each group and for the
+ * second level, and updated as inputs change, so a change on any input is
+ * handled in constant time.
+ *
+ * @author Allan McInnes
+ */
+public abstract class TwoLevelGate extends MultiInputGate {
+    private final Signal inner;         // Controlling level of the first level gates
+    private final Signal outer;         // Controlling level of the second level gate
+    private final boolean is_inverted;  // Is the output inverted?
+
+    private final int[][] slot_groups;  // The group of each input fed by a slot
+    private final int[] group_x;        // Inputs in each group that are X
+    private final int[] group_ctl;      // Inputs in each group at the inner level
+    private int outer_x;                // Groups whose output is X
+    private int outer_ctl = 0;          // Groups whose output is at the outer level
+
+    // Creation
+    /**
+     * Constructor.
+     * @param inner the controlling level of the first level gates
+     * @param outer the controlling level of the second level gate
+     * @param is_inverted true if the output is inverted
+     * @param out the output wire
+     * @param groups the inputs of each first level gate
+     * @throws IllegalArgumentException if there are no groups, a group is
+     *  empty, or the wires belong to different simulation contexts
+     */
+    protected TwoLevelGate(Signal inner, Signal outer, boolean is_inverted,
+                           Wire out, Wire[]... groups) {
+        super(out, flatten(groups));
+        this.inner = inner;
+        this.outer = outer;
+        this.is_inverted = is_inverted;
+
+        group_x = new int[groups.length];
+        group_ctl = new int[groups.length];
+        int[] n_slot_inputs = new int[in.length];
+        int i = 0;
+        for (int g = 0; g < groups.length; g++) {
+            group_x[g] = groups[g].length;
+            for (int k = 0; k < groups[g].length; k++) {
+                n_slot_inputs[slotOf(i++)]++;
+            }
+        }
+        slot_groups = new int[in.length][];
+        for (int s = 0; s < in.length; s++) {
+            slot_groups[s] = new int[n_slot_inputs[s]];
+            n_slot_inputs[s] = 0;
+        }
+        i = 0;
+        for (int g = 0; g < groups.length; g++) {
+            for (int k = 0; k < groups[g].length; k++) {
+                int s = slotOf(i++);
+                slot_groups[s][n_slot_inputs[s]++] = g;
+            }
+        }
+        outer_x = groups.length;
+    }
+
+    // Queries
+    /** @return the number of input groups */
+    public int groupCount() { return group_x.length; }
+
+    /**
+     * Queries the current gate output.
+     * @return the output signal level of the gate, based on the inputs seen
+     */
+    @Override
+    protected Signal outputValue() {
+        Signal level = combine(outer_x, outer_ctl, outer);
+        return is_inverted ? Signal.not(level) : level;
+    }
+
+    // Commands
+    /**
+     * Updates the counts of the groups fed by a slot.
+     */
+    @Override
+    protected void inputChanged(int slot, Signal old_level, Signal new_level) {
+        for (int g : slot_groups[slot]) {
+            Signal old_group = combine(group_x[g], group_ctl[g], inner);
+            group_x[g] += count(new_level, Signal.X) - count(old_level, Signal.X);
+            group_ctl[g] += count(new_level, inner) - count(old_level, inner);
+            Signal new_group = combine(group_x[g], group_ctl[g], inner);
+            if (new_group != old_group) {
+                outer_x += count(new_group, Signal.X) - count(old_group, Signal.X);
+                outer_ctl += count(new_group, outer) - count(old_group, outer);
+            }
+        }
+    }
+
+    // Helpers
+    /**
+     * @return the output of an AND or OR gate, given the number of its
+     *  inputs that are X and at its controlling level
+     */
+    private static Signal combine(int n_x, int n_ctl, Signal ctl) {
+        if (n_x > 0) {
+            return Signal.X;
+        }
+        return (n_ctl > 0) ? ctl : Signal.not(ctl);
+    }
+
+    private static int count(Signal a, Signal b) {
+        return (a == b) ? 1 : 0;
+    }
+
+    /**
+     * Checks the groups, and joins them into one list of inputs.
+     */
+    private static Wire[] flatten(Wire[][] groups) {
+        if (groups.length == 0) {
+            throw new IllegalArgumentException("A compound gate must have at least one group of inputs.");
+        }
+        int n = 0;
+        for (Wire[] group : groups) {
+            if (group.length == 0) {
+                throw new IllegalArgumentException("Every group of inputs must have at least one input.");
+            }
+            n += group.length;
+        }
+        Wire[] in = new Wire[n];
+        int i = 0;
+        for (Wire[] group : groups) {
+            for (Wire w : group) {
+                in[i++] = w;
+            }
+        }
+        return in;
+    }
+}
@@ -0,0 +1,465 @@
+package logicsim;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * VcdRecorder writes the signal changes on a set of wires to a Value Change
+ * Dump (VCD) file, which can be displayed by any waveform viewer. Each
+ * recorded wire gets a WireMonitor of its own, so recording doesn't add any
+ * components to the circuit, and an unrecorded wire costs nothing.
+ *
+ * Changes are encoded straight into a large byte array, which is only
+ * written to the output channel when it fills up. Optionally, the writing
+ * can be handed to a background thread, so that the simulation carries on
+ * filling another buffer while a full one is being written.
+ *
+ * The wires to record are added first. Recording starts when start() is
+ * called, which writes the VCD header and the current level of every wire,
+ * and finishes when the recorder is closed. VCD times are whole numbers, so
+ * simulation times are rounded to the nearest picosecond. Since VCD times
+ * must never decrease, a simulation that is reset needs a new recorder.
+ *
+ * @author Allan McInnes
+ */
+public class VcdRecorder implements Closeable {
+    /** Size of each output buffer in bytes */
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    private static final int N_BUFFERS = 4;            // Buffers used with a background writer
+    private static final double TICKS_PER_NS = 1000.0; // VCD times are in picoseconds
+    private static final int MAX_TIME_LINE = 21;       // Length of "#<long>\n"
+    private static final ByteBuffer END = ByteBuffer.allocate(0); // Stops the writer
+
+    private final WritableByteChannel out;  // Where the VCD goes
+    private final BackgroundWriter writer;  // Writes buffers, if writing in the background
+    private final List<Trace> traces = new ArrayList<Trace>(); // The recorded wires
+    private final Set<Wire> recorded = new HashSet<Wire>();
+    private SimulationContext context = null; // The simulation being recorded
+    private ByteBuffer buf;                 // Buffer currently being filled
+    private byte[] bytes;                   // The buffer's backing array
+    private int n_bytes = 0;                // Number of bytes in the buffer
+    private final byte[] digits = new byte[20]; // Scratch space for formatting times
+    private long last_tick = -1;            // Time of the last change written
+    private long n_changes = 0;             // Number of changes recorded
+    private boolean is_started = false;
+    private boolean is_closed = false;
+
+    // Creation
+    /**
+     * Constructor. Creates (or truncates) a file to record to, and writes
+     * it from the simulation thread.
+     * @param file the file to write
+     * @throws IOException if the file can't be opened
+     */
+    public VcdRecorder(Path file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * Constructor. Creates (or truncates) a file to record to.
+     * @param file the file to write
+     * @param background true to write the file from a background thread
+     * @throws IOException if the file can't be opened
+     */
+    public VcdRecorder(Path file, boolean background) throws IOException {
+        this(FileChannel.open(file, StandardOpenOption.CREATE,
+                              StandardOpenOption.TRUNCATE_EXISTING,
+                              StandardOpenOption.WRITE),
+             background);
+    }
+
+    /**
+     * Constructor. The channel is closed when the recorder is closed.
+     * @param out the channel to write to
+     * @param background true to write the channel from a background thread
+     * @throws IllegalArgumentException if out is null
+     */
+    public VcdRecorder(WritableByteChannel out, boolean background) {
+        if (out == null) {
+            throw new IllegalArgumentException("A recorder needs somewhere to write to.");
+        }
+        this.out = out;
+        buf = ByteBuffer.allocate(BUFFER_SIZE);
+        bytes = buf.array();
+        writer = background ? new BackgroundWriter() : null;
+    }
+
+    // Queries
+    /** @return the number of wires being recorded */
+    public int wireCount() { return traces.size(); }
+
+    /** @return the number of signal changes recorded so far */
+    public long changeCount() { return n_changes; }
+
+    /** @return true if recording has started */
+    public boolean isStarted() { return is_started; }
+
+    // Commands
+    /**
+     * Adds a wire to the set of wires to record. Adding the same wire twice
+     * has no effect.
+     * @param wire the wire to record
+     * @throws IllegalStateException if recording has already started
+     * @throws IllegalArgumentException if the wire is part of a different
+     * simulation to the wires already added
+     */
+    public void record(Wire wire) {
+        if (is_started || is_closed) {
+            throw new IllegalStateException("Wires must be added before recording starts.");
+        }
+        if (context == null) {
+            context = wire.context();
+        } else if (wire.context() != context) {
+            throw new IllegalArgumentException("All recorded wires must be part of the same simulation.");
+        }
+        if (recorded.add(wire)) {
+            traces.add(new Trace(wire, identifier(traces.size())));
+        }
+    }
+
+    /**
+     * Adds a set of wires to the set of wires to record.
+     * @param wires the wires to record
+     * @throws IllegalStateException if recording has already started
+     * @throws IllegalArgumentException if the wires are not all part of the
+     * same simulation
+     */
+    public void record(Collection<Wire> wires) {
+        for (Wire w : wires) {
+            record(w);
+        }
+    }
+
+    /**
+     * Starts recording. Writes the VCD header, followed by the current
+     * level of every recorded wire.
+     * @throws IllegalStateException if recording has already started
+     * @throws UncheckedIOException if the output can't be written
+     */
+    public void start() {
+        if (is_started || is_closed) {
+            throw new IllegalStateException("Recording has already started.");
+        }
+        writeHeader();
+        for (Trace t : traces) {
+            t.wire.addMonitor(t);
+        }
+        is_started = true;
+    }
+
+    /**
+     * Stops recording, writes out any buffered changes, and closes the
+     * output. The file is a complete VCD even if start() was never called.
+     * @throws IOException if the output can't be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (is_closed) {
+            return;
+        }
+        is_closed = true;
+        for (Trace t : traces) {
+            t.wire.removeMonitor(t);
+        }
+        try {
+            if (!is_started) {
+                writeHeader();
+            }
+            buf.limit(n_bytes);
+            if (writer != null) {
+                writer.finish(buf);
+            } else {
+                writeFully(buf);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            out.close();
+        }
+    }
+
+    // Helpers
+    /**
+     * Writes the declarations of the recorded wires, and their current levels.
+     */
+    private void writeHeader() {
+        putText("$version LogicSim $end\n");
+        putText("$timescale 1ps $end\n");
+        putText("$scope module logicsim $end\n");
+        for (Trace t : traces) {
+            putText("$var wire 1 ");
+            putText(t.code);
+            putText(" " + t.wire.name().replaceAll("\\s", "_") + " $end\n");
+        }
+        putText("$upscope $end\n");
+        putText("$enddefinitions $end\n");
+
+        double now = (context != null) ? context.time() : Scheduler.START_TIME;
+        last_tick = Math.round(now * TICKS_PER_NS);
+        putText("#" + last_tick + "\n");
+        putText("$dumpvars\n");
+        for (Trace t : traces) {
+            putText(levelCode(t.wire.getSignal()));
+            putText(t.code);
+            putText("\n");
+        }
+        putText("$end\n");
+    }
+
+    /**
+     * Encodes one signal change into the buffer.
+     */
+    private void change(byte[] code, Signal level, double time) {
+        if (BUFFER_SIZE - n_bytes < MAX_TIME_LINE + code.length + 2) {
+            flushBuffer();
+        }
+        final byte[] b = bytes;
+        int i = n_bytes;
+        long tick = Math.round(time * TICKS_PER_NS);
+        if (tick != last_tick) {
+            last_tick = tick;
+            b[i++] = '#';
+            int n = 0;
+            do {
+                digits[n++] = (byte) ('0' + (tick % 10));
+                tick /= 10;
+            } while (tick > 0);
+            while (n > 0) {
+                b[i++] = digits[--n];
+            }
+            b[i++] = '\n';
+        }
+        b[i++] = levelCode(level);
+        for (byte c : code) {
+            b[i++] = c;
+        }
+        b[i++] = '\n';
+        n_bytes = i;
+        n_changes++;
+    }
+
+    /**
+     * Adds ASCII text to the buffer, flushing as necessary.
+     */
+    private void putText(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            putText((byte) text.charAt(i));
+        }
+    }
+
+    private void putText(byte[] text) {
+        for (byte b : text) {
+            putText(b);
+        }
+    }
+
+    private void putText(byte b) {
+        if (n_bytes == BUFFER_SIZE) {
+            flushBuffer();
+        }
+        bytes[n_bytes++] = b;
+    }
+
+    /**
+     * Passes the buffer on to be written, and gets an empty one to fill.
+     */
+    private void flushBuffer() {
+        buf.limit(n_bytes);
+        if (writer != null) {
+            buf = writer.exchange(buf);
+            bytes = buf.array();
+        } else {
+            writeFully(buf);
+            buf.clear();
+        }
+        n_bytes = 0;
+    }
+
+    /**
+     * Writes everything remaining in a buffer to the output.
+     */
+    private void writeFully(ByteBuffer b) {
+        try {
+            while (b.hasRemaining()) {
+                out.write(b);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the VCD value character for a signal level
+     */
+    private static byte levelCode(Signal level) {
+        switch (level) {
+            case HIGH:
+            case WEAK_HIGH: return (byte) '1';
+            case LOW:
+            case WEAK_LOW: return (byte) '0';
+            case Z: return (byte) 'z';
+            default: return (byte) 'x';
+        }
+    }
+
+    /**
+     * Generates the short identifier code VCD uses to refer to a wire. Codes
+     * are numbers written in base 94, using the printable ASCII characters.
+     * @param n the number of the wire within the recording
+     * @return a code that is unique to n
+     */
+    private static byte[] identifier(int n) {
+        byte[] code = new byte[6];
+        int length = 0;
+        do {
+            code[length++] = (byte) ('!' + (n % 94));
+            n /= 94;
+        } while (n > 0);
+        byte[] result = new byte[length];
+        System.arraycopy(code, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * A recorded wire, and the monitor that records its changes.
+     */
+    private final class Trace implements WireMonitor {
+        final Wire wire;    // The recorded wire
+        final byte[] code;  // Its VCD identifier
+
+        Trace(Wire wire, byte[] code) {
+            this.wire = wire;
+            this.code = code;
+        }
+
+        @Override
+        public void signalChanged(Wire wire, Signal level, double time) {
+            change(code, level, time);
+        }
+    }
+
+    /**
+     * Writes full buffers on a thread of its own. Empty buffers are handed
+     * back to the simulation thread for reuse, so no more than N_BUFFERS
+     * buffers are ever allocated.
+     */
+    private final class BackgroundWriter implements Runnable {
+        private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<ByteBuffer>(N_BUFFERS + 1);
+        private final BlockingQueue<ByteBuffer> empty = new ArrayBlockingQueue<ByteBuffer>(N_BUFFERS);
+        private final Thread thread;
+        private volatile UncheckedIOException failure = null;
+
+        BackgroundWriter() {
+            for (int i = 1; i < N_BUFFERS; i++) {
+                empty.add(ByteBuffer.allocate(BUFFER_SIZE));
+            }
+            thread = new Thread(this, "logicsim-vcd-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Queues a full buffer for writing.
+         * @return an empty buffer
+         * @throws UncheckedIOException if an earlier write failed
+         */
+        ByteBuffer exchange(ByteBuffer b) {
+            checkFailure();
+            put(b);
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return empty.take();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        /**
+         * Queues the last buffer, and waits for everything to be written.
+         * @throws UncheckedIOException if any write failed
+         */
+        void finish(ByteBuffer b) {
+            put(b);
+            put(END);
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            checkFailure();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                ByteBuffer b;
+                try {
+                    b = full.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (b == END) {
+                    return;
+                }
+                if (failure == null) {
+                    try {
+                        writeFully(b);
+                    } catch (UncheckedIOException e) {
+                        failure = e;
+                    }
+                }
+                b.clear();
+                empty.add(b);
+            }
+        }
+
+        private void put(ByteBuffer b) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    full.put(b);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void checkFailure() {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package logicsim;
+
+import java.util.Arrays;
+
+/**
+ * A priority queue of 64-lane wire transitions for the
+ * VectorNetlistSimulator. It is the same as a NetlistEventHeap, except that
+ * each event carries a pair of words holding the new level of every lane.
+ * Events that occur at the same time are returned in the order in which
+ * they were added.
+ *
+ * @author Allan McInnes
+ */
+final class VectorEventHeap {
+    private double[] ev_time = new double[64];
+    private long[] ev_seq = new long[64];
+    private int[] ev_wire = new int[64];
+    private long[] ev_high = new long[64];
+    private long[] ev_low = new long[64];
+    private int n_events = 0;
+    private long next_seq = 0;
+
+    // Queries
+    /** @return true if there are no events in the heap */
+    boolean isEmpty() { return n_events == 0; }
+
+    /** @return the number of events in the heap */
+    int size() { return n_events; }
+
+    /** @return the time of the earliest event (the heap must not be empty) */
+    double peekTime() { return ev_time[0]; }
+
+    /** @return the wire of the earliest event (the heap must not be empty) */
+    int peekWire() { return ev_wire[0]; }
+
+    /** @return the HIGH lanes of the earliest event (the heap must not be empty) */
+    long peekHigh() { return ev_high[0]; }
+
+    /** @return the LOW lanes of the earliest event (the heap must not be empty) */
+    long peekLow() { return ev_low[0]; }
+
+    // Commands
+    /**
+     * Adds an event to the heap.
+     * @param t the event time
+     * @param w the wire id
+     * @param high the lanes that become HIGH
+     * @param low the lanes that become LOW
+     */
+    void add(double t, int w, long high, long low) {
+        if (n_events == ev_time.length) {
+            int capacity = 2 * n_events;
+            ev_time = Arrays.copyOf(ev_time, capacity);
+            ev_seq = Arrays.copyOf(ev_seq, capacity);
+            ev_wire = Arrays.copyOf(ev_wire, capacity);
+            ev_high = Arrays.copyOf(ev_high, capacity);
+            ev_low = Arrays.copyOf(ev_low, capacity);
+        }
+
+        long seq = next_seq++;
+        int i = n_events++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(t, seq, parent)) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        ev_time[i] = t;
+        ev_seq[i] = seq;
+        ev_wire[i] = w;
+        ev_high[i] = high;
+        ev_low[i] = low;
+    }
+
+    /**
+     * Removes the earliest event from the heap (which must not be empty).
+     */
+    void removeFirst() {
+        int last = --n_events;
+        if (last == 0) {
+            return;
+        }
+        double t = ev_time[last];
+        long seq = ev_seq[last];
+        int w = ev_wire[last];
+        long high = ev_high[last];
+        long low = ev_low[last];
+
+        int i = 0;
+        int half = last >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < last && before(ev_time[right], ev_seq[right], child)) {
+                child = right;
+            }
+            if (before(t, seq, child)) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        ev_time[i] = t;
+        ev_seq[i] = seq;
+        ev_wire[i] = w;
+        ev_high[i] = high;
+        ev_low[i] = low;
+    }
+
+    /**
+     * Removes all events from the heap.
+     */
+    void clear() {
+        n_events = 0;
+    }
+
+    // Helpers
+    /**
+     * Checks whether an event should occur before the one at a heap position.
+     */
+    private boolean before(double t, long seq, int pos) {
+        return t < ev_time[pos] || (t == ev_time[pos] && seq < ev_seq[pos]);
+    }
+
+    /**
+     * Copies the event at one heap position to another.
+     */
+    private void move(int from, int to) {
+        ev_time[to] = ev_time[from];
+        ev_seq[to] = ev_seq[from];
+        ev_wire[to] = ev_wire[from];
+        ev_high[to] = ev_high[from];
+        ev_low[to] = ev_low[from];
+    }
+}
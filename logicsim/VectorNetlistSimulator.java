@@ -0,0 +1,453 @@
+package logicsim;
+
+import java.util.Arrays;
+
+/**
+ * VectorNetlistSimulator executes a compiled Netlist for 64 independent sets
+ * of input stimuli ("lanes") at once. Each wire carries 64 signal levels,
+ * held as a pair of words: bit i of the <i>high</i> word is set if lane i is
+ * HIGH, and bit i of the <i>low</i> word is set if lane i is LOW. A lane with
+ * neither bit set is X.
+ *
+ * With this encoding the Signal logic functions can be applied to all
+ * lanes at once with a handful of bitwise operations. For example, the
+ * output of an AND gate is HIGH in the lanes where both inputs are HIGH,
+ * and LOW in the lanes where either input is LOW and both inputs are valid
+ * (so that, as with Signal.and(), X AND LOW is X). Only logic levels can
+ * be represented, so any other level is taken as its logic level (see
+ * Signal.logicLevel()).
+ *
+ * The simulation is event-driven, with the same timing as the
+ * NetlistSimulator. However, if a gate were evaluated for every event on
+ * one of its inputs, the glitches of all 64 lanes would add together. So,
+ * as in the ParallelNetlistSimulator, all of the transitions at a given
+ * time are applied before any gate is evaluated, and each gate whose inputs
+ * changed is then evaluated once. Every lane has exactly the same level on
+ * every wire after each time step as it would if it were simulated on its
+ * own. Probes are not evaluated.
+ *
+ * Lanes of a wire can also be made stuck at a fixed level, so that each
+ * lane simulates a different faulty copy of the circuit (see
+ * FaultSimulator).
+ *
+ * @author Allan McInnes
+ */
+public class VectorNetlistSimulator {
+    /** Number of independent lanes simulated */
+    public static final int LANES = 64;
+    /** A word with every lane selected */
+    public static final long ALL_LANES = -1L;
+
+    private final Netlist net;          // The circuit being simulated
+    private final long[] high;          // HIGH lanes of each wire
+    private final long[] low;           // LOW lanes of each wire
+
+    private double current_time;        // The current simulation time in ns
+    private double stop_time;           // The upper bound on simulation time
+    private boolean is_bounded;         // Is there a bound on sim time?
+    private long n_executed = 0;        // Number of events executed
+
+    private final VectorEventHeap events = new VectorEventHeap(); // Pending events
+
+    // Stuck lanes, for fault simulation (null until a lane is stuck)
+    private long[] stuck = null;        // Lanes of each wire that are stuck
+    private long[] stuck_high = null;   // The stuck lanes that are stuck HIGH
+
+    // Result of the last gate evaluation
+    private long out_high;
+    private long out_low;
+
+    // Scratch space for a time step
+    private final byte[] wire_mark;     // Marks wires already in changed
+    private final byte[] gate_mark;     // Marks gates already in due
+    private int[] changed = new int[64];
+    private long[] old_high = new long[64];
+    private long[] old_low = new long[64];
+    private int[] due = new int[64];
+
+    // Creation
+    /**
+     * Constructor. Every lane of every wire starts with the level the wire
+     * had when the netlist was compiled.
+     * @param net the netlist to simulate
+     */
+    public VectorNetlistSimulator(Netlist net) {
+        this.net = net;
+        high = new long[net.wireCount()];
+        low = new long[net.wireCount()];
+        for (int w = 0; w < high.length; w++) {
+            Signal level = Netlist.decode(net.initialSignal(w)).logicLevel();
+            high[w] = (level == Signal.HIGH) ? ALL_LANES : 0L;
+            low[w] = (level == Signal.LOW) ? ALL_LANES : 0L;
+        }
+        wire_mark = new byte[net.wireCount()];
+        gate_mark = new byte[net.gateCount()];
+        current_time = Scheduler.START_TIME;
+        stop_time = Scheduler.NO_BOUND;
+        is_bounded = false;
+    }
+
+    // Queries
+    /** @return the netlist being simulated */
+    public Netlist netlist() { return net; }
+
+    /** @return the current simulation time in nanoseconds */
+    public double time() { return current_time; }
+
+    /** @return the total number of (64-lane) events executed so far */
+    public long eventCount() { return n_executed; }
+
+    /**
+     * Queries the signal level currently on one lane of a wire.
+     * @param w a wire that is part of the netlist
+     * @param lane a lane number, from 0 to LANES-1
+     * @return the current signal level in that lane
+     */
+    public Signal getSignal(Wire w, int lane) {
+        int id = net.wireId(w);
+        return decode(high[id], low[id], lane);
+    }
+
+    /**
+     * Queries the signal levels currently on every lane of a wire.
+     * @param w a wire that is part of the netlist
+     * @return an array of LANES signal levels, indexed by lane
+     */
+    public Signal[] getSignals(Wire w) {
+        int id = net.wireId(w);
+        Signal[] levels = new Signal[LANES];
+        for (int lane = 0; lane < LANES; lane++) {
+            levels[lane] = decode(high[id], low[id], lane);
+        }
+        return levels;
+    }
+
+    /**
+     * Queries the lanes that are currently HIGH on a wire.
+     * @param w a wire that is part of the netlist
+     * @return a word with a bit set for each HIGH lane
+     */
+    public long getHigh(Wire w) { return high[net.wireId(w)]; }
+
+    /**
+     * Queries the lanes that are currently LOW on a wire.
+     * @param w a wire that is part of the netlist
+     * @return a word with a bit set for each LOW lane
+     */
+    public long getLow(Wire w) { return low[net.wireId(w)]; }
+
+    /**
+     * Finds the lanes in which two wires currently carry different levels.
+     * @param a a wire that is part of the netlist
+     * @param b a wire that is part of the netlist
+     * @return a word with a bit set for each lane that differs
+     */
+    public long differingLanes(Wire a, Wire b) {
+        int i = net.wireId(a);
+        int j = net.wireId(b);
+        return (high[i] ^ high[j]) | (low[i] ^ low[j]);
+    }
+
+    /** @return the HIGH lanes of a wire, given its id */
+    long high(int w) { return high[w]; }
+
+    /** @return the LOW lanes of a wire, given its id */
+    long low(int w) { return low[w]; }
+
+    // Commands
+    /**
+     * Sets the signal level on one lane of a wire at the current time.
+     * @param w a wire that is part of the netlist
+     * @param lane a lane number, from 0 to LANES-1
+     * @param level the new signal level
+     */
+    public void setSignal(Wire w, int lane, Signal level) {
+        int id = net.wireId(w);
+        long bit = 1L << lane;
+        long h = high[id] & ~bit;
+        long l = low[id] & ~bit;
+        level = level.logicLevel();
+        if (level == Signal.HIGH) {
+            h |= bit;
+        } else if (level == Signal.LOW) {
+            l |= bit;
+        }
+        setSignals(id, h, l);
+    }
+
+    /**
+     * Sets the same signal level on every lane of a wire at the current time.
+     * @param w a wire that is part of the netlist
+     * @param level the new signal level
+     */
+    public void setSignal(Wire w, Signal level) {
+        level = level.logicLevel();
+        setSignals(net.wireId(w),
+                   (level == Signal.HIGH) ? ALL_LANES : 0L,
+                   (level == Signal.LOW) ? ALL_LANES : 0L);
+    }
+
+    /**
+     * Sets the signal levels on all lanes of a wire at the current time.
+     * A lane whose bit is set in neither word is set to X.
+     * @param w a wire that is part of the netlist
+     * @param high_lanes the lanes that are HIGH
+     * @param low_lanes the lanes that are LOW
+     * @throws IllegalArgumentException if a lane is both HIGH and LOW
+     */
+    public void setSignals(Wire w, long high_lanes, long low_lanes) {
+        if ((high_lanes & low_lanes) != 0) {
+            throw new IllegalArgumentException("A lane can't be both HIGH and LOW.");
+        }
+        setSignals(net.wireId(w), high_lanes, low_lanes);
+    }
+
+    /**
+     * Execute a simulation. Execution proceeds until there are no
+     * future events scheduled, or until an optional upper bound on the
+     * simulation time is reached.
+     */
+    public void run() {
+        while (!events.isEmpty() && (!is_bounded || events.peekTime() < stop_time)) {
+            step(events.peekTime());
+        }
+    }
+
+    /**
+     * Sets the upper bound on simulation time, in nanoseconds
+     * @param time the maximum simulation time (must be > 0)
+     */
+    public void setStopTime(double time) {
+        assert (time >= Scheduler.START_TIME);
+        stop_time = time;
+        is_bounded = true;
+    }
+
+    /**
+     * Removes any upper bound on simulation time.
+     */
+    public void clearStopTime() {
+        is_bounded = false;
+        stop_time = Scheduler.NO_BOUND;
+    }
+
+    /**
+     * Removes any remaining events, and resets the simulation time back to
+     * the starting time. Wire levels are not changed.
+     */
+    public void reset() {
+        current_time = Scheduler.START_TIME;
+        events.clear();
+        clearStopTime();
+    }
+
+    /**
+     * Makes some lanes of a wire stuck at a fixed level, as if the wire
+     * were shorted to ground or to the supply in those lanes. Whatever
+     * drives the wire, the stuck lanes stay at that level from now on. The
+     * level is applied at once, at the current time.
+     * @param w a wire id
+     * @param lanes the lanes to make stuck
+     * @param level the level they are stuck at (HIGH or LOW)
+     */
+    void stick(int w, long lanes, Signal level) {
+        if (stuck == null) {
+            stuck = new long[high.length];
+            stuck_high = new long[high.length];
+        }
+        stuck[w] |= lanes;
+        if (level == Signal.HIGH) {
+            stuck_high[w] |= lanes;
+        } else {
+            stuck_high[w] &= ~lanes;
+        }
+        setSignals(w, high[w], low[w]);
+    }
+
+    /**
+     * Moves the simulation time forward, without executing any events, so
+     * that levels set afterwards are set at the new time.
+     * @param t the new time, which must be no later than any pending event
+     */
+    void advanceTo(double t) {
+        assert (t >= current_time && (events.isEmpty() || events.peekTime() >= t));
+        current_time = t;
+    }
+
+    // Helpers
+    /**
+     * Sets the levels on a wire, apart from any stuck lanes, and evaluates
+     * the gates it drives if any lane has changed.
+     */
+    void setSignals(int w, long h, long l) {
+        if (stuck != null) {
+            h = (h & ~stuck[w]) | stuck_high[w];
+            l = (l & ~stuck[w]) | (stuck[w] & ~stuck_high[w]);
+        }
+        if (high[w] != h || low[w] != l) {
+            high[w] = h;
+            low[w] = l;
+            evaluateDue(markFanout(w, 0));
+        }
+    }
+
+    /**
+     * Executes all events at a given time, then evaluates each of the
+     * affected gates once.
+     * @param t the time of the step
+     */
+    private void step(double t) {
+        current_time = t;
+        int n_changed = 0;
+        while (!events.isEmpty() && events.peekTime() == t) {
+            int w = events.peekWire();
+            long h = events.peekHigh();
+            long l = events.peekLow();
+            events.removeFirst();
+            n_executed++;
+            if (high[w] != h || low[w] != l) {
+                if (wire_mark[w] == 0) {
+                    wire_mark[w] = 1;
+                    if (n_changed == changed.length) {
+                        changed = Arrays.copyOf(changed, 2 * n_changed);
+                        old_high = Arrays.copyOf(old_high, 2 * n_changed);
+                        old_low = Arrays.copyOf(old_low, 2 * n_changed);
+                    }
+                    changed[n_changed] = w;
+                    old_high[n_changed] = high[w];
+                    old_low[n_changed] = low[w];
+                    n_changed++;
+                }
+                high[w] = h;
+                low[w] = l;
+            }
+        }
+
+        int n_due = 0;
+        for (int k = 0; k < n_changed; k++) {
+            int w = changed[k];
+            wire_mark[w] = 0;
+            if (high[w] != old_high[k] || low[w] != old_low[k]) {
+                n_due = markFanout(w, n_due);
+            }
+        }
+        evaluateDue(n_due);
+    }
+
+    /**
+     * Adds the gates driven by a wire to the list of gates to evaluate.
+     * @param w a wire id
+     * @param n_due the number of gates already in the list
+     * @return the new number of gates in the list
+     */
+    private int markFanout(int w, int n_due) {
+        for (int i = net.fanoutStart[w], end = net.fanoutStart[w + 1]; i < end; i++) {
+            int g = net.fanout[i];
+            if (gate_mark[g] == 0 && net.output[g] >= 0) {
+                gate_mark[g] = 1;
+                if (n_due == due.length) {
+                    due = Arrays.copyOf(due, 2 * n_due);
+                }
+                due[n_due++] = g;
+            }
+        }
+        return n_due;
+    }
+
+    /**
+     * Evaluates the gates in the list of gates to evaluate, and schedules
+     * their outputs.
+     * @param n_due the number of gates in the list
+     */
+    private void evaluateDue(int n_due) {
+        for (int k = 0; k < n_due; k++) {
+            int g = due[k];
+            gate_mark[g] = 0;
+            evaluate(g);
+            int w = net.output[g];
+            if (stuck != null) {
+                out_high = (out_high & ~stuck[w]) | stuck_high[w];
+                out_low = (out_low & ~stuck[w]) | (stuck[w] & ~stuck_high[w]);
+            }
+            events.add(current_time + net.delay[g], w, out_high, out_low);
+        }
+    }
+
+    /**
+     * Evaluates a gate for every lane, leaving the result in out_high
+     * and out_low.
+     * @param g a gate id
+     */
+    private void evaluate(int g) {
+        int i = net.faninStart[g];
+        int end = net.faninStart[g + 1];
+        long h = high[net.fanin[i]];
+        long l = low[net.fanin[i]];
+        long valid = h | l;
+        switch (net.opcode[g]) {
+            case Netlist.OP_AND:
+            case Netlist.OP_NAND:
+                while (++i < end) {
+                    long bh = high[net.fanin[i]];
+                    long bl = low[net.fanin[i]];
+                    h &= bh;
+                    l |= bl;
+                    valid &= bh | bl;
+                }
+                h &= valid;
+                l &= valid;
+                break;
+            case Netlist.OP_OR:
+            case Netlist.OP_NOR:
+                while (++i < end) {
+                    long bh = high[net.fanin[i]];
+                    long bl = low[net.fanin[i]];
+                    h |= bh;
+                    l &= bl;
+                    valid &= bh | bl;
+                }
+                h &= valid;
+                l &= valid;
+                break;
+            case Netlist.OP_XOR:
+            case Netlist.OP_XNOR:
+                while (++i < end) {
+                    long bh = high[net.fanin[i]];
+                    h ^= bh;
+                    valid &= bh | low[net.fanin[i]];
+                }
+                h &= valid;
+                l = ~h & valid;
+                break;
+            case Netlist.OP_NOT:
+                out_high = l;
+                out_low = h;
+                return;
+            default:
+                out_high = h;
+                out_low = l;
+                return;
+        }
+        byte op = net.opcode[g];
+        if (op == Netlist.OP_NAND || op == Netlist.OP_NOR || op == Netlist.OP_XNOR) {
+            out_high = l;
+            out_low = h;
+        } else {
+            out_high = h;
+            out_low = l;
+        }
+    }
+
+    /**
+     * Extracts the level of one lane.
+     */
+    private static Signal decode(long h, long l, int lane) {
+        if (((h >>> lane) & 1L) != 0) {
+            return Signal.HIGH;
+        }
+        if (((l >>> lane) & 1L) != 0) {
+            return Signal.LOW;
+        }
+        return Signal.X;
+    }
+}
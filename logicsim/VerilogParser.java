@@ -0,0 +1,940 @@
+package logicsim;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Parses a module of a structural (gate-level) Verilog netlist. The subset
+ * of Verilog understood is the one written by synthesis tools:
+ * <ul>
+ * <li>module headers, with either a list of port names or ANSI-style port
+ *     declarations</li>
+ * <li>input, output, inout, wire, tri and supply0/supply1 declarations,
+ *     with optional [msb:lsb] ranges</li>
+ * <li>the and, or, nand, nor, xor, xnor, not and buf gate primitives (any
+ *     delay given is ignored)</li>
+ * <li>instances of other modules, with connections by name or by position</li>
+ * <li>continuous assignments of a net, an inverted net, or a constant</li>
+ * <li>bit-selects, part-selects, concatenations, and sized or unsized
+ *     constants in connections</li>
+ * </ul>
+ * Each bit of a bus is a separate net, named like "data[3]". Comments and
+ * compiler directives are skipped. Anything behavioural, such as an always
+ * block, is rejected.
+ *
+ * @author Allan McInnes
+ */
+final class VerilogParser extends NetlistParser {
+    // Keywords
+    private static final int K_MODULE = 0;
+    private static final int K_ENDMODULE = 1;
+    private static final int K_INPUT = 2;
+    private static final int K_OUTPUT = 3;
+    private static final int K_INOUT = 4;
+    private static final int K_WIRE = 5;
+    private static final int K_SUPPLY0 = 6;
+    private static final int K_SUPPLY1 = 7;
+    private static final int K_ASSIGN = 8;
+    private static final int K_PRIMITIVE = 9;   // A gate primitive
+    private static final int K_UNSUPPORTED = 10;
+
+    private static final NameTable KEYWORDS = new NameTable();
+    private static final byte[] PRIMITIVE_OPS = {
+        Netlist.OP_AND, Netlist.OP_OR, Netlist.OP_NAND, Netlist.OP_NOR,
+        Netlist.OP_XOR, Netlist.OP_XNOR, Netlist.OP_NOT, ModuleDefinition.OP_BUF
+    };
+    private static final int NOT_PRIMITIVE = 6;  // Position of "not" among the primitives
+
+    static {
+        String[] words = { "module", "endmodule", "input", "output", "inout", "wire",
+                           "supply0", "supply1", "assign" };
+        for (int k = 0; k < words.length; k++) {
+            KEYWORDS.add(words[k], k);
+        }
+        KEYWORDS.add("macromodule", K_MODULE);
+        KEYWORDS.add("tri", K_WIRE);
+        KEYWORDS.add("reg", K_WIRE);
+        String[] primitives = { "and", "or", "nand", "nor", "xor", "xnor", "not", "buf" };
+        for (int p = 0; p < primitives.length; p++) {
+            KEYWORDS.add(primitives[p], K_PRIMITIVE + (p << 4));
+        }
+        for (String w : new String[] { "always", "initial", "parameter", "localparam",
+                                       "defparam", "function", "task", "generate",
+                                       "specify", "integer", "real", "genvar" }) {
+            KEYWORDS.add(w, K_UNSUPPORTED);
+        }
+    }
+
+    private ModuleDefinition def;
+    private final NameTable nets = new NameTable();     // Net numbers, or -2 - bus number
+    private final NameTable strings = new NameTable();  // Module and port names
+    private int[][] buses = new int[8][];               // Nets of each bus
+    private int n_buses = 0;
+    private final int[] const_nets = { -1, -1, -1 };    // Constant nets, by encoded level
+
+    private int[] list = new int[16];   // Nets of the latest expression
+    private int n_list = 0;
+
+    // Creation
+    /**
+     * Constructor.
+     * @param source the module text
+     */
+    VerilogParser(Source source) throws IOException {
+        super(source);
+    }
+
+    /**
+     * Creates a splitter that cuts a Verilog file into modules.
+     * @param file the name of the file, for error messages
+     * @param permits limits the number of segments in flight
+     * @param sink receives the source of each module
+     * @return the splitter
+     */
+    static Splitter splitter(String file, Semaphore permits, Consumer<Source> sink) {
+        return new ModuleSplitter(file, permits, sink);
+    }
+
+    // Parsing
+    /**
+     * Parses the module.
+     * @return the module definition
+     * @throws IOException if the text can't be read or isn't valid
+     */
+    @Override
+    ModuleDefinition parse() throws IOException {
+        skip();
+        readName();
+        if (keyword() != K_MODULE) {
+            throw error("Expected a module.");
+        }
+        int start = line;
+        skip();
+        readName();
+        def = new ModuleDefinition(wordString(), file(), start);
+        skip();
+        if (c == '#') {
+            throw error("Module parameters are not supported.");
+        }
+        if (c == '(') {
+            advance();
+            portList();
+        }
+        expect(';');
+
+        for (;;) {
+            skip();
+            if (c < 0) {
+                throw error("Missing endmodule.");
+            }
+            readName();
+            int k = keyword();
+            switch (k & 0xF) {
+                case K_ENDMODULE:
+                    for (ModuleDefinition.Port p : def.ports) {
+                        if (p.nets == null) {
+                            p.nets = declare(p.name, null);
+                        }
+                    }
+                    def.finish();
+                    return def;
+                case K_INPUT:
+                case K_OUTPUT:
+                case K_INOUT:
+                    declarations(direction(k));
+                    break;
+                case K_WIRE:
+                    declarations(-1);
+                    break;
+                case K_SUPPLY0:
+                case K_SUPPLY1:
+                    supplies((k == K_SUPPLY1) ? Signal.HIGH : Signal.LOW);
+                    break;
+                case K_ASSIGN:
+                    assignments();
+                    break;
+                case K_PRIMITIVE:
+                    gates(k >> 4);
+                    break;
+                case K_MODULE:
+                case K_UNSUPPORTED:
+                    throw error("'" + wordString() + "' is not supported in a structural netlist.");
+                default:
+                    instances();
+            }
+        }
+    }
+
+    /**
+     * Parses the port list of a module header, up to the closing bracket.
+     */
+    private void portList() throws IOException {
+        skip();
+        if (c == ')') {
+            advance();
+            return;
+        }
+        int direction = -1;
+        int[] range = null;
+        for (;;) {
+            skip();
+            readName();
+            int k = keyword();
+            if (k == K_INPUT || k == K_OUTPUT || k == K_INOUT) {
+                // An ANSI-style declaration, which applies to the ports
+                // that follow until the next one
+                direction = direction(k);
+                range = null;
+                skip();
+                if (c != '[') {
+                    readName();
+                    if (keyword() == K_WIRE) {
+                        skip();
+                        if (c != '[') {
+                            readName();
+                        }
+                    }
+                }
+                if (c == '[') {
+                    range = range();
+                    skip();
+                    readName();
+                }
+            }
+            String name = wordString();
+            ModuleDefinition.Port p = def.addPort(name);
+            if (p == null) {
+                throw error("Port " + name + " is listed more than once.");
+            }
+            if (direction >= 0) {
+                p.direction = (byte) direction;
+                p.nets = declare(name, range);
+            }
+            skip();
+            if (c == ')') {
+                advance();
+                return;
+            }
+            expect(',');
+        }
+    }
+
+    /**
+     * Parses the rest of a port or net declaration.
+     * @param direction the port direction, or -1 for a plain net
+     */
+    private void declarations(int direction) throws IOException {
+        skip();
+        if (c != '[') {
+            readName();
+            if (keyword() == K_WIRE) {
+                skip();
+                if (c != '[') {
+                    readName();
+                }
+            }
+        }
+        int[] range = null;
+        if (c == '[') {
+            range = range();
+            skip();
+            readName();
+        }
+        for (;;) {
+            String name = wordString();
+            int[] declared = declare(name, range);
+            if (direction >= 0) {
+                ModuleDefinition.Port p = def.port(name);
+                if (p == null) {
+                    throw error(name + " is not in the port list.");
+                }
+                p.direction = (byte) direction;
+                p.nets = declared;
+            }
+            skip();
+            if (c == ';') {
+                advance();
+                return;
+            }
+            if (c == '=') {
+                throw error("Net declaration assignments are not supported.");
+            }
+            expect(',');
+            skip();
+            readName();
+        }
+    }
+
+    /**
+     * Parses the rest of a supply0 or supply1 declaration.
+     */
+    private void supplies(Signal level) throws IOException {
+        skip();
+        if (c == '[') {
+            throw error("Supply buses are not supported.");
+        }
+        for (;;) {
+            readName();
+            def.addConstant(declare(wordString(), null)[0], level);
+            skip();
+            if (c == ';') {
+                advance();
+                return;
+            }
+            expect(',');
+            skip();
+        }
+    }
+
+    /**
+     * Parses the rest of a continuous assignment. Each bit becomes a buffer
+     * or inverter, or a constant.
+     */
+    private void assignments() throws IOException {
+        for (;;) {
+            skip();
+            n_list = 0;
+            expression();
+            int[] lhs = Arrays.copyOf(list, n_list);
+            skip();
+            expect('=');
+            skip();
+            boolean is_inverted = (c == '~');
+            if (is_inverted) {
+                advance();
+                skip();
+            }
+            n_list = 0;
+            expression();
+            if (n_list != lhs.length) {
+                throw error("Both sides of an assignment must be the same width.");
+            }
+            for (int i = 0; i < lhs.length; i++) {
+                int level = constantLevel(list[i]);
+                if (level >= 0) {
+                    Signal s = Netlist.decode((byte) level);
+                    def.addConstant(lhs[i], is_inverted ? Signal.not(s) : s);
+                } else {
+                    def.addGate(is_inverted ? Netlist.OP_NOT : ModuleDefinition.OP_BUF, lhs[i], list[i]);
+                }
+            }
+            skip();
+            if (c == ';') {
+                advance();
+                return;
+            }
+            expect(',');
+        }
+    }
+
+    /**
+     * Parses the rest of a gate primitive statement, which may define
+     * several gates.
+     * @param p the position of the primitive in PRIMITIVE_OPS
+     */
+    private void gates(int p) throws IOException {
+        byte op = PRIMITIVE_OPS[p];
+        skip();
+        if (c == '#') {
+            skipDelay();
+        }
+        for (;;) {
+            skip();
+            if (c != '(') {
+                readName();     // The instance name, which isn't kept
+                skip();
+                if (c == '[') {
+                    throw error("Arrays of instances are not supported.");
+                }
+            }
+            expect('(');
+            n_list = 0;
+            for (;;) {
+                skip();
+                int n = n_list;
+                expression();
+                if (n_list != n + 1) {
+                    throw error("Gate terminals must be single nets.");
+                }
+                skip();
+                if (c == ')') {
+                    advance();
+                    break;
+                }
+                expect(',');
+            }
+            if (n_list < 2) {
+                throw error("A gate needs an output and at least one input.");
+            }
+            if (op == Netlist.OP_NOT || p > NOT_PRIMITIVE) {
+                // not and buf have one input, which comes last, and any
+                // number of outputs
+                for (int i = 0; i < n_list - 1; i++) {
+                    def.addGate(op, list[i], list[n_list - 1]);
+                }
+            } else {
+                def.addGate(op, list, n_list);
+            }
+            skip();
+            if (c == ';') {
+                advance();
+                return;
+            }
+            expect(',');
+        }
+    }
+
+    /**
+     * Parses the rest of a module instance statement, which may define
+     * several instances.
+     */
+    private void instances() throws IOException {
+        String module = intern(strings);
+        skip();
+        if (c == '#') {
+            throw error("Module parameters are not supported.");
+        }
+        for (;;) {
+            skip();
+            readName();         // The instance name, which isn't kept
+            def.addInstance(module, line);
+            skip();
+            if (c == '[') {
+                throw error("Arrays of instances are not supported.");
+            }
+            expect('(');
+            skip();
+            if (c == '.') {
+                for (;;) {
+                    expect('.');
+                    skip();
+                    readName();
+                    String port = intern(strings);
+                    skip();
+                    expect('(');
+                    skip();
+                    n_list = 0;
+                    if (c != ')') {
+                        expression();
+                        skip();
+                    }
+                    expect(')');
+                    def.addConnection(port, list, n_list);
+                    skip();
+                    if (c != ',') {
+                        break;
+                    }
+                    advance();
+                    skip();
+                }
+            } else if (c != ')') {
+                for (;;) {
+                    skip();
+                    n_list = 0;
+                    if (c != ',' && c != ')') {
+                        expression();
+                        skip();
+                    }
+                    def.addConnection(null, list, n_list);
+                    if (c != ',') {
+                        break;
+                    }
+                    advance();
+                }
+            }
+            expect(')');
+            skip();
+            if (c == ';') {
+                advance();
+                return;
+            }
+            expect(',');
+        }
+    }
+
+    /**
+     * Parses an expression made of nets, bit-selects, part-selects,
+     * constants and concatenations, adding its nets to the list, most
+     * significant first.
+     */
+    private void expression() throws IOException {
+        if (c == '{') {
+            advance();
+            for (;;) {
+                skip();
+                expression();
+                skip();
+                if (c == '}') {
+                    advance();
+                    return;
+                }
+                expect(',');
+            }
+        }
+        if ((c >= '0' && c <= '9') || c == '\'') {
+            constant();
+            return;
+        }
+        readName();
+        skip();
+        if (c == '[') {
+            int[] range = range();
+            int base = word_len;
+            int step = (range[0] >= range[1]) ? -1 : 1;
+            for (int i = range[0]; ; i += step) {
+                word_len = base;
+                append('[');
+                append(i);
+                append(']');
+                add(net());
+                if (i == range[1]) {
+                    break;
+                }
+            }
+            return;
+        }
+        int e = nets.find(word, word_len);
+        if (e >= 0 && nets.value(e) < 0) {
+            for (int n : buses[-2 - nets.value(e)]) {
+                add(n);
+            }
+        } else {
+            add(net());
+        }
+    }
+
+    /**
+     * Parses a constant, adding a constant net for each of its bits.
+     */
+    private void constant() throws IOException {
+        int size = -1;
+        if (c != '\'') {
+            size = number();
+            skip();
+            if (c != '\'') {
+                // A plain decimal number
+                if (size > 1) {
+                    throw error("Unsized constants other than 0 and 1 are not supported.");
+                }
+                add(constantNet(size == 1 ? Signal.HIGH : Signal.LOW));
+                return;
+            }
+        }
+        advance();
+        if (c == 's' || c == 'S') {
+            advance();
+        }
+        int bits_per_digit;
+        switch (Character.toLowerCase((char) c)) {
+            case 'b': bits_per_digit = 1; break;
+            case 'o': bits_per_digit = 3; break;
+            case 'h': bits_per_digit = 4; break;
+            case 'd': bits_per_digit = 0; break;
+            default: throw error("Unknown number base " + current() + ".");
+        }
+        advance();
+        skip();
+
+        // Collect the bits, least significant first
+        Signal[] bits = new Signal[64];
+        int n_bits = 0;
+        word_len = 0;
+        while (Character.isLetterOrDigit(c) || c == '_' || c == '?') {
+            if (c != '_') {
+                append((char) c);
+            }
+            advance();
+        }
+        if (bits_per_digit == 0) {
+            long value;
+            try {
+                value = Long.parseLong(wordString());
+            } catch (NumberFormatException e) {
+                throw error("Invalid decimal constant " + wordString() + ".");
+            }
+            for (int i = 0; i < 64; i++) {
+                bits[n_bits++] = (((value >>> i) & 1) != 0) ? Signal.HIGH : Signal.LOW;
+            }
+        } else {
+            for (int d = word_len - 1; d >= 0; d--) {
+                char ch = Character.toLowerCase(word[d]);
+                int v = Character.digit(ch, 1 << bits_per_digit);
+                for (int i = 0; i < bits_per_digit; i++) {
+                    if (n_bits == bits.length) {
+                        bits = Arrays.copyOf(bits, 2 * n_bits);
+                    }
+                    if (v >= 0) {
+                        bits[n_bits++] = (((v >>> i) & 1) != 0) ? Signal.HIGH : Signal.LOW;
+                    } else if (ch == 'x') {
+                        bits[n_bits++] = Signal.X;
+                    } else if (ch == 'z' || ch == '?') {
+                        bits[n_bits++] = Signal.Z;
+                    } else {
+                        throw error("Invalid digit '" + word[d] + "' in constant.");
+                    }
+                }
+            }
+        }
+        if (size < 0) {
+            size = Math.max(1, Math.min(n_bits, 32));
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            // Missing high bits are zero, or X if the top digit is X
+            Signal s = (i < n_bits) ? bits[i]
+                     : (n_bits > 0 && bits[n_bits - 1] == Signal.X) ? Signal.X : Signal.LOW;
+            add(constantNet(s));
+        }
+    }
+
+    // Lexical helpers
+    /**
+     * Skips white space, comments and compiler directives.
+     */
+    private void skip() throws IOException {
+        for (;;) {
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+                advance();
+            } else if (c == '/') {
+                advance();
+                if (c == '/') {
+                    while (c >= 0 && c != '\n') {
+                        advance();
+                    }
+                } else if (c == '*') {
+                    advance();
+                    int prev = 0;
+                    while (c >= 0 && !(prev == '*' && c == '/')) {
+                        prev = c;
+                        advance();
+                    }
+                    if (c < 0) {
+                        throw error("Unterminated comment.");
+                    }
+                    advance();
+                } else {
+                    throw error("Unexpected '/'.");
+                }
+            } else if (c == '`') {
+                while (c >= 0 && c != '\n') {
+                    advance();
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Skips a delay, which is a number or a bracketed list.
+     */
+    private void skipDelay() throws IOException {
+        advance();
+        skip();
+        if (c == '(') {
+            int depth = 0;
+            do {
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                } else if (c < 0) {
+                    throw error("Unterminated delay.");
+                }
+                advance();
+            } while (depth > 0);
+        } else {
+            while (Character.isLetterOrDigit(c) || c == '.' || c == '_') {
+                advance();
+            }
+        }
+    }
+
+    /**
+     * Reads a simple or escaped identifier into the current word.
+     */
+    private void readName() throws IOException {
+        word_len = 0;
+        if (c == '\\') {
+            advance();
+            while (c > ' ') {
+                append((char) c);
+                advance();
+            }
+        } else if (Character.isLetter(c) || c == '_') {
+            do {
+                append((char) c);
+                advance();
+            } while (Character.isLetterOrDigit(c) || c == '_' || c == '$');
+        }
+        if (word_len == 0) {
+            throw error("Expected a name but found " + current() + ".");
+        }
+    }
+
+    /**
+     * Reads a range, "[msb:lsb]", or a single index, "[i]".
+     * @return the msb and lsb of the range
+     */
+    private int[] range() throws IOException {
+        expect('[');
+        skip();
+        int msb = number();
+        int lsb = msb;
+        skip();
+        if (c == ':') {
+            advance();
+            skip();
+            lsb = number();
+            skip();
+        }
+        expect(']');
+        return new int[] { msb, lsb };
+    }
+
+    /**
+     * Reads a decimal number.
+     */
+    private int number() throws IOException {
+        if (c < '0' || c > '9') {
+            throw error("Expected a number but found " + current() + ".");
+        }
+        long n = 0;
+        while ((c >= '0' && c <= '9') || c == '_') {
+            if (c != '_') {
+                n = 10 * n + (c - '0');
+                if (n > Integer.MAX_VALUE) {
+                    throw error("Number too large.");
+                }
+            }
+            advance();
+        }
+        return (int) n;
+    }
+
+    private void expect(char ch) throws IOException {
+        if (c != ch) {
+            throw error("Expected '" + ch + "' but found " + current() + ".");
+        }
+        advance();
+    }
+
+    /**
+     * @return the keyword code of the current word, or -1 if it isn't a keyword
+     */
+    private int keyword() {
+        int e = KEYWORDS.find(word, word_len);
+        return (e >= 0) ? KEYWORDS.value(e) : -1;
+    }
+
+    private static int direction(int k) {
+        return (k == K_INPUT) ? ModuleDefinition.INPUT
+             : (k == K_OUTPUT) ? ModuleDefinition.OUTPUT
+             : ModuleDefinition.INOUT;
+    }
+
+    // Net helpers
+    /**
+     * Finds or adds the net named by the current word.
+     * @throws IOException if the name is a bus
+     */
+    private int net() throws IOException {
+        int e = nets.find(word, word_len);
+        if (e < 0) {
+            int n = def.addNet(null);
+            e = nets.add(word, word_len, n);
+            def.net_names[n] = nets.name(e);
+            return n;
+        }
+        int n = nets.value(e);
+        if (n < 0) {
+            throw error(wordString() + " is a bus.");
+        }
+        return n;
+    }
+
+    /**
+     * Declares a net or bus (or finds it, if it has already been declared).
+     * @param name the name
+     * @param range the msb and lsb of a bus, or null for a single net
+     * @return the nets, most significant first
+     */
+    private int[] declare(String name, int[] range) throws IOException {
+        word_len = 0;
+        for (int i = 0; i < name.length(); i++) {
+            append(name.charAt(i));
+        }
+        int e = nets.find(word, word_len);
+        if (e >= 0 && nets.value(e) < 0) {
+            return buses[-2 - nets.value(e)];
+        }
+        if (range == null) {
+            return new int[] { net() };
+        }
+        int[] bus = new int[Math.abs(range[0] - range[1]) + 1];
+        int step = (range[0] >= range[1]) ? -1 : 1;
+        int base = word_len;
+        for (int i = 0; i < bus.length; i++) {
+            word_len = base;
+            append('[');
+            append(range[0] + i * step);
+            append(']');
+            bus[i] = net();
+        }
+        if (n_buses == buses.length) {
+            buses = Arrays.copyOf(buses, 2 * n_buses);
+        }
+        buses[n_buses] = bus;
+        if (e >= 0) {
+            nets.setValue(e, -2 - n_buses);
+        } else {
+            nets.add(name, -2 - n_buses);
+        }
+        n_buses++;
+        return bus;
+    }
+
+    /**
+     * @return the net tied to a constant level, adding it if necessary
+     */
+    private int constantNet(Signal level) {
+        int l = Netlist.encode(level);
+        if (const_nets[l] < 0) {
+            const_nets[l] = def.addNet(null);
+            def.addConstant(const_nets[l], level);
+        }
+        return const_nets[l];
+    }
+
+    /**
+     * @return the encoded level of a constant net, or -1 for other nets
+     */
+    private int constantLevel(int net) {
+        for (int l = 0; l < const_nets.length; l++) {
+            if (const_nets[l] == net) {
+                return l;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the interned String for the current word
+     */
+    private String intern(NameTable table) {
+        int e = table.find(word, word_len);
+        if (e < 0) {
+            e = table.add(word, word_len, 0);
+        }
+        return table.name(e);
+    }
+
+    private void add(int net) {
+        if (n_list == list.length) {
+            list = Arrays.copyOf(list, 2 * n_list);
+        }
+        list[n_list++] = net;
+    }
+
+    /**
+     * Cuts a Verilog file into modules, each starting with the module
+     * keyword and ending with endmodule. Comments, strings and escaped
+     * identifiers are tracked, so that keywords inside them are ignored.
+     */
+    private static final class ModuleSplitter extends Splitter {
+        private static final int CODE = 0;
+        private static final int SLASH = 1;         // After a '/'
+        private static final int LINE_COMMENT = 2;
+        private static final int BLOCK_COMMENT = 3;
+        private static final int STAR = 4;          // After a '*' in a block comment
+        private static final int ESCAPED = 5;       // In an escaped identifier
+        private static final int STRING = 6;
+
+        private int state = CODE;
+        private final char[] keyword = new char[12];   // Start of the current word
+        private int n_word = 0;                         // Length of the current word
+
+        ModuleSplitter(String file, Semaphore permits, Consumer<Source> sink) {
+            super(file, permits, sink);
+        }
+
+        @Override
+        protected void scan(char c) throws IOException {
+            switch (state) {
+                case CODE:
+                    if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+                        if (n_word < keyword.length) {
+                            keyword[n_word] = c;
+                        }
+                        n_word++;
+                        emit(c);
+                        return;
+                    }
+                    if (n_word > 0) {
+                        endWord();
+                    }
+                    if (c == '/') {
+                        state = SLASH;
+                    } else if (c == '\\') {
+                        state = ESCAPED;
+                    } else if (c == '"') {
+                        state = STRING;
+                    }
+                    break;
+                case SLASH:
+                    state = (c == '/') ? LINE_COMMENT : (c == '*') ? BLOCK_COMMENT : CODE;
+                    if (state == CODE) {
+                        scan(c);
+                        return;
+                    }
+                    break;
+                case LINE_COMMENT:
+                    if (c == '\n') {
+                        state = CODE;
+                    }
+                    break;
+                case BLOCK_COMMENT:
+                case STAR:
+                    state = (c == '/' && state == STAR) ? CODE : (c == '*') ? STAR : BLOCK_COMMENT;
+                    break;
+                case ESCAPED:
+                    if (c <= ' ') {
+                        state = CODE;
+                    }
+                    break;
+                case STRING:
+                    if (c == '"' || c == '\n') {
+                        state = CODE;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            emit(c);
+        }
+
+        /**
+         * Checks whether a word that has just ended starts or ends a module.
+         */
+        private void endWord() throws IOException {
+            if (n_word == 6 && !isOpen() && matches("module")) {
+                open("module");
+            } else if (n_word == 11 && !isOpen() && matches("macromodule")) {
+                open("macromodule");
+            } else if (n_word == 9 && isOpen() && matches("endmodule")) {
+                close();
+            }
+            n_word = 0;
+        }
+
+        private boolean matches(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                if (keyword[i] != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,53 +1,150 @@
 package logicsim;
 
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Set;
 
 /**
  * Wire is connector between components.
- * A wire may have one driving component, which sets the signal carried by
- * the wire, and one or more driven components, which take the signal level
- * on the wire as an input.
+ * A wire usually has one driving component, which sets the signal carried
+ * by the wire, and one or more driven components, which take the signal
+ * level on the wire as an input.
+ *
+ * A wire with more than one driving component, such as a bus driven by
+ * tri-state buffers, carries the resolution of the levels they drive (see
+ * Signal.resolve()). Each driver then drives a wire of its own, which
+ * holds its contribution, and the resolved level is recomputed whenever a
+ * contribution changes.
  *
  * The Wire acts as the Subject in the Observer pattern, with Components
  * as Observers.
  *
+ * Changes in the signal level on a wire can also be reported to any number
+ * of WireMonitors, which observe the wire without being part of the
+ * simulated circuit.
+ *
+ * Every wire belongs to a SimulationContext, which also provides the
+ * numbering used to name wires that aren't given an explicit name. The
+ * name of such a wire is only built when it is asked for.
+ *
+ * Driven components are kept in an array, in the order they were attached,
+ * and are notified of changes in that order, so the order in which
+ * simultaneous events are scheduled is the same from one run to the next.
+ * A component attached more than once is only notified once. Wires with a
+ * large fanout also keep a set of their driven components, so that finding
+ * a component doesn't take a linear search.
+ *
  * @author Allan McInnes
  */
 public class Wire {
-    private String label;             // The name of the wire
-    private Component driver = null;  // Driving component
-    private Set<Component> driven = new HashSet<Component>(); // Connected non-driving components
+    private final SimulationContext context; // The simulation the wire is part of
+    private final int id;             // Number of the wire within its context
+    private String label;             // The name of the wire (null until generated)
+    private final boolean is_named;   // Was the wire given a name?
+    private Component driver = null;  // Driving component (a Resolver, if several)
+    private Component[] driven = NO_COMPONENTS; // Connected non-driving components
+    private int n_driven = 0;         // Number of driven components
+    private Set<Component> driven_set = null; // Index of driven components, on large fanouts
     private Signal state = Signal.X;  // Current wire signal level
+    private WireMonitor[] monitors = NO_MONITORS; // Observers of signal changes
+    Event pending = null;             // Latest scheduled transition, if any
+    boolean is_changed = false;       // Changed in the current delta cycle?
 
-    // Number of wires that have been created. Used to generate labels.
-    private static int n_wires = 0;
+    private static final WireMonitor[] NO_MONITORS = new WireMonitor[0];
+    private static final Component[] NO_COMPONENTS = new Component[0];
+    private static final int MAX_SEARCH = 8; // Largest fanout searched linearly
 
-    /** Default constructor. */
-    public Wire() {
-        label = String.format("Wire%d", n_wires++);
+    /**
+     * Construct a wire with a generated name.
+     * @param context the simulation the wire is part of
+     * @throws IllegalArgumentException if context is null
+     */
+    public Wire(SimulationContext context) {
+        this(context, null);
     }
 
     /**
      * Construct a wire with a specified name.
+     * @param context the simulation the wire is part of
      * @param label the name of the wire.
+     * @throws IllegalArgumentException if context is null
      */
-    public Wire(String label) {
+    public Wire(SimulationContext context, String label) {
+        if (context == null) {
+            throw new IllegalArgumentException("A wire must belong to a simulation context.");
+        }
+        this.context = context;
+        this.id = context.addWire(this);
         this.label = label;
+        this.is_named = (label != null);
     }
 
 
     // Queries
+    /**
+     * Queries the simulation the wire is part of.
+     * @return the wire's simulation context
+     */
+    public SimulationContext context() { return context; }
+
+    /**
+     * Queries the number of the wire within its simulation context.
+     * @return the wire number
+     */
+    public int id() { return id; }
+
     /**
      * Queries the name associated with the wire.
      * @return a string containing the name of the wire. */
-    public String name() { return label; }
+    public String name() {
+        if (label == null) {
+            label = "Wire" + id; // Generated on first use, then kept
+        }
+        return label;
+    }
 
     /**
      * Queries the signal value currently on the wire.
      * @return the current signal level being driven on the wire. */
     public Signal getSignal() { return state; }
 
+    /**
+     * Queries the signal value the wire will carry once all of the
+     * transitions currently scheduled for it have taken place.
+     * @return the projected signal level on the wire */
+    public Signal projectedSignal() {
+        return (pending != null) ? pending.level() : state;
+    }
+
+    /**
+     * Queries the component that drives the wire.
+     * @return the driving component, or null if there isn't one
+     */
+    public Component drivingComponent() {
+        return isResolved() ? ((Resolver) driver).drivers().get(0) : driver;
+    }
+
+    /**
+     * Queries all of the components that drive the wire.
+     * @return the driving components, in the order they were added
+     */
+    public List<Component> drivingComponents() {
+        if (isResolved()) {
+            return ((Resolver) driver).drivers();
+        }
+        return (driver != null) ? Collections.singletonList(driver)
+                                : Collections.<Component>emptyList();
+    }
+
+    /**
+     * Checks whether the wire has more than one driving component, so
+     * that its level is resolved from theirs.
+     * @return true if the wire has several drivers
+     */
+    public boolean isResolved() { return driver instanceof Resolver; }
+
     /**
      * Checks whether a given component is connected to the wire as
      * a driven component (i.e. one that uses the wires as a source of input).
@@ -55,9 +152,15 @@ public class Wire {
      * @return true if comp is connected to the wire as a driven component.
      */
     public boolean isDrivenComponent(Component comp) {
-        return driven.contains(comp);
+        return (driven_set != null) ? driven_set.contains(comp) : indexOf(comp) >= 0;
     }
 
+    /**
+     * Queries the number of driven components connected to the wire.
+     * @return the fanout of the wire
+     */
+    public int fanout() { return n_driven; }
+
     /**
      * Checks whether a given component is the driving component of
      * the wire.
@@ -65,6 +168,9 @@ public class Wire {
      * @return true if comp is connected to the wire as the driver.
      */
     public boolean isDrivingComponent(Component comp) {
+        if (isResolved()) {
+            return ((Resolver) driver).contribution(comp) != null;
+        }
         return (comp != null && comp == driver);
     }
 
@@ -78,6 +184,30 @@ public class Wire {
         return (isDrivenComponent(comp) || isDrivingComponent(comp));
     }
 
+    /**
+     * Checks whether a monitor is observing the wire.
+     * @param monitor a wire monitor
+     * @return true if monitor has been added to the wire
+     */
+    public boolean isMonitoredBy(WireMonitor monitor) {
+        for (WireMonitor m : monitors) {
+            if (m == monitor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the wire was given a name, rather than generating one
+     */
+    boolean isNamed() { return is_named; }
+
+    /**
+     * @return true if any monitor is observing the wire
+     */
+    boolean isMonitored() { return monitors.length != 0; }
+
      /**
       * Checks whether a driving component has been defined for the wire.
       * @return true if the wire has been connected to a driving component
@@ -90,34 +220,124 @@ public class Wire {
     /**
      * Defines a component as the driving component of the wire (the
      * component responsible for setting the signal level on the wire).
-     * In this simple model, a wire can only have one driving component.
-     * A more complex model would allow multiple drivers, but would then
-     * require a way of resolving the signal level when different components
-     * drive different levels on to the wire.
+     * If the wire already has a different driver, the component becomes an
+     * additional driver, and from then on the wire carries the resolution
+     * of the levels its drivers drive. Each new driver starts out driving
+     * X. Drivers should be added before simulation starts, since a
+     * transition already scheduled on the wire isn't resolved.
      *
      * @param comp the component to use as the driver
      */
     public void setDrivingComponent(Component comp) {
-        driver = comp;
+        if (!isResolved() && (driver == null || driver == comp || comp == null)) {
+            driver = comp;
+        } else if (!isDrivingComponent(comp)) {
+            if (!isResolved()) {
+                driver = new Resolver(this, driver);
+            }
+            ((Resolver) driver).addDriver(comp);
+        }
+    }
+
+    /**
+     * Disconnects a driving component from the wire. Any transitions the
+     * component has scheduled on the wire are cancelled. On a wire with
+     * several drivers, the level is resolved again from the drivers that
+     * remain; otherwise the wire keeps its level until something drives it
+     * again. Removing a component that isn't a driver has no effect.
+     *
+     * @param comp the component to remove
+     */
+    public void removeDrivingComponent(Component comp) {
+        if (isResolved()) {
+            if (((Resolver) driver).removeDriver(comp) == 0) {
+                driver = null;
+            }
+        } else if (comp != null && comp == driver) {
+            context.scheduler().cancelEvents(this);
+            driver = null;
+        }
     }
 
     /**
      * Connects a driven component to the wire. A driven component
-     * treats the signal on the wire as an input.
+     * treats the signal on the wire as an input. Attaching a component
+     * that is already attached has no effect.
      *
      * @param comp the component to add
      */
     public void attachDrivenComponent(Component comp) {
-        driven.add(comp);
+        if (isDrivenComponent(comp)) {
+            return;
+        }
+        if (n_driven == driven.length) {
+            driven = Arrays.copyOf(driven, Math.max(2, 2 * n_driven));
+        }
+        driven[n_driven++] = comp;
+        if (driven_set != null) {
+            driven_set.add(comp);
+        } else if (n_driven > MAX_SEARCH) {
+            driven_set = Collections.newSetFromMap(new IdentityHashMap<Component, Boolean>());
+            for (int i = 0; i < n_driven; i++) {
+                driven_set.add(driven[i]);
+            }
+        }
     }
 
     /**
-     * Removes a driven component from the wire.
+     * Removes a driven component from the wire. The remaining components
+     * keep their order.
      *
      * @param comp the component to remove
      */
     public void detachDrivenComponent(Component comp) {
-        driven.remove(comp);
+        if (!isDrivenComponent(comp)) {
+            return;
+        }
+        int i = indexOf(comp);
+        // Copy rather than shift in place, so that a notification in
+        // progress isn't disturbed
+        Component[] remaining = new Component[driven.length];
+        System.arraycopy(driven, 0, remaining, 0, i);
+        System.arraycopy(driven, i + 1, remaining, i, n_driven - i - 1);
+        driven = remaining;
+        n_driven--;
+        if (driven_set != null) {
+            driven_set.remove(comp);
+            if (n_driven <= MAX_SEARCH) {
+                driven_set = null;
+            }
+        }
+    }
+
+    /**
+     * Adds a monitor that is told about every change in the signal level
+     * on the wire. Adding the same monitor twice has no effect.
+     *
+     * @param monitor the monitor to add
+     */
+    public void addMonitor(WireMonitor monitor) {
+        if (monitor != null && !isMonitoredBy(monitor)) {
+            monitors = Arrays.copyOf(monitors, monitors.length + 1);
+            monitors[monitors.length - 1] = monitor;
+        }
+    }
+
+    /**
+     * Removes a monitor from the wire.
+     *
+     * @param monitor the monitor to remove
+     */
+    public void removeMonitor(WireMonitor monitor) {
+        for (int i = 0; i < monitors.length; i++) {
+            if (monitors[i] == monitor) {
+                WireMonitor[] remaining = new WireMonitor[monitors.length - 1];
+                System.arraycopy(monitors, 0, remaining, 0, i);
+                System.arraycopy(monitors, i + 1, remaining, i, remaining.length - i);
+                monitors = (remaining.length == 0) ? NO_MONITORS : remaining;
+                return;
+            }
+        }
     }
 
     /**
@@ -126,8 +346,71 @@ public class Wire {
      */
     public void setSignal(Signal new_state) {
         if (state != new_state) {
+            Signal old_state = state;
             state = new_state;
-            notifyDrivenComponents();
+            if (monitors.length != 0) {
+                notifyMonitors();
+            }
+            if (!context.scheduler().deferChange(this, old_state)) {
+                notifyDrivenComponents();
+            }
+        }
+    }
+
+    /**
+     * Finds the wire that a driving component should schedule its output
+     * transitions on: the wire itself, or the wire holding the component's
+     * contribution if the wire has several drivers.
+     * @param comp a driving component
+     * @return the wire to drive
+     */
+    Wire driveTarget(Component comp) {
+        if (driver == comp || !isResolved()) {
+            return this;
+        }
+        Wire contribution = ((Resolver) driver).contribution(comp);
+        return (contribution != null) ? contribution : this;
+    }
+
+    /**
+     * Sets the signal level on the wire without notifying anything, and
+     * forgets any pending transition. Used when restoring a Checkpoint,
+     * after which the driven components are told to resynchronize.
+     * @param new_state the new signal level
+     */
+    void restoreSignal(Signal new_state) {
+        state = new_state;
+        pending = null;
+    }
+
+    /**
+     * Tells every driven component that the signal may have changed without
+     * it being notified.
+     */
+    void resyncDrivenComponents() {
+        for (int i = 0; i < n_driven; i++) {
+            driven[i].resync();
+        }
+    }
+
+    /**
+     * Adds the driven components to those to be updated at the end of a
+     * delta cycle in which the signal changed.
+     * @param scheduler the scheduler running the delta cycle
+     */
+    void triggerDrivenComponents(Scheduler scheduler) {
+        for (int i = 0; i < n_driven; i++) {
+            scheduler.trigger(driven[i], this);
+        }
+    }
+
+    /**
+     * Reports a change in the signal to all monitors
+     */
+    private void notifyMonitors() {
+        double time = context.time();
+        for (WireMonitor m : monitors) {
+            m.signalChanged(this, state, time);
         }
     }
 
@@ -135,9 +418,25 @@ public class Wire {
      * Notifies all observers of a change in the signal
      */
     private void notifyDrivenComponents() {
-        for (Component c : driven) {
-            c.update();
+        // Components attached during the notification are left out
+        Component[] components = driven;
+        int n = n_driven;
+        for (int i = 0; i < n; i++) {
+            components[i].update(this);
+        }
+    }
+
+    /**
+     * @return the position of a component among the driven components,
+     * or -1 if it isn't one of them
+     */
+    private int indexOf(Component comp) {
+        for (int i = 0; i < n_driven; i++) {
+            if (driven[i] == comp) {
+                return i;
+            }
         }
+        return -1;
     }
 
 }
@@ -0,0 +1,21 @@
+package logicsim;
+
+/**
+ * A WireMonitor is told about every change in the signal level on the wires
+ * it has been added to. Unlike a Component connected to a wire, a monitor
+ * takes no part in the simulation: it can't schedule events, and it doesn't
+ * have to belong to a Block. This makes it a cheap way to record what a
+ * simulation is doing.
+ *
+ * @author Allan McInnes
+ */
+public interface WireMonitor {
+
+    /**
+     * Called after the signal level on a monitored wire has changed.
+     * @param wire the wire that changed
+     * @param level the new signal level on the wire
+     * @param time the simulation time of the change, in nanoseconds
+     */
+    void signalChanged(Wire wire, Signal level, double time);
+}